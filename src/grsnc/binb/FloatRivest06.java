@@ -0,0 +1,306 @@
+package grsnc.binb;
+
+import lnsc.*;
+import lnsc.page.*;
+
+/**
+ * <p> Single precision version of {@link Rivest06}. </p>
+ *
+ * <P> The critic and actor weights are stored as <code>float</code> only and
+ * the predictions, the dopamine signal, the eligibility traces and the weights
+ * updates are computed in <code>float</code>, through the hooks of
+ * {@link Rivest06#processContext} (the sparse inputs and evaluation modes
+ * thus apply as in double precision). Double precision weights matrices are
+ * only mirrored on demand, by {@link #toDataSet}, {@link #toString} and copies
+ * (the mirror is allocated once and refreshed by each call). Per step vectors are kept as double
+ * arrays holding single precision values. </P>
+ *
+ * <P> It is built from an existing agent whose weights are rounded, so that a
+ * single precision run can be compared to the double precision one. </P>
+ *
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+public class FloatRivest06 extends Rivest06 {
+
+    /*********************************************************************/
+    //Serial Version UID
+
+    /** Serial version UID. */
+    static final long serialVersionUID = -2650173338516479320L;
+
+    /**********************************************************************/
+    //Private fields
+
+    /** Single precision actor weights (the weights, m_Wa is only a mirror). */
+    protected float[][] m_FWa;
+
+    /** Single precision critic weights (the weights, m_Wc is only a mirror). */
+    protected float[][] m_FWc;
+
+    /**********************************************************************/
+    //Constructors
+
+    /** Construct a single precision copy of an agent (see
+     * {@link Rivest06#Rivest06(Rivest06)}). The weights are rounded.
+     * @param    source    Agent to copy.
+     */
+    public FloatRivest06(Rivest06 source)
+    {
+        this(source, source.m_StateRep.isStateless() ?
+                     source.m_StateRep :
+                     (StateRepresentation) Tools.copyObject(source.m_StateRep));
+    }
+
+    /** Construct a single precision copy of an agent using a given state
+     * representation (of the same output count). The weights are rounded.
+     * @param    source         Agent to copy.
+     * @param    newStateRep    State representation of the copy.
+     */
+    public FloatRivest06(Rivest06 source, StateRepresentation newStateRep)
+    {
+        super(source, newStateRep);
+        m_FWa = round(m_Wa);
+        m_FWc = round(m_Wc);
+        m_Wa = null;
+        m_Wc = null;
+    }
+
+    /**********************************************************************/
+    //Helper function
+
+    /** Rounds weights to single precision. */
+    protected static float[][] round(double[][] w)
+    {
+        float[][] fw = new float[w.length][];
+        for (int i=0; i<w.length; i++)
+        {
+            fw[i] = new float[w[i].length];
+            for (int j=0; j<w[i].length; j++)
+            {
+                fw[i][j] = (float) w[i][j];
+            }
+        }
+        return fw;
+    }
+
+    /** Copies single precision weights into a double precision mirror
+     * (allocated if null) and returns the mirror. */
+    protected static double[][] mirror(float[][] fw, double[][] w)
+    {
+        if (w == null) {
+            w = new double[fw.length][];
+            for (int i=0; i<fw.length; i++)
+            {
+                w[i] = new double[fw[i].length];
+            }
+        }
+        for (int i=0; i<fw.length; i++)
+        {
+            for (int j=0; j<fw[i].length; j++)
+            {
+                w[i][j] = fw[i][j];
+            }
+        }
+        return w;
+    }
+
+    /** Refreshes and returns the critic weights mirror. */
+    protected double[][] getCriticWeights()
+    {
+        m_Wc = mirror(m_FWc, m_Wc);
+        return m_Wc;
+    }
+
+    /** Refreshes and returns the actor weights mirror. */
+    protected double[][] getActorWeights()
+    {
+        m_Wa = mirror(m_FWa, m_Wa);
+        return m_Wa;
+    }
+
+    /**********************************************************************/
+    //Model simulation
+
+    /** Same as {@link Rivest06#computeCritics} in single precision. */
+    protected double[] computeCritics(double[] stimuli, int[] active, int activeCount)
+    {
+        return project(m_FWc, stimuli, active, activeCount);
+    }
+
+    /** Same as {@link Rivest06#computePrediction} in single precision. */
+    protected double computePrediction(double[] critic)
+    {
+        float prediction = 0f;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            prediction += (float) critic[k];
+        }
+        return prediction;
+    }
+
+    /** Same as {@link Rivest06#computeActors} in single precision. */
+    protected double[] computeActors(double[] stimuli, int[] active, int activeCount)
+    {
+        return project(m_FWa, stimuli, active, activeCount);
+    }
+
+    /** Same as {@link Rivest06#computeDopamine} in single precision. */
+    protected double computeDopamine(double r, double prediction)
+    {
+        return (float) r + (float) m_Gamma * (float) prediction - (float) m_PrevPrediction;
+    }
+
+    /** Same as {@link Rivest06#computeETraces} in single precision. */
+    protected double[] computeETraces()
+    {
+        float lambda = (float) m_Lambda;
+        double[] eTraces = new double[m_PrevETraces.length];
+        for (int i=0; i<eTraces.length; i++)
+        {
+            float et = lambda * (float) m_PrevETraces[i] + (float) m_PrevStimuli[i];
+            eTraces[i] = Math.min(Math.max(et,-1f),1f);
+        }
+        return eTraces;
+    }
+
+    /** Same as {@link Rivest06#updateCritics} in single precision. */
+    protected void updateCritics(double e, double[] eTraces, int[] traced, int tracedCount)
+    {
+        float ce = (float) m_Etac * (float) e;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            adde(m_FWc[k], ce, eTraces, traced, tracedCount);
+        }
+    }
+
+    /** Same as {@link Rivest06#updateActors} in single precision. */
+    protected void updateActors(double e, int[] prevActive, int prevActiveCount)
+    {
+        float ae = (float) m_Etaa * (float) e;
+        for (int j=0; j<m_ActorCount; j++)
+        {
+            adde(m_FWa[j], ae * (float) m_PrevAction[j], m_PrevStimuli, prevActive, prevActiveCount);
+        }
+    }
+
+    /** Single precision product of weights and stimuli (all stimuli if
+     * active is null, the active ones otherwise). */
+    protected static double[] project(float[][] fw, double[] stimuli, int[] active, int activeCount)
+    {
+        double[] ret = new double[fw.length];
+        for (int k=0; k<fw.length; k++)
+        {
+            float[] w = fw[k];
+            float sum = 0f;
+            if (active == null) {
+                for (int i=0; i<stimuli.length; i++)
+                {
+                    sum += w[i] * (float) stimuli[i];
+                }
+            } else {
+                for (int n=0; n<activeCount; n++)
+                {
+                    int i = active[n];
+                    sum += w[i] * (float) stimuli[i];
+                }
+            }
+            ret[k] = sum;
+        }
+        return ret;
+    }
+
+    /** Single precision w += s*v (all elements if indexes is null, the
+     * indexed ones otherwise). */
+    protected static void adde(float[] w, float s, double[] v, int[] indexes, int count)
+    {
+        if (indexes == null) {
+            for (int i=0; i<w.length; i++)
+            {
+                w[i] += s * (float) v[i];
+            }
+        } else {
+            for (int n=0; n<count; n++)
+            {
+                int i = indexes[n];
+                w[i] += s * (float) v[i];
+            }
+        }
+    }
+
+    /*********************************************************************/
+    //State snapshot
+
+    /** Copies the weights (see {@link Rivest06#saveWeights}). */
+    public void saveWeights(double[] buffer)
+    {
+        if (buffer.length != getWeightCount()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        int index = 0;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            index = copy(m_FWc[k], buffer, index);
+        }
+        for (int j=0; j<m_ActorCount; j++)
+        {
+            index = copy(m_FWa[j], buffer, index);
+        }
+    }
+
+    /** Restores the weights (rounded to single precision). */
+    public void restoreWeights(double[] buffer)
+    {
+        if (buffer.length != getWeightCount()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        int index = 0;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            index = restore(buffer, index, m_FWc[k]);
+        }
+        for (int j=0; j<m_ActorCount; j++)
+        {
+            index = restore(buffer, index, m_FWa[j]);
+        }
+    }
+
+    /** Copies a single precision vector into a buffer and returns the next index. */
+    protected static int copy(float[] v, double[] buffer, int start)
+    {
+        for (int i=0; i<v.length; i++)
+        {
+            buffer[start+i] = v[i];
+        }
+        return start + v.length;
+    }
+
+    /** Rounds a buffer into a single precision vector and returns the next index. */
+    protected static int restore(double[] buffer, int start, float[] v)
+    {
+        for (int i=0; i<v.length; i++)
+        {
+            v[i] = (float) buffer[start+i];
+        }
+        return start + v.length;
+    }
+
+    /*********************************************************************/
+    //Cloneable interface implementation
+
+    /** Same as {@link #FloatRivest06(Rivest06)}. */
+    public Object clone()
+    {
+        return new FloatRivest06(this);
+    }
+
+    /*********************************************************************/
+    //toString method
+
+    public String toString()
+    {
+        return super.toString() + "\nClass: FloatRivest06";
+    }
+
+}
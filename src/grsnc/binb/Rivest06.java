@@ -52,6 +52,9 @@ import java.util.Random;
  *     <li>initialisation:
  *         Wij(t=0) > 0
  * </ul>
+ * <li>In evaluation mode (see setEvalMode), weights and eligibility traces
+ * are frozen, e(t) is still computed.
+ * </ul>
  * </P>
  *
  * <P>
@@ -62,7 +65,7 @@ import java.util.Random;
  * <li>last returnReward and endEpisode have the same state
  * </lu>
  *
- * @author Franois Rivest
+ * @author François Rivest
  * @version 1.1
  */
 
@@ -137,6 +140,13 @@ public class Rivest06 extends AbstractObservableAgent {
     /** Description DataSet for toDataSet (updated at the end of processContext). */
     protected transient DataSet m_Description;
 
+    /** Processes only the non-zero stimuli (see setSparseInputs). */
+    protected boolean m_SparseInputs = LinearAlgebra.getDefaultSparseInputs();
+
+    /** Indexes of the non-zero stimuli, previous stimuli and eligibility
+     * traces (workspaces of processContext in sparse inputs mode). */
+    protected transient int[][] m_ActiveIndexes;
+
     /**********************************************************************/
     //Constructors
 
@@ -168,6 +178,49 @@ public class Rivest06 extends AbstractObservableAgent {
         initWeights(m_Wc);
     }
 
+    /** Copy constructor. Weights and parameters are copied, the state
+     * representation is shared if stateless and deep copied otherwise. As
+     * through serialization, the copy has no observers and its transient
+     * state is that of a new agent (see {@link #saveState} to transfer it).
+     * @param    source    Agent to copy.
+     */
+    public Rivest06(Rivest06 source)
+    {
+        this(source, source.m_StateRep.isStateless() ?
+                     source.m_StateRep :
+                     (StateRepresentation) Tools.copyObject(source.m_StateRep));
+    }
+
+    /** Copy constructor using a given state representation (of the same
+     * output count) in place of the source one.
+     * @param    source         Agent to copy.
+     * @param    newStateRep    State representation of the copy.
+     */
+    public Rivest06(Rivest06 source, StateRepresentation newStateRep)
+    {
+        if (newStateRep.getOutputCount() != source.m_StateRep.getOutputCount()) {
+            throw new IllegalArgumentException("newStateRep is of the wrong size!");
+        }
+
+        m_EvalMode = source.m_EvalMode;
+        m_IsEvaluable = source.m_IsEvaluable;
+        m_IsAdaptive = source.m_IsAdaptive;
+
+        m_ActorCount = source.m_ActorCount;
+        m_CriticCount = source.m_CriticCount;
+        m_StateRep = newStateRep;
+
+        m_Gamma = source.m_Gamma;
+        m_Lambda = source.m_Lambda;
+        m_Etaa = source.m_Etaa;
+        m_Etac = source.m_Etac;
+        m_InitWeightFactor = source.m_InitWeightFactor;
+        m_SparseInputs = source.m_SparseInputs;
+
+        m_Wa = LinearAlgebra.copyMatrix(source.getActorWeights());
+        m_Wc = LinearAlgebra.copyMatrix(source.getCriticWeights());
+    }
+
     /**********************************************************************/
     //Agent interface implementation
 
@@ -207,6 +260,34 @@ public class Rivest06 extends AbstractObservableAgent {
         processContext(finalState, m_Reward);
     }
 
+    /**********************************************************************/
+    //Properties
+
+    /** Sets whether only the non-zero stimuli are processed (sparse inputs
+     * mode) or all of them (default, the reference). In sparse inputs mode,
+     * only the active stimuli (see SparseStateRepresentation) are projected
+     * onto the critic and the actor, and only the weights of the non-zero
+     * eligibility traces and previous stimuli are updated. The skipped terms
+     * are exact zeros, so results are the same when LinearAlgebra is in
+     * scalar kernels mode (up to the sign of zero results); in lanes kernels
+     * mode the projections differ by rounding. Defaults to
+     * LinearAlgebra.getDefaultSparseInputs.
+     * @param    newSparseInputs    true to skip the zero stimuli.
+     */
+    public void setSparseInputs(boolean newSparseInputs)
+    {
+        m_SparseInputs = newSparseInputs;
+    }
+
+    /** Indicates whether only the non-zero stimuli are processed (see
+     * {@link #setSparseInputs}).
+     * @return   true in sparse inputs mode.
+     */
+    public boolean getSparseInputs()
+    {
+        return m_SparseInputs;
+    }
+
     //public boolean getEvalMode() {return m_EvalMode;}
 
     //public void setEvalMode(boolean newEvalMode) {
@@ -282,7 +363,9 @@ public class Rivest06 extends AbstractObservableAgent {
         }
     }
 
-    /** One time-step processing in the basal ganglia.
+    /** One time-step processing in the basal ganglia. The arithmetic of each
+     * step (projections, dopamine, traces, updates) is done by the hooks below,
+     * so that subclasses (see FloatRivest06) share this control flow.
      * @param    s    Current state to process.
      * @param    r    Reward from previous action.
      * @return   Index of winning action node (-1 no action). */
@@ -291,16 +374,27 @@ public class Rivest06 extends AbstractObservableAgent {
         //Process stimuli (brain activity)
         double[] stimuli = m_StateRep.getRepresentation(s);
 
-        //Process critic stimuli
-        double[] critic = LinearAlgebra.multMatrixVector(m_Wc, stimuli);
-        double prediction = 0.0;
-        for (int k=0; k<m_CriticCount; k++)
-        {
-            prediction += critic[k];
+        //Non-zero stimuli, only these are processed in sparse inputs mode
+        //(see setSparseInputs)
+        boolean sparse = m_SparseInputs;
+        int[] active = null;
+        int activeCount = 0;
+        if (sparse) {
+            if ((m_ActiveIndexes == null) || (m_ActiveIndexes[0].length != stimuli.length)) {
+                m_ActiveIndexes = new int[3][stimuli.length];
+            }
+            active = m_ActiveIndexes[0];
+            activeCount = (m_StateRep instanceof SparseStateRepresentation) ?
+                ((SparseStateRepresentation) m_StateRep).getActiveIndexes(s, active) :
+                LinearAlgebra.findNonZeros(stimuli, active);
         }
 
+        //Process critic stimuli
+        double[] critic = computeCritics(stimuli, active, activeCount);
+        double prediction = computePrediction(critic);
+
         //Process actor stimuli
-        double[] actor = LinearAlgebra.multMatrixVector(m_Wa, stimuli);
+        double[] actor = computeActors(stimuli, active, activeCount);
         int maxIndex = findRandomMax(actor);
 //		if (actor[maxIndex] != 0) {
             for (int j=0; j<m_ActorCount; j++)
@@ -316,31 +410,33 @@ public class Rivest06 extends AbstractObservableAgent {
 //		}
 
         //Process effective reinforcement signal (dopamine)
-        double e = r + m_Gamma * prediction - m_PrevPrediction;
+        double e = computeDopamine(r, prediction);
         if (m_Reset) {
             e = 0; //no update
             m_Reset = false;
         }
 
-        //Process eligibility traces for critic
-        double eTraces[] = LinearAlgebra.addVectors(LinearAlgebra.multScalarVector(m_Lambda, m_PrevETraces), m_PrevStimuli);
-        bound(eTraces); //*** Rivest06
-
-        //Update critic weights using TD rule
-        for (int i=0; i<stimuli.length; i++)
-        {
-            for (int k=0; k<m_CriticCount; k++)
-            {
-                m_Wc[k][i] += m_Etac * e * eTraces[i];  //*** Pan05
+        //Weights and eligibility traces are frozen in evaluation mode
+        double[] eTraces = m_PrevETraces;
+        if (!m_EvalMode) {
+
+            //Process eligibility traces for critic
+            eTraces = computeETraces();
+
+            //Update weights on the non-zero traces and previous stimuli only
+            int[] traced = null;
+            int tracedCount = 0;
+            int[] prevActive = null;
+            int prevActiveCount = 0;
+            if (sparse) {
+                traced = m_ActiveIndexes[1];
+                tracedCount = LinearAlgebra.findNonZeros(eTraces, traced);
+                prevActive = m_ActiveIndexes[2];
+                prevActiveCount = LinearAlgebra.findNonZeros(m_PrevStimuli, prevActive);
             }
-        }
+            updateCritics(e, eTraces, traced, tracedCount);
+            updateActors(e, prevActive, prevActiveCount);
 
-        //Update actor weights using 3-synaptic hebb rule
-        for (int i=0; i<stimuli.length; i++)
-        {
-            for (int j = 0; j < m_ActorCount; j++) {
-                m_Wa[j][i] += m_Etaa * e * m_PrevAction[j] * m_PrevStimuli[i];
-            }
         }
 
         //If it comes from ExtendedStateRepresentation_May11,
@@ -366,6 +462,272 @@ public class Rivest06 extends AbstractObservableAgent {
         return maxIndex;
     }
 
+    /** Computes the critics activities.
+     * @param    stimuli        Current stimuli.
+     * @param    active         Indexes of the non-zero stimuli (null for all).
+     * @param    activeCount    Number of non-zero stimuli.
+     * @return   The critics activities [CriticCount].
+     */
+    protected double[] computeCritics(double[] stimuli, int[] active, int activeCount)
+    {
+        return (active != null) ?
+            LinearAlgebra.multMatrixVector(m_Wc, stimuli, active, activeCount, new double[m_CriticCount], 0) :
+            LinearAlgebra.multMatrixVector(m_Wc, stimuli);
+    }
+
+    /** Computes the reward prediction (sum of the critics activities).
+     * @param    critic    Critics activities.
+     * @return   The prediction.
+     */
+    protected double computePrediction(double[] critic)
+    {
+        double prediction = 0.0;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            prediction += critic[k];
+        }
+        return prediction;
+    }
+
+    /** Computes the actors activities (see {@link #computeCritics}).
+     * @return   The actors activities [ActorCount].
+     */
+    protected double[] computeActors(double[] stimuli, int[] active, int activeCount)
+    {
+        return (active != null) ?
+            LinearAlgebra.multMatrixVector(m_Wa, stimuli, active, activeCount, new double[m_ActorCount], 0) :
+            LinearAlgebra.multMatrixVector(m_Wa, stimuli);
+    }
+
+    /** Computes the effective reinforcement signal (dopamine).
+     * @param    r             Reward.
+     * @param    prediction    Current prediction.
+     * @return   The dopamine signal.
+     */
+    protected double computeDopamine(double r, double prediction)
+    {
+        return r + m_Gamma * prediction - m_PrevPrediction;
+    }
+
+    /** Computes the new (bounded) eligibility traces from the previous
+     * traces and stimuli.
+     * @return   The new traces (a new array).
+     */
+    protected double[] computeETraces()
+    {
+        double[] eTraces = LinearAlgebra.addeVectors(LinearAlgebra.multScalarVector(m_Lambda, m_PrevETraces), m_PrevStimuli);
+        bound(eTraces); //*** Rivest06
+        return eTraces;
+    }
+
+    /** Updates the critic weights using TD rule.
+     * @param    e              Dopamine signal.
+     * @param    eTraces        Eligibility traces.
+     * @param    traced         Indexes of the non-zero traces (null for all).
+     * @param    tracedCount    Number of non-zero traces.
+     */
+    protected void updateCritics(double e, double[] eTraces, int[] traced, int tracedCount)
+    {
+        if (traced != null) {
+            for (int k=0; k<m_CriticCount; k++)
+            {
+                LinearAlgebra.addeScaledVector(m_Wc[k], m_Etac * e, eTraces, traced, tracedCount);
+            }
+            return;
+        }
+        for (int i=0; i<eTraces.length; i++)
+        {
+            for (int k=0; k<m_CriticCount; k++)
+            {
+                m_Wc[k][i] += m_Etac * e * eTraces[i];  //*** Pan05
+            }
+        }
+    }
+
+    /** Updates the actor weights using 3-synaptic hebb rule on the previous
+     * stimuli and action.
+     * @param    e                  Dopamine signal.
+     * @param    prevActive         Indexes of the non-zero previous stimuli (null for all).
+     * @param    prevActiveCount    Number of non-zero previous stimuli.
+     */
+    protected void updateActors(double e, int[] prevActive, int prevActiveCount)
+    {
+        if (prevActive != null) {
+            for (int j=0; j<m_ActorCount; j++)
+            {
+                LinearAlgebra.addeScaledVector(m_Wa[j], m_Etaa * e * m_PrevAction[j], m_PrevStimuli, prevActive, prevActiveCount);
+            }
+            return;
+        }
+        for (int i=0; i<m_PrevStimuli.length; i++)
+        {
+            for (int j = 0; j < m_ActorCount; j++) {
+                m_Wa[j][i] += m_Etaa * e * m_PrevAction[j] * m_PrevStimuli[i];
+            }
+        }
+    }
+
+    /*********************************************************************/
+    //State snapshot
+
+    /** Number of values in the transient state (see {@link #saveState}).
+     * @return   The state size.
+     */
+    public int getStateSize()
+    {
+        int S = m_StateRep.getOutputCount();
+        return 4 + 2*S + m_CriticCount + m_ActorCount;
+    }
+
+    /** Creates a buffer for {@link #saveState}.
+     * @return   A buffer of the state size.
+     */
+    public double[] createStateBuffer()
+    {
+        return new double[getStateSize()];
+    }
+
+    /** Copies the transient state of the agent (previous stimuli, critics,
+     * prediction, action, eligibility traces, and reward) into a buffer.
+     * The weights (see {@link #saveWeights}), the state representation and
+     * the random generator are not part of it.
+     * @param    buffer    Buffer receiving the state (see {@link #createStateBuffer}).
+     */
+    public void saveState(double[] buffer)
+    {
+        if (buffer.length != getStateSize()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        //No episode yet
+        if (m_PrevStimuli == null) {
+            buffer[0] = 0.0;
+            return;
+        }
+        buffer[0] = 1.0;
+        buffer[1] = m_PrevPrediction;
+        buffer[2] = m_Reward;
+        buffer[3] = m_Reset ? 1.0 : 0.0;
+        int index = 4;
+        index = copy(m_PrevStimuli, buffer, index);
+        index = copy(m_PrevCritics, buffer, index);
+        index = copy(m_PrevAction, buffer, index);
+        index = copy(m_PrevETraces, buffer, index);
+    }
+
+    /** Restores a transient state saved by {@link #saveState}. Previous
+     * activities are restored in new arrays, since those of the agent are
+     * referenced by the description of past steps (see {@link #toDataSet}).
+     * @param    buffer    Buffer holding the state.
+     */
+    public void restoreState(double[] buffer)
+    {
+        if (buffer.length != getStateSize()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        //No episode yet
+        if (buffer[0] == 0.0) {
+            m_PrevStimuli = null;
+            m_PrevCritics = null;
+            m_PrevAction = null;
+            m_PrevETraces = null;
+            m_PrevPrediction = 0.0;
+            m_Reward = 0.0;
+            m_Reset = false;
+            return;
+        }
+        int S = m_StateRep.getOutputCount();
+        m_PrevPrediction = buffer[1];
+        m_Reward = buffer[2];
+        m_Reset = (buffer[3] != 0.0);
+        int index = 4;
+        m_PrevStimuli = new double[S];
+        m_PrevCritics = new double[m_CriticCount];
+        m_PrevAction = new double[m_ActorCount];
+        m_PrevETraces = new double[S];
+        index = restore(buffer, index, m_PrevStimuli);
+        index = restore(buffer, index, m_PrevCritics);
+        index = restore(buffer, index, m_PrevAction);
+        index = restore(buffer, index, m_PrevETraces);
+    }
+
+    /** Number of weights (critic weights followed by actor weights).
+     * @return   The number of weights.
+     */
+    public int getWeightCount()
+    {
+        return (m_CriticCount + m_ActorCount) * m_StateRep.getOutputCount();
+    }
+
+    /** Copies the weights (critic weights followed by actor weights, row by
+     * row) into a buffer.
+     * @param    buffer    Buffer receiving the weights [WeightCount].
+     */
+    public void saveWeights(double[] buffer)
+    {
+        if (buffer.length != getWeightCount()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        int index = 0;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            index = copy(m_Wc[k], buffer, index);
+        }
+        for (int j=0; j<m_ActorCount; j++)
+        {
+            index = copy(m_Wa[j], buffer, index);
+        }
+    }
+
+    /** Restores the weights saved by {@link #saveWeights} (in place).
+     * @param    buffer    Buffer holding the weights.
+     */
+    public void restoreWeights(double[] buffer)
+    {
+        if (buffer.length != getWeightCount()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        int index = 0;
+        for (int k=0; k<m_CriticCount; k++)
+        {
+            index = restore(buffer, index, m_Wc[k]);
+        }
+        for (int j=0; j<m_ActorCount; j++)
+        {
+            index = restore(buffer, index, m_Wa[j]);
+        }
+    }
+
+    /** Critic weights in double precision (used by the copy constructor,
+     * toDataSet and toString, see FloatRivest06).
+     * @return   The critic weights [CriticCount][StimuliCount].
+     */
+    protected double[][] getCriticWeights()
+    {
+        return m_Wc;
+    }
+
+    /** Actor weights in double precision (see {@link #getCriticWeights}).
+     * @return   The actor weights [ActorCount][StimuliCount].
+     */
+    protected double[][] getActorWeights()
+    {
+        return m_Wa;
+    }
+
+    /** Copies a vector into a buffer and returns the next index. */
+    protected static int copy(double[] v, double[] buffer, int start)
+    {
+        System.arraycopy(v, 0, buffer, start, v.length);
+        return start + v.length;
+    }
+
+    /** Copies a buffer into a vector and returns the next index. */
+    protected static int restore(double[] buffer, int start, double[] v)
+    {
+        System.arraycopy(buffer, start, v, 0, v.length);
+        return start + v.length;
+    }
+
     /*********************************************************************/
     //toDataSet
 
@@ -397,9 +759,7 @@ public class Rivest06 extends AbstractObservableAgent {
                                                   ACTION,
                                                   DOPAMINE,
                                                   CRITICS_WEIGHTS_CHANGE,
-                                                  ACTORS_WEIGHTS_CHANGE,
-                                                  CRITICS_WEIGHTS,
-                                                  ACTORS_WEIGHTS},
+                                                  ACTORS_WEIGHTS_CHANGE},
                                     new Object[] {m_PrevStimuli,
                                                   new Double(m_Reward),
                                                   m_PrevCritics,
@@ -408,14 +768,30 @@ public class Rivest06 extends AbstractObservableAgent {
                                                   new Integer(action),
                                                   new Double(e),
                                                   delta_Wc,
-                                                  delta_Wa,
-                                                  m_Wc,
-                                                  m_Wa});
+                                                  delta_Wa});
         setChanged();
         notifyObservers();
      }
 
-     public DataSet toDataSet() {return m_Description;}
+     /** Returns the description of the latest step, with the current weights
+      * (see {@link #getCriticWeights}). */
+     public DataSet toDataSet()
+     {
+         if (m_Description != null) {
+             m_Description.setData(CRITICS_WEIGHTS, getCriticWeights());
+             m_Description.setData(ACTORS_WEIGHTS, getActorWeights());
+         }
+         return m_Description;
+     }
+
+     /*********************************************************************/
+     //Cloneable interface implementation
+
+     /** Same as {@link #Rivest06(Rivest06)}. */
+     public Object clone()
+     {
+         return new Rivest06(this);
+     }
 
      /*********************************************************************/
       //toString method
@@ -444,9 +820,9 @@ public class Rivest06 extends AbstractObservableAgent {
 
           //Weights
           ret += "\tCriticWeights = \n";
-          ret += Tools.tabText(LinearAlgebra.toString(m_Wc),2) + "\n";
+          ret += Tools.tabText(LinearAlgebra.toString(getCriticWeights()),2) + "\n";
           ret += "\tActorWeights = \n";
-          ret += Tools.tabText(LinearAlgebra.toString(m_Wa),2);
+          ret += Tools.tabText(LinearAlgebra.toString(getActorWeights()),2);
 
           //Skip transients
 
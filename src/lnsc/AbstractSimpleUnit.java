@@ -148,6 +148,78 @@ public abstract class AbstractSimpleUnit extends AbstractFunctionalUnit
 		return ret;
 	}
 
+	/** Computes the output for a single input value. Same as
+	 *  <code>processPattern(new double[] {x}, false, false).outputPattern[0]</code>
+	 *  but without creating any result object.
+	 *  @param      x                   The input.
+	 *  @return     The (scaled and offset) output.
+	 */
+	public final double processValue(double x)
+	{
+		return m_Factor * function(x) + m_Offset;
+	}
+
+	/** Computes the derivative for a single input value. Same as
+	 *  <code>processPattern(new double[] {x}, true, false).derivative[0][0]</code>
+	 *  but without creating any result object.
+	 *  @param      x                   The input.
+	 *  @return     The (scaled) derivative.
+	 */
+	public final double processDerivative(double x)
+	{
+		return m_Factor * functionDerivative(x);
+	}
+
+	/*********************************************************************/
+	//Vector evaluation
+
+	/** Computes the outputs, and optionally the derivatives, for a vector of
+	 *  input values. Same as {@link #processValue} and
+	 *  {@link #processDerivative} applied to each value (the results are
+	 *  identical), but in a single call, and subclasses may share the work
+	 *  between the output and the derivative. Layers of identical units
+	 *  (see {@link #hasSameFunction}) use it to process all their units at
+	 *  once. The outputs may overwrite the inputs (values==x and
+	 *  vStart==xStart).
+	 *  @param      x                   The inputs.
+	 *  @param      xStart              Index of the first input in x.
+	 *  @param      values              Where to store the outputs.
+	 *  @param      vStart              Index of the first output in values.
+	 *  @param      derivatives         Where to store the derivatives (null
+	 *                                  for no derivatives).
+	 *  @param      dStart              Index of the first derivative in
+	 *                                  derivatives.
+	 *  @param      length              Number of values.
+	 */
+	public void processValues(double[] x, int xStart,
+							  double[] values, int vStart,
+							  double[] derivatives, int dStart,
+							  int length)
+	{
+		for (int i=0; i<length; i++)
+		{
+			double xi = x[xStart+i];
+			if (derivatives != null) {
+				derivatives[dStart+i] = m_Factor * functionDerivative(xi);
+			}
+			values[vStart+i] = m_Factor * function(xi) + m_Offset;
+		}
+	}
+
+	/** Indicates whether another unit computes the same function (same class
+	 *  and same parameters), in which case units can be processed together
+	 *  through {@link #processValues}. Subclasses having parameters must
+	 *  override it and compare them too.
+	 *  @param      s                   The other unit.
+	 *  @return     <code>true</code> if both compute the same function.
+	 */
+	public boolean hasSameFunction(AbstractSimpleUnit s)
+	{
+		return (s.getClass() == getClass()) &&
+			   (s.m_Factor == m_Factor) &&
+			   (s.m_Offset == m_Offset);
+	}
+
 	/*********************************************************************/
 	//toString method
 
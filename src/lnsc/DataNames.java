@@ -76,6 +76,27 @@ public class DataNames {
          */
         public static final String PARAMETER_SECOND_DERIVATIVES = "ParameterSecondDerivatives";
 
+        /** Not a data name, but a request (in a record list) to receive the
+         * derivative with respect to the parameters as a
+         * {@link lnsc.pmvf.BlockSparseJacobian} in
+         * <code>sparseParameterDerivative</code> instead of the dense
+         * <code>parameterDerivative</code>. Units that do not support it
+         * simply ignore it and return the dense derivative.
+         * @see FunctionalUnit2#processPattern
+         */
+        public static final String SPARSE_PARAMETER_DERIVATIVES = "SparseParameterDerivatives";
+
+        /** Not a data name, but a request (in a record list) to receive the
+         * second derivatives as flat {@link lnsc.DenseTensor} in
+         * <code>secondDerivativeTensor</code> and
+         * <code>parameterSecondDerivativeTensor</code> instead of the nested
+         * <code>secondDerivative</code> and
+         * <code>parameterSecondDerivative</code>. Units that do not support
+         * it simply ignore it and return the nested arrays.
+         * @see FunctionalUnit2#processPattern
+         */
+        public static final String TENSOR_SECOND_DERIVATIVES = "TensorSecondDerivatives";
+
 	/** An array of the form <code>double[p][o][i][i]</code> where <i>p</i> is
 	 * usually defined by {@link #PATTERN_COUNT} and <i>o</i> by
 	 * {@link FunctionalUnit#getOutputCount}.
@@ -0,0 +1,540 @@
+package lnsc;
+
+/** <P> Matrix of doubles stored in a flat <code>double[]</code>. Element
+ *  (i,j) is at <code>offset + i*rowStride + j*colStride</code>, so that a
+ *  new matrix is stored row by row in a single array, and that rows, columns,
+ *  blocks of rows or columns and the transposed matrix are views sharing the
+ *  same array (no copy). Unlike <code>double[][]</code> matrices (see
+ *  {@link LinearAlgebra#isMatrix}) it is always rectangular and its dimensions
+ *  never need to be checked. </P>
+ *
+ *  <P> Operators compute their results in the same order as their
+ *  {@link LinearAlgebra} equivalent on <code>double[][]</code> (and with the
+ *  same kernels, see {@link LinearAlgebra#setKernels}), so that results are
+ *  identical. </P>
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+public final class DenseMatrix implements java.io.Serializable
+{
+
+	/*********************************************************************/
+	//Serial Version UID
+
+	/** Serial version UID. */
+	static final long serialVersionUID = -3125408834160795367L;
+
+	/*********************************************************************/
+	//Private fields
+
+	/** Array holding the elements. */
+	protected double[] m_Data;
+
+	/** Index of element (0,0) in m_Data. */
+	protected int m_Offset;
+
+	/** Number of rows. */
+	protected int m_RowCount;
+
+	/** Number of columns. */
+	protected int m_ColCount;
+
+	/** Distance in m_Data between two consecutive rows. */
+	protected int m_RowStride;
+
+	/** Distance in m_Data between two consecutive columns. */
+	protected int m_ColStride;
+
+	/*********************************************************************/
+	//Constructors
+
+	/** Creates a new matrix of zeros (stored by rows).
+	 * @param		rows		Number of rows.
+	 * @param		cols		Number of columns.
+	 */
+	public DenseMatrix(int rows, int cols)
+	{
+		this(new double[rows*cols], 0, rows, cols, cols, 1);
+	}
+
+	/** Creates a new matrix (stored by rows) holding a copy of a
+	 *  <code>double[][]</code> matrix.
+	 * @param		m			The matrix to copy.
+	 */
+	public DenseMatrix(double[][] m)
+	{
+		this(m.length, (m.length == 0) ? 0 : m[0].length);
+		if (!LinearAlgebra.isMatrix(m)) {
+			throw new IllegalArgumentException("m is not a matrix!");
+		}
+		overwrite(m);
+	}
+
+	/** Creates a matrix on part of an array (by reference, no copy).
+	 * @param		data		The array holding the elements.
+	 * @param		offset		Index of element (0,0) in data.
+	 * @param		rows		Number of rows.
+	 * @param		cols		Number of columns.
+	 * @param		rowStride	Distance in data between two consecutive rows.
+	 * @param		colStride	Distance in data between two consecutive columns.
+	 */
+	public DenseMatrix(double[] data, int offset, int rows, int cols, int rowStride, int colStride)
+	{
+		//Parameters check
+		if ((offset < 0) || (rows < 0) || (cols < 0)) {
+			throw new IllegalArgumentException("offset and dimensions must be non-negative!");
+		}
+		if ((rowStride < 1) || (colStride < 1)) {
+			throw new IllegalArgumentException("strides must be strictly positive!");
+		}
+		if ((rows > 0) && (cols > 0) &&
+			(data.length <= offset + (rows-1)*rowStride + (cols-1)*colStride)) {
+			throw new IllegalArgumentException("data array is too short!");
+		}
+
+		//Setup
+		m_Data = data;
+		m_Offset = offset;
+		m_RowCount = rows;
+		m_ColCount = cols;
+		m_RowStride = rowStride;
+		m_ColStride = colStride;
+	}
+
+	/*********************************************************************/
+	//Properties
+
+	/** Number of rows. */
+	public int getRowCount() {return m_RowCount;}
+
+	/** Number of columns. */
+	public int getColumnCount() {return m_ColCount;}
+
+	/** Reference to the array holding the elements. */
+	public double[] getData() {return m_Data;}
+
+	/** Index of element (0,0) in {@link #getData}. */
+	public int getOffset() {return m_Offset;}
+
+	/** Distance in {@link #getData} between two consecutive rows. */
+	public int getRowStride() {return m_RowStride;}
+
+	/** Distance in {@link #getData} between two consecutive columns. */
+	public int getColumnStride() {return m_ColStride;}
+
+	/** Indicates whether the elements are stored consecutively row by row
+	 *  (as in a new matrix), that is whether {@link #getData} from
+	 *  {@link #getOffset} holds the concatenation of the rows.
+	 */
+	public boolean isContiguous()
+	{
+		return (m_ColStride == 1) && ((m_RowStride == m_ColCount) || (m_RowCount < 2));
+	}
+
+	/*********************************************************************/
+	//Elements access
+
+	/** Index in {@link #getData} of a given element. */
+	public final int index(int i, int j)
+	{
+		return m_Offset + i*m_RowStride + j*m_ColStride;
+	}
+
+	/** Gets an element. */
+	public final double get(int i, int j)
+	{
+		return m_Data[m_Offset + i*m_RowStride + j*m_ColStride];
+	}
+
+	/** Sets an element. */
+	public final void set(int i, int j, double value)
+	{
+		m_Data[m_Offset + i*m_RowStride + j*m_ColStride] = value;
+	}
+
+	/** Adds a value to an element. */
+	public final void adde(int i, int j, double value)
+	{
+		m_Data[m_Offset + i*m_RowStride + j*m_ColStride] += value;
+	}
+
+	/*********************************************************************/
+	//Views
+
+	/** Creates a view on a row.
+	 * @param		i		Row index.
+	 * @return		The row as a vector sharing this matrix elements.
+	 */
+	public DenseVector getRow(int i)
+	{
+		if ((i < 0) || (i >= m_RowCount)) {
+			throw new IllegalArgumentException("i must be a valid row index!");
+		}
+		return new DenseVector(m_Data, m_Offset + i*m_RowStride, m_ColCount, m_ColStride);
+	}
+
+	/** Creates a view on a column.
+	 * @param		j		Column index.
+	 * @return		The column as a vector sharing this matrix elements.
+	 */
+	public DenseVector getColumn(int j)
+	{
+		if ((j < 0) || (j >= m_ColCount)) {
+			throw new IllegalArgumentException("j must be a valid column index!");
+		}
+		return new DenseVector(m_Data, m_Offset + j*m_ColStride, m_RowCount, m_RowStride);
+	}
+
+	/** Creates a view on the requested middle rows (see
+	 *  {@link LinearAlgebra#extractRows(double[][], int, int)}).
+	 * @param		start	First row to kept.
+	 * @param		count	The number of rows to kept.
+	 * @return		The view sharing this matrix elements.
+	 */
+	public DenseMatrix extractRows(int start, int count)
+	{
+		if ((start < 0) || (count < 0) || (start + count > m_RowCount)) {
+			throw new IllegalArgumentException("Invalid rows!");
+		}
+		return new DenseMatrix(m_Data, m_Offset + start*m_RowStride, count, m_ColCount, m_RowStride, m_ColStride);
+	}
+
+	/** Creates a view on the requested middle columns (see
+	 *  {@link LinearAlgebra#extractColumns(double[][], int, int)}).
+	 * @param		start	First column to kept.
+	 * @param		count	The number of columns to kept.
+	 * @return		The view sharing this matrix elements.
+	 */
+	public DenseMatrix extractColumns(int start, int count)
+	{
+		if ((start < 0) || (count < 0) || (start + count > m_ColCount)) {
+			throw new IllegalArgumentException("Invalid columns!");
+		}
+		return new DenseMatrix(m_Data, m_Offset + start*m_ColStride, m_RowCount, count, m_RowStride, m_ColStride);
+	}
+
+	/** Creates a view on the transposed matrix. */
+	public DenseMatrix transpose()
+	{
+		return new DenseMatrix(m_Data, m_Offset, m_ColCount, m_RowCount, m_ColStride, m_RowStride);
+	}
+
+	/*********************************************************************/
+	//Copies
+
+	/** Creates a <code>double[][]</code> copy of this matrix. */
+	public double[][] toArray()
+	{
+		double[][] ret = new double[m_RowCount][m_ColCount];
+		for (int i=0; i<m_RowCount; i++)
+		{
+			double[] row = ret[i];
+			for (int j=0, p=m_Offset+i*m_RowStride; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				row[j] = m_Data[p];
+			}
+		}
+		return ret;
+	}
+
+	/** Creates a new matrix (stored by rows) holding a copy of this one. */
+	public DenseMatrix copy()
+	{
+		DenseMatrix ret = new DenseMatrix(m_RowCount, m_ColCount);
+		ret.overwrite(this);
+		return ret;
+	}
+
+	/** Overwrites the elements with those of a <code>double[][]</code> matrix
+	 *  of the same dimensions.
+	 * @param		source		The matrix to read.
+	 */
+	public void overwrite(double[][] source)
+	{
+		for (int i=0; i<m_RowCount; i++)
+		{
+			double[] row = source[i];
+			for (int j=0, p=m_Offset+i*m_RowStride; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				m_Data[p] = row[j];
+			}
+		}
+	}
+
+	/** Overwrites the elements with those of a matrix of the same dimensions
+	 *  (which must not be an overlapping view).
+	 * @param		source		The matrix to read.
+	 */
+	public void overwrite(DenseMatrix source)
+	{
+		if ((source.m_RowCount != m_RowCount) || (source.m_ColCount != m_ColCount)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+		if (isContiguous() && source.isContiguous()) {
+			System.arraycopy(source.m_Data, source.m_Offset, m_Data, m_Offset, m_RowCount*m_ColCount);
+			return;
+		}
+		for (int i=0; i<m_RowCount; i++)
+		{
+			for (int j=0; j<m_ColCount; j++)
+			{
+				set(i, j, source.get(i, j));
+			}
+		}
+	}
+
+	/** Concatenates the rows into a vector (see
+	 *  {@link LinearAlgebra#concatenateRows(double[][], double[], int)}).
+	 * @param		target		The vector to write the result in.
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public double[] concatenateRows(double[] target, int start)
+	{
+		if (isContiguous()) {
+			System.arraycopy(m_Data, m_Offset, target, start, m_RowCount*m_ColCount);
+			return target;
+		}
+		for (int i=0; i<m_RowCount; i++)
+		{
+			for (int j=0, p=m_Offset+i*m_RowStride; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				target[start + i*m_ColCount + j] = m_Data[p];
+			}
+		}
+		return target;
+	}
+
+	/** Concatenates the columns into a vector (see
+	 *  {@link LinearAlgebra#concatenateCols(double[][], double[], int)}).
+	 * @param		target		The vector to write the result in.
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public double[] concatenateCols(double[] target, int start)
+	{
+		return transpose().concatenateRows(target, start);
+	}
+
+	/** Overwrites the elements by cutting a vector in rows (reverse of
+	 *  {@link #concatenateRows}).
+	 * @param		source		The vector to read.
+	 * @param		start		Index of the first element of source to read.
+	 */
+	public void cutInRows(double[] source, int start)
+	{
+		if (isContiguous()) {
+			System.arraycopy(source, start, m_Data, m_Offset, m_RowCount*m_ColCount);
+			return;
+		}
+		for (int i=0; i<m_RowCount; i++)
+		{
+			for (int j=0, p=m_Offset+i*m_RowStride; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				m_Data[p] = source[start + i*m_ColCount + j];
+			}
+		}
+	}
+
+	/** Overwrites the elements by cutting a vector in columns (reverse of
+	 *  {@link #concatenateCols}).
+	 * @param		source		The vector to read.
+	 * @param		start		Index of the first element of source to read.
+	 */
+	public void cutInCols(double[] source, int start)
+	{
+		transpose().cutInRows(source, start);
+	}
+
+	/*********************************************************************/
+	//Operators
+
+	/** Computes the multiplication of this matrix times a column vector into
+	 *  a target (see {@link LinearAlgebra#multMatrixVector}).
+	 * @param		v			The vector [ColumnCount].
+	 * @param		target		The vector to write the result in (must not be v).
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public double[] multMatrixVector(double[] v, double[] target, int start)
+	{
+		int i,j,p;
+		double sum;
+
+		//parameters checking
+		if (v.length != m_ColCount) {
+			throw new IllegalArgumentException("Matrix and vector not compatible for multiplication!");
+		}
+
+		//compute multiplication (rows kernel when rows are contiguous)
+		double[] data = m_Data;
+		for (i=0; i<m_RowCount; i++)
+		{
+			p = m_Offset + i*m_RowStride;
+			if (m_ColStride == 1) {
+				target[start+i] = LinearAlgebra.weightedSum(data, p, v, 0, m_ColCount);
+				continue;
+			}
+			sum = 0.0;
+			for (j=0; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				sum += data[p] * v[j];
+			}
+			target[start+i] = sum;
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of this matrix times a column vector.
+	 * @param		v			The vector [ColumnCount].
+	 * @return		The resulting vector [RowCount].
+	 */
+	public double[] multMatrixVector(double[] v)
+	{
+		return multMatrixVector(v, new double[m_RowCount], 0);
+	}
+
+	/** Computes the multiplication of a row vector times this matrix into a
+	 *  target (see {@link LinearAlgebra#multVectorMatrix}).
+	 * @param		v			The vector [RowCount].
+	 * @param		target		The vector to write the result in (must not be v).
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public double[] multVectorMatrix(double[] v, double[] target, int start)
+	{
+		return transpose().multMatrixVector(v, target, start);
+	}
+
+	/** Computes the multiplication of this matrix times a matrix into a
+	 *  target (see {@link LinearAlgebra#multMatrixMatrix}).
+	 * @param		m2			The second matrix.
+	 * @param		target		The matrix to write the result in (must not
+	 *                          share elements with this or m2).
+	 * @return		The target matrix.
+	 */
+	public DenseMatrix multMatrixMatrix(DenseMatrix m2, DenseMatrix target)
+	{
+		int i,j,k;
+		double sum;
+
+		//parameters checking
+		if (m_ColCount != m2.m_RowCount) {
+			throw new IllegalArgumentException("Matrices not compatible for multiplication!");
+		}
+		if ((target.m_RowCount != m_RowCount) || (target.m_ColCount != m2.m_ColCount)) {
+			throw new IllegalArgumentException("target is of the wrong size!");
+		}
+
+		//compute multiplication
+		for (i=0; i<m_RowCount; i++)
+		{
+			for (j=0; j<m2.m_ColCount; j++)
+			{
+				sum = 0.0;
+				for (k=0; k<m_ColCount; k++)
+				{
+					sum += get(i, k) * m2.get(k, j);
+				}
+				target.set(i, j, sum);
+			}
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Adds a matrix of the same dimensions to this one (see
+	 *  {@link LinearAlgebra#addeMatrices}).
+	 * @param		ma		The matrix to add.
+	 * @return		This matrix.
+	 */
+	public DenseMatrix adde(DenseMatrix ma)
+	{
+		return addeScaled(1.0, ma);
+	}
+
+	/** Accumulates a scaled matrix of the same dimensions into this one
+	 *  (<code>this+=s*ma</code>, see {@link LinearAlgebra#addeScaledMatrix}).
+	 * @param		s		The scalar.
+	 * @param		ma		The matrix to scale and add.
+	 * @return		This matrix.
+	 */
+	public DenseMatrix addeScaled(double s, DenseMatrix ma)
+	{
+		if ((ma.m_RowCount != m_RowCount) || (ma.m_ColCount != m_ColCount)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+		for (int i=0; i<m_RowCount; i++)
+		{
+			int p = m_Offset + i*m_RowStride;
+			int q = ma.m_Offset + i*ma.m_RowStride;
+			for (int j=0; j<m_ColCount; j++, p+=m_ColStride, q+=ma.m_ColStride)
+			{
+				m_Data[p] += (s == 1.0) ? ma.m_Data[q] : s * ma.m_Data[q];
+			}
+		}
+		return this;
+	}
+
+	/** Scales this matrix and accumulates the multiplication of a column
+	 *  vector times a row vector into it, in a single pass
+	 *  (<code>this=a*this+u*v'</code>, see
+	 *  {@link LinearAlgebra#multeScalarAddeVectorVector}).
+	 * @param		a		The scalar.
+	 * @param		u		The column vector [RowCount].
+	 * @param		v		The row vector [ColumnCount].
+	 * @return		This matrix.
+	 */
+	public DenseMatrix multeScalarAddeVectorVector(double a, double[] u, double[] v)
+	{
+		if ((u.length != m_RowCount) || (v.length != m_ColCount)) {
+			throw new IllegalArgumentException("Matrix and vectors not compatible, matrix must be [u.length][v.length]!");
+		}
+		LinearAlgebra.multeScalarAddeVectorVector(a, m_Data, m_Offset, m_RowCount, m_RowStride,
+												  m_ColCount, m_ColStride, u, 0, v);
+		return this;
+	}
+
+	/** Multiplies this matrix by a scalar in place.
+	 * @param		s		The scalar.
+	 * @return		This matrix.
+	 */
+	public DenseMatrix multeScalar(double s)
+	{
+		for (int i=0; i<m_RowCount; i++)
+		{
+			for (int j=0, p=m_Offset+i*m_RowStride; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				m_Data[p] *= s;
+			}
+		}
+		return this;
+	}
+
+	/** Sets all the elements to a given value. */
+	public DenseMatrix fill(double value)
+	{
+		for (int i=0; i<m_RowCount; i++)
+		{
+			for (int j=0, p=m_Offset+i*m_RowStride; j<m_ColCount; j++, p+=m_ColStride)
+			{
+				m_Data[p] = value;
+			}
+		}
+		return this;
+	}
+
+	/*********************************************************************/
+	//toString method
+
+	public String toString()
+	{
+		return LinearAlgebra.toString(toArray());
+	}
+
+}
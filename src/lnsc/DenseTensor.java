@@ -0,0 +1,539 @@
+package lnsc;
+
+/** <P> N dimensional array of doubles (tensor) stored in a flat
+ *  <code>double[]</code>. Element (i0,i1,...) is at
+ *  <code>offset + i0*strides[0] + i1*strides[1] + ...</code>, so that a new
+ *  tensor is stored in a single array in the order of its last index (as
+ *  <code>double[][][]</code> would be traversed), and that transposed tensors
+ *  (any permutation of the dimensions) and slices are views sharing the same
+ *  array (no copy). It replaces the nested <code>double[][][]</code> and
+ *  <code>double[][][][]</code> arrays (such as second derivatives) where
+ *  allocating one array per row would be too costly. </P>
+ *
+ *  <P> Bulk operators process the elements in the order of the indexes
+ *  (last index first) as their {@link LinearAlgebra} equivalent on nested
+ *  arrays, so that results are identical. </P>
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ *  @see DenseMatrix
+ */
+public final class DenseTensor implements java.io.Serializable
+{
+
+	/*********************************************************************/
+	//Serial Version UID
+
+	/** Serial version UID. */
+	static final long serialVersionUID = 4318725606418237025L;
+
+	/*********************************************************************/
+	//Private fields
+
+	/** Array holding the elements. */
+	protected double[] m_Data;
+
+	/** Index of element (0,0,...) in m_Data. */
+	protected int m_Offset;
+
+	/** Size of each dimension. */
+	protected int[] m_Shape;
+
+	/** Distance in m_Data between two consecutive elements along each
+	 *  dimension. */
+	protected int[] m_Strides;
+
+	/** Number of elements. */
+	protected int m_Size;
+
+	/*********************************************************************/
+	//Constructors
+
+	/** Creates a new tensor of zeros (stored in the order of the last index).
+	 * @param		shape		Size of each dimension.
+	 */
+	public DenseTensor(int[] shape)
+	{
+		this(new double[size(shape)], 0, shape, contiguousStrides(shape));
+	}
+
+	/** Creates a new 3 dimensional tensor of zeros.
+	 * @param		n0			Size of the first dimension.
+	 * @param		n1			Size of the second dimension.
+	 * @param		n2			Size of the third dimension.
+	 */
+	public DenseTensor(int n0, int n1, int n2)
+	{
+		this(new int[] {n0, n1, n2});
+	}
+
+	/** Creates a new tensor holding a copy of a <code>double[][][]</code>
+	 *  3D matrix.
+	 * @param		m			The 3D matrix to copy.
+	 */
+	public DenseTensor(double[][][] m)
+	{
+		this(new int[] {m.length,
+						(m.length == 0) ? 0 : m[0].length,
+						((m.length == 0) || (m[0].length == 0)) ? 0 : m[0][0].length});
+		if (!LinearAlgebra.is3DMatrix(m)) {
+			throw new IllegalArgumentException("m is not a 3D matrix!");
+		}
+		overwrite(m);
+	}
+
+	/** Creates a tensor on part of an array (by reference, no copy).
+	 * @param		data		The array holding the elements.
+	 * @param		offset		Index of element (0,0,...) in data.
+	 * @param		shape		Size of each dimension (copied).
+	 * @param		strides		Distance in data between two consecutive
+	 *                          elements along each dimension (copied).
+	 */
+	public DenseTensor(double[] data, int offset, int[] shape, int[] strides)
+	{
+		//Parameters check
+		if (shape.length != strides.length) {
+			throw new IllegalArgumentException("shape and strides must have the same length!");
+		}
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset must be non-negative!");
+		}
+		int last = offset;
+		for (int d=0; d<shape.length; d++)
+		{
+			if (shape[d] < 0) {
+				throw new IllegalArgumentException("dimensions must be non-negative!");
+			}
+			if (strides[d] < 0) {
+				throw new IllegalArgumentException("strides must be non-negative!");
+			}
+			last += (shape[d] - 1) * strides[d];
+		}
+		int size = size(shape);
+		if ((size > 0) && (data.length <= last)) {
+			throw new IllegalArgumentException("data array is too short!");
+		}
+
+		//Setup
+		m_Data = data;
+		m_Offset = offset;
+		m_Shape = (int[]) shape.clone();
+		m_Strides = (int[]) strides.clone();
+		m_Size = size;
+	}
+
+	/*********************************************************************/
+	//Properties
+
+	/** Number of dimensions. */
+	public int getRank() {return m_Shape.length;}
+
+	/** Size of a dimension. */
+	public int getShape(int d) {return m_Shape[d];}
+
+	/** Copy of the size of each dimension. */
+	public int[] getShape() {return (int[]) m_Shape.clone();}
+
+	/** Distance in {@link #getData} between two consecutive elements along a
+	 *  dimension. */
+	public int getStride(int d) {return m_Strides[d];}
+
+	/** Number of elements. */
+	public int getSize() {return m_Size;}
+
+	/** Reference to the array holding the elements. */
+	public double[] getData() {return m_Data;}
+
+	/** Index of element (0,0,...) in {@link #getData}. */
+	public int getOffset() {return m_Offset;}
+
+	/** Indicates whether the elements are stored consecutively in the order of
+	 *  the last index (as in a new tensor), that is whether {@link #getData}
+	 *  from {@link #getOffset} holds the {@link #getSize} elements in order.
+	 */
+	public boolean isContiguous()
+	{
+		int stride = 1;
+		for (int d=m_Shape.length-1; d>=0; d--)
+		{
+			if ((m_Shape[d] > 1) && (m_Strides[d] != stride)) {
+				return false;
+			}
+			stride *= m_Shape[d];
+		}
+		return true;
+	}
+
+	/*********************************************************************/
+	//Elements access
+
+	/** Index in {@link #getData} of a given element.
+	 * @param		indexes		One index per dimension.
+	 */
+	public final int index(int[] indexes)
+	{
+		int p = m_Offset;
+		for (int d=0; d<m_Shape.length; d++)
+		{
+			p += indexes[d] * m_Strides[d];
+		}
+		return p;
+	}
+
+	/** Index in {@link #getData} of a given element of a 3 dimensional
+	 *  tensor. */
+	public final int index(int i, int j, int k)
+	{
+		return m_Offset + i*m_Strides[0] + j*m_Strides[1] + k*m_Strides[2];
+	}
+
+	/** Gets an element. */
+	public final double get(int[] indexes) {return m_Data[index(indexes)];}
+
+	/** Sets an element. */
+	public final void set(int[] indexes, double value) {m_Data[index(indexes)] = value;}
+
+	/** Gets an element of a 3 dimensional tensor. */
+	public final double get(int i, int j, int k)
+	{
+		return m_Data[m_Offset + i*m_Strides[0] + j*m_Strides[1] + k*m_Strides[2]];
+	}
+
+	/** Sets an element of a 3 dimensional tensor. */
+	public final void set(int i, int j, int k, double value)
+	{
+		m_Data[m_Offset + i*m_Strides[0] + j*m_Strides[1] + k*m_Strides[2]] = value;
+	}
+
+	/** Adds a value to an element of a 3 dimensional tensor. */
+	public final void adde(int i, int j, int k, double value)
+	{
+		m_Data[m_Offset + i*m_Strides[0] + j*m_Strides[1] + k*m_Strides[2]] += value;
+	}
+
+	/*********************************************************************/
+	//Views
+
+	/** Creates a view on the tensor with its dimensions permuted: dimension
+	 *  d of this tensor becomes dimension order[d] of the view. It is the
+	 *  same convention as {@link LinearAlgebra#transposeMatrix(double[][][], int[])}
+	 *  but dimensions are numbered from 0, and the tensor needs not be a
+	 *  cube. No element is moved.
+	 * @param		order		A permutation of 0..rank-1.
+	 * @return		The view sharing this tensor elements.
+	 */
+	public DenseTensor transpose(int[] order)
+	{
+		int n = m_Shape.length;
+		if (order.length != n) {
+			throw new IllegalArgumentException("order must have one entry per dimension!");
+		}
+		boolean[] used = new boolean[n];
+		int[] shape = new int[n];
+		int[] strides = new int[n];
+		for (int d=0; d<n; d++)
+		{
+			if ((order[d] < 0) || (order[d] >= n) || used[order[d]]) {
+				throw new IllegalArgumentException("order must be a permutation!");
+			}
+			used[order[d]] = true;
+			shape[order[d]] = m_Shape[d];
+			strides[order[d]] = m_Strides[d];
+		}
+		return new DenseTensor(m_Data, m_Offset, shape, strides);
+	}
+
+	/** Creates a view on the elements having a given index along a dimension
+	 *  (the view has one dimension less).
+	 * @param		d			The dimension.
+	 * @param		index		The index along d.
+	 * @return		The view sharing this tensor elements.
+	 */
+	public DenseTensor slice(int d, int index)
+	{
+		if ((d < 0) || (d >= m_Shape.length)) {
+			throw new IllegalArgumentException("d must be a valid dimension!");
+		}
+		if ((index < 0) || (index >= m_Shape[d])) {
+			throw new IllegalArgumentException("index must be a valid index!");
+		}
+		int n = m_Shape.length - 1;
+		int[] shape = new int[n];
+		int[] strides = new int[n];
+		for (int e=0, f=0; e<m_Shape.length; e++)
+		{
+			if (e != d) {
+				shape[f] = m_Shape[e];
+				strides[f] = m_Strides[e];
+				f++;
+			}
+		}
+		return new DenseTensor(m_Data, m_Offset + index*m_Strides[d], shape, strides);
+	}
+
+	/** Creates a view on the matrix of a 3 dimensional tensor having a given
+	 *  first index (such as the second derivative of a given output).
+	 * @param		i			The first index.
+	 * @return		The view sharing this tensor elements.
+	 */
+	public DenseMatrix getMatrix(int i)
+	{
+		if (m_Shape.length != 3) {
+			throw new IllegalArgumentException("The tensor must be 3 dimensional!");
+		}
+		if ((i < 0) || (i >= m_Shape[0])) {
+			throw new IllegalArgumentException("i must be a valid index!");
+		}
+		return new DenseMatrix(m_Data, m_Offset + i*m_Strides[0], m_Shape[1], m_Shape[2],
+							   m_Strides[1], m_Strides[2]);
+	}
+
+	/*********************************************************************/
+	//Copies
+
+	/** Creates a new tensor holding a copy of this one. */
+	public DenseTensor copy()
+	{
+		DenseTensor ret = new DenseTensor(m_Shape);
+		ret.overwrite(this);
+		return ret;
+	}
+
+	/** Creates a <code>double[][][]</code> copy of a 3 dimensional tensor. */
+	public double[][][] toArray3D()
+	{
+		if (m_Shape.length != 3) {
+			throw new IllegalArgumentException("The tensor must be 3 dimensional!");
+		}
+		double[][][] ret = new double[m_Shape[0]][][];
+		for (int i=0; i<m_Shape[0]; i++)
+		{
+			ret[i] = getMatrix(i).toArray();
+		}
+		return ret;
+	}
+
+	/** Overwrites the elements of a 3 dimensional tensor with those of a
+	 *  <code>double[][][]</code> 3D matrix of the same dimensions.
+	 * @param		source		The 3D matrix to read.
+	 */
+	public void overwrite(double[][][] source)
+	{
+		if ((m_Shape.length != 3) || !LinearAlgebra.is3DMatrix(source) ||
+			(source.length != m_Shape[0]) ||
+			((m_Shape[0] > 0) && (source[0].length != m_Shape[1])) ||
+			((m_Shape[0] > 0) && (m_Shape[1] > 0) && (source[0][0].length != m_Shape[2]))) {
+			throw new IllegalArgumentException("Tensor and 3D matrix not compatible, they must have the same dimensions!");
+		}
+		for (int i=0; i<m_Shape[0]; i++)
+		{
+			getMatrix(i).overwrite(source[i]);
+		}
+	}
+
+	/** Overwrites the elements with those of a tensor of the same shape
+	 *  (which must not be an overlapping view).
+	 * @param		source		The tensor to read.
+	 */
+	public void overwrite(DenseTensor source)
+	{
+		checkShape(source);
+		if (isContiguous() && source.isContiguous()) {
+			System.arraycopy(source.m_Data, source.m_Offset, m_Data, m_Offset, m_Size);
+			return;
+		}
+		int[] indexes = new int[m_Shape.length];
+		for (int n=0; n<m_Size; n++)
+		{
+			m_Data[index(indexes)] = source.m_Data[source.index(indexes)];
+			next(indexes);
+		}
+	}
+
+	/*********************************************************************/
+	//Bulk operators
+
+	/** Sets all the elements to a given value. */
+	public DenseTensor fill(double value)
+	{
+		if (isContiguous()) {
+			for (int p=m_Offset, end=m_Offset+m_Size; p<end; p++)
+			{
+				m_Data[p] = value;
+			}
+			return this;
+		}
+		int[] indexes = new int[m_Shape.length];
+		for (int n=0; n<m_Size; n++)
+		{
+			m_Data[index(indexes)] = value;
+			next(indexes);
+		}
+		return this;
+	}
+
+	/** Multiplies this tensor by a scalar in place.
+	 * @param		s		The scalar.
+	 * @return		This tensor.
+	 */
+	public DenseTensor multeScalar(double s)
+	{
+		if (isContiguous()) {
+			for (int p=m_Offset, end=m_Offset+m_Size; p<end; p++)
+			{
+				m_Data[p] *= s;
+			}
+			return this;
+		}
+		int[] indexes = new int[m_Shape.length];
+		for (int n=0; n<m_Size; n++)
+		{
+			m_Data[index(indexes)] *= s;
+			next(indexes);
+		}
+		return this;
+	}
+
+	/** Adds a tensor of the same shape to this one (see
+	 *  {@link LinearAlgebra#adde3DMatrices}).
+	 * @param		ta		The tensor to add.
+	 * @return		This tensor.
+	 */
+	public DenseTensor adde(DenseTensor ta)
+	{
+		checkShape(ta);
+		if (isContiguous() && ta.isContiguous()) {
+			for (int p=m_Offset, q=ta.m_Offset, end=m_Offset+m_Size; p<end; p++, q++)
+			{
+				m_Data[p] += ta.m_Data[q];
+			}
+			return this;
+		}
+		int[] indexes = new int[m_Shape.length];
+		for (int n=0; n<m_Size; n++)
+		{
+			m_Data[index(indexes)] += ta.m_Data[ta.index(indexes)];
+			next(indexes);
+		}
+		return this;
+	}
+
+	/** Accumulates a scaled tensor of the same shape into this one
+	 *  (<code>this+=s*ta</code>, see {@link LinearAlgebra#addeScaled3DMatrix}).
+	 * @param		s		The scalar.
+	 * @param		ta		The tensor to scale and add.
+	 * @return		This tensor.
+	 */
+	public DenseTensor addeScaled(double s, DenseTensor ta)
+	{
+		checkShape(ta);
+		if (isContiguous() && ta.isContiguous()) {
+			for (int p=m_Offset, q=ta.m_Offset, end=m_Offset+m_Size; p<end; p++, q++)
+			{
+				m_Data[p] += s * ta.m_Data[q];
+			}
+			return this;
+		}
+		int[] indexes = new int[m_Shape.length];
+		for (int n=0; n<m_Size; n++)
+		{
+			m_Data[index(indexes)] += s * ta.m_Data[ta.index(indexes)];
+			next(indexes);
+		}
+		return this;
+	}
+
+	/** Computes the sum of the squared elements (see
+	 *  {@link LinearAlgebra#sumSquares(double[][][])}). */
+	public double sumSquares()
+	{
+		double ret = 0;
+		if (isContiguous()) {
+			for (int p=m_Offset, end=m_Offset+m_Size; p<end; p++)
+			{
+				ret += m_Data[p] * m_Data[p];
+			}
+			return ret;
+		}
+		int[] indexes = new int[m_Shape.length];
+		for (int n=0; n<m_Size; n++)
+		{
+			double x = m_Data[index(indexes)];
+			ret += x * x;
+			next(indexes);
+		}
+		return ret;
+	}
+
+	/*********************************************************************/
+	//Helpers
+
+	/** Number of elements of a given shape. */
+	protected static int size(int[] shape)
+	{
+		int ret = 1;
+		for (int d=0; d<shape.length; d++)
+		{
+			ret *= shape[d];
+		}
+		return ret;
+	}
+
+	/** Strides of a tensor stored in the order of its last index. */
+	protected static int[] contiguousStrides(int[] shape)
+	{
+		int[] ret = new int[shape.length];
+		int stride = 1;
+		for (int d=shape.length-1; d>=0; d--)
+		{
+			ret[d] = stride;
+			stride *= shape[d];
+		}
+		return ret;
+	}
+
+	/** Checks that a tensor has the same shape. */
+	protected void checkShape(DenseTensor t)
+	{
+		boolean same = (t.m_Shape.length == m_Shape.length);
+		for (int d=0; same && (d<m_Shape.length); d++)
+		{
+			same = (t.m_Shape[d] == m_Shape[d]);
+		}
+		if (!same) {
+			throw new IllegalArgumentException("Tensors not compatible, they must have the same shape!");
+		}
+	}
+
+	/** Moves indexes to the next element (last index first). */
+	protected void next(int[] indexes)
+	{
+		for (int d=indexes.length-1; d>=0; d--)
+		{
+			if (++indexes[d] < m_Shape[d]) {
+				return;
+			}
+			indexes[d] = 0;
+		}
+	}
+
+	/*********************************************************************/
+	//toString method
+
+	public String toString()
+	{
+		switch (m_Shape.length) {
+			case 0: return "" + m_Data[m_Offset];
+			case 1: return new DenseVector(m_Data, m_Offset, m_Shape[0], Math.max(1, m_Strides[0])).toString();
+			case 3: return LinearAlgebra.toString(toArray3D());
+		}
+		String ret = "[";
+		for (int i=0; i<m_Shape[0]; i++)
+		{
+			ret += ((i == 0) ? "" : ",\n") + slice(0, i).toString();
+		}
+		return ret + "]";
+	}
+
+}
@@ -0,0 +1,273 @@
+package lnsc;
+
+/** <P> Vector of doubles stored in a flat <code>double[]</code> with an offset
+ *  and a stride. A vector may own its array or be a view on a part of a larger
+ *  array (such as a row or a column of a {@link DenseMatrix}), in which case
+ *  modifying one modifies the other. </P>
+ *
+ *  <P> Operators compute their results in the same order as their
+ *  {@link LinearAlgebra} equivalent on <code>double[]</code> (and with the
+ *  same kernels, see {@link LinearAlgebra#setKernels}), so that results are
+ *  identical. </P>
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+public final class DenseVector implements java.io.Serializable
+{
+
+	/*********************************************************************/
+	//Serial Version UID
+
+	/** Serial version UID. */
+	static final long serialVersionUID = 6158253405398112340L;
+
+	/*********************************************************************/
+	//Private fields
+
+	/** Array holding the elements. */
+	protected double[] m_Data;
+
+	/** Index of the first element in m_Data. */
+	protected int m_Offset;
+
+	/** Number of elements. */
+	protected int m_Length;
+
+	/** Distance in m_Data between two consecutive elements. */
+	protected int m_Stride;
+
+	/*********************************************************************/
+	//Constructors
+
+	/** Creates a new vector of zeros.
+	 * @param		length		Number of elements.
+	 */
+	public DenseVector(int length)
+	{
+		this(new double[length], 0, length, 1);
+	}
+
+	/** Creates a vector on a whole array (by reference, no copy).
+	 * @param		data		The array holding the elements.
+	 */
+	public DenseVector(double[] data)
+	{
+		this(data, 0, data.length, 1);
+	}
+
+	/** Creates a vector on part of an array (by reference, no copy).
+	 * @param		data		The array holding the elements.
+	 * @param		offset		Index of the first element in data.
+	 * @param		length		Number of elements.
+	 * @param		stride		Distance in data between two consecutive
+	 *                          elements (strictly positive).
+	 */
+	public DenseVector(double[] data, int offset, int length, int stride)
+	{
+		//Parameters check
+		if ((offset < 0) || (length < 0)) {
+			throw new IllegalArgumentException("offset and length must be non-negative!");
+		}
+		if (stride < 1) {
+			throw new IllegalArgumentException("stride must be strictly positive!");
+		}
+		if ((length > 0) && (data.length <= offset + (length-1)*stride)) {
+			throw new IllegalArgumentException("data array is too short!");
+		}
+
+		//Setup
+		m_Data = data;
+		m_Offset = offset;
+		m_Length = length;
+		m_Stride = stride;
+	}
+
+	/*********************************************************************/
+	//Properties
+
+	/** Number of elements. */
+	public int getLength() {return m_Length;}
+
+	/** Reference to the array holding the elements. */
+	public double[] getData() {return m_Data;}
+
+	/** Index of the first element in {@link #getData}. */
+	public int getOffset() {return m_Offset;}
+
+	/** Distance in {@link #getData} between two consecutive elements. */
+	public int getStride() {return m_Stride;}
+
+	/** Indicates whether the elements are consecutive in {@link #getData}. */
+	public boolean isContiguous() {return (m_Stride == 1);}
+
+	/*********************************************************************/
+	//Elements access
+
+	/** Index in {@link #getData} of a given element. */
+	public final int index(int i)
+	{
+		return m_Offset + i*m_Stride;
+	}
+
+	/** Gets an element. */
+	public final double get(int i)
+	{
+		return m_Data[m_Offset + i*m_Stride];
+	}
+
+	/** Sets an element. */
+	public final void set(int i, double value)
+	{
+		m_Data[m_Offset + i*m_Stride] = value;
+	}
+
+	/*********************************************************************/
+	//Views and copies
+
+	/** Creates a view on a contiguous portion of this vector.
+	 * @param		start		Index of the first element of the view.
+	 * @param		length		Number of elements of the view.
+	 * @return		The view <code>v[start..start+length-1]</code>.
+	 */
+	public DenseVector subVector(int start, int length)
+	{
+		if ((start < 0) || (length < 0) || (start + length > m_Length)) {
+			throw new IllegalArgumentException("Invalid sub vector!");
+		}
+		return new DenseVector(m_Data, m_Offset + start*m_Stride, length, m_Stride);
+	}
+
+	/** Creates a copy of the elements. */
+	public double[] toArray()
+	{
+		return toArray(new double[m_Length], 0);
+	}
+
+	/** Copies the elements into a target.
+	 * @param		target		The vector to write the elements in.
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public double[] toArray(double[] target, int start)
+	{
+		if (m_Stride == 1) {
+			System.arraycopy(m_Data, m_Offset, target, start, m_Length);
+		} else {
+			for (int i=0, p=m_Offset; i<m_Length; i++, p+=m_Stride)
+			{
+				target[start+i] = m_Data[p];
+			}
+		}
+		return target;
+	}
+
+	/** Overwrites the elements with those of an array.
+	 * @param		source		The vector to read the elements from.
+	 * @param		start		Index of the first element of source to read.
+	 */
+	public void overwrite(double[] source, int start)
+	{
+		if (m_Stride == 1) {
+			System.arraycopy(source, start, m_Data, m_Offset, m_Length);
+		} else {
+			for (int i=0, p=m_Offset; i<m_Length; i++, p+=m_Stride)
+			{
+				m_Data[p] = source[start+i];
+			}
+		}
+	}
+
+	/** Creates a contiguous copy of this vector. */
+	public DenseVector copy()
+	{
+		return new DenseVector(toArray());
+	}
+
+	/*********************************************************************/
+	//Operators
+
+	/** Computes the dot product with a vector (see
+	 * {@link LinearAlgebra#weightedSum(double[], double[])}).
+	 * @param		v		The vector (of the same length).
+	 * @param		start	Index of the first element of v to read.
+	 * @return		The dot product.
+	 */
+	public double weightedSum(double[] v, int start)
+	{
+		if (m_Stride == 1) {
+			return LinearAlgebra.weightedSum(m_Data, m_Offset, v, start, m_Length);
+		}
+		double ret = 0;
+		for (int i=0, p=m_Offset; i<m_Length; i++, p+=m_Stride)
+		{
+			ret += m_Data[p] * v[start+i];
+		}
+		return ret;
+	}
+
+	/** Computes the dot product with a vector.
+	 * @param		v		The vector (of the same length).
+	 * @return		The dot product.
+	 */
+	public double weightedSum(DenseVector v)
+	{
+		if (v.m_Length != m_Length) {
+			throw new IllegalArgumentException("Vectors sizes incompatible, they must have the same dimension!");
+		}
+		double ret = 0;
+		for (int i=0, p=m_Offset, q=v.m_Offset; i<m_Length; i++, p+=m_Stride, q+=v.m_Stride)
+		{
+			ret += m_Data[p] * v.m_Data[q];
+		}
+		return ret;
+	}
+
+	/** Multiplies this vector by a scalar in place.
+	 * @param		s		The scalar.
+	 * @return		This vector.
+	 */
+	public DenseVector multeScalar(double s)
+	{
+		for (int i=0, p=m_Offset; i<m_Length; i++, p+=m_Stride)
+		{
+			m_Data[p] *= s;
+		}
+		return this;
+	}
+
+	/** Accumulates a scaled vector into this one (<code>this+=s*va</code>).
+	 * @param		s		The scalar.
+	 * @param		va		The vector to scale and add (of the same length).
+	 * @param		start	Index of the first element of va to read.
+	 * @return		This vector.
+	 */
+	public DenseVector addeScaled(double s, double[] va, int start)
+	{
+		for (int i=0, p=m_Offset; i<m_Length; i++, p+=m_Stride)
+		{
+			m_Data[p] += s * va[start+i];
+		}
+		return this;
+	}
+
+	/** Sets all the elements to a given value. */
+	public DenseVector fill(double value)
+	{
+		for (int i=0, p=m_Offset; i<m_Length; i++, p+=m_Stride)
+		{
+			m_Data[p] = value;
+		}
+		return this;
+	}
+
+	/*********************************************************************/
+	//toString method
+
+	public String toString()
+	{
+		return LinearAlgebra.toString(toArray());
+	}
+
+}
@@ -149,6 +149,57 @@ public final class LinearAlgebra
 		return true;
 	}
 
+	/** Checks whether a given object is of type
+	 *  <code>double[slabs][rows][cols]</code>.
+	 * @param		m		Object to be tested.
+	 * @param		slabs	Number of slabs to check for.
+	 * @param		rows	Number of rows to check for.
+	 * @param		cols	Number of columns to check for.
+	 * @return		<code>true</code> is the object is of type
+	 *              <code>double[slabs][rows][cols]</code>.
+	 */
+	public static final boolean is3DMatrix(Object m, int slabs, int rows, int cols)
+	{
+		int i;
+
+		//check whether it is an array of double
+		if (!(m instanceof double[][][])) return false;
+
+		//check if slabs match and each of them
+		if (Array.getLength(m) != slabs) return false;
+		for (i=0; i<slabs; i++)
+		{
+			if (!isMatrix(((Object[]) m)[i], rows, cols)) return false;
+		}
+
+		return true;
+	}
+
+	/** Checks whether a matrix can hold a block of <code>rows</code> x
+	 *  <code>cols</code> elements at (startRow, startCol), that is whether it
+	 *  has at least startRow+rows rows of at least startCol+cols elements.
+	 *  Used to check the targets of the operators writing into a given
+	 *  matrix.
+	 * @param		m			Matrix to be tested.
+	 * @param		startRow	Index of the first row of the block.
+	 * @param		startCol	Index of the first column of the block.
+	 * @param		rows		Number of rows of the block.
+	 * @param		cols		Number of columns of the block.
+	 * @return		<code>true</code> if the block fits in the matrix.
+	 */
+	public static final boolean fitsMatrix(double[][] m, int startRow, int startCol, int rows, int cols)
+	{
+		int i;
+
+		if ((startRow < 0) || (startCol < 0) || (m.length < startRow + rows)) return false;
+		for (i=0; i<rows; i++)
+		{
+			if (m[startRow+i].length < startCol + cols) return false;
+		}
+
+		return true;
+	}
+
         /** Check whether the matrix is a 2D squared matrix (row = col).
          * @param    m     The matrix to check
          * @return   <code>true</code> if the number of rows equals the number of columns.
@@ -290,6 +341,144 @@ public final class LinearAlgebra
 		return ret;
 	}
 
+	/*********************************************************************/
+	//Kernels selection
+
+	/** Kernels mode where every operator uses its plain scalar loop (default).
+	 *  Results do not depend on the JVM or the hardware. */
+	public static final int KERNELS_SCALAR = 0;
+
+	/** Kernels mode where the inner loops of the main operators
+	 *  ({@link #weightedSum(double[], double[])}, {@link #multMatrixVector},
+	 *  {@link #multVectorVector}, {@link #addMatrices}, {@link #addeScaledVector}
+	 *  and their variants)
+	 *  process 4 elements per iteration. Element wise operators give the same
+	 *  results as in scalar mode, but dot products are accumulated in 4
+	 *  partial sums (as vector units do), so they may differ by rounding
+	 *  (see stimdelrew.KernelCheck). */
+	public static final int KERNELS_LANES = 1;
+
+	/** Minimum length from which the lanes kernels are used. */
+	protected static final int LANES_MIN_LENGTH = 8;
+
+	/** Current kernels mode. Set from the system property
+	 *  <code>lnsc.kernels</code> (<code>scalar</code> or <code>lanes</code>)
+	 *  when available, {@link #KERNELS_SCALAR} otherwise. */
+	private static int s_Kernels = initKernels();
+
+	/** Reads the kernels mode system property. */
+	private static int initKernels()
+	{
+		try {
+			if ("lanes".equals(System.getProperty("lnsc.kernels"))) {
+				return KERNELS_LANES;
+			}
+		} catch (SecurityException e) {
+			//not allowed, use the scalar loops
+		}
+		return KERNELS_SCALAR;
+	}
+
+	/** Selects the kernels used by the operators.
+	 * @param		mode		{@link #KERNELS_SCALAR} or {@link #KERNELS_LANES}.
+	 */
+	public static void setKernels(int mode)
+	{
+		if ((mode != KERNELS_SCALAR) && (mode != KERNELS_LANES)) {
+			throw new IllegalArgumentException("Unknown kernels mode!");
+		}
+		s_Kernels = mode;
+	}
+
+	/** Gets the kernels mode used by the operators (see {@link #setKernels}). */
+	public static int getKernels()
+	{
+		return s_Kernels;
+	}
+
+	/** Computes the dot product of two portions of vectors using the current
+	 *  kernels (see {@link #setKernels}).
+	 * @param		w			The first vector.
+	 * @param		wStart		Index of the first element of w to read.
+	 * @param		v			The second vector.
+	 * @param		vStart		Index of the first element of v to read.
+	 * @param		length		Number of elements.
+	 * @return		<code>sum(w[wStart+i]*v[vStart+i])</code>.
+	 */
+	public static final double weightedSum(double[] w, int wStart, double[] v, int vStart, int length)
+	{
+		int i;
+
+		//scalar loop
+		if ((s_Kernels == KERNELS_SCALAR) || (length < LANES_MIN_LENGTH)) {
+			double ret = 0;
+			for (i=0; i<length; i++)
+			{
+				ret += w[wStart+i] * v[vStart+i];
+			}
+			return ret;
+		}
+
+		//4 partial sums
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int n4 = length - (length % 4);
+		for (i=0; i<n4; i+=4)
+		{
+			s0 += w[wStart+i]   * v[vStart+i];
+			s1 += w[wStart+i+1] * v[vStart+i+1];
+			s2 += w[wStart+i+2] * v[vStart+i+2];
+			s3 += w[wStart+i+3] * v[vStart+i+3];
+		}
+		double ret = (s0 + s1) + (s2 + s3);
+		for (; i<length; i++)
+		{
+			ret += w[wStart+i] * v[vStart+i];
+		}
+		return ret;
+	}
+
+	/** Scales a portion of a vector into a target using the current kernels:
+	 *  <code>target[tStart+i] = s * v[vStart+i]</code>. */
+	protected static final void scaleKernel(double s, double[] v, int vStart, double[] target, int tStart, int length)
+	{
+		int i = 0;
+		if ((s_Kernels == KERNELS_LANES) && (length >= LANES_MIN_LENGTH)) {
+			int n4 = length - (length % 4);
+			for (; i<n4; i+=4)
+			{
+				target[tStart+i]   = s * v[vStart+i];
+				target[tStart+i+1] = s * v[vStart+i+1];
+				target[tStart+i+2] = s * v[vStart+i+2];
+				target[tStart+i+3] = s * v[vStart+i+3];
+			}
+		}
+		for (; i<length; i++)
+		{
+			target[tStart+i] = s * v[vStart+i];
+		}
+	}
+
+	/** Adds two portions of vectors into a target using the current kernels:
+	 *  <code>target[tStart+i] = v1[start+i] + v2[start+i]</code>. */
+	protected static final void addKernel(double[] v1, double[] v2, int start, double[] target, int tStart, int length)
+	{
+		int i = 0;
+		if ((s_Kernels == KERNELS_LANES) && (length >= LANES_MIN_LENGTH)) {
+			int n4 = length - (length % 4);
+			for (; i<n4; i+=4)
+			{
+				target[tStart+i]   = v1[start+i]   + v2[start+i];
+				target[tStart+i+1] = v1[start+i+1] + v2[start+i+1];
+				target[tStart+i+2] = v1[start+i+2] + v2[start+i+2];
+				target[tStart+i+3] = v1[start+i+3] + v2[start+i+3];
+			}
+		}
+		for (; i<length; i++)
+		{
+			target[tStart+i] = v1[start+i] + v2[start+i];
+		}
+	}
+
 	/*********************************************************************/
 	//Matrix and vector operators
 
@@ -381,8 +570,7 @@ public final class LinearAlgebra
 	 */
 	public static final double[] multMatrixVector(double[][] m, double[] v)
 	{
-		int i,j;
-		double sum;
+		int i;
 
 		//TODO parameters checking
 
@@ -392,12 +580,7 @@ public final class LinearAlgebra
 		//compute multiplication
 		for (i=0; i<m.length;i++)
 		{
-			sum = 0.0;
-			for (j=0; j<v.length; j++)
-			{
-				sum += m[i][j] * v[j];
-			}
-			ret[i] = sum;
+			ret[i] = weightedSum(m[i], 0, v, 0, v.length);
 		}
 
 		//returns
@@ -443,8 +626,7 @@ public final class LinearAlgebra
 	 */
 	public static final double[][] multVectorVector(double[] v1, double[] v2)
 	{
-		int i,j;
-		double sum;
+		int i;
 
 		//TODO parameters checking
 
@@ -454,10 +636,7 @@ public final class LinearAlgebra
 		//compute multiplication
 		for (i=0; i<v1.length;i++)
 		{
-			for (j=0; j<v2.length; j++)
-			{
-				ret[i][j] = v1[i] * v2[j];
-			}
+			scaleKernel(v1[i], v2, 0, ret[i], 0, v2.length);
 		}
 
 		//returns
@@ -471,9 +650,6 @@ public final class LinearAlgebra
 	 */
 	public static final double[][] multMatrixMatrix(double[][] m1, double[][] m2)
 	{
-		int i,j,k;
-		double sum;
-
 		//TODO more parameters cheking
 		if (m1[0].length != m2.length)
 			throw new IllegalArgumentException("Matrices not compatible for multiplication!");
@@ -482,21 +658,7 @@ public final class LinearAlgebra
 		double[][] ret = new double[m1.length][m2[0].length];
 
 		//compute multiplication
-		for (i=0; i<m1.length; i++)
-		{
-			for (j=0; j<m2[0].length; j++)
-			{
-				sum = 0.0;
-				for (k=0; k<m2.length; k++)
-				{
-					sum += m1[i][k] * m2[k][j];
-				}
-				ret[i][j] = sum;
-			}
-		}
-
-		//returns
-		return ret;
+		return multMatrixMatrix(m1, 0, m2, m1.length, m2.length, m2[0].length, ret, 0, 0);
 	}
 
 	/** Computes the subtraction of two vectors.
@@ -604,10 +766,7 @@ public final class LinearAlgebra
 
 		for (i=0; i<n; i++)
 		{
-			for (int j=0; j<m; j++)
-			{
-			    ret[i][j] = m1[i][j] + m2[i][j];
-			}
+			addKernel(m1[i], m2[i], 0, ret[i], 0, m);
 		}
 
 		return ret;
@@ -817,13 +976,7 @@ public final class LinearAlgebra
 		}
 
 		//Compute dot product
-		double ret = 0;
-		for (int i=0; i<ws.length; i++)
-		{
-			ret += ws[i] * Ss[i];
-		}
-
-		return ret;
+		return weightedSum(ws, 0, Ss, 0, ws.length);
 	}
 
 	/** Computes a weighted summation of vectors. Given a vector of scalar and
@@ -972,27 +1125,1404 @@ public final class LinearAlgebra
 
 
 	/*********************************************************************/
-	//Matrix and vector batch operators
+	//Matrix and vector operators writing into a given destination
 
-	/** Applies {@link #subVectors} on a batch of vector pairs. That is,
-	 *  <code>SetA[0]-SetB[0], SetA[1]-SetB[1], ... </code>
-	 *  @param      setA        Array of first vectors in substraction.
-	 *  @param      setB        Array of second vectors in subtraction.
-	 *  @return     Array of results.
+	//These are the non-allocating versions of the operators above. Results
+	//are written into a caller supplied target (at a given offset) and
+	//computed in the same order, so that they are identical. Unless
+	//specified, the target must not share elements with the operands.
+
+	/** Computes the multiplication of a vector times a scalar into a target.
+	 * @param			s		The scalar.
+	 * @param			v		The vector.
+	 * @param			target	The vector to write the result in (can be v).
+	 * @param			start	Index of the first element of target to write.
+	 * @return			The target vector.
 	 */
-	public static final double[][] batchSubVectors(double[][] setA, double[][] setB)
+	public static final double[] multScalarVector(double s, double[] v, double[] target, int start)
 	{
 		int i;
-		//TODO parameter checking
-		int patternCount = setA.length;
-		double[][] ret = new double[patternCount][];
 
-		for (i=0; i<patternCount; i++)
+		//parameters checking
+		if (target.length < start + v.length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		//compute multiplication
+		for (i=0; i<v.length;i++)
 		{
-			ret[i] = subVectors(setA[i], setB[i]);
+			target[start+i] = s * v[i];
 		}
 
-		return ret;
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of a matrix times a scalar into a target.
+	 * @param			s			The scalar.
+	 * @param			m			The matrix.
+	 * @param			target		The matrix to write the result in (can be m
+	 *                              if startRow and startCol are 0).
+	 * @param			startRow	Index of the first row of target to write.
+	 * @param			startCol	Index of the first column of target to write.
+	 * @return			The target matrix.
+	 */
+	public static final double[][] multScalarMatrix(double s, double[][] m, double[][] target, int startRow, int startCol)
+	{
+		int i,j;
+
+		//parameters checking
+		if (!fitsMatrix(target, startRow, startCol, m.length, m[0].length)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+		if ((target == m) && ((startRow != 0) || (startCol != 0))) {
+			throw new IllegalArgumentException("target can only be m at (0,0)!");
+		}
+
+		//compute multiplication
+		for (i=0; i<m.length;i++)
+		{
+			for (j=0; j<m[0].length; j++)
+			{
+			    target[startRow+i][startCol+j] = s * m[i][j];
+			}
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of a 3D matrix times a scalar into a target
+	 * of the same dimensions.
+	 * @param			s		The scalar.
+	 * @param			m		The 3D matrix.
+	 * @param			target	The 3D matrix to write the result in (can be m).
+	 * @return			The target matrix.
+	 */
+	public static final double[][][] multScalar3DMatrix(double s, double[][][] m, double[][][] target)
+	{
+		int i,j,k;
+
+		//parameters checking
+		if (!is3DMatrix(target, m.length, m[0].length, m[0][0].length)) {
+			throw new IllegalArgumentException("target must have the dimensions of m!");
+		}
+
+		//compute multiplication
+		for (i=0; i<m.length;i++)
+		{
+			for (j=0; j<m[0].length; j++)
+			{
+				for (k=0; k<m[0][0].length; k++)
+				{
+			        target[i][j][k] = s * m[i][j][k];
+				}
+			}
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of a matrix times a column vector into a
+	 * target.
+	 * @param			m		The matrix.
+	 * @param			v		The vector.
+	 * @param			target	The vector to write the result in.
+	 * @param			start	Index of the first element of target to write.
+	 * @return			The target vector.
+	 */
+	public static final double[] multMatrixVector(double[][] m, double[] v, double[] target, int start)
+	{
+		int i;
+
+		//parameters checking
+		if (target.length < start + m.length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		//compute multiplication
+		for (i=0; i<m.length;i++)
+		{
+			target[start+i] = weightedSum(m[i], 0, v, 0, v.length);
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of a vector times a matrix into a target.
+	 * @param			v		The vector.
+	 * @param			m		The matrix.
+	 * @param			target	The vector to write the result in.
+	 * @param			start	Index of the first element of target to write.
+	 * @return			The target vector.
+	 */
+	public static final double[] multVectorMatrix(double[] v, double[][] m, double[] target, int start)
+	{
+		int i,j;
+		double sum;
+
+		//parameters checking
+		if (target.length < start + m[0].length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		//compute multiplication
+		for (i=0; i<m[0].length;i++)
+		{
+			sum = 0.0;
+			for (j=0; j<v.length; j++)
+			{
+				sum += m[j][i] * v[j];
+			}
+			target[start+i] = sum;
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of a column vector times a row vector
+	 * (outer product) into a target.
+	 * @param			v1			The first (column) vector.
+	 * @param			v2			The second (row) vector.
+	 * @param			target		The matrix to write the result in (its
+	 *                              rows must not be v2).
+	 * @param			startRow	Index of the first row of target to write.
+	 * @param			startCol	Index of the first column of target to write.
+	 * @return			The target matrix.
+	 */
+	public static final double[][] multVectorVector(double[] v1, double[] v2, double[][] target, int startRow, int startCol)
+	{
+		int i;
+
+		//parameters checking
+		if (!fitsMatrix(target, startRow, startCol, v1.length, v2.length)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		//compute multiplication
+		for (i=0; i<v1.length;i++)
+		{
+			scaleKernel(v1[i], v2, 0, target[startRow+i], startCol, v2.length);
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Computes the multiplication of two matrices into a target.
+	 * @param			m1			The first matrix.
+	 * @param			m2			The second matrix.
+	 * @param			target		The matrix to write the result in (must
+	 *                              not be m1 or m2, nor share rows with
+	 *                              them).
+	 * @param			startRow	Index of the first row of target to write.
+	 * @param			startCol	Index of the first column of target to write.
+	 * @return			The target matrix.
+	 */
+	public static final double[][] multMatrixMatrix(double[][] m1, double[][] m2, double[][] target, int startRow, int startCol)
+	{
+		//parameters checking
+		if (m1[0].length != m2.length)
+			throw new IllegalArgumentException("Matrices not compatible for multiplication!");
+		if ((target == m1) || (target == m2))
+			throw new IllegalArgumentException("target must not be one of the operands!");
+		if (!fitsMatrix(target, startRow, startCol, m1.length, m2[0].length))
+			throw new IllegalArgumentException("target matrix is too small!");
+
+		//compute multiplication
+		return multMatrixMatrix(m1, 0, m2, m1.length, m2.length, m2[0].length, target, startRow, startCol);
+	}
+
+	/** Size of the square tiles of the blocked matrix multiplication. */
+	protected static final int TILE_SIZE = 64;
+
+	/** Number of multiplications from which the matrix multiplication is
+	 *  blocked (tiled). */
+	protected static final int BLOCKED_MIN_OPS = 1 << 15;
+
+	/** Number of multiplications from which the blocked matrix multiplication
+	 *  is split by rows across the threads of {@link WorkerPool#getDefault}. */
+	protected static final int PARALLEL_MIN_OPS = 1 << 20;
+
+	/** Computes the multiplication of a block of columns of a matrix times
+	 *  the first rows of another matrix into a target:
+	 *  <code>target[startRow+i][startCol+j] = sum(m1[i][m1StartCol+k] * m2[k][j])</code>
+	 *  for <code>i&lt;rows</code>, <code>j&lt;cols</code>, <code>k&lt;inner</code>.
+	 *  <P> Small products use the plain triple loop. Larger ones are tiled
+	 *  (to reuse the rows of m2 from the cache) and the largest ones are also
+	 *  split by rows across threads. Each element is always summed in the same
+	 *  order (k from 0 to inner-1), so that the result does not depend on the
+	 *  path taken. </P>
+	 * @param			m1			The first matrix.
+	 * @param			m1StartCol	First column of m1 to use.
+	 * @param			m2			The second matrix.
+	 * @param			rows		Number of rows of m1 to use.
+	 * @param			inner		Number of columns of m1 (rows of m2) to use.
+	 * @param			cols		Number of columns of m2 to use.
+	 * @param			target		The matrix to write the result in (must
+	 *                              not share rows with m1 or m2).
+	 * @param			startRow	Index of the first row of target to write.
+	 * @param			startCol	Index of the first column of target to write.
+	 * @return			The target matrix.
+	 */
+	public static final double[][] multMatrixMatrix(final double[][] m1, final int m1StartCol,
+													final double[][] m2,
+													final int rows, final int inner, final int cols,
+													final double[][] target, final int startRow, final int startCol)
+	{
+		int i,j,k;
+		double sum;
+
+		//parameters checking
+		if ((rows < 0) || (inner < 0) || (cols < 0)) {
+			throw new IllegalArgumentException("Dimensions must be non-negative!");
+		}
+		if (!fitsMatrix(m1, 0, m1StartCol, rows, inner) || !fitsMatrix(m2, 0, 0, inner, cols)) {
+			throw new IllegalArgumentException("Matrices too small for the requested product!");
+		}
+		if (!fitsMatrix(target, startRow, startCol, rows, cols)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+		if ((target == m1) || (target == m2)) {
+			throw new IllegalArgumentException("target must not be one of the operands!");
+		}
+		long ops = (long) rows * inner * cols;
+
+		//plain loop
+		if (ops < BLOCKED_MIN_OPS) {
+			for (i=0; i<rows; i++)
+			{
+				double[] row1 = m1[i];
+				double[] trow = target[startRow+i];
+				for (j=0; j<cols; j++)
+				{
+					sum = 0.0;
+					for (k=0; k<inner; k++)
+					{
+						sum += row1[m1StartCol+k] * m2[k][j];
+					}
+					trow[startCol+j] = sum;
+				}
+			}
+			return target;
+		}
+
+		//blocked loop, split by rows if large
+		WorkerPool pool = WorkerPool.getDefault();
+		final int parts = (ops < PARALLEL_MIN_OPS) ? 1 : Math.min(rows, pool.getThreadCount());
+		if (parts == 1) {
+			multBlocked(m1, m1StartCol, m2, 0, rows, inner, cols, target, startRow, startCol);
+		} else {
+			pool.run(new WorkerPool.Task() {
+				public void run(int index) {
+					int first = (int) ((long) rows * index / parts);
+					int last = (int) ((long) rows * (index+1) / parts);
+					multBlocked(m1, m1StartCol, m2, first, last, inner, cols, target, startRow, startCol);
+				}
+			}, parts);
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Tiled kernel of {@link #multMatrixMatrix(double[][], int, double[][], int, int, int, double[][], int, int)}
+	 *  for the rows first to last-1. Products are accumulated in the target
+	 *  (zeroed first) in increasing k order. */
+	private static void multBlocked(double[][] m1, int m1StartCol, double[][] m2,
+									int first, int last, int inner, int cols,
+									double[][] target, int startRow, int startCol)
+	{
+		int i,j,k;
+
+		//zero target
+		for (i=first; i<last; i++)
+		{
+			double[] trow = target[startRow+i];
+			for (j=0; j<cols; j++)
+			{
+				trow[startCol+j] = 0.0;
+			}
+		}
+
+		//accumulate tiles
+		for (int k0=0; k0<inner; k0+=TILE_SIZE)
+		{
+			int k1 = Math.min(inner, k0+TILE_SIZE);
+			for (int j0=0; j0<cols; j0+=TILE_SIZE)
+			{
+				int j1 = Math.min(cols, j0+TILE_SIZE);
+				for (i=first; i<last; i++)
+				{
+					double[] row1 = m1[i];
+					double[] trow = target[startRow+i];
+					for (k=k0; k<k1; k++)
+					{
+						double a = row1[m1StartCol+k];
+						double[] row2 = m2[k];
+						for (j=j0; j<j1; j++)
+						{
+							trow[startCol+j] += a * row2[j];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/** Computes the subtraction of two vectors into a target.
+	 * @param		v1		The first vector.
+	 * @param		v2		The second vector.
+	 * @param		target	The vector to write the result in (can be v1 or v2).
+	 * @param		start	Index of the first element of target to write.
+	 * @return		The target vector with <code>v1-v2</code> at start.
+	 */
+	public static final double[] subVectors(double[] v1, double[] v2, double[] target, int start)
+	{
+		int i;
+		int n = v1.length;
+
+		//parameters checking
+		if (v2.length != n) {
+			throw new IllegalArgumentException("Vectors sizes incompatible, they must have the same dimension!");
+		}
+		if (target.length < start + n) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			target[start+i] = v1[i] - v2[i];
+		}
+
+		return target;
+	}
+
+	/** Computes the addition of two vectors into a target.
+	 * @param		v1		The first vector.
+	 * @param		v2		The second vector.
+	 * @param		target	The vector to write the result in (can be v1 or v2).
+	 * @param		start	Index of the first element of target to write.
+	 * @return		The target vector with <code>v1+v2</code> at start.
+	 */
+	public static final double[] addVectors(double[] v1, double[] v2, double[] target, int start)
+	{
+		int i;
+		int n = v1.length;
+
+		//parameters checking
+		if (v2.length != n) {
+			throw new IllegalArgumentException("Vectors sizes incompatible, they must have the same dimension!");
+		}
+		if (target.length < start + n) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			target[start+i] = v1[i] + v2[i];
+		}
+
+		return target;
+	}
+
+	/** Computes the subtraction of two matrices into a target.
+	 * @param		m1			The first matrix.
+	 * @param		m2			The second matrix.
+	 * @param		target		The matrix to write the result in (can be m1 or
+	 *                          m2 if startRow and startCol are 0).
+	 * @param		startRow	Index of the first row of target to write.
+	 * @param		startCol	Index of the first column of target to write.
+	 * @return		The target matrix with <code>m1-m2</code> at (startRow,startCol).
+	 */
+	public static final double[][] subMatrices(double[][] m1, double[][] m2, double[][] target, int startRow, int startCol)
+	{
+		int i;
+		int n = m1.length;
+		int m = m1[0].length;
+
+		//parameters checking
+		if (!isMatrix(m2, n, m)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+		if (!fitsMatrix(target, startRow, startCol, n, m)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+		if (((target == m1) || (target == m2)) && ((startRow != 0) || (startCol != 0))) {
+			throw new IllegalArgumentException("target can only be one of the operands at (0,0)!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			for (int j=0; j<m; j++)
+			{
+				target[startRow+i][startCol+j] = m1[i][j] - m2[i][j];
+			}
+		}
+
+		return target;
+	}
+
+	/** Computes the addition of two matrices into a target.
+	 * @param		m1			The first matrix.
+	 * @param		m2			The second matrix.
+	 * @param		target		The matrix to write the result in (can be m1 or
+	 *                          m2 if startRow and startCol are 0).
+	 * @param		startRow	Index of the first row of target to write.
+	 * @param		startCol	Index of the first column of target to write.
+	 * @return		The target matrix with <code>m1+m2</code> at (startRow,startCol).
+	 */
+	public static final double[][] addMatrices(double[][] m1, double[][] m2, double[][] target, int startRow, int startCol)
+	{
+		int i;
+		int n = m1.length;
+		int m = m1[0].length;
+
+		//parameters checking
+		if (!isMatrix(m2, n, m)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+		if (!fitsMatrix(target, startRow, startCol, n, m)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+		if (((target == m1) || (target == m2)) && ((startRow != 0) || (startCol != 0))) {
+			throw new IllegalArgumentException("target can only be one of the operands at (0,0)!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			addKernel(m1[i], m2[i], 0, target[startRow+i], startCol, m);
+		}
+
+		return target;
+	}
+
+	/** Computes the element wise addition of two 3D matrices into a target of
+	 * the same dimensions.
+	 * @param		m1		The first 3D matrix
+	 * @param		m2		The second 3D matrix.
+	 * @param		target	The 3D matrix to write the result in (can be m1 or m2).
+	 * @return		The target matrix.
+	 */
+	public static final double[][][] add3DMatrices(double[][][] m1, double[][][] m2, double[][][] target)
+	{
+		int i;
+		int n = m1.length;
+		int m = m1[0].length;
+		int l = m1[0][0].length;
+
+		//parameters checking
+		if (!is3DMatrix(m2, n, m, l)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+		if (!is3DMatrix(target, n, m, l)) {
+			throw new IllegalArgumentException("target must have the dimensions of m1!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			for (int j=0; j<m; j++)
+			{
+				for (int k=0; k<l; k++)
+				{
+			        target[i][j][k] = m1[i][j][k] + m2[i][j][k];
+				}
+			}
+		}
+
+		return target;
+	}
+
+	/** Transposes a matrix into a target.
+	 *  @param      m       	The matrix to be transposed.
+	 *  @param      target  	The matrix to write the result in (must not be m).
+	 *  @param		startRow	Index of the first row of target to write.
+	 *  @param		startCol	Index of the first column of target to write.
+	 *  @return     The target matrix.
+	 */
+	public static double[][] transposeMatrix(double[][] m, double[][] target, int startRow, int startCol)
+	{
+		//parameter checking
+		if (target == m) {
+			throw new IllegalArgumentException("target must not be m!");
+		}
+		int rowCount = m.length;
+		int colCount = m[0].length;
+		if (!fitsMatrix(target, startRow, startCol, colCount, rowCount)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		for (int i=0; i<rowCount; i++)
+		{
+			for (int j=0; j<colCount; j++)
+			{
+				target[startRow+j][startCol+i] = m[i][j];
+			}
+		}
+
+		return target;
+	}
+
+	/** Sums elementwise a vector of matrices into a target of the same
+	 *  dimensions.
+	 *  @param      Ms      Array of matrices.
+	 *  @param      target  The matrix to write the result in (can be one of Ms
+	 *                      only if it is the first one).
+	 *  @return     The target matrix.
+	 */
+	public static double[][] sumMatrices(double[][][] Ms, double[][] target)
+	{
+		int matCount = Ms.length;
+		int rowCount = Ms[0].length;
+		int colCount = Ms[0][0].length;
+		double sum;
+
+		//Check argument
+		for (int k=1; k<matCount; k++)
+		{
+			if (!isMatrix(Ms[k], rowCount, colCount)) {
+				throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+			}
+		}
+		if (!fitsMatrix(target, 0, 0, rowCount, colCount)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		//Compute their sum
+		for (int i=0; i<rowCount; i++)
+		{
+			for (int j=0; j<colCount; j++)
+			{
+				sum = 0;
+				for (int k=0; k<matCount; k++)
+				{
+					sum += Ms[k][i][j];
+				}
+				target[i][j] = sum;
+			}
+		}
+
+		return target;
+	}
+
+	/** Computes a weighted summation of vectors (see
+	 *  {@link #weightedSum(double[], double[][])}) into a target.
+	 *  @param          ws      Vector of scalars (or weights)
+	 *  @param          Vs      Vector of vectors.
+	 *  @param          target  The vector to write the result in (can be one
+	 *                          of Vs only if it is the first one).
+	 *  @param          start   Index of the first element of target to write.
+	 *  @return         The target vector.
+	 */
+	public static double[] weightedSum(double[] ws, double[][] Vs, double[] target, int start)
+	{
+		int vecCount = ws.length;
+		int n = Vs[0].length;
+		double sum;
+
+		//Check argument
+		if (ws.length != Vs.length) {
+			throw new IllegalArgumentException("Array of Vectors and array of Weights not compatible, they must have the same dimension!");
+		}
+		for (int k=1; k<vecCount; k++)
+		{
+			if (Vs[k].length != n) {
+				throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+			}
+		}
+		if (target.length < start + n) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		//Compute their sum
+		for (int i=0; i<n; i++)
+		{
+			sum = 0;
+			for (int k=0; k<vecCount; k++)
+			{
+				sum += ws[k] * Vs[k][i];
+			}
+			target[start+i] = sum;
+		}
+
+		return target;
+	}
+
+	/** Computes a weighted summation of matrices (see
+	 *  {@link #weightedSum(double[], double[][][])}) into a target of the same
+	 *  dimensions.
+	 *  @param          ws      Vector of scalars (or weights)
+	 *  @param          Ms      Vector of matrices.
+	 *  @param          target  The matrix to write the result in (can be one
+	 *                          of Ms only if it is the first one).
+	 *  @return         The target matrix.
+	 */
+	public static double[][] weightedSum(double[] ws, double[][][] Ms, double[][] target)
+	{
+		int matCount = Ms.length;
+		int rowCount = Ms[0].length;
+		int colCount = Ms[0][0].length;
+		double sum;
+
+		//Check argument
+		if (ws.length != Ms.length) {
+		    throw new IllegalArgumentException("Array of Matrices and array of Weights not compatible, they must have the same dimension!");
+		}
+		for (int k=1; k<matCount; k++)
+		{
+			if (!isMatrix(Ms[k], rowCount, colCount)) {
+				throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+			}
+		}
+		if (!fitsMatrix(target, 0, 0, rowCount, colCount)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		//Compute their sum
+		for (int i=0; i<rowCount; i++)
+		{
+			for (int j=0; j<colCount; j++)
+			{
+				sum = 0;
+				for (int k=0; k<matCount; k++)
+				{
+					sum += ws[k] * Ms[k][i][j];
+				}
+				target[i][j] = sum;
+			}
+		}
+
+		return target;
+	}
+
+	/** Concatenates two vectors into a target.
+	 * @param       v1      The first vector.
+	 * @param       v2      The second vector.
+	 * @param       target  The vector to write the result in.
+	 * @param       start   Index of the first element of target to write.
+	 * @return      The target vector with <code>[v1|v2]</code> at start.
+	 */
+	public static final double[] concatenateVectors(double[] v1, double[] v2, double[] target, int start)
+	{
+		//parameters checking
+		if (target.length < start + v1.length + v2.length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+		for (int i=0; i<v1.length; i++)
+		{
+			target[start+i] = v1[i];
+		}
+		for (int i=0; i<v2.length; i++)
+		{
+			target[start+v1.length+i] = v2[i];
+		}
+		return target;
+	}
+
+	/** Extracts a contiguous portion of a vector into a target.
+	 *  @param      v       	The source vector.
+	 *  @param      start   	Index of the first element to extract.
+	 *  @param      stop    	Index of the last element to extract.
+	 *  @param      target  	The vector to write the result in.
+	 *  @param      targetStart Index of the first element of target to write.
+	 *  @return     The target vector with <code>v[start..stop]</code> at targetStart.
+	 */
+	public static final double[] extractVector(double[] v, int start, int stop, double[] target, int targetStart)
+	{
+		//param check
+		if (start < 0 || start > v.length-1) {
+			throw new java.lang.IllegalArgumentException("start must be a valid index!");
+		}
+		if (stop < 0 || stop > v.length-1) {
+			throw new java.lang.IllegalArgumentException("stop must be a valid index!");
+		}
+		if (start > stop) {
+			throw new java.lang.IllegalArgumentException("stop must be no smaller than start!");
+		}
+		if (target.length < targetStart + stop-start+1) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+		//extract
+		for (int i=start; i<=stop; i++)
+		{
+			target[targetStart+i-start] = v[i];
+		}
+		return target;
+	}
+
+	/** Extracts the requested middle columns of a matrix into a target.
+	 * @param			m		A matrix.
+	 * @param			start	First column to kept.
+	 * @param           count   The number of column to kept.
+	 * @param			target	The matrix to write the result in
+	 *                          (<code>m.length</code> rows, at least count columns).
+	 * @return			The target matrix.
+	 */
+	public static final double[][] extractColumns(double[][] m, int start, int count, double[][] target)
+	{
+		int i,j;
+
+		//Parameter check
+		if (!isMatrix(m)) {
+			throw new IllegalArgumentException("m is not a matrix!");
+		}
+		if ((start < 0) || (count < 0) || ((m.length != 0) && (start + count > m[0].length))) {
+			throw new IllegalArgumentException("start and count must select existing columns!");
+		}
+		if (!fitsMatrix(target, 0, 0, m.length, count)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		//copy the original values
+		for (i=0; i<m.length; i++)
+		{
+			for (j=0; j<count; j++)
+			{
+				target[i][j] = m[i][start+j];
+			}
+		}
+
+		//return
+		return target;
+	}
+
+	/** Extracts the requested middle rows of a matrix into a target.
+	 * @param			m		A matrix.
+	 * @param			start	First row to kept.
+	 * @param           count   The number of row to kept.
+	 * @param			target	The matrix to write the result in (at least
+	 *                          count rows of <code>m[0].length</code> columns).
+	 * @return			The target matrix.
+	 */
+	public static final double[][] extractRows(double[][] m, int start, int count, double[][] target)
+	{
+		int i, j;
+
+		//Parameter check
+		if (!isMatrix(m)) {
+		    throw new IllegalArgumentException("m is not a matrix!");
+		}
+		if ((start < 0) || (count < 0) || (start + count > m.length)) {
+			throw new IllegalArgumentException("start and count must select existing rows!");
+		}
+		if ((count > 0) && !fitsMatrix(target, 0, 0, count, m[0].length)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		for(i=0; i<count; i++)
+		{
+			for (j = 0; j<m[0].length; j++)
+			{
+				target[i][j] = m[start+i][j];
+			}
+		}
+
+		//return
+		return target;
+	}
+
+	/** Concatenates the rows of a matrix into a target (see
+	 * {@link #concatenateRows(double[][])}).
+	 * @param		m			The matrix to convert.
+	 * @param		target		The vector to write the result in.
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public static final double[] concatenateRows(double[][] m, double[] target, int start)
+	{
+		int i,j;
+
+		//parameters checking
+		int rows = m.length;
+		int cols = m[0].length;
+		if (target.length < start + rows*cols) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		for (i=0; i<rows; i++)
+		{
+			for (j=0; j<cols; j++)
+			{
+				target[start + i*cols + j] = m[i][j];
+			}
+		}
+
+		return target;
+	}
+
+	/** Concatenates the columns of a matrix into a target (see
+	 * {@link #concatenateCols(double[][])}).
+	 * @param		m			The matrix to convert.
+	 * @param		target		The vector to write the result in.
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public static final double[] concatenateCols(double[][] m, double[] target, int start)
+	{
+		int i,j;
+
+		//parameters checking
+		int rows = m.length;
+		int cols = m[0].length;
+		if (target.length < start + rows*cols) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		for (i=0; i<cols; i++)
+		{
+			for (j=0; j<rows; j++)
+			{
+				target[start + i*rows + j] = m[j][i];
+			}
+		}
+
+		return target;
+	}
+
+	/** Cuts a vector in rows into an existing matrix (see
+	 * {@link #cutInRows(double[], int)}).
+	 * @param		v			The vector to convert.
+	 * @param		cols		Length of each rows extracted from the vector.
+	 * @param		target		The matrix to write the result in.
+	 * @return		The target matrix.
+	 */
+	public static final double[][] cutInRows(double[] v, int cols, double[][] target)
+	{
+		int i, j;
+
+		//parameters checking
+		int rows = v.length / cols;
+		if (!fitsMatrix(target, 0, 0, rows, cols)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		for (i=0; i<rows; i++)
+		{
+			for (j=0; j<cols; j++)
+			{
+				target[i][j] = v[i*cols + j];
+			}
+		}
+
+		return target;
+	}
+
+	/** Cuts a vector in columns into an existing matrix (see
+	 * {@link #cutInCols(double[], int)}).
+	 * @param		v			The vector to convert.
+	 * @param		rows		Length of each columns extracted from the vector.
+	 * @param		target		The matrix to write the result in.
+	 * @return		The target matrix.
+	 */
+	public static final double[][] cutInCols(double[] v, int rows, double[][] target)
+	{
+		int i, j;
+
+		//parameters checking
+		int cols = v.length / rows;
+		if (!fitsMatrix(target, 0, 0, rows, cols)) {
+			throw new IllegalArgumentException("target matrix is too small!");
+		}
+
+		for (i=0; i<cols; i++)
+		{
+			for (j=0; j<rows; j++)
+			{
+				target[j][i] = v[i*rows + j];
+			}
+		}
+
+		return target;
+	}
+
+	/*********************************************************************/
+	//In-place matrix and vector operators
+
+	/** Multiplies a vector by a scalar in place.
+	 * @param			s		The scalar.
+	 * @param			v		The source and target vector.
+	 * @return			The resulting vector <code>v*=s</code> (v).
+	 */
+	public static final double[] multeScalarVector(double s, double[] v)
+	{
+		for (int i=0; i<v.length; i++)
+		{
+			v[i] *= s;
+		}
+		return v;
+	}
+
+	/** Multiplies a matrix by a scalar in place.
+	 * @param			s		The scalar.
+	 * @param			m		The source and target matrix.
+	 * @return			The resulting matrix <code>m*=s</code> (m).
+	 */
+	public static final double[][] multeScalarMatrix(double s, double[][] m)
+	{
+		int i,j;
+		double[] row;
+
+		for (i=0; i<m.length; i++)
+		{
+			row = m[i];
+			for (j=0; j<row.length; j++)
+			{
+				row[j] *= s;
+			}
+		}
+		return m;
+	}
+
+	/** Subtracts a vector from another one.
+	 * @param		v		The source and target vector.
+	 * @param		vs		The vector to subtract from it.
+	 * @return		The resulting vector <code>v-=vs</code> (v).
+	 */
+	public static final double[] subeVectors(double[] v, double[] vs)
+	{
+		int i;
+		int n = v.length;
+
+		//parameters checking
+		if (vs.length != n) {
+			throw new IllegalArgumentException("Vectors sizes incompatible, they must have the same dimension!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			v[i] -= vs[i];
+		}
+
+		return v;
+	}
+
+	/** Subtracts a matrix from another one.
+	 * @param		m		The source and target matrix.
+	 * @param		ms		The matrix to subtract from it.
+	 * @return		The resulting matrix <code>m-=ms</code> (m).
+	 */
+	public static final double[][] subeMatrices(double[][] m, double[][] ms)
+	{
+		int i,j;
+		int n = m.length;
+		int mm = m[0].length;
+
+		//parameters checking
+		if (!isMatrix(ms, n, mm)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			for (j=0; j<mm; j++)
+			{
+				m[i][j] -= ms[i][j];
+			}
+		}
+
+		return m;
+	}
+
+	/** Accumulates a scaled vector into another one.
+	 * @param		v		The source and target vector.
+	 * @param		s		The scalar.
+	 * @param		va		The vector to scale and add.
+	 * @return		The resulting vector <code>v+=s*va</code> (v).
+	 */
+	public static final double[] addeScaledVector(double[] v, double s, double[] va)
+	{
+		return addeScaledVector(v, 0, s, va, 0, va.length);
+	}
+
+	/** Accumulates a scaled portion of a vector into a portion of another
+	 * one.
+	 * @param		v			The source and target vector.
+	 * @param		start		Index of the first element of v to update.
+	 * @param		s			The scalar.
+	 * @param		va			The vector to scale and add.
+	 * @param		vaStart		Index of the first element of va to read.
+	 * @param		length		Number of elements to update.
+	 * @return		The resulting vector <code>v[start..]+=s*va[vaStart..]</code> (v).
+	 */
+	public static final double[] addeScaledVector(double[] v, int start, double s, double[] va, int vaStart, int length)
+	{
+		//parameters checking
+		if ((start < 0) || (vaStart < 0) || (length < 0)) {
+			throw new IllegalArgumentException("Indexes and length must be non-negative!");
+		}
+		if (v.length < start + length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+		if (va.length < vaStart + length) {
+			throw new IllegalArgumentException("source vector is too short!");
+		}
+
+		//accumulate
+		int i = 0;
+		if ((s_Kernels == KERNELS_LANES) && (length >= LANES_MIN_LENGTH)) {
+			int n4 = length - (length % 4);
+			for (; i<n4; i+=4)
+			{
+				v[start+i]   += s * va[vaStart+i];
+				v[start+i+1] += s * va[vaStart+i+1];
+				v[start+i+2] += s * va[vaStart+i+2];
+				v[start+i+3] += s * va[vaStart+i+3];
+			}
+		}
+		for (; i<length; i++)
+		{
+			v[start+i] += s * va[vaStart+i];
+		}
+
+		return v;
+	}
+
+	/** Accumulates a scaled matrix into another one.
+	 * @param		m		The source and target matrix.
+	 * @param		s		The scalar.
+	 * @param		ma		The matrix to scale and add.
+	 * @return		The resulting matrix <code>m+=s*ma</code> (m).
+	 */
+	public static final double[][] addeScaledMatrix(double[][] m, double s, double[][] ma)
+	{
+		//get dimension
+		int n = m.length;
+		int mm = m[0].length;
+
+		//check argument
+		if (!isMatrix(ma, n, mm)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+
+		//do it
+		for (int i=0; i<n; i++)
+		{
+			double[] row = m[i], rowa = ma[i];
+			for (int j=0; j<mm; j++)
+			{
+			    row[j] += s * rowa[j];
+			}
+		}
+
+		//return
+		return m;
+	}
+
+	/** Accumulates a scaled 3D matrix into another one.
+	 * @param		m		The source and target 3D matrix.
+	 * @param		s		The scalar.
+	 * @param		ma		The 3D matrix to scale and add.
+	 * @return		The resulting matrix <code>m+=s*ma</code> (m).
+	 */
+	public static final double[][][] addeScaled3DMatrix(double[][][] m, double s, double[][][] ma)
+	{
+		int i;
+		int n = m.length;
+		int mm = m[0].length;
+		int l = m[0][0].length;
+
+		//parameters checking
+		if (!is3DMatrix(ma, n, mm, l)) {
+			throw new IllegalArgumentException("Matrices not compatible, they must have the same dimensions!");
+		}
+
+		for (i=0; i<n; i++)
+		{
+			for (int j=0; j<mm; j++)
+			{
+				for (int k=0; k<l; k++)
+				{
+			        m[i][j][k] += s * ma[i][j][k];
+				}
+			}
+		}
+
+		return m;
+	}
+
+	/** Accumulates the multiplication of a matrix times a column vector into
+	 * a vector.
+	 * @param			v		The source and target vector.
+	 * @param			m		The matrix.
+	 * @param			x		The vector (must not be v).
+	 * @return			The resulting vector <code>v+=m*x</code> (v).
+	 */
+	public static final double[] addeMultMatrixVector(double[] v, double[][] m, double[] x)
+	{
+		int i,j;
+		double sum;
+		double[] row;
+
+		//parameters checking
+		if (x == v) {
+			throw new IllegalArgumentException("x must not be v!");
+		}
+		if (!fitsMatrix(m, 0, 0, m.length, x.length)) {
+			throw new IllegalArgumentException("Matrix and vector not compatible for multiplication!");
+		}
+		if (v.length < m.length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		//compute multiplication
+		for (i=0; i<m.length;i++)
+		{
+			row = m[i];
+			sum = 0.0;
+			for (j=0; j<x.length; j++)
+			{
+				sum += row[j] * x[j];
+			}
+			v[i] += sum;
+		}
+
+		//returns
+		return v;
+	}
+
+	/** Scales a matrix and accumulates the multiplication of a column vector
+	 * times a row vector into it, in a single pass (the rank-1 recurrence
+	 * <code>D=a*D+u*v'</code>).
+	 * @param			a		The scalar.
+	 * @param			m		The source and target matrix [n][mm].
+	 * @param			u		The column vector [n].
+	 * @param			v		The row vector [mm].
+	 * @return			The resulting matrix <code>m=a*m+u*v'</code> (m).
+	 */
+	public static final double[][] multeScalarAddeVectorVector(double a, double[][] m, double[] u, double[] v)
+	{
+		//check argument
+		if (!isMatrix(m, u.length, v.length)) {
+			throw new IllegalArgumentException("Matrix and vectors not compatible, matrix must be [u.length][v.length]!");
+		}
+
+		//do it
+		for (int i=0; i<m.length; i++)
+		{
+			multeScalarAddeVectorVector(a, m[i], 0, 1, 0, v.length, 1, u, i, v);
+		}
+
+		//return
+		return m;
+	}
+
+	/** Scales a matrix stored in a flat array (as a {@link DenseMatrix}) and
+	 * accumulates the multiplication of a column vector times a row vector
+	 * into it, in a single pass (the rank-1 recurrence <code>D=a*D+u*v'</code>).
+	 * Element (i,j) is at <code>offset + i*rowStride + j*colStride</code>.
+	 * @param			a			The scalar.
+	 * @param			data		The array holding the source and target
+	 *                              matrix.
+	 * @param			offset		Index of element (0,0) in data.
+	 * @param			rows		Number of rows.
+	 * @param			rowStride	Distance in data between two consecutive rows.
+	 * @param			cols		Number of columns.
+	 * @param			colStride	Distance in data between two consecutive columns.
+	 * @param			u			The column vector.
+	 * @param			uStart		Index in u of the element of row 0.
+	 * @param			v			The row vector [cols].
+	 * @return			The array data.
+	 */
+	public static final double[] multeScalarAddeVectorVector(double a, double[] data, int offset,
+															 int rows, int rowStride, int cols, int colStride,
+															 double[] u, int uStart, double[] v)
+	{
+		//parameters checking
+		if (v.length < cols) {
+			throw new IllegalArgumentException("v is too short!");
+		}
+
+		//do it (unrolled rows when the lanes kernels are selected)
+		boolean lanes = (s_Kernels == KERNELS_LANES) && (colStride == 1) && (cols >= LANES_MIN_LENGTH);
+		int n4 = cols - (cols % 4);
+		for (int i=0; i<rows; i++)
+		{
+			double ui = u[uStart+i];
+			int j = 0, p = offset + i*rowStride;
+			if (lanes) {
+				for (; j<n4; j+=4, p+=4)
+				{
+					data[p]   = ui * v[j]   + a * data[p];
+					data[p+1] = ui * v[j+1] + a * data[p+1];
+					data[p+2] = ui * v[j+2] + a * data[p+2];
+					data[p+3] = ui * v[j+3] + a * data[p+3];
+				}
+			}
+			for (; j<cols; j++, p+=colStride)
+			{
+				data[p] = ui * v[j] + a * data[p];
+			}
+		}
+
+		//return
+		return data;
+	}
+
+	/*********************************************************************/
+	//Sparse vectors
+
+	/** Default sparse inputs mode of the models supporting it. Set from the
+	 *  system property <code>lnsc.sparseInputs</code> (<code>true</code>)
+	 *  when available, <code>false</code> otherwise. */
+	private static final boolean s_DefaultSparseInputs = initSparseInputs();
+
+	/** Reads the sparse inputs mode system property. */
+	private static boolean initSparseInputs()
+	{
+		try {
+			return "true".equals(System.getProperty("lnsc.sparseInputs"));
+		} catch (SecurityException e) {
+			//not allowed, use the dense loops
+		}
+		return false;
+	}
+
+	/** Gets the default sparse inputs mode of the models whose inputs are
+	 *  mostly zero (such as one step stimulus pulses). In sparse inputs mode,
+	 *  a model only processes the non-zero elements of its inputs (see
+	 *  {@link #findNonZeros}) instead of processing them as dense vectors
+	 *  (the reference). Each model holds its own mode (see for instance
+	 *  lnsc.lstm.AbstractLSTMFactory.setSparseInputs), this is only the one
+	 *  of new models.
+	 * @return		true if new models skip their zero inputs.
+	 */
+	public static boolean getDefaultSparseInputs()
+	{
+		return s_DefaultSparseInputs;
+	}
+
+	/** Finds the non-zero elements of a vector.
+	 * @param		v			The vector.
+	 * @param		indexes		Array receiving the indexes of the non-zero
+	 *                          elements in increasing order (at least as long
+	 *                          as the number of non-zero elements).
+	 * @return		The number of non-zero elements.
+	 */
+	public static final int findNonZeros(double[] v, int[] indexes)
+	{
+		int count = 0;
+		for (int i=0; i<v.length; i++)
+		{
+			if (v[i] != 0.0) {
+				indexes[count] = i;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/** Computes the multiplication of a matrix times a sparse column vector
+	 *  into a target: only the elements of v listed in indexes are read
+	 *  (the others are assumed zero), in the given order. Each element is a
+	 *  plain sum, as {@link #multMatrixVector(double[][], double[])} in
+	 *  scalar kernels mode (see {@link #setKernels}); in lanes kernels mode
+	 *  the results differ by rounding.
+	 * @param		m			The matrix [n][v.length].
+	 * @param		v			The vector.
+	 * @param		indexes		Indexes of the non-zero elements of v.
+	 * @param		count		Number of indexes.
+	 * @param		target		The vector to write the result in (must not be v).
+	 * @param		start		Index of the first element of target to write.
+	 * @return		The target vector.
+	 */
+	public static final double[] multMatrixVector(double[][] m, double[] v, int[] indexes, int count,
+												  double[] target, int start)
+	{
+		//parameters checking
+		if (target.length < start + m.length) {
+			throw new IllegalArgumentException("target vector is too short!");
+		}
+
+		//compute multiplication
+		for (int i=0; i<m.length; i++)
+		{
+			double[] row = m[i];
+			double sum = 0.0;
+			for (int k=0; k<count; k++)
+			{
+				int j = indexes[k];
+				sum += row[j] * v[j];
+			}
+			target[start+i] = sum;
+		}
+
+		//returns
+		return target;
+	}
+
+	/** Accumulates a scaled sparse vector into another one: only the
+	 *  elements of va listed in indexes are read (the others are assumed
+	 *  zero).
+	 * @param		v			The source and target vector.
+	 * @param		s			The scalar.
+	 * @param		va			The vector to scale and add.
+	 * @param		indexes		Indexes of the non-zero elements of va.
+	 * @param		count		Number of indexes.
+	 * @return		The resulting vector <code>v+=s*va</code> (v).
+	 */
+	public static final double[] addeScaledVector(double[] v, double s, double[] va, int[] indexes, int count)
+	{
+		for (int k=0; k<count; k++)
+		{
+			int j = indexes[k];
+			v[j] += s * va[j];
+		}
+		return v;
+	}
+
+	/*********************************************************************/
+	//Matrix and vector batch operators
+
+	/** Applies {@link #subVectors} on a batch of vector pairs. That is,
+	 *  <code>SetA[0]-SetB[0], SetA[1]-SetB[1], ... </code>
+	 *  @param      setA        Array of first vectors in substraction.
+	 *  @param      setB        Array of second vectors in subtraction.
+	 *  @return     Array of results.
+	 */
+	public static final double[][] batchSubVectors(double[][] setA, double[][] setB)
+	{
+		int i;
+		//TODO parameter checking
+		int patternCount = setA.length;
+		double[][] ret = new double[patternCount][];
+
+		for (i=0; i<patternCount; i++)
+		{
+			ret[i] = subVectors(setA[i], setB[i]);
+		}
+
+		return ret;
+	}
+
+	/** Applies {@link #subVectors} on a batch of vector pairs into a batch of
+	 *  existing vectors.
+	 *  @param      setA        Array of first vectors in substraction.
+	 *  @param      setB        Array of second vectors in subtraction.
+	 *  @param      target      Array of vectors to write the results in.
+	 *  @return     The target array.
+	 */
+	public static final double[][] batchSubVectors(double[][] setA, double[][] setB, double[][] target)
+	{
+		int i;
+		int patternCount = setA.length;
+
+		//parameters checking (vectors are checked by subVectors)
+		if (setB.length != patternCount) {
+			throw new IllegalArgumentException("Vector sets not compatible, they must have the same number of vectors!");
+		}
+		if (target.length < patternCount) {
+			throw new IllegalArgumentException("target must have a vector per pair!");
+		}
+
+		for (i=0; i<patternCount; i++)
+		{
+			subVectors(setA[i], setB[i], target[i], 0);
+		}
+
+		return target;
 	}
 
 	/*********************************************************************/
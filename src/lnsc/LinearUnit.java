@@ -47,6 +47,27 @@ public final class LinearUnit extends AbstractSimpleUnit
 
 	protected final double functionSecondDerivative(double x) {return 0.0;}
 
+	/*********************************************************************/
+	//Vector evaluation
+
+	/** Same as {@link AbstractSimpleUnit#processValues}, without any call per
+	 *  value. */
+	public void processValues(double[] x, int xStart,
+							  double[] values, int vStart,
+							  double[] derivatives, int dStart,
+							  int length)
+	{
+		double factor = getFactor();
+		double offset = getOffset();
+		for (int i=0; i<length; i++)
+		{
+			if (derivatives != null) {
+				derivatives[dStart+i] = factor * 1.0;
+			}
+			values[vStart+i] = factor * x[xStart+i] + offset;
+		}
+	}
+
 	/*********************************************************************/
 	//toString method
 
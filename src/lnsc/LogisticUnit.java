@@ -7,6 +7,12 @@ package lnsc;
  *  <code>mu</code> is called the half-maximum point of the function and
  *  <code>beta</code> is called the slope. </P>
  *
+ *  <P> Each unit evaluates its logistic either exactly (default) or by
+ *  table interpolation (see {@link #setEvaluation}). The maximum absolute
+ *  errors are given before scaling, that is for a unit with factor 1; they
+ *  are multiplied by |factor| for the output and by |factor|*alpha for the
+ *  derivative. Second derivatives are always exact. </P>
+ *
  *  @author Francois Rivest
  *  @version 1.0
  *  @since 1.0
@@ -19,6 +25,90 @@ public final class LogisticUnit extends AbstractSimpleUnit
 	/** Serial version UID. */
 	static final long serialVersionUID = -2690716200172087221L;
 
+	/*********************************************************************/
+	//Evaluation modes
+
+	/** Evaluation mode calling <code>Math.exp</code> for every value
+	 *  (default). Errors are rounding errors (about 1e-16). Measured through
+	 *  {@link #processValues} (4096 normal values of standard deviation 4,
+	 *  warmed up JDK 17, see stimdelrew.LogisticCheck): 14 to 19 ns per
+	 *  output and derivative. */
+	public static final int EVALUATION_EXACT = 0;
+
+	/** Evaluation mode interpolating linearly a table of the logistic over
+	 *  [-{@link #TABLE_RANGE}, {@link #TABLE_RANGE}] (in units of beta around
+	 *  mu), clamped outside. The maximum absolute error is 7.4e-7 on the
+	 *  output and on the derivative (interpolation error h*h/8 times the
+	 *  maximum second derivative of the logistic, 0.0962, with
+	 *  h=1/{@link #TABLE_STEPS}; the clamping error is 1.1e-7). Measured as
+	 *  for {@link #EVALUATION_EXACT}: 5.5 to 8 ns per output and derivative,
+	 *  about 2.3 times faster. */
+	public static final int EVALUATION_TABLE = 1;
+
+	/** Half width of the table range (in units of beta around mu). */
+	public static final double TABLE_RANGE = 16.0;
+
+	/** Number of table intervals per unit. */
+	public static final int TABLE_STEPS = 128;
+
+	/** Evaluation mode of new units. Set from the system property
+	 *  <code>lnsc.logistic</code> (<code>exact</code> or <code>table</code>)
+	 *  when available, {@link #EVALUATION_EXACT} otherwise. */
+	private static final int s_DefaultEvaluation = initEvaluation();
+
+	/** Index of the last table entry. */
+	private static final int s_TableLast = (int) (2 * TABLE_RANGE * TABLE_STEPS);
+
+	/** Table of the logistic at -TABLE_RANGE + i/TABLE_STEPS (even indexes)
+	 *  interleaved with the difference to the next entry (odd indexes). */
+	private static final double[] s_Table = createTable();
+
+	/** Reads the evaluation mode system property. */
+	private static int initEvaluation()
+	{
+		try {
+			if ("table".equals(System.getProperty("lnsc.logistic"))) {
+				return EVALUATION_TABLE;
+			}
+		} catch (SecurityException e) {
+			//not allowed, use the exact evaluation
+		}
+		return EVALUATION_EXACT;
+	}
+
+	/** Creates the logistic table. */
+	private static double[] createTable()
+	{
+		double[] ret = new double[2*s_TableLast+2];
+		for (int i=0; i<=s_TableLast; i++)
+		{
+			ret[2*i] = 1.0 / (1.0 + Math.exp(TABLE_RANGE - (double) i / TABLE_STEPS));
+		}
+		for (int i=0; i<s_TableLast; i++)
+		{
+			ret[2*i+1] = ret[2*i+2] - ret[2*i];
+		}
+		return ret;
+	}
+
+	/** Gets the evaluation mode of new units (see {@link #setEvaluation}). */
+	public static int getDefaultEvaluation()
+	{
+		return s_DefaultEvaluation;
+	}
+
+	/** Interpolates the logistic table.
+	 * @param		u		The position in the table (clamped to
+	 *                      [0, 2*TABLE_RANGE*TABLE_STEPS]).
+	 * @return		The approximated logistic.
+	 */
+	private static double table(double u)
+	{
+		u = (u > 0.0) ? ((u < s_TableLast) ? u : s_TableLast) : 0.0;
+		int i = (int) u;
+		return s_Table[2*i] + (u - i) * s_Table[2*i+1];
+	}
+
 	/*********************************************************************/
 	//Private fields
 
@@ -31,6 +121,9 @@ public final class LogisticUnit extends AbstractSimpleUnit
 	/** Mu property data. */
 	private double m_Mu = 0.0;
 
+	/** Evaluation mode. */
+	private int m_Evaluation = s_DefaultEvaluation;
+
 	/*********************************************************************/
 	//Constructors
 
@@ -128,11 +221,33 @@ public final class LogisticUnit extends AbstractSimpleUnit
 	 */
 	public final void setMu(double newMu) {m_Mu = newMu;}
 
+	/** Returns how the unit evaluates its output and derivative.
+	 *  @return     {@link #EVALUATION_EXACT} or {@link #EVALUATION_TABLE}.
+	 */
+	public final int getEvaluation() {return m_Evaluation;}
+
+	/** Sets how the unit evaluates its output and derivative. The default
+	 *  is given by {@link #getDefaultEvaluation}.
+	 *  @param      newEvaluation   {@link #EVALUATION_EXACT} or
+	 *                              {@link #EVALUATION_TABLE}.
+	 */
+	public final void setEvaluation(int newEvaluation)
+	{
+		if ((newEvaluation != EVALUATION_EXACT) && (newEvaluation != EVALUATION_TABLE)) {
+			throw new IllegalArgumentException("Unknown evaluation mode!");
+		} else {
+			m_Evaluation = newEvaluation;
+		}
+	}
+
 	/*********************************************************************/
 	//AbstractSimpleUnit implementation
 
 	protected final double function(double x)
 	{
+		if (m_Evaluation == EVALUATION_TABLE) {
+			return table(((x - m_Mu) * m_Alpha + TABLE_RANGE) * TABLE_STEPS);
+		}
 		if (Math.abs(m_Beta) > 1.0) {
 			return 1.0 / (1.0 + Math.exp((m_Mu - x) / m_Beta));
 		} else {
@@ -146,6 +261,11 @@ public final class LogisticUnit extends AbstractSimpleUnit
 
 		if (Math.abs(x) > 25.0) return 0.0;
 
+		if (m_Evaluation == EVALUATION_TABLE) {
+			y = table(((x - m_Mu) * m_Alpha + TABLE_RANGE) * TABLE_STEPS);
+			return y * (1.0 - y) * m_Alpha;
+		}
+
 		y = Math.exp((m_Mu - x) / m_Beta);
 
 		if (Math.abs(m_Beta) > 1.0) {
@@ -163,6 +283,69 @@ public final class LogisticUnit extends AbstractSimpleUnit
 
     }
 
+	/*********************************************************************/
+	//Vector evaluation
+
+	/** Same as {@link AbstractSimpleUnit#processValues}, but computing the
+	 *  exponential (or its approximation) once for both the output and the
+	 *  derivative. */
+	public void processValues(double[] x, int xStart,
+							  double[] values, int vStart,
+							  double[] derivatives, int dStart,
+							  int length)
+	{
+		double factor = getFactor();
+		double offset = getOffset();
+		if (m_Evaluation == EVALUATION_TABLE) {
+			//u = ((x - mu)*alpha + TABLE_RANGE)*TABLE_STEPS = a*x + b
+			double a = m_Alpha * TABLE_STEPS;
+			double b = (TABLE_RANGE - m_Mu * m_Alpha) * TABLE_STEPS;
+			double dFactor = factor * m_Alpha;
+			double[] table = s_Table;
+			for (int i=0; i<length; i++)
+			{
+				double xi = x[xStart+i];
+				double u = a * xi + b;
+				u = (u > 0.0) ? ((u < s_TableLast) ? u : s_TableLast) : 0.0;
+				int j = (int) u;
+				double y = table[2*j] + (u - j) * table[2*j+1];
+				if (derivatives != null) {
+					derivatives[dStart+i] = (Math.abs(xi) > 25.0) ? 0.0 : dFactor * y * (1.0 - y);
+				}
+				values[vStart+i] = factor * y + offset;
+			}
+			return;
+		}
+		boolean wideSlope = (Math.abs(m_Beta) > 1.0);
+		for (int i=0; i<length; i++)
+		{
+			double xi = x[xStart+i];
+			double y = Math.exp((m_Mu - xi) / m_Beta);
+			if (derivatives != null) {
+				double d;
+				if (Math.abs(xi) > 25.0) {
+					d = 0.0;
+				} else if (wideSlope) {
+					d = y / ((1.0 + y) * (1.0 + y) * m_Beta);
+				} else {
+					d = (y * m_Alpha) / ((1.0 + y) * (1.0 + y));
+				}
+				derivatives[dStart+i] = factor * d;
+			}
+			values[vStart+i] = factor * (1.0 / (1.0 + y)) + offset;
+		}
+	}
+
+	public boolean hasSameFunction(AbstractSimpleUnit s)
+	{
+		if (!super.hasSameFunction(s)) {
+			return false;
+		}
+		LogisticUnit l = (LogisticUnit) s;
+		return (l.m_Alpha == m_Alpha) && (l.m_Beta == m_Beta) && (l.m_Mu == m_Mu) &&
+			   (l.m_Evaluation == m_Evaluation);
+	}
+
 	/*********************************************************************/
 	//toString method
 
@@ -172,7 +355,8 @@ public final class LogisticUnit extends AbstractSimpleUnit
 		ret += "Class: LogisticUnit\n";
 		ret += "\tAlpha: " + Double.toString(m_Alpha) + "\n";
 		ret += "\tBeta: " + Double.toString(m_Beta) + "\n";
-		ret += "\tMu: " + Double.toString(m_Mu);
+		ret += "\tMu: " + Double.toString(m_Mu) + "\n";
+		ret += "\tEvaluation: " + ((m_Evaluation == EVALUATION_TABLE) ? "table" : "exact");
 		return ret;
 	}
 
@@ -0,0 +1,183 @@
+package lnsc;
+
+import java.util.Hashtable;
+
+/** <P> Compiled form of a record list (a list of keywords, usually
+ *  {@link DataNames} constants, indicating which data to record). Each
+ *  keyword is given a bit index once for all, so that checking whether a
+ *  keyword was requested costs a bit test instead of the string scan of
+ *  {@link DataNames#isMember}. </P>
+ *
+ *  <P> Units checking the same keywords at every pattern keep their indices
+ *  in static fields (see {@link #getKeyIndex}) and test them with
+ *  {@link #contains(int)}. Callers processing many patterns with the same
+ *  record list should compile it once; methods still receiving a
+ *  <code>String[]</code> use {@link #compile} which reuses the last mask
+ *  compiled for the same array by the same thread. </P>
+ *
+ *  <P> Masks are immutable and can be shared between threads. </P>
+ *
+ *  <P> Like {@link DataNames#isMember}, keywords are case insensitive. Bit
+ *  indices are only valid for the running virtual machine, masks are thus not
+ *  serializable and should be held in transient fields. </P>
+ *
+ *  @see DataNames
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+public final class RecordMask
+{
+
+	/*********************************************************************/
+	//Private static fields
+
+	/** Bit index (Integer) of each keyword seen (lower case). */
+	private static final Hashtable s_KeyIndices = new Hashtable();
+
+	/** Last mask compiled by {@link #compile} in each thread. */
+	private static final ThreadLocal s_LastCompiled = new ThreadLocal();
+
+	/*********************************************************************/
+	//Constants
+
+	/** Defines an empty record mask. */
+	public static final RecordMask EMPTY_RECORDMASK = new RecordMask(DataNames.EMPTY_RECORDLIST);
+
+	/*********************************************************************/
+	//Private fields
+
+	/** The record list it was compiled from. */
+	private final String[] m_RecordList;
+
+	/** The bits (64 keywords per word). */
+	private final long[] m_Bits;
+
+	/*********************************************************************/
+	//Constructors
+
+	/** Compiles a record list.
+	 *  @param      recordList      The list of keywords to record.
+	 */
+	public RecordMask(String[] recordList)
+	{
+		m_RecordList = recordList;
+		int[] indices = new int[recordList.length];
+		int max = -1;
+		for (int i=0; i<recordList.length; i++)
+		{
+			indices[i] = getKeyIndex(recordList[i]);
+			max = Math.max(max, indices[i]);
+		}
+		long[] bits = new long[max/64 + 1];
+		for (int i=0; i<indices.length; i++)
+		{
+			bits[indices[i] >> 6] |= (1L << (indices[i] & 63));
+		}
+		m_Bits = bits;
+	}
+
+	/*********************************************************************/
+	//Static methods
+
+	/** Returns the bit index of a keyword, assigning a new one the first time
+	 *  a keyword is seen.
+	 *  @param      keyword         The keyword.
+	 *  @return     Its bit index.
+	 */
+	public static synchronized int getKeyIndex(String keyword)
+	{
+		String key = keyword.toLowerCase();
+		Integer index = (Integer) s_KeyIndices.get(key);
+		if (index == null) {
+			index = new Integer(s_KeyIndices.size());
+			s_KeyIndices.put(key, index);
+		}
+		return index.intValue();
+	}
+
+	/** Returns the mask of a record list. If the array is the one given in
+	 *  the previous call of the same thread (or DataNames.EMPTY_RECORDLIST),
+	 *  the same mask is returned, otherwise it is compiled. Record lists must
+	 *  thus not be modified once used.
+	 *  @param      recordList      The list of keywords to record.
+	 *  @return     The corresponding mask.
+	 */
+	public static RecordMask compile(String[] recordList)
+	{
+		if (recordList == EMPTY_RECORDMASK.m_RecordList) {
+			return EMPTY_RECORDMASK;
+		}
+		RecordMask last = (RecordMask) s_LastCompiled.get();
+		if ((last != null) && (last.m_RecordList == recordList)) {
+			return last;
+		}
+		last = new RecordMask(recordList);
+		s_LastCompiled.set(last);
+		return last;
+	}
+
+	/*********************************************************************/
+	//Methods
+
+	/** Indicates whether a keyword is in the mask.
+	 *  @param      keyIndex        The keyword bit index (see {@link #getKeyIndex}).
+	 *  @return     true if the keyword was requested.
+	 */
+	public boolean contains(int keyIndex)
+	{
+		int word = keyIndex >> 6;
+		return (word < m_Bits.length) && ((m_Bits[word] & (1L << (keyIndex & 63))) != 0);
+	}
+
+	/** Indicates whether a keyword is in the mask. Prefer {@link #contains(int)}
+	 *  for keywords checked at every pattern.
+	 *  @param      keyword         The keyword.
+	 *  @return     true if the keyword was requested.
+	 */
+	public boolean contains(String keyword)
+	{
+		return contains(getKeyIndex(keyword));
+	}
+
+	/** Indicates whether nothing is requested.
+	 *  @return     true if the record list is empty.
+	 */
+	public boolean isEmpty()
+	{
+		return m_RecordList.length == 0;
+	}
+
+	/** The record list the mask was compiled from (not to be modified).
+	 *  @return     The list of keywords.
+	 */
+	public String[] getRecordList()
+	{
+		return m_RecordList;
+	}
+
+	/** Creates the mask of the concatenation of the record lists.
+	 *  @param      recordList      The keywords to add.
+	 *  @return     A new mask.
+	 */
+	public RecordMask concat(String[] recordList)
+	{
+		return new RecordMask(DataNames.concat(m_RecordList, recordList));
+	}
+
+	/*********************************************************************/
+	//toString method
+
+	public String toString()
+	{
+		String ret = "Class: RecordMask\n";
+		ret += "\tRecordList:";
+		for (int i=0; i<m_RecordList.length; i++)
+		{
+			ret += " " + m_RecordList[i];
+		}
+		return ret;
+	}
+
+}
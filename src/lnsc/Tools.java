@@ -286,8 +286,10 @@ public final class Tools
 		return (DataSet) in.readObject();
 	}
 
-	/** Copies an object by writing it to a temp file and reading it afterwards.
-	 *  This function requires serializability of the object.
+	/** Copies an object by writing it to memory and reading it afterwards.
+	 *  This function requires serializability of the object. Units used
+	 *  often should rather implement a structural copy in their
+	 *  <code>clone</code> method (see {@link #copyUnit}).
 	 *  @param      obj                     A serializable object.
 	 *  @return     A deep copy of the object.
 	 */
@@ -295,27 +297,63 @@ public final class Tools
 	{
 		Serializable ret;
 		try {
-			//take temp file name
-			String fileName = Double.toString(Math.random());
 			//write
-			FileOutputStream fileOut = new FileOutputStream(fileName);
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-	    	out.writeObject(obj);
-		    out.close();
-			fileOut.close();
+			ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytesOut);
+			out.writeObject(obj);
+			out.close();
 			//read
-			FileInputStream fileIn = new FileInputStream(fileName);
-			ObjectInputStream in = new ObjectInputStream(fileIn);
+			ByteArrayInputStream bytesIn = new ByteArrayInputStream(bytesOut.toByteArray());
+			ObjectInputStream in = new ObjectInputStream(bytesIn);
 			ret = (Serializable) in.readObject();
 			in.close();
-		    //clean up temp file
-			(new File(fileName)).delete();
 		} catch (Exception e) {
 			throw new RuntimeException(e.toString());
 		}
 		return ret;
 	}
 
+	/** Copies a functional unit using its <code>clone</code> method, which
+	 *  for the units of this package and its subpackages is a structural deep
+	 *  copy (arrays and nested units are copied field by field). Units not
+	 *  supporting <code>clone</code> are copied by serialization.
+	 *  @param      unit                    The unit to copy.
+	 *  @return     A deep copy of the unit.
+	 */
+	public static FunctionalUnit copyUnit(FunctionalUnit unit)
+	{
+		try {
+			return (FunctionalUnit) unit.clone();
+		} catch (CloneNotSupportedException e) {
+			return (FunctionalUnit) copyObject(unit);
+		}
+	}
+
+	/** Copies an array of functional units (see {@link #copyUnit}). Units
+	 *  appearing more than once in the array are copied once, so that the copy
+	 *  shares them the same way.
+	 *  @param      units                   The units to copy.
+	 *  @return     A new array of copied units.
+	 */
+	public static FunctionalUnit[] copyUnits(FunctionalUnit[] units)
+	{
+		FunctionalUnit[] ret = new FunctionalUnit[units.length];
+		for (int i=0; i<units.length; i++)
+		{
+			for (int j=0; j<i; j++)
+			{
+				if (units[j] == units[i]) {
+					ret[i] = ret[j];
+					break;
+				}
+			}
+			if (ret[i] == null) {
+				ret[i] = copyUnit(units[i]);
+			}
+		}
+		return ret;
+	}
+
 	/** Tabulates text. Given a string with new line character, a tab character
 	 *  is inserted at the beginning of every line.
 	 *  @param      text                    Text to be tabulated.
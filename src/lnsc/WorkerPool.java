@@ -0,0 +1,270 @@
+package lnsc;
+
+/** <P> Small pool of daemon threads running the parts of a job in parallel.
+ *  A job is a {@link WorkerPool.Task} and a number of parts; {@link #run}
+ *  returns once every part has been run, the calling thread running parts
+ *  too. </P>
+ *
+ *  <P> A pool runs a single job at a time. A job submitted while the pool is
+ *  busy (for instance by a part of another job, or by another thread) is run
+ *  serially by the calling thread, so that nested parallel operators never
+ *  block each other. Parts of a job must therefore be independent of the
+ *  thread and of the order in which they are run. </P>
+ *
+ *  <P> The default pool ({@link #getDefault}) has one thread per available
+ *  processor, or <code>lnsc.threads</code> threads if this system property
+ *  is set. </P>
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+public final class WorkerPool
+{
+
+	/*********************************************************************/
+	//Task interface
+
+	/** Job run by a pool, split in parts. */
+	public interface Task
+	{
+		/** Runs a part of the job.
+		 *  @param      index       Part index, in [0, part count).
+		 */
+		public void run(int index);
+	}
+
+	/*********************************************************************/
+	//Default pool
+
+	/** Default pool, created on demand. */
+	private static WorkerPool s_Default;
+
+	/** Gets the default pool (see {@link #getDefaultThreadCount}). */
+	public static synchronized WorkerPool getDefault()
+	{
+		if (s_Default == null) {
+			s_Default = new WorkerPool(getDefaultThreadCount());
+		}
+		return s_Default;
+	}
+
+	/** Gets the number of threads of the default pool: the system property
+	 *  <code>lnsc.threads</code> if set, otherwise the number of available
+	 *  processors when the JVM can tell (1 otherwise).
+	 */
+	public static int getDefaultThreadCount()
+	{
+		try {
+			String s = System.getProperty("lnsc.threads");
+			if (s != null) {
+				return Math.max(1, Integer.parseInt(s));
+			}
+		} catch (SecurityException e) {
+		} catch (NumberFormatException e) {
+		}
+		//Runtime.availableProcessors() when the JVM has it
+		try {
+			Object n = Runtime.class.getMethod("availableProcessors", new Class[0])
+						   .invoke(Runtime.getRuntime(), new Object[0]);
+			return Math.max(1, ((Integer) n).intValue());
+		} catch (Exception e) {
+			return 1;
+		}
+	}
+
+	/*********************************************************************/
+	//Private fields
+
+	/** Number of threads running the parts (including the calling one). */
+	protected int m_ThreadCount;
+
+	/** Worker threads (created on first job). */
+	protected Thread[] m_Workers;
+
+	/** Indicates whether a job is running. */
+	protected boolean m_Busy;
+
+	/** Current job (null when none). */
+	protected Task m_Task;
+
+	/** Number of parts of the current job. */
+	protected int m_Count;
+
+	/** Next part to run. */
+	protected int m_Next;
+
+	/** Number of parts done. */
+	protected int m_Done;
+
+	/** First exception or error thrown by a part. */
+	protected Throwable m_Failure;
+
+	/** Job counter, used to wake up the workers. */
+	protected int m_Generation;
+
+	/*********************************************************************/
+	//Constructors
+
+	/** Creates a pool.
+	 *  @param      threadCount     Number of threads running the parts,
+	 *                              including the calling thread (1 for a
+	 *                              serial pool).
+	 */
+	public WorkerPool(int threadCount)
+	{
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount must be strictly positive!");
+		}
+		m_ThreadCount = threadCount;
+	}
+
+	/*********************************************************************/
+	//Properties
+
+	/** Number of threads running the parts (including the calling one). */
+	public int getThreadCount() {return m_ThreadCount;}
+
+	/*********************************************************************/
+	//Methods
+
+	/** Runs all the parts of a job and returns when they are done. Parts are
+	 *  run in parallel unless the pool is serial or busy. The first exception
+	 *  thrown by a part is thrown back (once all the parts are done).
+	 *  @param      task        The job.
+	 *  @param      count       Number of parts.
+	 */
+	public void run(Task task, int count)
+	{
+		//Serial cases
+		if ((count < 2) || (m_ThreadCount < 2) || !acquire()) {
+			for (int i=0; i<count; i++)
+			{
+				task.run(i);
+			}
+			return;
+		}
+
+		//Parallel case
+		Throwable failure;
+		try {
+			synchronized (this) {
+				if (m_Workers == null) {
+					startWorkers();
+				}
+				m_Task = task;
+				m_Count = count;
+				m_Next = 0;
+				m_Done = 0;
+				m_Failure = null;
+				m_Generation++;
+				notifyAll();
+			}
+			work();
+			boolean interrupted = false;
+			synchronized (this) {
+				while (m_Done < m_Count) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				failure = m_Failure;
+				m_Task = null;
+				m_Failure = null;
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			release();
+		}
+
+		//Throw back failure
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure.toString());
+		}
+	}
+
+	/** Marks the pool busy if it is not. */
+	protected synchronized boolean acquire()
+	{
+		if (m_Busy) {
+			return false;
+		}
+		m_Busy = true;
+		return true;
+	}
+
+	/** Marks the pool not busy. */
+	protected synchronized void release()
+	{
+		m_Busy = false;
+	}
+
+	/** Runs parts of the current job until none is left. */
+	protected void work()
+	{
+		while (true) {
+			Task task;
+			int index;
+			synchronized (this) {
+				if ((m_Task == null) || (m_Next >= m_Count)) {
+					return;
+				}
+				task = m_Task;
+				index = m_Next++;
+			}
+			try {
+				task.run(index);
+			} catch (Throwable t) {
+				synchronized (this) {
+					if (m_Failure == null) {
+						m_Failure = t;
+					}
+				}
+			} finally {
+				synchronized (this) {
+					m_Done++;
+					if (m_Done == m_Count) {
+						notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/** Creates and starts the worker threads. */
+	protected void startWorkers()
+	{
+		m_Workers = new Thread[m_ThreadCount-1];
+		for (int i=0; i<m_Workers.length; i++)
+		{
+			m_Workers[i] = new Thread("lnsc.WorkerPool-" + i) {
+				public void run() {
+					int seen = 0;
+					while (true) {
+						synchronized (WorkerPool.this) {
+							while (m_Generation == seen) {
+								try {
+									WorkerPool.this.wait();
+								} catch (InterruptedException e) {
+								}
+							}
+							seen = m_Generation;
+						}
+						work();
+					}
+				}
+			};
+			m_Workers[i].setDaemon(true);
+			m_Workers[i].start();
+		}
+	}
+
+}
@@ -88,12 +88,62 @@ public abstract class AbstractLSTMFactory implements FunctionalUnitFactory {
     /** Output layer local gradient factor. */
     protected double m_OutputWeightsLocalGradientFactor = 1.0;
 
+    /** Creates single precision networks (see FloatLSTMNetwork). */
+    protected boolean m_SinglePrecision = false;
+
+    /** Evaluation mode of the logistic functions (see LogisticUnit). */
+    protected int m_LogisticEvaluation = LogisticUnit.getDefaultEvaluation();
+
+    /** Creates networks skipping their zero inputs. */
+    protected boolean m_SparseInputs = LinearAlgebra.getDefaultSparseInputs();
+
     /*********************************************************************/
     //Constructors
 
     //Force packages
     protected AbstractLSTMFactory() {}
 
+    /*********************************************************************/
+    //Properties
+
+    /** Sets whether the factory creates single precision networks
+     * ({@link FloatLSTMNetwork}) instead of double precision ones (default).
+     * Weights are initialized in double precision before being rounded.
+     * @param   newSinglePrecision   true for single precision networks.
+     */
+    public void setSinglePrecision(boolean newSinglePrecision)
+    {
+        m_SinglePrecision = newSinglePrecision;
+    }
+
+    /** Sets how the logistic functions of the networks created by the
+     * factory evaluate their output and derivative (see
+     * {@link LogisticUnit#setEvaluation}). Defaults to
+     * {@link LogisticUnit#getDefaultEvaluation}. Each network gets its own
+     * copies of the logistic functions not already in that mode, so that
+     * networks in different modes can run side by side.
+     * @param   newLogisticEvaluation   LogisticUnit.EVALUATION_EXACT or
+     *                                  LogisticUnit.EVALUATION_TABLE.
+     */
+    public void setLogisticEvaluation(int newLogisticEvaluation)
+    {
+        if ((newLogisticEvaluation != LogisticUnit.EVALUATION_EXACT) &&
+            (newLogisticEvaluation != LogisticUnit.EVALUATION_TABLE)) {
+            throw new IllegalArgumentException("Unknown evaluation mode!");
+        }
+        m_LogisticEvaluation = newLogisticEvaluation;
+    }
+
+    /** Sets whether the networks created by the factory skip their zero
+     * inputs (see {@link FastLSTMMemoryBlock#setSparseInputs}). Defaults to
+     * {@link LinearAlgebra#getDefaultSparseInputs}.
+     * @param   newSparseInputs   true to skip the zero inputs.
+     */
+    public void setSparseInputs(boolean newSparseInputs)
+    {
+        m_SparseInputs = newSparseInputs;
+    }
+
     /*********************************************************************/
     //Helpers
 
@@ -103,6 +153,20 @@ public abstract class AbstractLSTMFactory implements FunctionalUnitFactory {
 
     protected abstract void initializeWeights(FastLSTMNetwork newNet);
 
+    /** Applies the factory settings to a new network, initializes its
+     * weights and converts it to single precision on request.
+     * @param   newNet   The new network (as constructed).
+     * @return  The network to return from createUnit.
+     */
+    protected FunctionalUnit completeUnit(FastLSTMNetwork newNet)
+    {
+        newNet.setOutputWeightsLocalGradientFactor(m_OutputWeightsLocalGradientFactor);
+        newNet.setLogisticEvaluation(m_LogisticEvaluation);
+        newNet.setSparseInputs(m_SparseInputs);
+        initializeWeights(newNet);
+        return m_SinglePrecision ? new FloatLSTMNetwork(newNet) : newNet;
+    }
+
     /*********************************************************************/
     //FunctionalUnitFactory interface implementation
 
@@ -122,9 +186,7 @@ public abstract class AbstractLSTMFactory implements FunctionalUnitFactory {
             m_BiasToOutput,
             m_InputToOutput,
             m_GateToOutput);
-         newNet.setOutputWeightsLocalGradientFactor(m_OutputWeightsLocalGradientFactor);
-        initializeWeights(newNet);
-        return newNet;
+        return completeUnit(newNet);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,603 @@
+package lnsc.lstm;
+
+import java.io.Serializable;
+import lnsc.pmvf.*;
+import lnsc.*;
+
+
+/** Offline predictive minimized sum-squared-error learning procedure using
+ *  truncated backpropagation through time. Like {@link OnlineSPMSELearning},
+ *  the network output at time t is trained to predict the given input of
+ *  the pattern at time t+1 (it minimizes half-SSE), but a whole recorded
+ *  sequence is given at once (e.g. the InputPatterns of an experiment
+ *  block).
+ *
+ *  The sequence is processed in chunks of fixed length. Each chunk is run
+ *  forward from the state reached at the end of the previous chunk, while its
+ *  activations are written into preallocated tapes; the error is then
+ *  backpropagated through the chunk (and no further) and the weights are
+ *  updated once per chunk. The cost of a step is proportional to the number
+ *  of weights, instead of the number of weights times the number of memory
+ *  cells for the forward derivatives (RTRL) of the online procedure, and no
+ *  memory is allocated while training.
+ *
+ *  Every sequence starts from a reset state. The network transient state is
+ *  neither used nor modified, only its weights are. The gradient is the
+ *  exact gradient of the unrolled chunk, eligibility traces of
+ *  {@link ETLSTMNetwork1} are not used.
+ *
+ *  The network must have a single output.
+ *
+ * @see OnlineSPMSELearning
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+
+public class BPTTSPMSELearning implements Serializable {
+
+    /*********************************************************************/
+    //Serial Version UID
+
+    /** Serial version UID. */
+    static final long serialVersionUID = -2106183305460383617L;
+
+    /*********************************************************************/
+    //Private fields
+
+    /** Network to be trained. */
+    protected FastLSTMNetwork m_Net;
+
+    /** Learning rate. */
+    protected double m_Alpha;
+
+    /** Input index. */
+    protected int m_Index;
+
+    /** Number of steps per chunk. */
+    protected int m_ChunkLength;
+
+    /*********************************************************************/
+    //Private fields (architecture, taken from the network)
+
+    /** Number of memory blocks and memory cells per block. */
+    protected transient int m_BlockCount, m_CellCount;
+
+    /** Number of input of each block and of the output layer. */
+    protected transient int m_BlockInputCount, m_OutputInputCount;
+
+    /*********************************************************************/
+    //Private fields (tapes [ChunkLength][...], see allocateTapes)
+
+    /** Memory blocks input. [ChunkLength][BlockInputCount]. */
+    protected transient double[][] m_BlockInputTape;
+
+    /** Gates (in, fgt, out) outputs and derivatives. [ChunkLength][BlockCount*3]. */
+    protected transient double[][] m_GateTape, m_GateDerivativeTape;
+
+    /** Memory cells g outputs and derivatives. [ChunkLength][BlockCount*CellCount]. */
+    protected transient double[][] m_MemoryCell_1stTape, m_MemoryCell_1stDerivativeTape;
+
+    /** Memory cells h outputs and derivatives. [ChunkLength][BlockCount*CellCount]. */
+    protected transient double[][] m_MemoryCell_2ndTape, m_MemoryCell_2ndDerivativeTape;
+
+    /** Memory cells previous and current states. [ChunkLength][BlockCount*CellCount]. */
+    protected transient double[][] m_PreviousStateTape, m_StateTape;
+
+    /** Memory blocks output. [ChunkLength][BlockCount*(CellCount+3)]. */
+    protected transient double[][] m_BlockOutputTape;
+
+    /** Output layer input. [ChunkLength][OutputInputCount]. */
+    protected transient double[][] m_OutputInputTape;
+
+    /** Network output, its derivative, and its error. [ChunkLength]. */
+    protected transient double[] m_OutputTape, m_OutputDerivativeTape, m_ErrorTape;
+
+    /*********************************************************************/
+    //Private fields (backward workspaces)
+
+    /** Gradient (network parameters order). */
+    protected transient double[] m_Gradient;
+
+    /** Gradient of the whole sequence (network parameters order). */
+    protected transient double[] m_SequenceGradient;
+
+    /** Error derivative to memory blocks output at t and t-1. [BlockCount][CellCount+3]. */
+    protected transient double[][] m_Der2BlockOutput, m_Der2PrevBlockOutput;
+
+    /** Error derivative to previous states. [BlockCount][CellCount]. */
+    protected transient double[][] m_Der2PrevState;
+
+    /** Error derivative to current states. [CellCount]. */
+    protected transient double[] m_Der2State;
+
+    /** Error derivative to blocks input. [BlockInputCount]. */
+    protected transient double[] m_Der2BlockInput;
+
+    /** Memory cells and gates net inputs (forward workspace). [CellCount+3]. */
+    protected transient double[] m_NetInputs;
+
+    /*********************************************************************/
+    //Constructors
+
+    /** Constructs a learner for an LSTM network.
+     * @param   newNet          LSTMNetwork to train (single output).
+     * @param   newAlpha        Learning rate.
+     * @param   newIndex        Input index to predict.
+     * @param   newChunkLength  Number of steps per chunk.
+     */
+    public BPTTSPMSELearning(FastLSTMNetwork newNet, double newAlpha, int newIndex, int newChunkLength) {
+        //Argument check
+        if (newNet.getOutputCount() != 1) {
+            throw new IllegalArgumentException("Network must have a single output!");
+        }
+        if ((newIndex < 0) || (newIndex >= newNet.getInputCount())) {
+            throw new IllegalArgumentException("newIndex must be a valid input index!");
+        }
+        if (newChunkLength < 1) {
+            throw new IllegalArgumentException("Chunk length must be strickly positive!");
+        }
+        if (newNet instanceof FloatLSTMNetwork) {
+            throw new IllegalArgumentException("Single precision networks are not supported!");
+        }
+        m_Net = newNet;
+        m_Alpha = newAlpha;
+        m_Index = newIndex;
+        m_ChunkLength = newChunkLength;
+        allocateTapes();
+    }
+
+    /*********************************************************************/
+    //Properties
+
+    /** Allow the learning rate to be changed.
+     * @param   newLearningRate   New learning rate value.
+     */
+    public void setLearningRate(double newLearningRate) {
+        m_Alpha = newLearningRate;
+    }
+
+    /** Number of steps per chunk. */
+    public int getChunkLength() {
+        return m_ChunkLength;
+    }
+
+    /*********************************************************************/
+    //Helpers
+
+    /** Creates the tapes and workspaces. */
+    protected void allocateTapes() {
+        int L = m_ChunkLength;
+        int B = m_Net.m_MemoryBlockCount;
+        int C = (B == 0) ? 0 : m_Net.m_MemoryBlocks[0].m_MemoryCellCount;
+        int I = (B == 0) ? 1 + m_Net.getInputCount() : m_Net.m_MemoryBlocks[0].getInputCount();
+        int K = m_Net.m_OutputLayer.getInputCount();
+        m_BlockCount = B;
+        m_CellCount = C;
+        m_BlockInputCount = I;
+        m_OutputInputCount = K;
+
+        //Tapes
+        m_BlockInputTape = new double[L][I];
+        m_GateTape = new double[L][B*3];
+        m_GateDerivativeTape = new double[L][B*3];
+        m_MemoryCell_1stTape = new double[L][B*C];
+        m_MemoryCell_1stDerivativeTape = new double[L][B*C];
+        m_MemoryCell_2ndTape = new double[L][B*C];
+        m_MemoryCell_2ndDerivativeTape = new double[L][B*C];
+        m_PreviousStateTape = new double[L][B*C];
+        m_StateTape = new double[L][B*C];
+        m_BlockOutputTape = new double[L][B*(C+3)];
+        m_OutputInputTape = new double[L][K];
+        m_OutputTape = new double[L];
+        m_OutputDerivativeTape = new double[L];
+        m_ErrorTape = new double[L];
+
+        //Workspaces
+        m_Gradient = new double[m_Net.getParameterCount()];
+        m_SequenceGradient = new double[m_Net.getParameterCount()];
+        m_Der2BlockOutput = new double[B][C+3];
+        m_Der2PrevBlockOutput = new double[B][C+3];
+        m_Der2PrevState = new double[B][C];
+        m_Der2State = new double[C];
+        m_Der2BlockInput = new double[I];
+        m_NetInputs = new double[C+3];
+    }
+
+    /** Processes a pattern forward, recording the activations at a given
+     * position in the tapes. The previous state is read from the tapes at
+     * the previous position (or is zero if prev is -1).
+     * @param   inputPattern    Input pattern.
+     * @param   i               Position in the tapes.
+     * @param   prev            Previous position in the tapes (-1 for none).
+     */
+    protected void forward(double[] inputPattern, int i, int prev) {
+        FastLSTMNetwork net = m_Net;
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        int X = net.getInputCount();
+        double[] prevState = (prev == -1) ? null : m_StateTape[prev];
+        double[] prevOutput = (prev == -1) ? null : m_BlockOutputTape[prev];
+
+        //*Memory blocks input vector: 1, input, previous blocks output
+        double[] x = m_BlockInputTape[i];
+        int index = 0;
+        x[index++] = 1.0;
+        for (int j=0; j<X; j++)
+        {
+            x[index++] = inputPattern[j];
+        }
+        int recCount = net.m_GateToGate ? C+3 : C;
+        for (int b=0; b<B; b++)
+        {
+            for (int k=0; k<recCount; k++)
+            {
+                x[index++] = (prev == -1) ? 0.0 : prevOutput[b*(C+3)+k];
+            }
+        }
+
+        //*Memory blocks (see FastLSTMMemoryBlock)
+        double[] gates = m_GateTape[i];
+        double[] gateDer = m_GateDerivativeTape[i];
+        double[] g = m_MemoryCell_1stTape[i];
+        double[] gDer = m_MemoryCell_1stDerivativeTape[i];
+        double[] h = m_MemoryCell_2ndTape[i];
+        double[] hDer = m_MemoryCell_2ndDerivativeTape[i];
+        double[] sPrev = m_PreviousStateTape[i];
+        double[] s = m_StateTape[i];
+        double[] out = m_BlockOutputTape[i];
+        double[] netInputs = m_NetInputs;
+        for (int b=0; b<B; b++)
+        {
+            FastLSTMMemoryBlock blk = net.m_MemoryBlocks[b];
+            int bc = b*C;
+            for (int c=0; c<C; c++)
+            {
+                sPrev[bc+c] = (prev == -1) ? 0.0 : prevState[bc+c];
+            }
+            //Net inputs (fused pass, output gate peepholes excluded)
+            blk.computeNetInputs(x, sPrev, bc, netInputs);
+            //Input and forget gates
+            gates[b*3+0] = FastLSTMMemoryBlock.processFunction(blk.m_InputGate, netInputs[C+0], true, gateDer, b*3+0);
+            gates[b*3+1] = FastLSTMMemoryBlock.processFunction(blk.m_ForgetGate, netInputs[C+1], true, gateDer, b*3+1);
+            //Memory cells
+            for (int c=0; c<C; c++)
+            {
+                g[bc+c] = FastLSTMMemoryBlock.processFunction(blk.m_g, netInputs[c], true, gDer, bc+c);
+                s[bc+c] = gates[b*3+0] * g[bc+c] + gates[b*3+1] * sPrev[bc+c];
+            }
+            //Output gate
+            double netOut = netInputs[C+2] +
+                weightedSum(blk.m_OutputGatePeepholeWeights, s, bc);
+            gates[b*3+2] = FastLSTMMemoryBlock.processFunction(blk.m_OutputGate, netOut, true, gateDer, b*3+2);
+            //Output
+            for (int c=0; c<C; c++)
+            {
+                h[bc+c] = FastLSTMMemoryBlock.processFunction(blk.m_h, s[bc+c], true, hDer, bc+c);
+                out[b*(C+3)+c] = gates[b*3+2] * h[bc+c];
+            }
+            out[b*(C+3)+C+0] = gates[b*3+0];
+            out[b*(C+3)+C+1] = gates[b*3+1];
+            out[b*(C+3)+C+2] = gates[b*3+2];
+        }
+
+        //*Output layer input vector: 1, input, blocks output
+        double[] u = m_OutputInputTape[i];
+        index = 0;
+        if (net.m_BiasToOutput) {
+            u[index++] = 1.0;
+        }
+        if (net.m_InputToOutput) {
+            for (int j=0; j<X; j++)
+            {
+                u[index++] = inputPattern[j];
+            }
+        }
+        int outCount = net.m_GateToOutput ? C+3 : C;
+        for (int b=0; b<B; b++)
+        {
+            for (int k=0; k<outCount; k++)
+            {
+                u[index++] = out[b*(C+3)+k];
+            }
+        }
+
+        //*Output layer
+        double net_y = net.m_OutputLayer.getWeightMatrix().getRow(0).weightedSum(u, 0);
+        m_OutputTape[i] = FastLSTMMemoryBlock.processFunction(
+            net.m_OutputLayer.getOutputUnits()[0], net_y, true, m_OutputDerivativeTape, i);
+    }
+
+    /** Dot product of w with v[start..start+w.length-1]. */
+    protected static double weightedSum(double[] w, double[] v, int start) {
+        double ret = 0;
+        for (int i=0; i<w.length; i++)
+        {
+            ret += w[i] * v[start+i];
+        }
+        return ret;
+    }
+
+    /** Backpropagates the errors of the first n positions of the tapes and
+     * writes the gradient into m_Gradient. */
+    protected void backward(int n) {
+        FastLSTMNetwork net = m_Net;
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        int K = m_OutputInputCount;
+        int X = net.getInputCount();
+        double[] grad = m_Gradient;
+        double[] wy = net.m_OutputLayer.getWeightMatrix().getRow(0).toArray();
+        double factor = net.m_OutputWeightsLocalGradientFactor;
+        int recCount = net.m_GateToGate ? C+3 : C;
+        int outCount = net.m_GateToOutput ? C+3 : C;
+        int uStart = (net.m_BiasToOutput?1:0) + (net.m_InputToOutput?X:0);
+        int pOut = net.getParameterCount() - K;
+
+        //*Nothing flows from after the chunk
+        for (int k=0; k<grad.length; k++)
+        {
+            grad[k] = 0.0;
+        }
+        for (int b=0; b<B; b++)
+        {
+            for (int k=0; k<C+3; k++)
+            {
+                m_Der2PrevBlockOutput[b][k] = 0.0;
+            }
+            for (int c=0; c<C; c++)
+            {
+                m_Der2PrevState[b][c] = 0.0;
+            }
+        }
+
+        //*Backward through time
+        for (int i=n-1; i>=0; i--)
+        {
+            //Output layer
+            double dy = m_ErrorTape[i] * m_OutputDerivativeTape[i];
+            double[] u = m_OutputInputTape[i];
+            for (int k=0; k<K; k++)
+            {
+                grad[pOut+k] += factor * (dy * u[k]);
+            }
+
+            //Derivative to blocks output (from output layer and from t+1)
+            for (int b=0; b<B; b++)
+            {
+                double[] dOut = m_Der2BlockOutput[b];
+                double[] dNext = m_Der2PrevBlockOutput[b];
+                int su = uStart + b*outCount;
+                for (int k=0; k<C+3; k++)
+                {
+                    dOut[k] = dNext[k] + ((k < outCount) ? dy * wy[su+k] : 0.0);
+                }
+            }
+
+            //Memory blocks
+            double[] x = m_BlockInputTape[i];
+            double[] gates = m_GateTape[i];
+            double[] gateDer = m_GateDerivativeTape[i];
+            double[] g = m_MemoryCell_1stTape[i];
+            double[] gDer = m_MemoryCell_1stDerivativeTape[i];
+            double[] h = m_MemoryCell_2ndTape[i];
+            double[] hDer = m_MemoryCell_2ndDerivativeTape[i];
+            double[] sPrev = m_PreviousStateTape[i];
+            double[] s = m_StateTape[i];
+            double[] dx = m_Der2BlockInput;
+            double[] ds = m_Der2State;
+            for (int j=0; j<I; j++)
+            {
+                dx[j] = 0.0;
+            }
+            int pb = 0;
+            for (int b=0; b<B; b++)
+            {
+                FastLSTMMemoryBlock blk = net.m_MemoryBlocks[b];
+                double[] dOut = m_Der2BlockOutput[b];
+                double[] dsPrev = m_Der2PrevState[b];
+                int bc = b*C;
+                double inputGate = gates[b*3+0];
+                double forgetGate = gates[b*3+1];
+                double outputGate = gates[b*3+2];
+
+                //Output gate
+                double dOutputGate = dOut[C+2];
+                for (int c=0; c<C; c++)
+                {
+                    dOutputGate += dOut[c] * h[bc+c];
+                }
+                double dNetOutputGate = dOutputGate * gateDer[b*3+2];
+
+                //States (from output, output gate peepholes, and t+1)
+                for (int c=0; c<C; c++)
+                {
+                    ds[c] = dsPrev[c] +
+                        dOut[c] * outputGate * hDer[bc+c] +
+                        dNetOutputGate * blk.m_OutputGatePeepholeWeights[c];
+                }
+
+                //Input and forget gates
+                double dInputGate = dOut[C+0];
+                double dForgetGate = dOut[C+1];
+                for (int c=0; c<C; c++)
+                {
+                    dInputGate += ds[c] * g[bc+c];
+                    dForgetGate += ds[c] * sPrev[bc+c];
+                }
+                double dNetInputGate = dInputGate * gateDer[b*3+0];
+                double dNetForgetGate = dForgetGate * gateDer[b*3+1];
+
+                //Memory cells weights (fused matrix, see FastLSTMMemoryBlock)
+                double[] w = blk.m_Weights;
+                int R = C+3;
+                for (int c=0; c<C; c++)
+                {
+                    double dNetCell = ds[c] * inputGate * gDer[bc+c];
+                    int p = pb + c*I;
+                    for (int j=0; j<I; j++)
+                    {
+                        grad[p+j] += dNetCell * x[j];
+                        dx[j] += dNetCell * w[j*R+c];
+                    }
+                }
+
+                //Gates weights
+                int pIn = pb + I*C;
+                int pFgt = pb + I*(C+1)+C;
+                int pOutGate = pb + I*(C+2)+2*C;
+                for (int j=0; j<I; j++)
+                {
+                    grad[pIn+j] += dNetInputGate * x[j];
+                    grad[pFgt+j] += dNetForgetGate * x[j];
+                    grad[pOutGate+j] += dNetOutputGate * x[j];
+                    dx[j] += dNetInputGate * w[j*R+C+0] +
+                             dNetForgetGate * w[j*R+C+1] +
+                             dNetOutputGate * w[j*R+C+2];
+                }
+
+                //Peephole weights, and derivative to previous states
+                for (int c=0; c<C; c++)
+                {
+                    grad[pIn+I+c] += dNetInputGate * sPrev[bc+c];
+                    grad[pFgt+I+c] += dNetForgetGate * sPrev[bc+c];
+                    grad[pOutGate+I+c] += dNetOutputGate * s[bc+c];
+                    dsPrev[c] = ds[c] * forgetGate +
+                                dNetInputGate * blk.m_InputGatePeepholeWeights[c] +
+                                dNetForgetGate * blk.m_ForgetGatePeepholeWeights[c];
+                }
+
+                pb += blk.getParameterCount();
+            }
+
+            //Derivative to previous blocks output (recurrent part of the input)
+            int index = 1 + X;
+            for (int b=0; b<B; b++)
+            {
+                double[] dNext = m_Der2PrevBlockOutput[b];
+                for (int k=0; k<C+3; k++)
+                {
+                    dNext[k] = (k < recCount) ? dx[index+k] : 0.0;
+                }
+                index += recCount;
+            }
+        }
+    }
+
+    /*********************************************************************/
+    //Methods
+
+    /** Trains the network on a sequence, starting from a reset state.
+     *  @param   sequence     Input patterns, in order.
+     *  @param   recordList   Data to record: SUM_SQUARED_ERROR and
+     *                        PATTERN_COUNT (number of errors), OUTPUT_PATTERNS
+     *                        and ERROR_PATTERNS ([t][1] for each pattern
+     *                        having a target), and GRADIENT (sum over the
+     *                        sequence).
+     *  @return  The recorded data.
+     */
+    public DataSet train(double[][] sequence, String[] recordList)
+    {
+        //Restore tapes after deserialization
+        if (m_BlockInputTape == null) {
+            allocateTapes();
+        }
+
+        int T = sequence.length;
+        int L = m_ChunkLength;
+        int P = m_Gradient.length;
+        boolean recordPatterns =
+            DataNames.isMember(DataNames.OUTPUT_PATTERNS, recordList) ||
+            DataNames.isMember(DataNames.ERROR_PATTERNS, recordList);
+        boolean recordGradient = DataNames.isMember(DataNames.GRADIENT, recordList);
+        double[][] outputs = recordPatterns ? new double[Math.max(T-1,0)][1] : null;
+        double[][] errors = recordPatterns ? new double[Math.max(T-1,0)][1] : null;
+        if (recordGradient) {
+            for (int k=0; k<P; k++)
+            {
+                m_SequenceGradient[k] = 0.0;
+            }
+        }
+        double sse = 0;
+
+        //*Chunks
+        int prev = -1;
+        for (int t0=0; t0<T; t0+=L)
+        {
+            int n = Math.min(L, T-t0);
+
+            //Forward (the previous state is at the end of the previous chunk)
+            for (int i=0; i<n; i++)
+            {
+                int t = t0+i;
+                forward(sequence[t], i, (i == 0) ? prev : i-1);
+                if (t+1 < T) {
+                    m_ErrorTape[i] = m_OutputTape[i] - sequence[t+1][m_Index];
+                    sse += m_ErrorTape[i] * m_ErrorTape[i];
+                    if (recordPatterns) {
+                        outputs[t][0] = m_OutputTape[i];
+                        errors[t][0] = m_ErrorTape[i];
+                    }
+                } else {
+                    m_ErrorTape[i] = 0.0;
+                }
+            }
+
+            //Backward & update
+            backward(n);
+            m_Net.addeParameters(-m_Alpha, m_Gradient, 0);
+            if (recordGradient) {
+                for (int k=0; k<P; k++)
+                {
+                    m_SequenceGradient[k] += m_Gradient[k];
+                }
+            }
+            prev = n-1;
+        }
+
+        //*Record
+        DataSet ret = new DataSet();
+        if (DataNames.isMember(DataNames.SUM_SQUARED_ERROR, recordList)) {
+            ret.setData(DataNames.SUM_SQUARED_ERROR, new Double(sse));
+        }
+        if (DataNames.isMember(DataNames.PATTERN_COUNT, recordList)) {
+            ret.setData(DataNames.PATTERN_COUNT, new Integer(Math.max(T-1,0)));
+        }
+        if (DataNames.isMember(DataNames.OUTPUT_PATTERNS, recordList)) {
+            ret.setData(DataNames.OUTPUT_PATTERNS, outputs);
+        }
+        if (DataNames.isMember(DataNames.ERROR_PATTERNS, recordList)) {
+            ret.setData(DataNames.ERROR_PATTERNS, errors);
+        }
+        if (recordGradient) {
+            ret.setData(DataNames.GRADIENT, LinearAlgebra.copyVector(m_SequenceGradient));
+        }
+        return ret;
+    }
+
+    /** Trains the network on a sequence, starting from a reset state.
+     *  @param   sequence     Input patterns, in order.
+     *  @return  The sum-squared-error of the predictions.
+     */
+    public double train(double[][] sequence)
+    {
+        DataSet ret = train(sequence, new String[] {DataNames.SUM_SQUARED_ERROR});
+        return ((Double) ret.getData(DataNames.SUM_SQUARED_ERROR)).doubleValue();
+    }
+
+    /*********************************************************************/
+    //toString method
+
+
+    public String toString()
+    {
+        String ret = super.toString() + "\n";
+        ret += "Class: BPTTSPMSELearning\n";
+        ret += "\tLearningRate: " + m_Alpha;
+        ret += "\tIndex: " + m_Index;
+        ret += "\tChunkLength: " + m_ChunkLength;
+        return ret;
+    }
+
+}
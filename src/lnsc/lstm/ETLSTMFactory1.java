@@ -121,9 +121,7 @@ public class ETLSTMFactory1 extends LSTMFactory {
             m_GateToOutput,
             m_Lambda,
             m_OppSignResetTraces);
-        newNet.setOutputWeightsLocalGradientFactor(m_OutputWeightsLocalGradientFactor);
-        initializeWeights(newNet);
-        return newNet;
+        return completeUnit(newNet);
     }
 
 
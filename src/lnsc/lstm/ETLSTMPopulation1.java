@@ -0,0 +1,1083 @@
+package lnsc.lstm;
+
+import java.io.Serializable;
+import lnsc.*;
+import lnsc.pmvf.*;
+
+/** <P> Population of LSTM networks using eligibility traces (see
+ * {@link ETLSTMNetwork1}) sharing the same architecture, each one trained by
+ * its own online predictive learner (see {@link OnlineSPMSELearning}), and
+ * advanced in lockstep one time step at a time. </P>
+ *
+ * <P> The weights, the eligibility traces, the memory cell states and the
+ * derivative recurrences of all the members are stored in contiguous
+ * primitive arrays (structure of arrays): value k of member m is stored at
+ * index <code>k*MemberCount + m</code>. Every inner loop runs across the
+ * members, so that a step for the whole population has the overhead of a
+ * single step and each loop can be vectorized. </P>
+ *
+ * <P> Each member performs exactly the same operations in the same order as
+ * a single network trained by an OnlineSPMSELearning would, so that its
+ * results (outputs, recorded data and weights) are identical to what it would
+ * get running alone. A member weights can be retrieved (in the network
+ * parameters order) or stored back into a network at any time. </P>
+ *
+ * <P> Only networks with a single output and simple functions
+ * ({@link AbstractSimpleUnit}), such as those made by {@link ETLSTMFactory1},
+ * are supported. </P>
+ *
+ *  @see ETLSTMNetwork1
+ *  @see OnlineSPMSELearning
+ *
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+public class ETLSTMPopulation1 implements Serializable {
+
+    /*********************************************************************/
+    //Serial Version UID
+
+    /** Serial version UID. */
+    static final long serialVersionUID = 3307496405520416717L;
+
+    /*********************************************************************/
+    //Private fields (architecture)
+
+    /** Number of networks (N). */
+    protected int m_MemberCount;
+
+    /** Number of input to the networks. */
+    protected int m_InputCount;
+
+    /** Number of memory blocks (B). */
+    protected int m_BlockCount;
+
+    /** Number of memory cells per block (C). */
+    protected int m_CellCount;
+
+    /** Number of input to each memory block (I). */
+    protected int m_BlockInputCount;
+
+    /** Number of parameters of each memory block. */
+    protected int m_BlockParameterCount;
+
+    /** Number of input to the output layer (K). */
+    protected int m_OutputInputCount;
+
+    /** Number of parameters of each network. */
+    protected int m_ParameterCount;
+
+    /** Network connectivity. */
+    protected boolean m_GateToGate, m_BiasToOutput, m_InputToOutput, m_GateToOutput;
+
+    /** Output layer local gradient factor. */
+    protected double m_OutputWeightsLocalGradientFactor;
+
+    /** Eligibility trace decay rate. */
+    protected double m_Lambda;
+
+    /** Indicate whether traces are reset on opposite sign */
+    protected boolean m_OppSignResetTraces;
+
+    /** Memory block functions. */
+    protected AbstractSimpleUnit m_g, m_h, m_InputGate, m_ForgetGate, m_OutputGate;
+
+    /** Output unit function. */
+    protected AbstractSimpleUnit m_Output;
+
+    /** Input index to predict. */
+    protected int m_Index;
+
+    /*********************************************************************/
+    //Private fields (weights and learning rates)
+
+    /** Parameters in network order [ParameterCount*N]. */
+    protected double[] m_Parameters;
+
+    /** Learning rates [N]. */
+    protected double[] m_LearningRates;
+
+    /*********************************************************************/
+    //Private fields (states, see also reset)
+
+    /** Whether the derivatives of the previous pattern are available [N]. */
+    protected boolean[] m_HasPreviousGradient;
+
+    /** Output at t-1 [N]. */
+    protected double[] m_PreviousOutput;
+
+    /** Memory cell states at t-1 and t [B*C*N]. */
+    protected double[] m_PreviousState, m_CurrentState;
+
+    /** Memory blocks output at t-1 and t [B*(C+3)*N]. */
+    protected double[] m_PrevBlocksOutput, m_BlocksOutput;
+
+    /** Input eligibility traces (same for every block) [I*N]. */
+    protected double[] m_InputeTraces;
+
+    /** Memory cell eligibility traces at t-1 and t [B*C*N]. */
+    protected double[] m_PrevCelleTraces, m_CelleTraces;
+
+    /** Partial derivatives from the states to the memory cell, input gate
+     * and forget gate weights [B*C*I*N]. */
+    protected double[] m_CsDer2MemoryCellWeights, m_CsDer2InputWeights, m_CsDer2ForgetWeights;
+
+    /** Partial derivatives from the states to the input and forget gate
+     * peephole weights [B*C*C*N]. */
+    protected double[] m_CsDer2InputPeepholeWeights, m_CsDer2ForgetPeepholeWeights;
+
+    /** Derivative from block output to current state and output gate net
+     * input [B*C*N]. */
+    protected double[] m_Der2CurrentState, m_Der2NetOutputGate;
+
+    /** Output layer input vector [K*N]. */
+    protected double[] m_OutputInput;
+
+    /** Derivative from network output to output layer input [K*N]. */
+    protected double[] m_OutputDerivative;
+
+    /** Derivative from network output to output layer net input [N]. */
+    protected double[] m_OutputNetDerivative;
+
+    /*********************************************************************/
+    //Private fields (workspaces)
+
+    /** Memory blocks input vector [I*N]. */
+    protected double[] m_BlockInput;
+
+    /** Gates activations and derivatives [3*N]. */
+    protected double[] m_Gates, m_GateDerivatives;
+
+    /** Memory cells g and h outputs and derivatives [C*N]. */
+    protected double[] m_MemoryCell_1st, m_MemoryCell_1stDerivatives,
+        m_MemoryCell_2nd, m_MemoryCell_2ndDerivatives;
+
+    /** Derivative from current state to net inputs [C*N]. */
+    protected double[] m_CsDer2Net;
+
+    /** Weighted sums [N]. */
+    protected double[] m_Sum1, m_Sum2;
+
+    /** Error vector projected on the block cells [C*N]. */
+    protected double[] m_ProjectedError;
+
+    /** Gradient [ParameterCount*N]. */
+    protected double[] m_Gradient;
+
+    /*********************************************************************/
+    //Constructors
+
+    /** Constructs a population from a set of networks. Networks are copied,
+     * they are not modified by the population.
+     * @param   newNets    Networks (same architecture, single output).
+     * @param   newAlpha   Learning rate (of each network)
+     * @param   newIndex   Input index to predict.
+     */
+    public ETLSTMPopulation1(ETLSTMNetwork1[] newNets, double newAlpha, int newIndex) {
+
+        //Argument check
+        if (newNets.length < 1) {
+            throw new IllegalArgumentException("Population must have at least one network!");
+        }
+        ETLSTMNetwork1 net = newNets[0];
+        if (net.getOutputCount() != 1) {
+            throw new IllegalArgumentException("Networks must have a single output!");
+        }
+        if (net.m_MemoryBlockCount < 1) {
+            throw new IllegalArgumentException("Networks must have at least one memory block!");
+        }
+        if ((newIndex < 0) || (newIndex >= net.getInputCount())) {
+            throw new IllegalArgumentException("newIndex must be a valid input index!");
+        }
+
+        //Architecture
+        ETLSTMMemoryBlock1 block = (ETLSTMMemoryBlock1) net.m_MemoryBlocks[0];
+        m_MemberCount = newNets.length;
+        m_InputCount = net.getInputCount();
+        m_BlockCount = net.m_MemoryBlockCount;
+        m_CellCount = block.m_MemoryCellCount;
+        m_BlockInputCount = block.getInputCount();
+        m_BlockParameterCount = block.getParameterCount();
+        m_OutputInputCount = net.m_OutputLayer.getInputCount();
+        m_ParameterCount = net.getParameterCount();
+        m_GateToGate = net.m_GateToGate;
+        m_BiasToOutput = net.m_BiasToOutput;
+        m_InputToOutput = net.m_InputToOutput;
+        m_GateToOutput = net.m_GateToOutput;
+        m_OutputWeightsLocalGradientFactor = net.m_OutputWeightsLocalGradientFactor;
+        m_Lambda = block.m_Lambda;
+        m_OppSignResetTraces = block.m_OppSignResetTraces;
+        m_g = checkFunction(block.m_g, null, "Input squashing function (g)");
+        m_h = checkFunction(block.m_h, null, "Output squashing function (h)");
+        m_InputGate = checkFunction(block.m_InputGate, null, "Input gate");
+        m_ForgetGate = checkFunction(block.m_ForgetGate, null, "Forget gate");
+        m_OutputGate = checkFunction(block.m_OutputGate, null, "Output gate");
+        m_Output = checkFunction(net.m_OutputLayer.getOutputUnits()[0], null, "Output unit");
+        m_Index = newIndex;
+
+        //Every network must match
+        for (int n=0; n<m_MemberCount; n++)
+        {
+            checkNetwork(newNets[n]);
+        }
+
+        //Weights
+        int N = m_MemberCount;
+        m_Parameters = new double[m_ParameterCount*N];
+        for (int n=0; n<N; n++)
+        {
+            double[] p = newNets[n].getParameters();
+            for (int k=0; k<m_ParameterCount; k++)
+            {
+                m_Parameters[k*N+n] = p[k];
+            }
+        }
+        m_LearningRates = new double[N];
+        setLearningRate(newAlpha);
+
+        //States
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        int K = m_OutputInputCount;
+        m_HasPreviousGradient = new boolean[N];
+        m_PreviousOutput = new double[N];
+        m_PreviousState = new double[B*C*N];
+        m_CurrentState = new double[B*C*N];
+        m_PrevBlocksOutput = new double[B*(C+3)*N];
+        m_BlocksOutput = new double[B*(C+3)*N];
+        m_InputeTraces = new double[I*N];
+        m_PrevCelleTraces = new double[B*C*N];
+        m_CelleTraces = new double[B*C*N];
+        m_CsDer2MemoryCellWeights = new double[B*C*I*N];
+        m_CsDer2InputWeights = new double[B*C*I*N];
+        m_CsDer2ForgetWeights = new double[B*C*I*N];
+        m_CsDer2InputPeepholeWeights = new double[B*C*C*N];
+        m_CsDer2ForgetPeepholeWeights = new double[B*C*C*N];
+        m_Der2CurrentState = new double[B*C*N];
+        m_Der2NetOutputGate = new double[B*C*N];
+        m_OutputInput = new double[K*N];
+        m_OutputDerivative = new double[K*N];
+        m_OutputNetDerivative = new double[N];
+
+        //Workspaces
+        m_BlockInput = new double[I*N];
+        m_Gates = new double[3*N];
+        m_GateDerivatives = new double[3*N];
+        m_MemoryCell_1st = new double[C*N];
+        m_MemoryCell_1stDerivatives = new double[C*N];
+        m_MemoryCell_2nd = new double[C*N];
+        m_MemoryCell_2ndDerivatives = new double[C*N];
+        m_CsDer2Net = new double[C*N];
+        m_Sum1 = new double[N];
+        m_Sum2 = new double[N];
+        m_ProjectedError = new double[C*N];
+        m_Gradient = new double[m_ParameterCount*N];
+    }
+
+    /*********************************************************************/
+    //Helpers
+
+    /** Checks that a function is simple and, if a reference is given, that it
+     * computes the same function as the reference. */
+    protected static AbstractSimpleUnit checkFunction(FunctionalUnit f, AbstractSimpleUnit ref, String label)
+    {
+        if (!(f instanceof AbstractSimpleUnit)) {
+            throw new IllegalArgumentException(label + " should be a simple unit!");
+        }
+        AbstractSimpleUnit s = (AbstractSimpleUnit) f;
+        if ((ref != null) && !s.hasSameFunction(ref)) {
+            throw new IllegalArgumentException(label + " differs between networks!");
+        }
+        return s;
+    }
+
+    /** Checks that a network has the population architecture. */
+    protected void checkNetwork(ETLSTMNetwork1 net)
+    {
+        if ((net.getInputCount() != m_InputCount) ||
+            (net.getOutputCount() != 1) ||
+            (net.m_MemoryBlockCount != m_BlockCount) ||
+            (net.getParameterCount() != m_ParameterCount) ||
+            (net.m_OutputLayer.getInputCount() != m_OutputInputCount) ||
+            (net.m_GateToGate != m_GateToGate) ||
+            (net.m_BiasToOutput != m_BiasToOutput) ||
+            (net.m_InputToOutput != m_InputToOutput) ||
+            (net.m_GateToOutput != m_GateToOutput) ||
+            (net.m_OutputWeightsLocalGradientFactor != m_OutputWeightsLocalGradientFactor)) {
+            throw new IllegalArgumentException("Networks must have the same architecture!");
+        }
+        for (int b=0; b<m_BlockCount; b++)
+        {
+            ETLSTMMemoryBlock1 block = (ETLSTMMemoryBlock1) net.m_MemoryBlocks[b];
+            if ((block.m_MemoryCellCount != m_CellCount) ||
+                (block.getInputCount() != m_BlockInputCount) ||
+                (block.m_Lambda != m_Lambda) ||
+                (block.m_OppSignResetTraces != m_OppSignResetTraces)) {
+                throw new IllegalArgumentException("Networks must have the same architecture!");
+            }
+            checkFunction(block.m_g, m_g, "Input squashing function (g)");
+            checkFunction(block.m_h, m_h, "Output squashing function (h)");
+            checkFunction(block.m_InputGate, m_InputGate, "Input gate");
+            checkFunction(block.m_ForgetGate, m_ForgetGate, "Forget gate");
+            checkFunction(block.m_OutputGate, m_OutputGate, "Output gate");
+        }
+        checkFunction(net.m_OutputLayer.getOutputUnits()[0], m_Output, "Output unit");
+    }
+
+    /** Bounds value between -1 and 1 (see ETLSTMMemoryBlock1). */
+    protected static double bound(double x)
+    {
+        return Math.max(Math.min(x,1),-1);
+    }
+
+    /** Compares the sign of two values (see ETLSTMMemoryBlock1). */
+    protected static int getSign(double a, double b)
+    {
+       //opposite sign
+       if (a*b < 0) {return 0;}
+       //one or two negative
+       if ((a < 0) || (b < 0)) {return -1;}
+       //zero, one or two positive
+       return 1;
+    }
+
+    /** Sets a member slice of a [count*N] array to zero. */
+    protected void clear(double[] a, int count, int member)
+    {
+        int N = m_MemberCount;
+        for (int k=0; k<count; k++)
+        {
+            a[k*N+member] = 0.0;
+        }
+    }
+
+    /*********************************************************************/
+    //Properties
+
+    /** Number of networks in the population. */
+    public int getMemberCount() {return m_MemberCount;}
+
+    /** Number of parameters of each network. */
+    public int getParameterCount() {return m_ParameterCount;}
+
+    /** Sets the learning rate of every network.
+     * @param   newLearningRate   New learning rate value.
+     */
+    public void setLearningRate(double newLearningRate) {
+        for (int n=0; n<m_MemberCount; n++)
+        {
+            m_LearningRates[n] = newLearningRate;
+        }
+    }
+
+    /** Sets the learning rate of a given network.
+     * @param   member            Network index.
+     * @param   newLearningRate   New learning rate value.
+     */
+    public void setLearningRate(int member, double newLearningRate) {
+        m_LearningRates[member] = newLearningRate;
+    }
+
+    /** Returns a copy of the parameters of a network (in the network
+     * parameters order).
+     * @param   member            Network index.
+     * @return  The parameters.
+     */
+    public double[] getParameters(int member) {
+        int N = m_MemberCount;
+        double[] ret = new double[m_ParameterCount];
+        for (int k=0; k<m_ParameterCount; k++)
+        {
+            ret[k] = m_Parameters[k*N+member];
+        }
+        return ret;
+    }
+
+    /** Copies the parameters of a network of the population into a given
+     * network of the same architecture (its state is not changed).
+     * @param   member            Network index.
+     * @param   net               Network receiving the parameters.
+     */
+    public void storeParameters(int member, FunctionalUnit2 net) {
+        net.setParameters(getParameters(member));
+    }
+
+    /*********************************************************************/
+    //Special
+
+    /** Indicates the end of a sequence for every network. */
+    public void reset() {
+        for (int n=0; n<m_MemberCount; n++)
+        {
+            reset(n);
+        }
+    }
+
+    /** Indicates the end of a sequence for a given network, restarts its
+     * internal state.
+     * @param   member            Network index.
+     */
+    public void reset(int member) {
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        int K = m_OutputInputCount;
+        m_HasPreviousGradient[member] = false;
+        m_PreviousOutput[member] = 0.0;
+        clear(m_PreviousState, B*C, member);
+        clear(m_PrevBlocksOutput, B*(C+3), member);
+        clear(m_InputeTraces, I, member);
+        clear(m_CelleTraces, B*C, member);
+        clear(m_CsDer2MemoryCellWeights, B*C*I, member);
+        clear(m_CsDer2InputWeights, B*C*I, member);
+        clear(m_CsDer2ForgetWeights, B*C*I, member);
+        clear(m_CsDer2InputPeepholeWeights, B*C*C, member);
+        clear(m_CsDer2ForgetPeepholeWeights, B*C*C, member);
+        clear(m_Der2CurrentState, B*C, member);
+        clear(m_Der2NetOutputGate, B*C, member);
+        clear(m_OutputInput, K, member);
+        clear(m_OutputDerivative, K, member);
+    }
+
+    /*********************************************************************/
+    //Methods
+
+    /** Same as {@link OnlineSPMSELearning#train(double[], String[])} for every
+     * network, with inputPatterns[n] being the input of network n.
+     * @param   inputPatterns     Input pattern of each network.
+     * @param   recordList        Data to record (same for every network).
+     * @return  The recorded data of each network (null entries if nothing is
+     *          recorded).
+     */
+    public DataSet[] train(double[][] inputPatterns, String[] recordList)
+    {
+        return train(inputPatterns, RecordMask.compile(recordList));
+    }
+
+    /** Same as {@link #train(double[][], String[])} but with a compiled
+     * record list.
+     * @param   inputPatterns     Input pattern of each network.
+     * @param   recordMask        Data to record (same for every network).
+     * @return  The recorded data of each network (null entries if nothing is
+     *          recorded).
+     */
+    public DataSet[] train(double[][] inputPatterns, RecordMask recordMask)
+    {
+        //Parameter check
+        int N = m_MemberCount;
+        if (inputPatterns.length != N) {
+            throw new IllegalArgumentException("inputPatterns is of the wrong size!");
+        }
+        for (int n=0; n<N; n++)
+        {
+            if (inputPatterns[n].length != m_InputCount) {
+                throw new IllegalArgumentException("inputPatterns is of the wrong size!");
+            }
+        }
+
+        //*** Compute error, gradient, and update weights (previous pattern)
+        double[] errors = new double[N];
+        for (int n=0; n<N; n++)
+        {
+            errors[n] = m_PreviousOutput[n] - inputPatterns[n][m_Index];
+        }
+        computeGradient(errors);
+        for (int k=0; k<m_ParameterCount; k++)
+        {
+            int kN = k*N;
+            for (int n=0; n<N; n++)
+            {
+                m_Parameters[kN+n] += (-m_LearningRates[n]) * m_Gradient[kN+n];
+            }
+        }
+
+        //*** Process the patterns
+        double[] outputs = new double[N];
+        step(inputPatterns, outputs);
+
+        //*** Record data
+        if (recordMask.isEmpty()) {
+            return new DataSet[N];
+        }
+        return record(inputPatterns, errors, outputs, recordMask);
+    }
+
+    /** Same as {@link OnlineSPMSELearning#train(double[])} for every
+     * network, with inputPatterns[n] being the input of network n.
+     * @param   inputPatterns     Input pattern of each network.
+     */
+    public void train(double[][] inputPatterns)
+    {
+        train(inputPatterns, RecordMask.EMPTY_RECORDMASK);
+    }
+
+    /** Computes into m_Gradient the product of the error vector with the
+     * derivative to parameters of the previous pattern, in the factored form
+     * of {@link BlockSparseJacobian#multVectorMatrix} (memory block segments
+     * then output layer segment). */
+    protected void computeGradient(double[] errors)
+    {
+        int N = m_MemberCount;
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        int K = m_OutputInputCount;
+        double[] g = m_Gradient;
+        double[] w = m_ProjectedError;
+
+        //*Segments offsets
+        int start = (m_BiasToOutput?1:0) + (m_InputToOutput?m_InputCount:0);
+        int decount = m_GateToOutput?0:3;
+
+        //*Memory blocks
+        for (int b=0; b<B; b++)
+        {
+            int pb = b*m_BlockParameterCount;
+            int bc = b*C;
+
+            //w = error * D output /D block cells
+            for (int k=0; k<C; k++)
+            {
+                int lN = (start+k)*N;
+                for (int n=0; n<N; n++)
+                {
+                    double sum = 0.0;
+                    sum += m_OutputDerivative[lN+n] * errors[n];
+                    w[k*N+n] = sum;
+                }
+            }
+
+            //Memory cell weights (only the cell own row is non-zero)
+            for (int c=0; c<C; c++)
+            {
+                for (int j=0; j<I; j++)
+                {
+                    int pN = (pb + c*I + j)*N;
+                    int sN = ((bc+c)*I + j)*N;
+                    for (int n=0; n<N; n++)
+                    {
+                        double sum = 0.0;
+                        double wk = w[c*N+n];
+                        if (wk != 0.0) {
+                            sum += wk * (m_Der2CurrentState[(bc+c)*N+n] * m_CsDer2MemoryCellWeights[sN+n]);
+                        }
+                        g[pN+n] = sum;
+                    }
+                }
+            }
+
+            //Gates weights
+            addScaledRows(g, pb + I*C, w, m_Der2CurrentState, bc, m_CsDer2InputWeights, I, true);
+            addScaledRows(g, pb + I*(C+1), w, m_Der2CurrentState, bc, m_CsDer2InputPeepholeWeights, C, true);
+            addScaledRows(g, pb + I*(C+1)+C, w, m_Der2CurrentState, bc, m_CsDer2ForgetWeights, I, true);
+            addScaledRows(g, pb + I*(C+2)+C, w, m_Der2CurrentState, bc, m_CsDer2ForgetPeepholeWeights, C, true);
+            addScaledRows(g, pb + I*(C+2)+2*C, w, m_Der2NetOutputGate, bc, m_InputeTraces, I, false);
+            addScaledRows(g, pb + I*(C+3)+2*C, w, m_Der2NetOutputGate, bc, m_CelleTraces, C, false);
+
+            start += C+3-decount;
+        }
+
+        //*Output layer (scaled identity segment)
+        int po = B*m_BlockParameterCount;
+        for (int i=0; i<K; i++)
+        {
+            int pN = (po+i)*N;
+            int iN = i*N;
+            for (int n=0; n<N; n++)
+            {
+                double sum = 0.0;
+                double wk = errors[n];
+                if (wk != 0.0) {
+                    sum += wk * (m_OutputNetDerivative[n] * m_OutputInput[iN+n]);
+                }
+                if (m_OutputWeightsLocalGradientFactor != 1.0) {
+                    sum *= m_OutputWeightsLocalGradientFactor;
+                }
+                g[pN+n] = sum;
+            }
+        }
+
+        //*No derivative yet (zero gradient, as a dense zero matrix would give)
+        for (int n=0; n<N; n++)
+        {
+            if (!m_HasPreviousGradient[n]) {
+                for (int k=0; k<m_ParameterCount; k++)
+                {
+                    double sum = 0.0;
+                    sum += 0.0 * errors[n];
+                    g[k*N+n] = sum;
+                }
+            }
+        }
+    }
+
+    /** Computes g[p+j] = sum_k w[k] * (scale[k] * signal[k][j]) for a block
+     * parameter segment, where signal[k][j] is either a per cell recurrence
+     * (perCell true) or a signal shared by every cell. */
+    protected void addScaledRows(double[] g, int p, double[] w,
+                                 double[] scale, int bc,
+                                 double[] signal, int width, boolean perCell)
+    {
+        int N = m_MemberCount;
+        int C = m_CellCount;
+        //Shared signals are indexed by block for cell traces only
+        int signalBlock = (signal == m_CelleTraces) ? bc : 0;
+        for (int j=0; j<width; j++)
+        {
+            int pN = (p+j)*N;
+            for (int n=0; n<N; n++)
+            {
+                g[pN+n] = 0.0;
+            }
+            for (int k=0; k<C; k++)
+            {
+                int kN = k*N;
+                int cN = (bc+k)*N;
+                int sN = perCell ? (((bc+k)*width + j)*N) : ((signalBlock+j)*N);
+                for (int n=0; n<N; n++)
+                {
+                    double wk = w[kN+n];
+                    if (wk != 0.0) {
+                        g[pN+n] += wk * (scale[cN+n] * signal[sN+n]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Processes a pattern through every network, updating the states and
+     * the derivatives (see FastLSTMNetwork and ETLSTMMemoryBlock1). */
+    protected void step(double[][] inputPatterns, double[] outputs)
+    {
+        int N = m_MemberCount;
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        int K = m_OutputInputCount;
+        double[] x = m_BlockInput;
+        double[] W = m_Parameters;
+
+        //*Memory blocks input vector: 1, input, previous block outputs
+        for (int n=0; n<N; n++)
+        {
+            x[n] = 1.0;
+        }
+        for (int i=0; i<m_InputCount; i++)
+        {
+            for (int n=0; n<N; n++)
+            {
+                x[(1+i)*N+n] = inputPatterns[n][i];
+            }
+        }
+        int index = 1 + m_InputCount;
+        int blockRecCount = m_GateToGate ? C+3 : C;
+        for (int b=0; b<B; b++)
+        {
+            System.arraycopy(m_PrevBlocksOutput, b*(C+3)*N, x, index*N, blockRecCount*N);
+            index += blockRecCount;
+        }
+
+        //*Input eTraces (same for every block)
+        for (int j=0; j<I; j++)
+        {
+            for (int n=0; n<N; n++)
+            {
+                int jn = j*N+n;
+                int sign = getSign(x[jn], m_InputeTraces[jn]);
+                if ((sign == 0) && m_OppSignResetTraces) {
+                    m_InputeTraces[jn] = bound(x[jn]);
+                } else {
+                    m_InputeTraces[jn] = bound(m_InputeTraces[jn]*m_Lambda + x[jn]);
+                }
+            }
+        }
+
+        //*Memory blocks
+        for (int b=0; b<B; b++)
+        {
+            stepBlock(b);
+        }
+
+        //*Swap states and outputs
+        double[] tmp = m_PreviousState;
+        m_PreviousState = m_CurrentState;
+        m_CurrentState = tmp;
+        tmp = m_PrevBlocksOutput;
+        m_PrevBlocksOutput = m_BlocksOutput;
+        m_BlocksOutput = tmp;
+
+        //*Output layer input vector: 1, input, blocks output
+        double[] oin = m_OutputInput;
+        index = 0;
+        if (m_BiasToOutput) {
+            for (int n=0; n<N; n++)
+            {
+                oin[n] = 1.0;
+            }
+            index++;
+        }
+        if (m_InputToOutput) {
+            System.arraycopy(x, N, oin, index*N, m_InputCount*N);
+            index += m_InputCount;
+        }
+        int blockOutCount = m_GateToOutput ? C+3 : C;
+        for (int b=0; b<B; b++)
+        {
+            System.arraycopy(m_PrevBlocksOutput, b*(C+3)*N, oin, index*N, blockOutCount*N);
+            index += blockOutCount;
+        }
+
+        //*Output layer
+        int po = B*m_BlockParameterCount;
+        double[] sum = m_Sum1;
+        for (int n=0; n<N; n++)
+        {
+            sum[n] = 0.0;
+        }
+        for (int i=0; i<K; i++)
+        {
+            int pN = (po+i)*N;
+            int iN = i*N;
+            for (int n=0; n<N; n++)
+            {
+                sum[n] += W[pN+n] * oin[iN+n];
+            }
+        }
+        m_Output.processValues(sum, 0, outputs, 0, m_OutputNetDerivative, 0, N);
+        for (int n=0; n<N; n++)
+        {
+            m_PreviousOutput[n] = outputs[n];
+            m_HasPreviousGradient[n] = true;
+        }
+        for (int i=0; i<K; i++)
+        {
+            int pN = (po+i)*N;
+            int iN = i*N;
+            for (int n=0; n<N; n++)
+            {
+                m_OutputDerivative[iN+n] = m_OutputNetDerivative[n] * W[pN+n];
+            }
+        }
+    }
+
+    /** Processes memory block b for every network (see FastLSTMMemoryBlock). */
+    protected void stepBlock(int b)
+    {
+        int N = m_MemberCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        int pb = b*m_BlockParameterCount;
+        int bc = b*C;
+        int bo = b*(C+3);
+        double[] x = m_BlockInput;
+        double[] W = m_Parameters;
+        double[] prev = m_PreviousState;
+        double[] cur = m_CurrentState;
+        double[] gates = m_Gates;
+        double[] gateDer = m_GateDerivatives;
+
+        //*** Forward pass
+
+        //*Input gate and forget gate activation (step 1a & 1b)
+        gate(pb + I*C, pb + I*(C+1), prev, bc, m_InputGate, 0);
+        gate(pb + I*(C+1)+C, pb + I*(C+2)+C, prev, bc, m_ForgetGate, 1);
+
+        //*Memory cell activation (step 1c)
+        for (int c=0; c<C; c++)
+        {
+            double[] sum = m_Sum1;
+            for (int n=0; n<N; n++)
+            {
+                sum[n] = 0;
+            }
+            for (int j=0; j<I; j++)
+            {
+                int pN = (pb + c*I + j)*N;
+                int jN = j*N;
+                for (int n=0; n<N; n++)
+                {
+                    sum[n] += W[pN+n] * x[jN+n];
+                }
+            }
+            int cN = c*N;
+            int sN = (bc+c)*N;
+            m_g.processValues(sum, 0, m_MemoryCell_1st, cN, m_MemoryCell_1stDerivatives, cN, N);
+            for (int n=0; n<N; n++)
+            {
+                cur[sN+n] = gates[n] * m_MemoryCell_1st[cN+n] + gates[N+n] * prev[sN+n];
+            }
+        }
+
+        //*Output gate activation (step 2a)
+        gate(pb + I*(C+2)+2*C, pb + I*(C+3)+2*C, cur, bc, m_OutputGate, 2);
+
+        //*Memory cell output activation (step 2b) and output vector
+        for (int c=0; c<C; c++)
+        {
+            int cN = c*N;
+            int sN = (bc+c)*N;
+            int oN = (bo+c)*N;
+            m_h.processValues(cur, sN, m_MemoryCell_2nd, cN, m_MemoryCell_2ndDerivatives, cN, N);
+            for (int n=0; n<N; n++)
+            {
+                m_BlocksOutput[oN+n] = gates[2*N+n] * m_MemoryCell_2nd[cN+n];
+            }
+        }
+        System.arraycopy(gates, 0, m_BlocksOutput, (bo+C)*N, 3*N);
+
+        //*** Derivative computation
+
+        //*Memory cells eTraces (compared to input traces, as in ETLSTMMemoryBlock1)
+        System.arraycopy(m_CelleTraces, bc*N, m_PrevCelleTraces, bc*N, C*N);
+        for (int c=0; c<C; c++)
+        {
+            for (int n=0; n<N; n++)
+            {
+                int sn = (bc+c)*N+n;
+                int sign = getSign(cur[sn], m_InputeTraces[c*N+n]);
+                if ((sign == 0) && m_OppSignResetTraces) {
+                    m_CelleTraces[sn] = bound(cur[sn]);
+                } else {
+                    m_CelleTraces[sn] = bound(m_CelleTraces[sn]*m_Lambda + cur[sn]);
+                }
+            }
+        }
+
+        //*Derivative from block output to output gate net input and state
+        for (int c=0; c<C; c++)
+        {
+            int cN = c*N;
+            int sN = (bc+c)*N;
+            for (int n=0; n<N; n++)
+            {
+                m_Der2NetOutputGate[sN+n] = gateDer[2*N+n] * m_MemoryCell_2nd[cN+n];
+                m_Der2CurrentState[sN+n] = gates[2*N+n] * m_MemoryCell_2ndDerivatives[cN+n];
+            }
+        }
+
+        //*Derivative from current state to forget gate weights
+        for (int c=0; c<C; c++)
+        {
+            for (int n=0; n<N; n++)
+            {
+                m_CsDer2Net[c*N+n] = gateDer[N+n] * prev[(bc+c)*N+n];
+            }
+        }
+        updateCsDerivative(m_CsDer2ForgetWeights, bc, m_InputeTraces, 0, I);
+        updateCsDerivative(m_CsDer2ForgetPeepholeWeights, bc, m_PrevCelleTraces, bc, C);
+
+        //*Derivative from current state to input gate weights
+        for (int c=0; c<C; c++)
+        {
+            for (int n=0; n<N; n++)
+            {
+                m_CsDer2Net[c*N+n] = m_MemoryCell_1st[c*N+n] * gateDer[n];
+            }
+        }
+        updateCsDerivative(m_CsDer2InputWeights, bc, m_InputeTraces, 0, I);
+        updateCsDerivative(m_CsDer2InputPeepholeWeights, bc, m_PrevCelleTraces, bc, C);
+
+        //*Derivative from current state to memory cell weights
+        for (int c=0; c<C; c++)
+        {
+            for (int n=0; n<N; n++)
+            {
+                m_CsDer2Net[c*N+n] = gates[n] * m_MemoryCell_1stDerivatives[c*N+n];
+            }
+        }
+        updateCsDerivative(m_CsDer2MemoryCellWeights, bc, m_InputeTraces, 0, I);
+    }
+
+    /** Computes a gate activation and derivative into m_Gates[g*N..] and
+     * m_GateDerivatives[g*N..] from its input weights at p and its peephole
+     * weights at pp applied to the block input and to the given states. */
+    protected void gate(int p, int pp, double[] states, int bc, AbstractSimpleUnit f, int g)
+    {
+        int N = m_MemberCount;
+        int C = m_CellCount;
+        int I = m_BlockInputCount;
+        double[] x = m_BlockInput;
+        double[] W = m_Parameters;
+        double[] sum1 = m_Sum1;
+        double[] sum2 = m_Sum2;
+        for (int n=0; n<N; n++)
+        {
+            sum1[n] = 0;
+            sum2[n] = 0;
+        }
+        for (int j=0; j<I; j++)
+        {
+            int pN = (p+j)*N;
+            int jN = j*N;
+            for (int n=0; n<N; n++)
+            {
+                sum1[n] += W[pN+n] * x[jN+n];
+            }
+        }
+        for (int c=0; c<C; c++)
+        {
+            int pN = (pp+c)*N;
+            int sN = (bc+c)*N;
+            for (int n=0; n<N; n++)
+            {
+                sum2[n] += W[pN+n] * states[sN+n];
+            }
+        }
+        for (int n=0; n<N; n++)
+        {
+            sum1[n] += sum2[n];
+        }
+        f.processValues(sum1, 0, m_Gates, g*N, m_GateDerivatives, g*N, N);
+    }
+
+    /** Computes in-place csder2[c][j] = m_CsDer2Net[c] * signal[j] +
+     * forgetGate * csder2[c][j] for block cells bc.. (see
+     * FastLSTMMemoryBlock.updateCsDerivative). */
+    protected void updateCsDerivative(double[] csder2, int bc, double[] signal, int signalStart, int width)
+    {
+        int N = m_MemberCount;
+        int C = m_CellCount;
+        double[] forgetGate = m_Gates;
+        for (int c=0; c<C; c++)
+        {
+            int cN = c*N;
+            for (int j=0; j<width; j++)
+            {
+                int rN = ((bc+c)*width + j)*N;
+                int sN = (signalStart+j)*N;
+                for (int n=0; n<N; n++)
+                {
+                    csder2[rN+n] = m_CsDer2Net[cN+n] * signal[sN+n] + forgetGate[N+n] * csder2[rN+n];
+                }
+            }
+        }
+    }
+
+    /** Builds the data sets recorded by each network (see
+     * OnlineSPMSELearning.train and FastLSTMNetwork.processPattern). */
+    protected DataSet[] record(double[][] inputPatterns, double[] errors, double[] outputs, RecordMask recordMask)
+    {
+        int N = m_MemberCount;
+        int B = m_BlockCount;
+        int C = m_CellCount;
+        boolean states = recordMask.contains(FastLSTMNetwork.REC_LSTM_INTERNAL_STATES);
+        boolean acts = recordMask.contains(FastLSTMNetwork.REC_LSTM_INTERNAL_ACTIVATIONS);
+        boolean inGates = recordMask.contains(FastLSTMNetwork.REC_LSTM_INPUT_GATES);
+        boolean fgtGates = recordMask.contains(FastLSTMNetwork.REC_LSTM_FORGET_GATES);
+        boolean outGates = recordMask.contains(FastLSTMNetwork.REC_LSTM_OUTPUT_GATES);
+        boolean inputs = recordMask.contains(OnlineSPMSELearning.REC_INPUT_PATTERNS);
+        boolean outs = recordMask.contains(OnlineSPMSELearning.REC_OUTPUT_PATTERNS);
+        boolean errs = recordMask.contains(OnlineSPMSELearning.REC_ERROR_PATTERNS);
+        boolean targets = recordMask.contains(OnlineSPMSELearning.REC_TARGET_PATTERNS);
+        boolean sse = recordMask.contains(OnlineSPMSELearning.REC_SUM_SQUARED_ERROR);
+        boolean value = recordMask.contains(OnlineSPMSELearning.REC_VALUE);
+        boolean gradient = recordMask.contains(OnlineSPMSELearning.REC_GRADIENT);
+        boolean variables = recordMask.contains(OnlineSPMSELearning.REC_VARIABLES);
+        boolean changes = recordMask.contains(OnlineSPMSELearning.REC_VARIABLE_CHANGES);
+
+        DataSet[] ret = new DataSet[N];
+        for (int n=0; n<N; n++)
+        {
+            DataSet d = new DataSet();
+            //Network specific data
+            if (states) {
+                double[] v = new double[B*C];
+                for (int k=0; k<B*C; k++)
+                {
+                    v[k] = m_PreviousState[k*N+n];
+                }
+                d.setData(LSTMDataNames.LSTM_INTERNAL_STATES, v);
+            }
+            if (acts) {
+                double[] v = new double[B*C];
+                for (int b=0; b<B; b++)
+                {
+                    for (int c=0; c<C; c++)
+                    {
+                        v[b*C+c] = m_PrevBlocksOutput[(b*(C+3)+c)*N+n];
+                    }
+                }
+                d.setData(LSTMDataNames.LSTM_INTERNAL_ACTIVATIONS, v);
+            }
+            if (inGates) {
+                d.setData(LSTMDataNames.LSTM_INPUT_GATES, extractGates(0, n));
+            }
+            if (fgtGates) {
+                d.setData(LSTMDataNames.LSTM_FORGET_GATES, extractGates(1, n));
+            }
+            if (outGates) {
+                d.setData(LSTMDataNames.LSTM_OUTPUT_GATES, extractGates(2, n));
+            }
+            //Adaptive model specific data
+            double[] errorPattern = new double[] {errors[n]};
+            Double sse_val = new Double(LinearAlgebra.sumSquares(errorPattern));
+            if (inputs) {
+                d.setData(DataNames.INPUT_PATTERNS, inputPatterns[n]);
+            }
+            if (outs) {
+                d.setData(DataNames.OUTPUT_PATTERNS, new double[] {outputs[n]});
+            }
+            //Adaptation rule specific data
+            if (errs) {
+                d.setData(DataNames.ERROR_PATTERNS, errorPattern);
+            }
+            if (targets) {
+                d.setData(DataNames.TARGET_PATTERNS, inputPatterns[n]);
+            }
+            if (sse) {
+                d.setData(DataNames.SUM_SQUARED_ERROR, sse_val);
+            }
+            //Adaptation specific data
+            if (value) {
+                d.setData(DataNames.VALUE, sse_val);
+            }
+            if (gradient || changes) {
+                double[] g = new double[m_ParameterCount];
+                for (int k=0; k<m_ParameterCount; k++)
+                {
+                    g[k] = m_Gradient[k*N+n];
+                }
+                if (gradient) {
+                    d.setData(DataNames.GRADIENT, g);
+                }
+                if (changes) {
+                    d.setData(DataNames.VARIABLE_CHANGES, LinearAlgebra.multScalarVector(-m_LearningRates[n], g));
+                }
+            }
+            if (variables) {
+                d.setData(DataNames.VARIABLES, getParameters(n));
+            }
+            ret[n] = d;
+        }
+        return ret;
+    }
+
+    /** Returns the gate g (0 input, 1 forget, 2 output) of each block of a network. */
+    protected double[] extractGates(int g, int member)
+    {
+        int N = m_MemberCount;
+        int C = m_CellCount;
+        double[] ret = new double[m_BlockCount];
+        for (int b=0; b<m_BlockCount; b++)
+        {
+            ret[b] = m_PrevBlocksOutput[(b*(C+3)+C+g)*N+member];
+        }
+        return ret;
+    }
+
+    /*********************************************************************/
+    //toString method
+
+    public String toString()
+    {
+        String ret = super.toString() + "\n";
+        ret += "Class: ETLSTMPopulation1\n";
+        ret += "\tMemberCount: " + m_MemberCount;
+        ret += "\tParameterCount: " + m_ParameterCount;
+        ret += "\tIndex: " + m_Index;
+        return ret;
+    }
+
+}
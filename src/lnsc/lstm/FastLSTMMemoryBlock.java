@@ -42,8 +42,22 @@ import lnsc.pmvf.*;
  * <P> Memory cells internal states are available for read out through the
  * {@link LSTMDataNames#LSTM_INTERNAL_STATES} keyword. </P>
  *
- * <P> Cloning is done through serialization, transient states are therefore
- * transient to cloning too (e.g. reseted in clones). <P>
+ * <P> The weights from the feeding units to the memory cells and the gates are
+ * fused in a single (MemoryCellCount+3) x InputCount matrix, stored by
+ * feeding unit, so that a single pass over the input vector produces the
+ * net inputs of all the memory cells and gates (see computeNetInputs). </P>
+ *
+ * <P> Intermediate values and derivative recurrences are computed in
+ * preallocated transient workspaces (created by reset), so that processing
+ * a pattern through {@link #processPatternInPlace} does not allocate any
+ * memory. </P>
+ *
+ * <P> Cloning is a structural deep copy of the weights and functions,
+ * transient states are reseted in clones (as through serialization). <P>
+ *
+ * <P> The weights are only read while processing, so that several blocks
+ * created by {@link #shareWeights} can process different sequences
+ * concurrently on the same weights. <P>
  *
  * <P> Avoid using this class directly or deriving it unless you really know
  * what you do. Use Factories instead as much as possible. </P>
@@ -67,6 +81,23 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
     /** Serial version UID. */
     static final long serialVersionUID = -2933646280520228108L;
 
+    /*********************************************************************/
+    //Record keys
+
+    /** Bit index of the keywords checked at every pattern. */
+    protected static final int REC_LSTM_INTERNAL_STATES =
+        RecordMask.getKeyIndex(LSTMDataNames.LSTM_INTERNAL_STATES);
+
+   /*********************************************************************/
+   //Partial derivatives of the states
+
+   /** Indexes of the partial derivatives of the states with respect to the
+    *  forget gate, forget gate peephole, input gate, input gate peephole and
+    *  memory cell weights (see updateCsDerivative). */
+   protected static final int
+       CS_FORGET = 0, CS_FORGET_PEEPHOLE = 1, CS_INPUT = 2, CS_INPUT_PEEPHOLE = 3,
+       CS_MEMORY_CELL = 4, CS_COUNT = 5;
+
    /*********************************************************************/
    //Private fields (architecture, see properties)
 
@@ -88,20 +119,18 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
    /** Second processing function (h). */
    protected FunctionalUnit m_h;
 
+   /** Skips the zero inputs (see setSparseInputs). */
+   protected boolean m_SparseInputs = LinearAlgebra.getDefaultSparseInputs();
+
    /*********************************************************************/
    //Private fields (weights, see parameters)
 
-   /** Weights from the feeding units to the memory cells [MemoryCellCount][InputCount]. */
-   protected double[][] m_MemoryCellWeights;
-
-   /** Weights from the feeding units to the input gate [InputCount]. */
-   protected double[] m_InputGateWeights;
-
-   /** Weights from the feeding units to the forget gate [InputCount]. */
-   protected double[] m_ForgetGateWeights;
-
-   /** Weights from the feeding units to the output gate [InputCount]. */
-   protected double[] m_OutputGateWeights;
+   /** Weights from the feeding units to the memory cells and to the input,
+    *  forget and output gates, as a (MemoryCellCount+3) x InputCount matrix
+    *  stored by feeding unit: the weight from unit j to row r (memory cells,
+    *  then input, forget and output gates) is at j*(MemoryCellCount+3)+r
+    *  (see getWeightIndex). [InputCount*(MemoryCellCount+3)]. */
+   protected double[] m_Weights;
 
    /** Weights from the memory cell states to the input gate [MemoryCellCount]. */
    protected double[] m_InputGatePeepholeWeights;
@@ -112,6 +141,13 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
    /** Weights from the memory cell states to the output gate [MemoryCellCount]. */
    protected double[] m_OutputGatePeepholeWeights;
 
+   /** Weights from the feeding units to the memory cells, input, forget and
+    *  output gates in the version 1.0 layout (separate arrays). Only read
+    *  from blocks serialized before the fused layout and converted into
+    *  m_Weights (see readObject); null otherwise. */
+   private double[][] m_MemoryCellWeights;
+   private double[] m_InputGateWeights, m_ForgetGateWeights, m_OutputGateWeights;
+
    /*********************************************************************/
    //Private fields (transient active/previous states, see also reset)
 
@@ -119,19 +155,80 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
    protected transient double[] m_PreviousState;
 
    /** Partial derivative from previous state down to forget gate weights. [MemoryCellCount][InputCount]. */
-   protected transient double[][] m_PrevCsDer2ForgetWeights;
+   protected transient DenseMatrix m_PrevCsDer2ForgetWeights;
 
    /** Partial derivative from previous state down to forget gate peephole weights. [MemoryCellCount][MemoryCellCount]. */
-   protected transient double[][] m_PrevCsDer2ForgetPeepholeWeights;
+   protected transient DenseMatrix m_PrevCsDer2ForgetPeepholeWeights;
 
    /** Partial derivative from previous state down to input gate weights. [MemoryCellCount][InputCount]. */
-   protected transient double[][] m_PrevCsDer2InputWeights;
+   protected transient DenseMatrix m_PrevCsDer2InputWeights;
 
    /** Partial derivative from previous state down to input gate peephole weights. [MemoryCellCount][MemoryCellCount]. */
-   protected transient double[][] m_PrevCsDer2InputPeepholeWeights;
+   protected transient DenseMatrix m_PrevCsDer2InputPeepholeWeights;
 
    /** Partial derivative from previous state down to memory cell weights. [MemoryCellCount][InputCount]. */
-   protected transient double[][] m_PrevCsDer2MemoryCellWeights;
+   protected transient DenseMatrix m_PrevCsDer2MemoryCellWeights;
+
+   /*********************************************************************/
+   //Private fields (transient workspaces, see also reset)
+
+   /** Internal CEC state value being computed, swapped with m_PreviousState
+    *  at the end of each pattern. [MemoryCellCount]. */
+   protected transient double[] m_CurrentState;
+
+   /** Memory cells and gates (in, fgt, out) net inputs, without the output
+    *  gate peephole contribution. [MemoryCellCount+3]. */
+   protected transient double[] m_NetInputs;
+
+   /** Gates derivatives (in, fgt, out). [3]. */
+   protected transient double[] m_GateDerivatives;
+
+   /** Memory cells net input. [MemoryCellCount]. */
+   protected transient double[] m_NetMemoryCell_1st;
+
+   /** Memory cells input squashing (g) outputs. [MemoryCellCount]. */
+   protected transient double[] m_MemoryCell_1st;
+
+   /** Memory cells input squashing (g) derivatives. [MemoryCellCount]. */
+   protected transient double[] m_MemoryCell_1stDerivatives;
+
+   /** Memory cells output squashing (h) outputs. [MemoryCellCount]. */
+   protected transient double[] m_MemoryCell_2nd;
+
+   /** Memory cells output squashing (h) derivatives. [MemoryCellCount]. */
+   protected transient double[] m_MemoryCell_2ndDerivatives;
+
+   /** Derivative from block output to output gate net input. [MemoryCellCount]. */
+   protected transient double[] m_Der2NetOutputGate;
+
+   /** Derivative from block output to current state. [MemoryCellCount]. */
+   protected transient double[] m_Der2CurrentState;
+
+   /** Derivative from current state to forget gate net input. [MemoryCellCount]. */
+   protected transient double[] m_CsDer2NetForgetGate;
+
+   /** Derivative from current state to input gate net input. [MemoryCellCount]. */
+   protected transient double[] m_CsDer2NetInputGate;
+
+   /** Derivative from current state to memory cells net input. [MemoryCellCount]. */
+   protected transient double[] m_CsDer2NetMemoryCell_1st;
+
+   /** Signals used in derivatives in place of the input pattern, the
+    *  previous state and the current state (see computeDerivativeSignals). [3][]. */
+   protected transient double[][] m_DerivativeSignals;
+
+   /** Derivative of the memory cells outputs with respect to their own
+    *  weights (row i of the memory cell i weights part of the parameter
+    *  derivative, the rest of that part being zero). [MemoryCellCount][InputCount]. */
+   protected transient double[][] m_CellParameterDerivative;
+
+   /** Derivative of the memory cells outputs with respect to the gates
+    *  weights (the gates part of the parameter derivative).
+    *  [MemoryCellCount][3*(InputCount+MemoryCellCount)]. */
+   protected transient double[][] m_GateParameterDerivative;
+
+   /** Result object owned by the block (see processPatternInPlace). */
+   protected transient FunctionalUnit2.ProcessPatternResult2 m_InPlaceResult;
 
    /*********************************************************************/
    //Constructors
@@ -184,10 +281,7 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        m_IsParameterTwiceDifferentiable = false;
 
        //Weights initialisation
-       m_MemoryCellWeights = new double[m_MemoryCellCount][m_InputCount];
-       m_InputGateWeights = new double[m_InputCount];
-       m_ForgetGateWeights = new double[m_InputCount];
-       m_OutputGateWeights = new double[m_InputCount];
+       m_Weights = new double[m_InputCount*(m_MemoryCellCount+3)];
        m_InputGatePeepholeWeights = new double[m_MemoryCellCount];
        m_ForgetGatePeepholeWeights = new double[m_MemoryCellCount];
        m_OutputGatePeepholeWeights = new double[m_MemoryCellCount];
@@ -199,6 +293,55 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
    /*********************************************************************/
    //Helper
 
+   /** Index in m_Weights of the weight from a feeding unit to a row of the
+    *  fused matrix (memory cells, then input, forget and output gates).
+    *  @param    row      Memory cell index, or MemoryCellCount+0, +1, +2 for
+    *                     the input, forget and output gates.
+    *  @param    input    Feeding unit index.
+    *  @return   The weight index.
+    */
+   protected final int getWeightIndex(int row, int input)
+   {
+       return input*(m_MemoryCellCount+3) + row;
+   }
+
+   /** Index in the parameters of the weight from the first feeding unit to a
+    *  row of the fused matrix (rows are followed by the gate peephole
+    *  weights, see getParameters).
+    */
+   protected final int getParameterIndex(int row)
+   {
+       return m_InputCount*row + m_MemoryCellCount*Math.max(0, row-m_MemoryCellCount);
+   }
+
+   /** Gets a view on m_Weights as the (MemoryCellCount+3) x InputCount
+    *  fused matrix (see getWeightIndex). Modifying the view modifies the
+    *  weights.
+    *  @return   The fused weights matrix (sharing m_Weights).
+    */
+   public final DenseMatrix getWeightMatrix()
+   {
+       return new DenseMatrix(m_Weights, 0, m_MemoryCellCount+3, m_InputCount, 1, m_MemoryCellCount+3);
+   }
+
+   /** Copies the weights of a row of the fused matrix (see getWeightIndex).
+    *  @param    row      Row index.
+    *  @return   The weights from the feeding units [InputCount].
+    */
+   protected final double[] getWeights(int row)
+   {
+       return getWeightMatrix().getRow(row).toArray();
+   }
+
+   /** Sets the weights of a row of the fused matrix (see getWeightIndex).
+    *  @param    row      Row index.
+    *  @param    w        The weights from the feeding units [InputCount].
+    */
+   protected final void setWeights(int row, double[] w)
+   {
+       getWeightMatrix().getRow(row).overwrite(w, 0);
+   }
+
    protected void checkFunction(FunctionalUnit f, String label)
    {
        if ((f.getInputCount() != 1) || (f.getOutputCount() != 1) ||
@@ -207,20 +350,297 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        }
    }
 
+   /** Processes a single value through a simple function. Simple units
+    *  ({@link AbstractSimpleUnit}) are evaluated directly, without any array
+    *  or result object creation; other functions go through processPattern.
+    *  @param    f                  Simple function to apply.
+    *  @param    x                  Function input.
+    *  @param    computeDerivative  Whether to compute the derivative.
+    *  @param    derivatives        Where to store the derivative (if computed).
+    *  @param    index              Index of the derivative in derivatives.
+    *  @return   The function output.
+    */
+   protected static final double processFunction(FunctionalUnit f,
+                                                 double x,
+                                                 boolean computeDerivative,
+                                                 double[] derivatives,
+                                                 int index)
+   {
+       if (f instanceof AbstractSimpleUnit) {
+           AbstractSimpleUnit s = (AbstractSimpleUnit) f;
+           if (computeDerivative) {
+               derivatives[index] = s.processDerivative(x);
+           }
+           return s.processValue(x);
+       } else {
+           FunctionalUnit.ProcessPatternResult r =
+               f.processPattern(new double[] {x}, computeDerivative, false);
+           if (computeDerivative) {
+               derivatives[index] = r.derivative[0][0];
+           }
+           return r.outputPattern[0];
+       }
+   }
+
+   /** Processes a vector of values through a simple function. Simple units
+    *  process the whole vector at once
+    *  ({@link AbstractSimpleUnit#processValues}); other functions go through
+    *  {@link #processFunction} value by value.
+    *  @param    f                  Simple function to apply.
+    *  @param    x                  Function inputs.
+    *  @param    values             Where to store the function outputs.
+    *  @param    length             Number of values.
+    *  @param    computeDerivative  Whether to compute the derivatives.
+    *  @param    derivatives        Where to store the derivatives (if computed).
+    */
+   protected static final void processFunction(FunctionalUnit f,
+                                               double[] x,
+                                               double[] values,
+                                               int length,
+                                               boolean computeDerivative,
+                                               double[] derivatives)
+   {
+       if (f instanceof AbstractSimpleUnit) {
+           ((AbstractSimpleUnit) f).processValues(x, 0, values, 0,
+                                                  computeDerivative ? derivatives : null, 0,
+                                                  length);
+       } else {
+           for (int i=0; i<length; i++)
+           {
+               values[i] = processFunction(f, x[i], computeDerivative, derivatives, i);
+           }
+       }
+   }
+
+   /** Computes the net inputs of the memory cells and gates in a single
+    *  sweep over the input vector and the fused weights matrix, adding the
+    *  input and forget gate peephole contributions of the previous states.
+    *  The output gate peephole contribution (which requires the current
+    *  states) is not included. Each net input is summed in the same order as
+    *  {@link LinearAlgebra#weightedSum}, feeding units first, then peepholes.
+    *  Zero inputs are skipped in sparse inputs mode (see
+    *  {@link #setSparseInputs}). Subclasses storing the weights differently
+    *  override it (see FloatLSTMMemoryBlock).
+    *  @param    inputPattern    Input pattern [InputCount].
+    *  @param    prevState       Vector holding the previous states.
+    *  @param    prevStart       Index of the first previous state in prevState.
+    *  @param    net             Where to store the net inputs [MemoryCellCount+3].
+    */
+   protected void computeNetInputs(double[] inputPattern,
+                                         double[] prevState, int prevStart,
+                                         double[] net)
+   {
+       int rows = m_MemoryCellCount+3;
+       double[] w = m_Weights;
+       for (int r=0; r<rows; r++)
+       {
+           net[r] = 0;
+       }
+       boolean sparse = m_SparseInputs;
+       for (int j=0, p=0; j<m_InputCount; j++, p+=rows)
+       {
+           //zero inputs (mostly silent stimuli) are skipped in sparse inputs mode
+           if (sparse && (inputPattern[j] == 0.0)) {continue;}
+           LinearAlgebra.addeScaledVector(net, 0, inputPattern[j], w, p, rows);
+       }
+       double in = 0, fgt = 0;
+       for (int i=0; i<m_MemoryCellCount; i++)
+       {
+           in += m_InputGatePeepholeWeights[i] * prevState[prevStart+i];
+           fgt += m_ForgetGatePeepholeWeights[i] * prevState[prevStart+i];
+       }
+       net[m_MemoryCellCount+0] += in;
+       net[m_MemoryCellCount+1] += fgt;
+   }
+
+   /** Computes the output gate peephole contribution of the current states
+    *  (the rest of the output gate net input is computed by
+    *  {@link #computeNetInputs}).
+    *  @param    currentState    Current memory cell states.
+    *  @return   The peephole part of the output gate net input.
+    */
+   protected double computeOutputGatePeephole(double[] currentState)
+   {
+       return LinearAlgebra.weightedSum(m_OutputGatePeepholeWeights, currentState);
+   }
+
+   /** Selects the signals used in the derivatives computation in place of
+    *  the input pattern, the previous memory cell states and the current
+    *  memory cell states respectively. By default, these are the raw
+    *  signals. It is called once per pattern, only when parameter
+    *  derivatives are computed, and before any derivative is computed.
+    *  @param    inputPattern    Current input pattern.
+    *  @param    currentState    Current memory cell states.
+    *  @param    signals         Where to store the 3 signals references.
+    */
+   protected void computeDerivativeSignals(double[] inputPattern,
+                                           double[] currentState,
+                                           double[][] signals)
+   {
+       signals[0] = inputPattern;
+       signals[1] = m_PreviousState;
+       signals[2] = currentState;
+   }
+
+   /** Gets a partial derivative of the states (see {@link #CS_FORGET}). */
+   private DenseMatrix getCsDerivative(int k)
+   {
+       switch (k) {
+           case CS_FORGET: return m_PrevCsDer2ForgetWeights;
+           case CS_FORGET_PEEPHOLE: return m_PrevCsDer2ForgetPeepholeWeights;
+           case CS_INPUT: return m_PrevCsDer2InputWeights;
+           case CS_INPUT_PEEPHOLE: return m_PrevCsDer2InputPeepholeWeights;
+           case CS_MEMORY_CELL: return m_PrevCsDer2MemoryCellWeights;
+           default: throw new IllegalArgumentException("Unknown partial derivative!");
+       }
+   }
+
+   /** Creates the partial derivatives of the states (zeroed). It is called by
+    *  reset. Subclasses storing them differently override it together with
+    *  {@link #updateCsDerivative}, {@link #overwriteScaledRows} and
+    *  {@link #copyCsDerivative}.
+    */
+   protected void resetCsDerivatives()
+   {
+       m_PrevCsDer2ForgetWeights = new DenseMatrix(m_MemoryCellCount, m_InputCount);
+       m_PrevCsDer2ForgetPeepholeWeights = new DenseMatrix(m_MemoryCellCount, m_MemoryCellCount);
+       m_PrevCsDer2InputWeights = new DenseMatrix(m_MemoryCellCount, m_InputCount);
+       m_PrevCsDer2InputPeepholeWeights = new DenseMatrix(m_MemoryCellCount, m_MemoryCellCount);
+       m_PrevCsDer2MemoryCellWeights = new DenseMatrix(m_MemoryCellCount, m_InputCount);
+   }
+
+   /** Computes in-place the partial derivative k of the current state with
+    *  respect to some weights, given the one of the previous state:
+    *  csder2[i][j] = csder2Net[i] * signal[j] + csder2[i][j] * forgetGate
+    *  (a single pass of the fused rank-1 kernel, see
+    *  {@link DenseMatrix#multeScalarAddeVectorVector}).
+    */
+   protected void updateCsDerivative(int k,
+                                     double[] csder2Net,
+                                     double[] signal,
+                                     double forgetGate)
+   {
+       getCsDerivative(k).multeScalarAddeVectorVector(forgetGate, csder2Net, signal);
+   }
+
+   /** Scales the rows of the partial derivative k of the states and writes
+    *  them into a given sub matrix:
+    *  target[i][start+i*rowStep+j] = scale[i] * csder2[i][j].
+    */
+   protected void overwriteScaledRows(int k,
+                                      double[] scale,
+                                      int start,
+                                      int rowStep,
+                                      double[][] target)
+   {
+       DenseMatrix csder2 = getCsDerivative(k);
+       double[] data = csder2.getData();
+       int rows = csder2.getRowCount();
+       int cols = csder2.getColumnCount();
+       int colStride = csder2.getColumnStride();
+       for (int i=0; i<rows; i++)
+       {
+           double[] trow = target[i];
+           double s = scale[i];
+           int tstart = start + i*rowStep;
+           for (int j=0, p=csder2.index(i, 0); j<cols; j++, p+=colStride)
+           {
+               trow[tstart+j] = s * data[p];
+           }
+       }
+   }
+
+   /** Copies the partial derivative k of the states to (save) or from
+    *  (restore) a buffer (row by row).
+    *  @return   Index following the last value copied.
+    */
+   protected int copyCsDerivative(int k, double[] buffer, int start, boolean save)
+   {
+       return copyState(getCsDerivative(k), buffer, start, save);
+   }
+
    /*********************************************************************/
    //Properties
 
+   /** Sets whether the net inputs pass skips the zero inputs (mostly silent
+    *  stimuli) instead of processing the input pattern as a dense vector
+    *  (the reference). The skipped terms are exact zeros and the remaining
+    *  ones are accumulated element wise in the same order, so results are
+    *  the same (up to the sign of zero results). Defaults to
+    *  {@link LinearAlgebra#getDefaultSparseInputs}.
+    *  @param    newSparseInputs   true to skip the zero inputs.
+    */
+   public void setSparseInputs(boolean newSparseInputs)
+   {
+       m_SparseInputs = newSparseInputs;
+   }
+
+   /** Indicates whether the block skips its zero inputs (see
+    *  {@link #setSparseInputs}).
+    *  @return   true in sparse inputs mode.
+    */
+   public boolean getSparseInputs()
+   {
+       return m_SparseInputs;
+   }
+
+   /** Sets how the logistic functions of the block evaluate their output
+    *  and derivative (see {@link LogisticUnit#setEvaluation}). Logistic
+    *  functions in another mode are replaced by copies in the given mode,
+    *  leaving the functions shared with other blocks untouched.
+    *  @param    newEvaluation   LogisticUnit.EVALUATION_EXACT or
+    *                            LogisticUnit.EVALUATION_TABLE.
+    */
+   public void setLogisticEvaluation(int newEvaluation)
+   {
+       m_g = withEvaluation(m_g, newEvaluation);
+       m_h = withEvaluation(m_h, newEvaluation);
+       m_InputGate = withEvaluation(m_InputGate, newEvaluation);
+       m_ForgetGate = withEvaluation(m_ForgetGate, newEvaluation);
+       m_OutputGate = withEvaluation(m_OutputGate, newEvaluation);
+   }
+
+   /** Returns a function evaluated in a given mode: a copy of it if it is a
+    *  logistic unit in another mode, the function itself otherwise.
+    *  @param    f               The function.
+    *  @param    evaluation      The LogisticUnit evaluation mode.
+    *  @return   A function evaluated in the given mode.
+    */
+   protected static FunctionalUnit withEvaluation(FunctionalUnit f, int evaluation)
+   {
+       if (!(f instanceof LogisticUnit) || (((LogisticUnit) f).getEvaluation() == evaluation)) {
+           return f;
+       }
+       LogisticUnit ret = (LogisticUnit) Tools.copyUnit(f);
+       ret.setEvaluation(evaluation);
+       return ret;
+   }
+
    /*********************************************************************/
    //FunctionalUnit2 interface implementation
 
    public void reset()
    {
        m_PreviousState = new double[m_MemoryCellCount];
-       m_PrevCsDer2ForgetWeights = new double[m_MemoryCellCount][m_InputCount];
-       m_PrevCsDer2ForgetPeepholeWeights = new double[m_MemoryCellCount][m_MemoryCellCount];
-       m_PrevCsDer2InputWeights = new double[m_MemoryCellCount][m_InputCount];
-       m_PrevCsDer2InputPeepholeWeights = new double[m_MemoryCellCount][m_MemoryCellCount];
-       m_PrevCsDer2MemoryCellWeights = new double[m_MemoryCellCount][m_InputCount];
+       resetCsDerivatives();
+
+       //Workspaces
+       m_CurrentState = new double[m_MemoryCellCount];
+       m_NetInputs = new double[m_MemoryCellCount+3];
+       m_GateDerivatives = new double[3];
+       m_NetMemoryCell_1st = new double[m_MemoryCellCount];
+       m_MemoryCell_1st = new double[m_MemoryCellCount];
+       m_MemoryCell_1stDerivatives = new double[m_MemoryCellCount];
+       m_MemoryCell_2nd = new double[m_MemoryCellCount];
+       m_MemoryCell_2ndDerivatives = new double[m_MemoryCellCount];
+       m_Der2NetOutputGate = new double[m_MemoryCellCount];
+       m_Der2CurrentState = new double[m_MemoryCellCount];
+       m_CsDer2NetForgetGate = new double[m_MemoryCellCount];
+       m_CsDer2NetInputGate = new double[m_MemoryCellCount];
+       m_CsDer2NetMemoryCell_1st = new double[m_MemoryCellCount];
+       m_DerivativeSignals = new double[3][];
+       m_CellParameterDerivative = new double[m_MemoryCellCount][m_InputCount];
+       m_GateParameterDerivative = new double[m_MemoryCellCount][3*(m_InputCount+m_MemoryCellCount)];
    }
 
    public FunctionalUnit2.ProcessPatternResult2 processPattern
@@ -231,6 +651,23 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        boolean computeParameterDerivative,
        boolean computeParameterSecondDerivative,
        String[] recordList)
+   {
+       return processPattern(inputPattern,
+                             computeDerivative,
+                             computeSecondDerivative,
+                             computeParameterDerivative,
+                             computeParameterSecondDerivative,
+                             RecordMask.compile(recordList));
+   }
+
+   public FunctionalUnit2.ProcessPatternResult2 processPattern
+   (
+       double[] inputPattern,
+       boolean computeDerivative,
+       boolean computeSecondDerivative,
+       boolean computeParameterDerivative,
+       boolean computeParameterSecondDerivative,
+       RecordMask recordMask)
    {
        //*** Preprocessing
       FunctionalUnit2.ProcessPatternResult2 ret =
@@ -239,76 +676,138 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
                              computeSecondDerivative,
                              computeParameterDerivative,
                              computeParameterSecondDerivative,
-                             recordList);
+                             recordMask.getRecordList());
+
+       //*** Processing
+       step(inputPattern, computeParameterDerivative, recordMask, ret);
+
+       //*Return values
+       return ret;
+   }
+
+   /** Same as processPattern (without derivative to input and second
+    *  derivatives), except that the returned object and its arrays belong to
+    *  the block and are overwritten by the next call. No memory is allocated
+    *  unless extra data is requested. The parameter derivative is not part of
+    *  the result: when requested, it is kept in compact form and can be
+    *  added to a network Jacobian through
+    *  {@link #addParameterDerivativeSegments}.
+    *  @param    inputPattern                  Input pattern.
+    *  @param    computeParameterDerivative    Whether to compute derivatives to parameters.
+    *  @param    recordList                    Extra data to record.
+    *  @return   The block owned results.
+    */
+   public FunctionalUnit2.ProcessPatternResult2 processPatternInPlace
+   (
+       double[] inputPattern,
+       boolean computeParameterDerivative,
+       String[] recordList)
+   {
+       return processPatternInPlace(inputPattern,
+                                    computeParameterDerivative,
+                                    RecordMask.compile(recordList));
+   }
+
+   /** Same as {@link #processPatternInPlace(double[], boolean, String[])}
+    *  but with a compiled record list.
+    *  @param    inputPattern                  Input pattern.
+    *  @param    computeParameterDerivative    Whether to compute derivatives to parameters.
+    *  @param    recordMask                    Extra data to record.
+    *  @return   The block owned results.
+    */
+   public FunctionalUnit2.ProcessPatternResult2 processPatternInPlace
+   (
+       double[] inputPattern,
+       boolean computeParameterDerivative,
+       RecordMask recordMask)
+   {
+       //*** Preprocessing
+       if (inputPattern.length != m_InputCount) {
+           throw new IllegalArgumentException("inputPatten is of the wrong size!");
+       }
+       if (m_InPlaceResult == null) {
+           m_InPlaceResult = createProcessPatternResult(false, false, false, false);
+       }
+       m_InPlaceResult.extraData = null;
+
+       //*** Processing
+       step(inputPattern, computeParameterDerivative, recordMask, m_InPlaceResult);
+
+       //*Return values
+       return m_InPlaceResult;
+   }
+
+   /** Processes a pattern, writing the output and the parameter derivative
+    * (if requested) into a given result. Only the non-zero part of the
+    * parameter derivative is written, the rest is assumed zero. When the
+    * result has no parameter derivative, it is written in compact form into
+    * the block (see {@link #addParameterDerivativeSegments}). Intermediate
+    * values are computed in the block workspaces.
+    */
+   protected void step
+   (
+       double[] inputPattern,
+       boolean computeParameterDerivative,
+       RecordMask recordMask,
+       FunctionalUnit2.ProcessPatternResult2 ret)
+   {
+       double[] gateDerivatives = m_GateDerivatives;
 
        //*** Foward pass
 
+       //*Net inputs (fused pass, output gate peepholes excluded)
+       double[] netInputs = m_NetInputs;
+       computeNetInputs(inputPattern, m_PreviousState, 0, netInputs);
+
        //*Input gate activation (step 1a)
-       double netInputGate =
-           LinearAlgebra.weightedSum(m_InputGateWeights, inputPattern) +
-           LinearAlgebra.weightedSum(m_InputGatePeepholeWeights, m_PreviousState);
-       FunctionalUnit.ProcessPatternResult inputGate =
-           m_InputGate.processPattern(new double[] {netInputGate}, computeParameterDerivative, false);
+       double netInputGate = netInputs[m_MemoryCellCount+0];
+       double inputGate =
+           processFunction(m_InputGate, netInputGate, computeParameterDerivative, gateDerivatives, 0);
 
        //*Forget gate activation (step 1b)
-       double netForgetGate =
-           LinearAlgebra.weightedSum(m_ForgetGateWeights, inputPattern) +
-           LinearAlgebra.weightedSum(m_ForgetGatePeepholeWeights, m_PreviousState);
-       FunctionalUnit.ProcessPatternResult forgetGate =
-           m_ForgetGate.processPattern(new double[] {netForgetGate}, computeParameterDerivative, false);
+       double netForgetGate = netInputs[m_MemoryCellCount+1];
+       double forgetGate =
+           processFunction(m_ForgetGate, netForgetGate, computeParameterDerivative, gateDerivatives, 1);
 
        //*Memory cell activation (step 1c)
-       double[] netMemoryCell_1st =
-           LinearAlgebra.multMatrixVector(m_MemoryCellWeights, inputPattern);
-       FunctionalUnit.ProcessPatternResult[] memoryCell_1st = //g's
-           new FunctionalUnit.ProcessPatternResult[m_MemoryCellCount];
-       for (int i=0; i<m_MemoryCellCount; i++)
-       {
-           memoryCell_1st[i] =
-               m_g.processPattern(new double[] {netMemoryCell_1st[i]}, computeParameterDerivative, false);
-       }
-       double[] currentState = new double[m_MemoryCellCount];
+       double[] netMemoryCell_1st = m_NetMemoryCell_1st;
+       double[] memoryCell_1st = m_MemoryCell_1st; //g's
+       System.arraycopy(netInputs, 0, netMemoryCell_1st, 0, m_MemoryCellCount);
+       processFunction(m_g, netMemoryCell_1st, memoryCell_1st, m_MemoryCellCount,
+                       computeParameterDerivative, m_MemoryCell_1stDerivatives);
+       double[] currentState = m_CurrentState;
        for (int i=0; i<m_MemoryCellCount; i++)
        {
            currentState[i] =
-               inputGate.outputPattern[0] * memoryCell_1st[i].outputPattern[0] +
-               forgetGate.outputPattern[0] * m_PreviousState[i];
+               inputGate * memoryCell_1st[i] +
+               forgetGate * m_PreviousState[i];
        }
 
        //*Output gate activation (step 2a)
        double netOutputGate =
-           LinearAlgebra.weightedSum(m_OutputGateWeights, inputPattern) +
-           LinearAlgebra.weightedSum(m_OutputGatePeepholeWeights, currentState);
-       FunctionalUnit.ProcessPatternResult outputGate =
-           m_OutputGate.processPattern(new double[] {netOutputGate}, computeParameterDerivative, false);
+           netInputs[m_MemoryCellCount+2] +
+           computeOutputGatePeephole(currentState);
+       double outputGate =
+           processFunction(m_OutputGate, netOutputGate, computeParameterDerivative, gateDerivatives, 2);
 
        //*Memory cell output activation (step 2b)
        double[] netMemoryCell_2nd = currentState;
-       FunctionalUnit.ProcessPatternResult[] memoryCell_2nd = //h's
-           new FunctionalUnit.ProcessPatternResult[m_MemoryCellCount];
-       for (int i=0; i<m_MemoryCellCount; i++)
-       {
-           memoryCell_2nd[i] =
-               m_h.processPattern(new double[] {netMemoryCell_2nd[i]}, computeParameterDerivative, false);
-       }
-       double[] output = new double[m_MemoryCellCount];
-       for (int i = 0; i < m_MemoryCellCount; i++)
-       {
-           output[i] =
-               outputGate.outputPattern[0] * memoryCell_2nd[i].outputPattern[0];
-       }
+       double[] memoryCell_2nd = m_MemoryCell_2nd; //h's
+       processFunction(m_h, netMemoryCell_2nd, memoryCell_2nd, m_MemoryCellCount,
+                       computeParameterDerivative, m_MemoryCell_2ndDerivatives);
 
        //*Construct output vector
        for (int i=0; i<m_MemoryCellCount; i++)
        {
-           ret.outputPattern[i] = output[i];
+           ret.outputPattern[i] =
+               outputGate * memoryCell_2nd[i];
        }
-       ret.outputPattern[m_MemoryCellCount+0] = inputGate.outputPattern[0];
-       ret.outputPattern[m_MemoryCellCount+1] = forgetGate.outputPattern[0];
-       ret.outputPattern[m_MemoryCellCount+2] = outputGate.outputPattern[0];
+       ret.outputPattern[m_MemoryCellCount+0] = inputGate;
+       ret.outputPattern[m_MemoryCellCount+1] = forgetGate;
+       ret.outputPattern[m_MemoryCellCount+2] = outputGate;
 
        //*Save internal state on request
-        if (DataNames.isMember(LSTMDataNames.LSTM_INTERNAL_STATES, recordList)) {
+        if (recordMask.contains(REC_LSTM_INTERNAL_STATES)) {
             ret.extraData = new DataSet();
             ret.extraData.setData(LSTMDataNames.LSTM_INTERNAL_STATES,
                                   LinearAlgebra.copyVector(currentState));
@@ -317,197 +816,172 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        //*** Derivative computation
        if (computeParameterDerivative) {
 
+           //*Signals used in place of input, previous and current states
+           computeDerivativeSignals(inputPattern, currentState, m_DerivativeSignals);
+           double[] inputSignal = m_DerivativeSignals[0];
+           double[] prevStateSignal = m_DerivativeSignals[1];
+           double[] stateSignal = m_DerivativeSignals[2];
+
+           //Parameters are constructed as follows:
+           //    Weights for memory cell 1 folowed by
+           //    ...
+           //    Weights for memory cell N followed by
+           //    Weights to input gate (followed by peephole its weights) followed by
+           //    Weights to forget gate (followed by peephole its weights) followed by
+           //    Weights to output gate (followed by peephole its weights)
+           //Only memory cells derivatives are written (rows of the gates are zeroed)
+           //Memory cell i weights part is written at cellStride*i of cellDerivative
+           //and the gates part at gateOffset+(dense index) of parameterDerivative
+           double[][] parameterDerivative = ret.parameterDerivative;
+           double[][] cellDerivative = parameterDerivative;
+           int cellStride = m_InputCount;
+           int gateOffset = 0;
+           if (parameterDerivative == null) {
+               cellDerivative = m_CellParameterDerivative;
+               cellStride = 0;
+               parameterDerivative = m_GateParameterDerivative;
+               gateOffset = -m_InputCount*m_MemoryCellCount;
+           }
+
            //*Derivative from block output with respect to output gate weights
 
            //D outputPattern[i] /D netOutputGate =
            //    memoryCell_2nd[i] * outputGate.derivative
-           double[] der2netOutputGate = new double[m_MemoryCellCount];
+           double[] der2netOutputGate = m_Der2NetOutputGate;
            for (int i=0; i<m_MemoryCellCount; i++)
            {
                der2netOutputGate[i] =
-                   outputGate.derivative[0][0] * memoryCell_2nd[i].outputPattern[0];
+                   gateDerivatives[2] * memoryCell_2nd[i];
            }
 
            //D outputPattern[i] /D outputGateWeights[j] =
            //    der2netOutputGate[i] * inputPattern[j]
-           double[][] der2OutputGateWeights = LinearAlgebra.multVectorVector(der2netOutputGate, inputPattern);
+           int start = gateOffset+m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(2);
+           for (int i=0; i<m_MemoryCellCount; i++)
+           {
+               for (int j=0; j<m_InputCount; j++)
+               {
+                   parameterDerivative[i][start+j] = der2netOutputGate[i] * inputSignal[j];
+               }
+           }
 
            //D outputPattern[i] /D outputGatePeeholeWeights[j] =
            //    der2netOutputGate[i] * currentState[j]
-           double[][] der2OutputGatePeepholeWeights = LinearAlgebra.multVectorVector(der2netOutputGate, currentState);
+           start = gateOffset+m_InputCount*(m_MemoryCellCount+3)+m_MemoryCellCount*(2);
+           for (int i=0; i<m_MemoryCellCount; i++)
+           {
+               for (int j=0; j<m_MemoryCellCount; j++)
+               {
+                   parameterDerivative[i][start+j] = der2netOutputGate[i] * stateSignal[j];
+               }
+           }
 
            //*Derivative from block output with respect to current state
 
            //D outputPattern[i] /D currentState[i] =
            //    outputGate * hprime[i]
-           double[] der2CurrentState = new double[m_MemoryCellCount];
+           double[] der2CurrentState = m_Der2CurrentState;
            for (int i=0; i<m_MemoryCellCount; i++)
            {
                der2CurrentState[i] =
-                   outputGate.outputPattern[0] * memoryCell_2nd[i].derivative[0][0];
+                   outputGate * m_MemoryCell_2ndDerivatives[i];
            }
 
            //*Derivative from current state to forget gate weights
 
            //D currentState[i] /D netForgetGate =
            //    m_PreviousState[i] * forgetGate.derivative
-           double[] csder2NetForgetGate =
-               LinearAlgebra.multScalarVector(forgetGate.derivative[0][0], m_PreviousState);
+           double[] csder2NetForgetGate = m_CsDer2NetForgetGate;
+           for (int i=0; i<m_MemoryCellCount; i++)
+           {
+               csder2NetForgetGate[i] = gateDerivatives[1] * m_PreviousState[i];
+           }
 
            //D currentState[i] /D forgetGateWeights[j] =
            //    csder2NetForgetGate[i] * inputPattern[j] +
            //    prevCsDer2ForgetWeights[i][j] * forgetGate
-           double[][] csder2ForgetGateWeights =
-               LinearAlgebra.addMatrices(
-                   LinearAlgebra.multVectorVector(csder2NetForgetGate, inputPattern),
-                   LinearAlgebra.multScalarMatrix(forgetGate.outputPattern[0], m_PrevCsDer2ForgetWeights));
+           updateCsDerivative(CS_FORGET, csder2NetForgetGate, inputSignal, forgetGate);
 
            //D currentState[i] /D forgetGatePeepholeWeights[j] =
            //    csder2NetForgetGate[i] * previousState[j] +
            //    prevCsDer2ForgetPeepholeWeights[i][j] * forgetGate
-           double[][] csder2ForgetGatePeepholeWeights =
-               LinearAlgebra.addMatrices(
-                   LinearAlgebra.multVectorVector(csder2NetForgetGate, m_PreviousState),
-                   LinearAlgebra.multScalarMatrix(forgetGate.outputPattern[0], m_PrevCsDer2ForgetPeepholeWeights));
+           updateCsDerivative(CS_FORGET_PEEPHOLE, csder2NetForgetGate, prevStateSignal, forgetGate);
 
            //*Derivative from block output with respect to forget gate weights
 
            //D outputPattern[i] /D forgetGateWeights[j] =
            //    der2CurrentState[i] * csder2ForgetGateWeights[i][j]
-           double[][] der2ForgetGateWeights = new double[m_MemoryCellCount][];
-           for (int i=0; i<m_MemoryCellCount; i++)
-           {
-               der2ForgetGateWeights[i] =
-                   LinearAlgebra.multScalarVector(der2CurrentState[i], csder2ForgetGateWeights[i]);
-           }
+           overwriteScaledRows(CS_FORGET, der2CurrentState,
+                               gateOffset+m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(1), 0, parameterDerivative);
 
           //D outputPattern[i] /D forgetGatePeepholeWeights[j] =
           //    der2CurrentState[i] * csder2ForgetGatePeepholeWeights[i][j]
-          double[][] der2ForgetGatePeepholeWeights = new double[m_MemoryCellCount][];
-          for (int i=0; i<m_MemoryCellCount; i++)
-          {
-              der2ForgetGatePeepholeWeights[i] =
-                  LinearAlgebra.multScalarVector(der2CurrentState[i], csder2ForgetGatePeepholeWeights[i]);
-          }
+          overwriteScaledRows(CS_FORGET_PEEPHOLE, der2CurrentState,
+                              gateOffset+m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(1), 0, parameterDerivative);
 
            //*Derivative from current state to input gate weights
 
            //D currentState[i] /D netInputGate =
            //    memoryCell_1st[i] * inputGate.derivative
-           double[] csder2NetInputGate = new double[m_MemoryCellCount];
+           double[] csder2NetInputGate = m_CsDer2NetInputGate;
            for (int i=0; i<m_MemoryCellCount; i++)
            {
                csder2NetInputGate[i] =
-                   memoryCell_1st[i].outputPattern[0] * inputGate.derivative[0][0];
+                   memoryCell_1st[i] * gateDerivatives[0];
            }
 
            //D currentState[i] /D inputGateWeights[j] =
            //    csder2NetInputGate[i] * inputPattern[j] +
            //    prevCsDer2InputWeights[i][j] * forgetGate
-           double[][] csder2InputGateWeights =
-               LinearAlgebra.addMatrices(
-                  LinearAlgebra.multVectorVector(csder2NetInputGate, inputPattern),
-                  LinearAlgebra.multScalarMatrix(forgetGate.outputPattern[0], m_PrevCsDer2InputWeights));
+           updateCsDerivative(CS_INPUT, csder2NetInputGate, inputSignal, forgetGate);
 
            //D currentState[i] /D inputGatePeepholeWeights[j] =
            //    csder2NetInputGate[i] * previousState[j] +
            //    prevCsDer2InputPeepholeWeights[i][j] * forgetGate
-           double[][] csder2InputGatePeepholeWeights =
-               LinearAlgebra.addMatrices(
-                   LinearAlgebra.multVectorVector(csder2NetInputGate, m_PreviousState),
-                   LinearAlgebra.multScalarMatrix(forgetGate.outputPattern[0], m_PrevCsDer2InputPeepholeWeights));
+           updateCsDerivative(CS_INPUT_PEEPHOLE, csder2NetInputGate, prevStateSignal, forgetGate);
 
            //*Derivative from block output with respect to input gate weights
 
            //D outputPattern[i] /D inputGateWeights[j] =
            //    der2CurrentState[i] * csder2InputGateWeights[i][j]
-           double[][] der2InputGateWeights = new double[m_MemoryCellCount][];
-           for (int i=0; i<m_MemoryCellCount; i++)
-           {
-               der2InputGateWeights[i] =
-                   LinearAlgebra.multScalarVector(der2CurrentState[i], csder2InputGateWeights[i]);
-           }
+           overwriteScaledRows(CS_INPUT, der2CurrentState,
+                               gateOffset+m_InputCount*(m_MemoryCellCount+0)+m_MemoryCellCount*(0), 0, parameterDerivative);
 
            //D outputPattern[i] /D inputGatePeepholeWeights[j] =
            //    der2CurrentState[i] * csder2InputGatePeepholeWeights[j]
-           double[][] der2InputGatePeepholeWeights = new double[m_MemoryCellCount][];
-           for (int i=0; i<m_MemoryCellCount; i++)
-           {
-               der2InputGatePeepholeWeights[i] =
-                   LinearAlgebra.multScalarVector(der2CurrentState[i], csder2InputGatePeepholeWeights[i]);
-           }
+           overwriteScaledRows(CS_INPUT_PEEPHOLE, der2CurrentState,
+                               gateOffset+m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(0), 0, parameterDerivative);
 
            //*Derivative from current state to memory cell weights
 
            //D currentState[i] /D netMemoryCell_1st =
            //    inputGate * memoryCell_1st[i].derivative
-           double[] csder2NetMemoryCell_1st = new double[m_MemoryCellCount];
+           double[] csder2NetMemoryCell_1st = m_CsDer2NetMemoryCell_1st;
            for (int i=0; i<m_MemoryCellCount; i++)
            {
                csder2NetMemoryCell_1st[i] =
-                  inputGate.outputPattern[0] * memoryCell_1st[i].derivative[0][0];
+                  inputGate * m_MemoryCell_1stDerivatives[i];
            }
 
            //D currentState[i] /D memoryCellWeights[j] =
            //    csder2NetMemoryCell_1st[i] * inputPattern[j] +
            //    prevCsDer2MemoryCellWeights[i][j] * forgetGate
-           double[][] csder2MemoryCellWeights =
-               LinearAlgebra.addMatrices(
-                   LinearAlgebra.multVectorVector(csder2NetMemoryCell_1st, inputPattern),
-                   LinearAlgebra.multScalarMatrix(forgetGate.outputPattern[0], m_PrevCsDer2MemoryCellWeights));
+           updateCsDerivative(CS_MEMORY_CELL, csder2NetMemoryCell_1st, inputSignal, forgetGate);
 
            //*Derivative from block output with respect to memory cell weights
 
            //D outputPattern[i] /D memoryCellWeights[i][j] =
            //    der2CurrentState[i] * csder2MemoryCellWeights[i][j]
-           double[][] der2MemoryCellWeights = new double[m_MemoryCellCount][];
-           for (int i=0; i<m_MemoryCellCount; i++)
-           {
-               der2MemoryCellWeights[i] =
-                   LinearAlgebra.multScalarVector(der2CurrentState[i], csder2MemoryCellWeights[i]);
-           }
-
-           //*Construct parameters derivative
-
-            //Parameters are constructed as follows:
-            //    Weights for memory cell 1 folowed by
-            //    ...
-            //    Weights for memory cell N followed by
-            //    Weights to input gate (followed by peephole its weights) followed by
-            //    Weights to forget gate (followed by peephole its weights) followed by
-            //    Weights to output gate (followed by peephole its weights)
-
-            //Only memory cells derivatives are returned
-            for (int i=0; i<m_MemoryCellCount; i++)
-            {
-                //der2MemoryCellWeights[i] applies only to derivative from its own output, other are zeroed
-                LinearAlgebra.overwriteSubVector(i*m_InputCount, der2MemoryCellWeights[i], ret.parameterDerivative[i]);
-            }
-            //From memory cells to gate weights derivatives
-            LinearAlgebra.overwriteSubMatrix(0, m_InputCount*(m_MemoryCellCount+0)+m_MemoryCellCount*(0), der2InputGateWeights, ret.parameterDerivative);
-            LinearAlgebra.overwriteSubMatrix(0, m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(0), der2InputGatePeepholeWeights, ret.parameterDerivative);
-            LinearAlgebra.overwriteSubMatrix(0, m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(1), der2ForgetGateWeights, ret.parameterDerivative);
-            LinearAlgebra.overwriteSubMatrix(0, m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(1), der2ForgetGatePeepholeWeights, ret.parameterDerivative);
-            LinearAlgebra.overwriteSubMatrix(0, m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(2), der2OutputGateWeights, ret.parameterDerivative);
-            LinearAlgebra.overwriteSubMatrix(0, m_InputCount*(m_MemoryCellCount+3)+m_MemoryCellCount*(2), der2OutputGatePeepholeWeights, ret.parameterDerivative);
+           //der2MemoryCellWeights[i] applies only to derivative from its own output, other are zeroed
+           overwriteScaledRows(CS_MEMORY_CELL, der2CurrentState, 0, cellStride, cellDerivative);
 
+       }
 
        //*** Finalisation & clean up
 
-           //*Backup gradient state values
-           m_PrevCsDer2ForgetWeights = csder2ForgetGateWeights;
-           m_PrevCsDer2ForgetPeepholeWeights = csder2ForgetGatePeepholeWeights;
-           m_PrevCsDer2InputWeights = csder2InputGateWeights;
-           m_PrevCsDer2InputPeepholeWeights = csder2InputGatePeepholeWeights;;
-           m_PrevCsDer2MemoryCellWeights = csder2MemoryCellWeights;
-
-       }
-
-       //*Back up state values
+       //*Back up state values (swap buffers)
+       m_CurrentState = m_PreviousState;
        m_PreviousState = currentState;
-
-       //*Return values
-       return ret;
    }
 
    public double[] getParameters()
@@ -519,14 +993,9 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        //    Weights to input gate (followed by its peephole weights) followed by
        //    Weights to forget gate (followed by its peephole weights) followed by
        //    Weights to output gate (followed by its peephole weights)
-
-       double[] mem = LinearAlgebra.concatenateRows(m_MemoryCellWeights);
-       double[] in = LinearAlgebra.concatenateVectors(m_InputGateWeights, m_InputGatePeepholeWeights);
-       double[] fgt = LinearAlgebra.concatenateVectors(m_ForgetGateWeights, m_ForgetGatePeepholeWeights);
-       double[] out = LinearAlgebra.concatenateVectors(m_OutputGateWeights, m_OutputGatePeepholeWeights);
-       return LinearAlgebra.concatenateVectors(mem,
-                  LinearAlgebra.concatenateVectors(in,
-                      LinearAlgebra.concatenateVectors(fgt, out)));
+       double[] ret = new double[m_ParameterCount];
+       copyParameters(ret, true);
+       return ret;
    }
 
    public void setParameters(double[] parameters)
@@ -537,6 +1006,39 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
            throw new IllegalArgumentException("parameters is of the wrong size!");
        }
 
+       //Parameters are copied (see getParameters)
+       copyParameters(parameters, false);
+
+   }
+
+   /** Copies the weights to (get) or from (set) a parameters vector. */
+   protected void copyParameters(double[] parameters, boolean get)
+   {
+       int rows = m_MemoryCellCount+3;
+       for (int r=0; r<rows; r++)
+       {
+           int start = getParameterIndex(r);
+           for (int j=0, p=r; j<m_InputCount; j++, p+=rows)
+           {
+               if (get) {
+                   parameters[start+j] = m_Weights[p];
+               } else {
+                   m_Weights[p] = parameters[start+j];
+               }
+           }
+       }
+       copyState(m_InputGatePeepholeWeights, parameters, getParameterIndex(m_MemoryCellCount+0)+m_InputCount, get);
+       copyState(m_ForgetGatePeepholeWeights, parameters, getParameterIndex(m_MemoryCellCount+1)+m_InputCount, get);
+       copyState(m_OutputGatePeepholeWeights, parameters, getParameterIndex(m_MemoryCellCount+2)+m_InputCount, get);
+   }
+
+   public void addeParameters(double factor, double[] deltas, int start)
+   {
+       //Parameters check
+       if (deltas.length < start + m_ParameterCount) {
+           throw new IllegalArgumentException("deltas is of the wrong size!");
+       }
+
        //Parameters are constructed as follows:
        //    Weights for memory cell 1 folowed by
        //    ...
@@ -544,25 +1046,130 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        //    Weights to input gate (followed by its peephole weights) followed by
        //    Weights to forget gate (followed by its peephole weights) followed by
        //    Weights to output gate (followed by its peephole weights)
+       int rows = m_MemoryCellCount+3;
+       for (int r=0; r<rows; r++)
+       {
+           int d = start + getParameterIndex(r);
+           for (int j=0, p=r; j<m_InputCount; j++, p+=rows)
+           {
+               m_Weights[p] += factor * deltas[d+j];
+           }
+       }
+       addeWeights(factor, deltas, start + getParameterIndex(m_MemoryCellCount+0) + m_InputCount, m_InputGatePeepholeWeights);
+       addeWeights(factor, deltas, start + getParameterIndex(m_MemoryCellCount+1) + m_InputCount, m_ForgetGatePeepholeWeights);
+       addeWeights(factor, deltas, start + getParameterIndex(m_MemoryCellCount+2) + m_InputCount, m_OutputGatePeepholeWeights);
+   }
 
-       //Extract
-       double[][] mem = LinearAlgebra.cutInRows(LinearAlgebra.extractVector(parameters, 0, m_MemoryCellCount*m_InputCount-1), m_InputCount);
-       double[] in = LinearAlgebra.extractVector(parameters, m_InputCount*(m_MemoryCellCount+0)+m_MemoryCellCount*(0), m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(0)-1);
-       double[] phin = LinearAlgebra.extractVector(parameters, m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(0), m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(1)-1);
-       double[] fgt = LinearAlgebra.extractVector(parameters, m_InputCount*(m_MemoryCellCount+1)+m_MemoryCellCount*(1), m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(1)-1);
-       double[] phfgt = LinearAlgebra.extractVector(parameters, m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(1), m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(2)-1);
-       double[] out = LinearAlgebra.extractVector(parameters, m_InputCount*(m_MemoryCellCount+2)+m_MemoryCellCount*(2), m_InputCount*(m_MemoryCellCount+3)+m_MemoryCellCount*(2)-1);
-       double[] phout = LinearAlgebra.extractVector(parameters, m_InputCount*(m_MemoryCellCount+3)+m_MemoryCellCount*(2), m_InputCount*(m_MemoryCellCount+3)+m_MemoryCellCount*(3)-1);
+   /** Adds factor*deltas[start..start+w.length-1] to w and returns the index
+    *  of the next delta. */
+   protected static final int addeWeights(double factor, double[] deltas, int start, double[] w)
+   {
+       for (int j=0; j<w.length; j++)
+       {
+           w[j] += factor * deltas[start+j];
+       }
+       return start + w.length;
+   }
+
+   /** Adds the derivative of some outputs with respect to the block weights
+    *  to a block-sparse Jacobian, in factored form, as computed by the last
+    *  call to {@link #processPatternInPlace} with parameter derivative:
+    *  a diagonal segment for the memory cells weights (each cell weights only
+    *  affect their own cell output) and a full segment for the gates weights,
+    *  so that the zeros of the dense parameter derivative are never stored
+    *  nor computed. The segments refer to block arrays and are only valid
+    *  until the next pattern.
+    *  @param    jacobian     The Jacobian.
+    *  @param    start        Index of the first block parameter in the Jacobian columns.
+    *  @param    left         Derivative of the outputs with respect to the
+    *                         block outputs [Jacobian rows][...].
+    *  @param    leftStart    Column of left for the first memory cell output.
+    */
+   public void addParameterDerivativeSegments(BlockSparseJacobian jacobian,
+                                              int start,
+                                              double[][] left,
+                                              int leftStart)
+   {
+       int cellWidth = m_InputCount*m_MemoryCellCount;
+       jacobian.addDiagonalSegment(start, m_InputCount, 1.0,
+                                   left, leftStart, m_MemoryCellCount,
+                                   m_CellParameterDerivative);
+       jacobian.addSegment(start + cellWidth, m_ParameterCount - cellWidth, 1.0,
+                           left, leftStart, m_MemoryCellCount,
+                           m_GateParameterDerivative);
+   }
+
+   /*********************************************************************/
+   //State snapshot
+
+   /** Number of values in the transient state (see {@link #saveState}).
+    *  @return   The state size.
+    */
+   public int getStateSize()
+   {
+       int C = m_MemoryCellCount;
+       return C + 3*C*m_InputCount + 2*C*C;
+   }
 
-       //Save
-       m_MemoryCellWeights = mem;
-       m_InputGateWeights = in;
-       m_InputGatePeepholeWeights = phin;
-       m_ForgetGateWeights = fgt;
-       m_ForgetGatePeepholeWeights = phfgt;
-       m_OutputGateWeights = out;
-       m_OutputGatePeepholeWeights = phout;
+   /** Copies the transient state (previous states and partial derivatives
+    *  of the previous states) into a buffer. The block must have been reset
+    *  at least once.
+    *  @param    buffer    Buffer receiving the state.
+    *  @param    start     Index of the first value in buffer.
+    *  @return   Index following the last value written.
+    */
+   public int saveState(double[] buffer, int start)
+   {
+       return copyState(buffer, start, true);
+   }
 
+   /** Restores a transient state saved by {@link #saveState}.
+    *  @param    buffer    Buffer holding the state.
+    *  @param    start     Index of the first value in buffer.
+    *  @return   Index following the last value read.
+    */
+   public int restoreState(double[] buffer, int start)
+   {
+       return copyState(buffer, start, false);
+   }
+
+   /** Copies the transient state to (save) or from (restore) a buffer. The
+    *  arrays of the block are kept, only their values are copied.
+    */
+   protected int copyState(double[] buffer, int start, boolean save)
+   {
+       start = copyState(m_PreviousState, buffer, start, save);
+       for (int k=0; k<CS_COUNT; k++)
+       {
+           start = copyCsDerivative(k, buffer, start, save);
+       }
+       return start;
+   }
+
+   /** Copies a vector to (save) or from (restore) a buffer.
+    *  @return   Index following the last value copied.
+    */
+   protected static final int copyState(double[] v, double[] buffer, int start, boolean save)
+   {
+       if (save) {
+           System.arraycopy(v, 0, buffer, start, v.length);
+       } else {
+           System.arraycopy(buffer, start, v, 0, v.length);
+       }
+       return start + v.length;
+   }
+
+   /** Copies a matrix to (save) or from (restore) a buffer (row by row).
+    *  @return   Index following the last value copied.
+    */
+   protected static final int copyState(DenseMatrix m, double[] buffer, int start, boolean save)
+   {
+       if (save) {
+           m.concatenateRows(buffer, start);
+       } else {
+           m.cutInRows(buffer, start);
+       }
+       return start + m.getRowCount()*m.getColumnCount();
    }
 
    /*********************************************************************/
@@ -588,21 +1195,26 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
        ret += "\tOutput gate = \n";
        ret += Tools.tabText(m_OutputGate.toString(),2) + "\n";
 
-       //Weights structure
+       //Weights structure (from the parameters, see getParameters)
+       double[] p = getParameters();
+       int I = m_InputCount, C = m_MemoryCellCount;
        ret += "\tMemoryCellWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_MemoryCellWeights),2) + "\n";
-       ret += "\tInputGateWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_InputGateWeights),2) + "\n";
-       ret += "\tInputGatePeepholeWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_InputGatePeepholeWeights),2) + "\n";
-       ret += "\tForgetGateWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_ForgetGateWeights),2) + "\n";
-       ret += "\tForgetGatePeepholeWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_ForgetGatePeepholeWeights),2) + "\n";
-       ret += "\tOutputGateWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_OutputGateWeights),2) + "\n";
-       ret += "\tOutputGatePeepholeWeights = \n";
-       ret += Tools.tabText(LinearAlgebra.toString(m_OutputGatePeepholeWeights),2);
+       double[][] mem = new double[C][];
+       for (int i=0; i<C; i++)
+       {
+           mem[i] = LinearAlgebra.extractVector(p, i*I, i*I+I-1);
+       }
+       ret += Tools.tabText(LinearAlgebra.toString(mem),2) + "\n";
+       String[] gates = {"InputGate", "ForgetGate", "OutputGate"};
+       for (int g=0; g<3; g++)
+       {
+           int start = getParameterIndex(C+g);
+           ret += "\t" + gates[g] + "Weights = \n";
+           ret += Tools.tabText(LinearAlgebra.toString(LinearAlgebra.extractVector(p, start, start+I-1)),2) + "\n";
+           ret += "\t" + gates[g] + "PeepholeWeights = \n";
+           ret += Tools.tabText(LinearAlgebra.toString(LinearAlgebra.extractVector(p, start+I, start+I+C-1)),2);
+           if (g < 2) {ret += "\n";}
+       }
 
        //State value
        if (m_PreviousState != null) {
@@ -617,8 +1229,75 @@ public class FastLSTMMemoryBlock extends AbstractFunctionalUnit2 {
    /*********************************************************************/
    //Cloneable/Serializable interface implementation
 
+   //Structural deep copy (weights and functions), transient states are reset
    public Object clone() {
-       return Tools.copyObject(this);
+       FastLSTMMemoryBlock ret;
+       try {
+           ret = (FastLSTMMemoryBlock) super.clone();
+       } catch (CloneNotSupportedException e) {
+           throw new RuntimeException(e.toString());
+       }
+       //Functions
+       ret.m_InputGate = Tools.copyUnit(m_InputGate);
+       ret.m_ForgetGate = Tools.copyUnit(m_ForgetGate);
+       ret.m_OutputGate = Tools.copyUnit(m_OutputGate);
+       ret.m_g = Tools.copyUnit(m_g);
+       ret.m_h = Tools.copyUnit(m_h);
+       //Weights
+       ret.copyWeights();
+       //Transients
+       ret.m_InPlaceResult = null;
+       ret.reset();
+       return ret;
+   }
+
+   /** Replaces the weights of a clone (shared with the original after
+    *  Object.clone) by copies of them. */
+   protected void copyWeights()
+   {
+       m_Weights = LinearAlgebra.copyVector(m_Weights);
+       m_InputGatePeepholeWeights = LinearAlgebra.copyVector(m_InputGatePeepholeWeights);
+       m_ForgetGatePeepholeWeights = LinearAlgebra.copyVector(m_ForgetGatePeepholeWeights);
+       m_OutputGatePeepholeWeights = LinearAlgebra.copyVector(m_OutputGatePeepholeWeights);
+   }
+
+   /** Creates a block sharing the weights and functions of this one by
+    *  reference (functions are stateless), but with its own transient state
+    *  and workspaces (see {@link LSTMState}). Changes to the weights of
+    *  either block are seen by both.
+    *  @return   The new block, in the reset state.
+    */
+   protected FastLSTMMemoryBlock shareWeights() {
+       FastLSTMMemoryBlock ret;
+       try {
+           ret = (FastLSTMMemoryBlock) super.clone();
+       } catch (CloneNotSupportedException e) {
+           throw new RuntimeException(e.toString());
+       }
+       ret.m_InPlaceResult = null;
+       ret.reset();
+       return ret;
+   }
+
+   //Converts blocks serialized with the version 1.0 weights layout
+   private void readObject(java.io.ObjectInputStream in)
+       throws java.io.IOException, ClassNotFoundException
+   {
+       in.defaultReadObject();
+       if (m_MemoryCellWeights != null) {
+           m_Weights = new double[m_InputCount*(m_MemoryCellCount+3)];
+           for (int i=0; i<m_MemoryCellCount; i++)
+           {
+               setWeights(i, m_MemoryCellWeights[i]);
+           }
+           setWeights(m_MemoryCellCount+0, m_InputGateWeights);
+           setWeights(m_MemoryCellCount+1, m_ForgetGateWeights);
+           setWeights(m_MemoryCellCount+2, m_OutputGateWeights);
+           m_MemoryCellWeights = null;
+           m_InputGateWeights = null;
+           m_ForgetGateWeights = null;
+           m_OutputGateWeights = null;
+       }
    }
 
 }
\ No newline at end of file
@@ -29,8 +29,16 @@ import lnsc.pmvf.*;
  * <P> Memory cells internal states, outputs, and memory block gates are
  * available through keywords in {@link LSTMDataNames}. </P>
  *
- * <P> Cloning is done through serialization, transient states are therefore
- * transient to cloning too (e.g. reseted in clones). <P>
+ * <P> Cloning is a structural deep copy of the weights and functions,
+ * transient states are reseted in clones (as through serialization). The
+ * transient state can be copied without serialization using
+ * {@link #saveState} and {@link #restoreState}. <P>
+ *
+ * <P> Wide networks process their memory blocks in parallel (see
+ * {@link #setParallelMinBlocks}). <P>
+ *
+ * <P> Several sequences can be run concurrently on the same weights through
+ * per-sequence states (see {@link #createState} and {@link LSTMState}). <P>
  *
  * <P> Avoid using this class directly or deriving it unless you really know
  * what you do. Use Factories instead as much as possible. </P>
@@ -54,6 +62,68 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
     /** Serial version UID. */
     static final long serialVersionUID = -5612768043320548291L;
 
+    /*********************************************************************/
+    //Record keys
+
+    /** Bit index of the keywords checked at every pattern. */
+    protected static final int
+        REC_SPARSE_PARAMETER_DERIVATIVES = RecordMask.getKeyIndex(DataNames.SPARSE_PARAMETER_DERIVATIVES),
+        REC_LSTM_INTERNAL_STATES = RecordMask.getKeyIndex(LSTMDataNames.LSTM_INTERNAL_STATES),
+        REC_LSTM_INTERNAL_ACTIVATIONS = RecordMask.getKeyIndex(LSTMDataNames.LSTM_INTERNAL_ACTIVATIONS),
+        REC_LSTM_INPUT_GATES = RecordMask.getKeyIndex(LSTMDataNames.LSTM_INPUT_GATES),
+        REC_LSTM_FORGET_GATES = RecordMask.getKeyIndex(LSTMDataNames.LSTM_FORGET_GATES),
+        REC_LSTM_OUTPUT_GATES = RecordMask.getKeyIndex(LSTMDataNames.LSTM_OUTPUT_GATES);
+
+    /*********************************************************************/
+    //Parallel step
+
+    /** Default minimum number of memory blocks from which the blocks are
+     * processed in parallel (see {@link #setParallelMinBlocks}). */
+    public static final int DEFAULT_PARALLEL_MIN_BLOCKS = 16;
+
+    /** Minimum number of memory blocks from which the blocks are processed
+     * in parallel. Set from the system property
+     * <code>lnsc.lstm.parallelBlocks</code> when available,
+     * {@link #DEFAULT_PARALLEL_MIN_BLOCKS} otherwise. */
+    private static int s_ParallelMinBlocks = initParallelMinBlocks();
+
+    /** Reads the parallel threshold system property. */
+    private static int initParallelMinBlocks()
+    {
+        try {
+            String s = System.getProperty("lnsc.lstm.parallelBlocks");
+            if (s != null) {
+                return Math.max(1, Integer.parseInt(s));
+            }
+        } catch (SecurityException e) {
+        } catch (NumberFormatException e) {
+        }
+        return DEFAULT_PARALLEL_MIN_BLOCKS;
+    }
+
+    /** Sets the minimum number of memory blocks from which a step processes
+     * the blocks in parallel across the threads of the default
+     * {@link WorkerPool}; smaller networks process them serially, the
+     * synchronisation costing more than it saves on small blocks. Each block
+     * only reads the common block input and writes its own results, so that
+     * the results are identical in both cases.
+     * @param    count    The threshold (<code>Integer.MAX_VALUE</code> to
+     *                    always process the blocks serially).
+     */
+    public static void setParallelMinBlocks(int count)
+    {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be strictly positive!");
+        }
+        s_ParallelMinBlocks = count;
+    }
+
+    /** Gets the parallel threshold (see {@link #setParallelMinBlocks}). */
+    public static int getParallelMinBlocks()
+    {
+        return s_ParallelMinBlocks;
+    }
+
     /*********************************************************************/
     //Private fields (architecture, see properties)
 
@@ -92,6 +162,9 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
     /** Previous output of memory blocks [MemoryBlockCount][(MemoryBlock)OutputCount]. */
     protected transient double[][] m_PrevMemoryBlocksOutput;
 
+    /** Block-sparse derivative to parameters (reused at each pattern). */
+    protected transient BlockSparseJacobian m_SparseParameterDerivative;
+
     /*********************************************************************/
     //Constructors
 
@@ -186,6 +259,42 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
 
     }
 
+    /** Copy constructor (structural deep copy, as {@link #clone}), for
+     * subclasses converting a network (see FloatLSTMNetwork). The states are
+     * reset.
+     * @param    source    The network to copy (unchanged).
+     */
+    protected FastLSTMNetwork(FastLSTMNetwork source)
+    {
+        //FunctionalUnit2 properties
+        m_InputCount = source.m_InputCount;
+        m_OutputCount = source.m_OutputCount;
+        m_ParameterCount = source.m_ParameterCount;
+        m_IsDifferentiable = source.m_IsDifferentiable;
+        m_IsTwiceDifferentiable = source.m_IsTwiceDifferentiable;
+        m_IsParameterDifferentiable = source.m_IsParameterDifferentiable;
+        m_IsParameterTwiceDifferentiable = source.m_IsParameterTwiceDifferentiable;
+
+        //Other properties
+        m_BiasToOutput = source.m_BiasToOutput;
+        m_InputToOutput = source.m_InputToOutput;
+        m_GateToOutput = source.m_GateToOutput;
+        m_GateToGate = source.m_GateToGate;
+        m_MemoryBlockCount = source.m_MemoryBlockCount;
+        m_OutputWeightsLocalGradientFactor = source.m_OutputWeightsLocalGradientFactor;
+
+        //Memory blocks and output layer
+        m_MemoryBlocks = new FastLSTMMemoryBlock[m_MemoryBlockCount];
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            m_MemoryBlocks[i] = (FastLSTMMemoryBlock) source.m_MemoryBlocks[i].clone();
+        }
+        m_OutputLayer = (FastSingleLayerNeuralNetwork) source.m_OutputLayer.clone();
+
+        //Transient states initialisation
+        reset();
+    }
+
     /*********************************************************************/
     //Properties
 
@@ -203,6 +312,47 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
         m_OutputWeightsLocalGradientFactor = newFactor;
     }
 
+    /** Sets whether the memory blocks skip their zero inputs (see
+     * {@link FastLSTMMemoryBlock#setSparseInputs}). States created before
+     * (see {@link #createState}) keep their previous mode.
+     * @param   newSparseInputs   true to skip the zero inputs.
+     */
+    public void setSparseInputs(boolean newSparseInputs)
+    {
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            m_MemoryBlocks[i].setSparseInputs(newSparseInputs);
+        }
+    }
+
+    /** Sets how the logistic functions of the memory blocks and of the output
+     * layer evaluate their output and derivative (see
+     * {@link LogisticUnit#setEvaluation}). Functions shared with other
+     * networks (such as those created by the same factory) are replaced by
+     * copies rather than modified. States created before (see
+     * {@link #createState}) keep their previous mode.
+     * @param   newEvaluation   LogisticUnit.EVALUATION_EXACT or
+     *                          LogisticUnit.EVALUATION_TABLE.
+     */
+    public void setLogisticEvaluation(int newEvaluation)
+    {
+        if ((newEvaluation != LogisticUnit.EVALUATION_EXACT) &&
+            (newEvaluation != LogisticUnit.EVALUATION_TABLE)) {
+            throw new IllegalArgumentException("Unknown evaluation mode!");
+        }
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            m_MemoryBlocks[i].setLogisticEvaluation(newEvaluation);
+        }
+        //The output layer is shared with the states, replace it (same weights)
+        FunctionalUnit[] outputUnits = (FunctionalUnit[]) m_OutputLayer.getOutputUnits().clone();
+        for (int o=0; o<outputUnits.length; o++)
+        {
+            outputUnits[o] = FastLSTMMemoryBlock.withEvaluation(outputUnits[o], newEvaluation);
+        }
+        m_OutputLayer = m_OutputLayer.shareWeights(outputUnits);
+    }
+
     /*********************************************************************/
     //FunctionalUnit2 interface implementation
 
@@ -214,6 +364,7 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
             m_MemoryBlocks[i].reset();
             m_PrevMemoryBlocksOutput[i] = new double[m_MemoryBlocks[i].getOutputCount()];
         }
+        m_SparseParameterDerivative = new BlockSparseJacobian(m_OutputCount, getParameterCount(), 2*m_MemoryBlockCount+1);
     }
 
     public FunctionalUnit2.ProcessPatternResult2 processPattern(
@@ -224,15 +375,34 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
         boolean computeParameterSecondDerivative,
         String[] recordList)
     {
+        return processPattern(inputPattern,
+                              computeDerivative,
+                              computeSecondDerivative,
+                              computeParameterDerivative,
+                              computeParameterSecondDerivative,
+                              RecordMask.compile(recordList));
+    }
+
+    public FunctionalUnit2.ProcessPatternResult2 processPattern(
+        double[] inputPattern,
+        boolean computeDerivative,
+        boolean computeSecondDerivative,
+        boolean computeParameterDerivative,
+        boolean computeParameterSecondDerivative,
+        RecordMask recordMask)
+    {
 
         //*** Preprocessing
+        //The dense derivative is not allocated when the sparse one is requested
+        boolean sparse = computeParameterDerivative &&
+            recordMask.contains(REC_SPARSE_PARAMETER_DERIVATIVES);
         FunctionalUnit2.ProcessPatternResult2 ret =
             preProcessPattern(inputPattern,
                                computeDerivative,
                                computeSecondDerivative,
-                               computeParameterDerivative,
+                               computeParameterDerivative && !sparse,
                                computeParameterSecondDerivative,
-                               recordList);
+                               recordMask.getRecordList());
 
         //*** Forward pass
 
@@ -286,15 +456,27 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
 
 
         //*Process memory blocks
-        FunctionalUnit2.ProcessPatternResult2 memoryBlocks[] = new FunctionalUnit2.ProcessPatternResult2[m_MemoryBlockCount];
-        for (int i=0; i<m_MemoryBlockCount; i++)
-        {
-            memoryBlocks[i] = m_MemoryBlocks[i].processPattern(blockInput, false, false, computeParameterDerivative, false, recordList);
+        final FunctionalUnit2.ProcessPatternResult2 memoryBlocks[] = new FunctionalUnit2.ProcessPatternResult2[m_MemoryBlockCount];
+        if (m_MemoryBlockCount >= s_ParallelMinBlocks) {
+            //one part per block (blocks share only the read-only input)
+            final double[] input = blockInput;
+            final boolean paramDer = computeParameterDerivative;
+            final RecordMask mask = recordMask;
+            WorkerPool.getDefault().run(new WorkerPool.Task() {
+                public void run(int i) {
+                    memoryBlocks[i] = m_MemoryBlocks[i].processPatternInPlace(input, paramDer, mask);
+                }
+            }, m_MemoryBlockCount);
+        } else {
+            for (int i=0; i<m_MemoryBlockCount; i++)
+            {
+                memoryBlocks[i] = m_MemoryBlocks[i].processPatternInPlace(blockInput, computeParameterDerivative, recordMask);
+            }
         }
 
         //*Save internal state on request
          ret.extraData = new DataSet();
-         if (DataNames.isMember(LSTMDataNames.LSTM_INTERNAL_STATES, recordList)) {
+         if (recordMask.contains(REC_LSTM_INTERNAL_STATES)) {
              double[][] int_states = new double[m_MemoryBlockCount][];
              for (int i=0; i<m_MemoryBlockCount; i++)
              {
@@ -302,7 +484,7 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
              }
              ret.extraData.setData(LSTMDataNames.LSTM_INTERNAL_STATES, LinearAlgebra.concatenateRows(int_states));
          }
-         if (DataNames.isMember(LSTMDataNames.LSTM_INTERNAL_ACTIVATIONS, recordList)) {
+         if (recordMask.contains(REC_LSTM_INTERNAL_ACTIVATIONS)) {
              double[][] int_acts = new double[m_MemoryBlockCount][];
              for (int i=0; i<m_MemoryBlockCount; i++)
              {
@@ -310,7 +492,7 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
              }
              ret.extraData.setData(LSTMDataNames.LSTM_INTERNAL_ACTIVATIONS, LinearAlgebra.concatenateRows(int_acts));
          }
-         if (DataNames.isMember(LSTMDataNames.LSTM_INPUT_GATES, recordList)) {
+         if (recordMask.contains(REC_LSTM_INPUT_GATES)) {
              double[] gates = new double[m_MemoryBlockCount];
              for (int i=0; i<m_MemoryBlockCount; i++)
              {
@@ -318,7 +500,7 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
              }
              ret.extraData.setData(LSTMDataNames.LSTM_INPUT_GATES, gates);
          }
-         if (DataNames.isMember(LSTMDataNames.LSTM_FORGET_GATES, recordList)) {
+         if (recordMask.contains(REC_LSTM_FORGET_GATES)) {
              double[] gates = new double[m_MemoryBlockCount];
              for (int i=0; i<m_MemoryBlockCount; i++)
              {
@@ -326,7 +508,7 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
              }
              ret.extraData.setData(LSTMDataNames.LSTM_FORGET_GATES, gates);
          }
-         if (DataNames.isMember(LSTMDataNames.LSTM_OUTPUT_GATES, recordList)) {
+         if (recordMask.contains(REC_LSTM_OUTPUT_GATES)) {
              double[] gates = new double[m_MemoryBlockCount];
              for (int i=0; i<m_MemoryBlockCount; i++)
              {
@@ -393,7 +575,7 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
         }
 
         //*Output layer process
-        FunctionalUnit2.ProcessPatternResult2 output = m_OutputLayer.processPattern(outputInput, computeParameterDerivative, false, computeParameterDerivative, false, recordList);
+        FunctionalUnit2.ProcessPatternResult2 output = m_OutputLayer.processPattern(outputInput, computeParameterDerivative, false, computeParameterDerivative, false, recordMask);
 
         //*Construct output vector
         LinearAlgebra.overwriteSubVector(0, output.outputPattern, ret.outputPattern);
@@ -427,26 +609,43 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
             //D output[i] /D block[j]weights[k] =
             //    D output[i] /D block[j]output[l] *
             //    D block[j]output[l] / block[j]param[k]
-            double[][][] der2BlocksWeights = new double[m_MemoryBlockCount][][];
+            //It is kept in factored form, since only the memory cells
+            //outputs of block j (l < cell count) link to the output layer,
+            //with the memory cell weights part in diagonal form.
+            //
+            //Parameters are constructed as follows:
+            //    Weights for memory block 1 folowed by
+            //    ...
+            //    Weights for memory block N followed by
+            //    Weights for output layer
+            BlockSparseJacobian jacobian = m_SparseParameterDerivative;
+            jacobian.clear();
             //output derivative index
             int start = (m_BiasToOutput?1:0) + (m_InputToOutput?m_InputCount:0);
             int decount = m_GateToOutput?0:3;
+            //parameter index
+            int pstart = 0;
             //for each memory block
             for (int j=0; j<m_MemoryBlockCount; j++)
             {
-                //extract output derivative sub matrix linking memory block j
-                double[][] der2BlockOutput = LinearAlgebra.extractColumns(
-                    output.derivative,
-                    start,
-                    m_MemoryBlocks[j].getOutputCount()-3);
-                //remove gate output derivative from block parameter derivative
-                double[][] blockOutputDer2BlockParam = LinearAlgebra.extractRows(
-                    memoryBlocks[j].parameterDerivative,
-                    0,
-                    m_MemoryBlocks[j].getOutputCount()-3);
-                der2BlocksWeights[j] = LinearAlgebra.multMatrixMatrix(der2BlockOutput, blockOutputDer2BlockParam);
+                int paramCount = m_MemoryBlocks[j].getParameterCount();
+                //output derivative columns linking memory block j cells times
+                //block cells rows of block parameter derivative
+                m_MemoryBlocks[j].addParameterDerivativeSegments(jacobian, pstart,
+                                                                 output.derivative, start);
                 //update output derivative index
                 start += m_MemoryBlocks[j].getOutputCount()-decount;
+                pstart += paramCount;
+            }
+            jacobian.addSegment(pstart, m_OutputLayer.getParameterCount(),
+                                m_OutputWeightsLocalGradientFactor, //Changes in 16Feb06
+                                der2OutputWeights);
+
+            //*Construct parameters derivative
+            if (sparse) {
+                ret.sparseParameterDerivative = jacobian;
+            } else {
+                jacobian.toDense(ret.parameterDerivative);
             }
             //Debug
             if (m_Debug) {
@@ -455,51 +654,27 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
                                    + LinearAlgebra.toString(output.derivative));
                 for (int i=0; i<m_MemoryBlockCount; i++)
                 {
-                    System.out.println("Derivative from Memory Block " + i + " to Memory Block " + i + " Weights "
-                                       + LinearAlgebra.toString(memoryBlocks[i].parameterDerivative));
+                    System.out.println("Derivative from Memory Block " + i + " to Memory Block " + i + " Cells Weights "
+                                       + LinearAlgebra.toString(m_MemoryBlocks[i].m_CellParameterDerivative));
+                    System.out.println("Derivative from Memory Block " + i + " to Memory Block " + i + " Gates Weights "
+                                       + LinearAlgebra.toString(m_MemoryBlocks[i].m_GateParameterDerivative));
                 }
-                for (int i=0; i<m_MemoryBlockCount; i++)
-                {
-                    System.out.println(
-                        "Derivative from Output Layer to Memory Block " + i + " Weights: "
-                        + LinearAlgebra.toString(der2BlocksWeights[i]));
-                }
-
-            }
-
-            //*Construct parameters derivative
-
-            //Parameters are constructed as follows:
-            //    Weights for memory block 1 folowed by
-            //    ...
-            //    Weights for memory block N followed by
-            //    Weights for output layer
-            start = 0;
-            for (int i=0; i<m_MemoryBlockCount; i++)
-            {
-                LinearAlgebra.overwriteSubMatrix(0, start, der2BlocksWeights[i], ret.parameterDerivative);
-                start += m_MemoryBlocks[i].getParameterCount();
-            }
-            LinearAlgebra.overwriteSubMatrix(0, start,
-              LinearAlgebra.multScalarMatrix(m_OutputWeightsLocalGradientFactor, //Changes in 16Feb06
-                 der2OutputWeights), ret.parameterDerivative);
-            //Debug
-            if (m_Debug) {
-                System.out.println("---------------------------------------------");
                 System.out.println("OutputWeightsLocalGradientFactor: "
                                    + m_OutputWeightsLocalGradientFactor);
                 System.out.println("Derivative from Output to all Weights: "
-                                   + LinearAlgebra.toString(ret.parameterDerivative));
+                                   + LinearAlgebra.toString(jacobian.toDense()));
             }
 
         }
 
         //*** Finalisation & clean up
 
-        //*Back up state values
+        //*Back up state values (block results are reused by the blocks)
         for (int i=0; i<m_MemoryBlockCount; i++)
         {
-            m_PrevMemoryBlocksOutput[i] = memoryBlocks[i].outputPattern;
+            System.arraycopy(memoryBlocks[i].outputPattern, 0,
+                             m_PrevMemoryBlocksOutput[i], 0,
+                             m_PrevMemoryBlocksOutput[i].length);
         }
 
         //*Return values
@@ -514,12 +689,14 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
         //    Weights for memory block N followed by
         //    Weights for output layer
 
-        double[] ret = new double[0];
+        double[] ret = new double[m_ParameterCount];
+        int start = 0;
         for (int i=0; i<m_MemoryBlockCount; i++)
         {
-            ret = LinearAlgebra.concatenateVectors(ret, m_MemoryBlocks[i].getParameters());
+            LinearAlgebra.overwriteSubVector(start, m_MemoryBlocks[i].getParameters(), ret);
+            start += m_MemoryBlocks[i].getParameterCount();
         }
-        ret = LinearAlgebra.concatenateVectors(ret, m_OutputLayer.getParameters());
+        LinearAlgebra.overwriteSubVector(start, m_OutputLayer.getParameters(), ret);
 
         return ret;
     }
@@ -547,6 +724,103 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
 
     }
 
+    public void addeParameters(double factor, double[] deltas, int start)
+    {
+
+        //Parameters check
+        if (deltas.length < start + m_ParameterCount) {
+            throw new IllegalArgumentException("deltas is of the wrong size!");
+        }
+
+        //Parameters are constructed as follows:
+        //    Weights for memory block 1 folowed by
+        //    ...
+        //    Weights for memory block N followed by
+        //    Weights for output layer
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            m_MemoryBlocks[i].addeParameters(factor, deltas, start);
+            start += m_MemoryBlocks[i].getParameterCount();
+        }
+        m_OutputLayer.addeParameters(factor, deltas, start);
+
+    }
+
+    /*********************************************************************/
+    //State snapshot
+
+    /** Number of values in the transient state (see {@link #saveState}).
+     * @return   The state size.
+     */
+    public int getStateSize()
+    {
+        int size = 0;
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            size += m_PrevMemoryBlocksOutput[i].length + m_MemoryBlocks[i].getStateSize();
+        }
+        return size;
+    }
+
+    /** Creates a buffer for {@link #saveState}.
+     * @return   A buffer of the state size.
+     */
+    public double[] createStateBuffer()
+    {
+        return new double[getStateSize()];
+    }
+
+    /** Copies the transient state of the network (memory blocks previous
+     * outputs, and each block state, see {@link FastLSTMMemoryBlock#saveState})
+     * into a buffer, without allocating memory. Restoring it later with
+     * {@link #restoreState} puts the network back at the same point, so that
+     * several continuations can be run from it. Weights are not part of the
+     * state (see {@link #getParameters} and {@link #setParameters}), neither
+     * is the state of a trainer using the network.
+     * @param    buffer    Buffer receiving the state (see {@link #createStateBuffer}).
+     */
+    public void saveState(double[] buffer)
+    {
+        copyState(buffer, true);
+    }
+
+    /** Restores a transient state saved by {@link #saveState}.
+     * @param    buffer    Buffer holding the state.
+     */
+    public void restoreState(double[] buffer)
+    {
+        copyState(buffer, false);
+    }
+
+    /** Creates a new per-sequence state on the weights of this network.
+     * Each state runs its own sequence from the reset state, independently of
+     * this network's own transient state and of the other states, so that
+     * several threads can each evaluate a sequence through their own state
+     * without cloning the network.
+     * @return   A new state, in the reset state.
+     */
+    public LSTMState createState()
+    {
+        if (!m_OutputLayer.isStateless()) {
+            throw new IllegalArgumentException("Output layer must be stateless to be shared!");
+        }
+        return new LSTMState(this, shareWeights());
+    }
+
+    /** Copies the transient state to (save) or from (restore) a buffer. */
+    protected void copyState(double[] buffer, boolean save)
+    {
+        if (buffer.length != getStateSize()) {
+            throw new IllegalArgumentException("buffer is of the wrong size!");
+        }
+        int index = 0;
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            index = FastLSTMMemoryBlock.copyState(m_PrevMemoryBlocksOutput[i], buffer, index, save);
+            index = m_MemoryBlocks[i].copyState(buffer, index, save);
+        }
+    }
+
 
     /*********************************************************************/
     //toString method
@@ -584,8 +858,45 @@ public class FastLSTMNetwork extends AbstractFunctionalUnit2 {
     /*********************************************************************/
     //Cloneable/Serializable interface implementation
 
+    //Structural deep copy (memory blocks and output layer), transient states
+    //are reset
     public Object clone() {
-        return Tools.copyObject(this);
+        FastLSTMNetwork ret;
+        try {
+            ret = (FastLSTMNetwork) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e.toString());
+        }
+        ret.m_MemoryBlocks = new FastLSTMMemoryBlock[m_MemoryBlockCount];
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            ret.m_MemoryBlocks[i] = (FastLSTMMemoryBlock) m_MemoryBlocks[i].clone();
+        }
+        ret.m_OutputLayer = (FastSingleLayerNeuralNetwork) m_OutputLayer.clone();
+        ret.reset();
+        return ret;
+    }
+
+    /** Creates a network sharing the weights of this one by reference
+     * (memory blocks through {@link FastLSTMMemoryBlock#shareWeights}, and
+     * the stateless output layer itself), but with its own transient state
+     * and workspaces (see {@link LSTMState}).
+     * @return   The new network, in the reset state.
+     */
+    protected FastLSTMNetwork shareWeights() {
+        FastLSTMNetwork ret;
+        try {
+            ret = (FastLSTMNetwork) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e.toString());
+        }
+        ret.m_MemoryBlocks = new FastLSTMMemoryBlock[m_MemoryBlockCount];
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            ret.m_MemoryBlocks[i] = m_MemoryBlocks[i].shareWeights();
+        }
+        ret.reset();
+        return ret;
     }
 
 
@@ -0,0 +1,352 @@
+package lnsc.lstm;
+
+import lnsc.*;
+
+/** <P> Single precision version of a memory block (see
+ * {@link FastLSTMMemoryBlock}), with or without eligibility traces (see
+ * {@link ETLSTMMemoryBlock1}). </P>
+ *
+ * <P> The weights and the partial derivatives of the states (the largest
+ * arrays, read and written at every pattern) are stored as
+ * <code>float</code>, and the net inputs and the derivative recurrences are
+ * computed in <code>float</code>. Only these kernels are overridden: the
+ * control flow of a step (forward pass, derivatives, signals), the state
+ * snapshot and the weights sharing are those of FastLSTMMemoryBlock, whose
+ * per cell values (states, activations, traces) stay in double. </P>
+ *
+ * <P> It extends ETLSTMMemoryBlock1 to reuse its eligibility traces, which
+ * are only used when the copied block has them (see {@link #usesTraces}).
+ * The weights are only accessed through the parameters (the double precision
+ * weights arrays of FastLSTMMemoryBlock are not allocated). </P>
+ *
+ *  @see FloatLSTMNetwork
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+
+public class FloatLSTMMemoryBlock extends ETLSTMMemoryBlock1 {
+
+    /*********************************************************************/
+    //Serial Version UID
+
+    /** Serial version UID. */
+    static final long serialVersionUID = -7402863618329468102L;
+
+    /*********************************************************************/
+    //Private fields (architecture)
+
+    /** Indicates whether eligibility traces are used in the derivatives. */
+    protected boolean m_UseTraces;
+
+    /*********************************************************************/
+    //Private fields (weights, see FastLSTMMemoryBlock)
+
+    /** Fused weights from the feeding units (see FastLSTMMemoryBlock.m_Weights). */
+    protected float[] m_FWeights;
+
+    /** Weights from the memory cell states to the input, forget and output
+     * gates [MemoryCellCount]. */
+    protected float[] m_FInputGatePeepholeWeights, m_FForgetGatePeepholeWeights,
+                      m_FOutputGatePeepholeWeights;
+
+    /*********************************************************************/
+    //Private fields (transient states and workspaces, see also reset)
+
+    /** Partial derivatives of the states, row by row (see
+     * FastLSTMMemoryBlock.CS_FORGET) [CS_COUNT][MemoryCellCount*width]. */
+    protected transient float[][] m_FCsDerivatives;
+
+    /** Net inputs being summed [MemoryCellCount+3]. */
+    protected transient float[] m_FNetInputs;
+
+    /** Signal of a derivative recurrence [max(InputCount,MemoryCellCount)]. */
+    protected transient float[] m_FSignal;
+
+    /*********************************************************************/
+    //Constructors
+
+    /** Construct a single precision copy of a memory block. The functions
+     * are copied, the weights rounded, and the states reset.
+     * @param    source    The block to copy (unchanged).
+     */
+    protected FloatLSTMMemoryBlock(FastLSTMMemoryBlock source)
+    {
+        super(source.getInputCount(), source.m_MemoryCellCount,
+              Tools.copyUnit(source.m_g), Tools.copyUnit(source.m_h),
+              Tools.copyUnit(source.m_InputGate), Tools.copyUnit(source.m_ForgetGate),
+              Tools.copyUnit(source.m_OutputGate),
+              (source instanceof ETLSTMMemoryBlock1) ? ((ETLSTMMemoryBlock1) source).m_Lambda : 0,
+              (source instanceof ETLSTMMemoryBlock1) ? ((ETLSTMMemoryBlock1) source).m_OppSignResetTraces : false);
+        m_UseTraces = usesTraces(source);
+        m_SparseInputs = source.m_SparseInputs;
+
+        //Single precision weights only
+        m_Weights = null;
+        m_InputGatePeepholeWeights = null;
+        m_ForgetGatePeepholeWeights = null;
+        m_OutputGatePeepholeWeights = null;
+        m_FWeights = new float[m_InputCount*(m_MemoryCellCount+3)];
+        m_FInputGatePeepholeWeights = new float[m_MemoryCellCount];
+        m_FForgetGatePeepholeWeights = new float[m_MemoryCellCount];
+        m_FOutputGatePeepholeWeights = new float[m_MemoryCellCount];
+        setParameters(source.getParameters());
+    }
+
+    /*********************************************************************/
+    //Helpers
+
+    /** Indicates whether a block uses eligibility traces in its derivatives. */
+    protected static boolean usesTraces(FastLSTMMemoryBlock b)
+    {
+        if (b instanceof FloatLSTMMemoryBlock) {
+            return ((FloatLSTMMemoryBlock) b).m_UseTraces;
+        }
+        return (b instanceof ETLSTMMemoryBlock1);
+    }
+
+    /** Width of the rows of a partial derivative of the states. */
+    protected final int getCsWidth(int k)
+    {
+        return ((k == CS_FORGET_PEEPHOLE) || (k == CS_INPUT_PEEPHOLE)) ?
+               m_MemoryCellCount : m_InputCount;
+    }
+
+    /** Same as {@link FastLSTMMemoryBlock#computeNetInputs} in single
+     * precision. */
+    protected void computeNetInputs(double[] inputPattern,
+                                    double[] prevState, int prevStart,
+                                    double[] net)
+    {
+        int rows = m_MemoryCellCount+3;
+        float[] w = m_FWeights;
+        float[] fnet = m_FNetInputs;
+        for (int r=0; r<rows; r++)
+        {
+            fnet[r] = 0f;
+        }
+        boolean sparse = m_SparseInputs;
+        for (int j=0, p=0; j<m_InputCount; j++, p+=rows)
+        {
+            float x = (float) inputPattern[j];
+            //zero inputs (mostly silent stimuli) are skipped in sparse inputs mode
+            if (sparse && (x == 0f)) {continue;}
+            for (int r=0; r<rows; r++)
+            {
+                fnet[r] += x * w[p+r];
+            }
+        }
+        float in = 0f, fgt = 0f;
+        for (int i=0; i<m_MemoryCellCount; i++)
+        {
+            float s = (float) prevState[prevStart+i];
+            in += m_FInputGatePeepholeWeights[i] * s;
+            fgt += m_FForgetGatePeepholeWeights[i] * s;
+        }
+        fnet[m_MemoryCellCount+0] += in;
+        fnet[m_MemoryCellCount+1] += fgt;
+        for (int r=0; r<rows; r++)
+        {
+            net[r] = fnet[r];
+        }
+    }
+
+    /** Same as {@link FastLSTMMemoryBlock#computeOutputGatePeephole} in
+     * single precision. */
+    protected double computeOutputGatePeephole(double[] currentState)
+    {
+        float ret = 0f;
+        for (int i=0; i<m_MemoryCellCount; i++)
+        {
+            ret += m_FOutputGatePeepholeWeights[i] * (float) currentState[i];
+        }
+        return ret;
+    }
+
+    /** Raw signals, or eligibility traces if the copied block used them. */
+    protected void computeDerivativeSignals(double[] inputPattern,
+                                            double[] currentState,
+                                            double[][] signals)
+    {
+        if (m_UseTraces) {
+            super.computeDerivativeSignals(inputPattern, currentState, signals);
+        } else {
+            signals[0] = inputPattern;
+            signals[1] = m_PreviousState;
+            signals[2] = currentState;
+        }
+    }
+
+    protected void resetCsDerivatives()
+    {
+        m_FCsDerivatives = new float[CS_COUNT][];
+        for (int k=0; k<CS_COUNT; k++)
+        {
+            m_FCsDerivatives[k] = new float[m_MemoryCellCount*getCsWidth(k)];
+        }
+    }
+
+    /** Same as {@link FastLSTMMemoryBlock#updateCsDerivative} in single
+     * precision. */
+    protected void updateCsDerivative(int k,
+                                      double[] csder2Net,
+                                      double[] signal,
+                                      double forgetGate)
+    {
+        float[] d = m_FCsDerivatives[k];
+        int width = getCsWidth(k);
+        float[] s = m_FSignal;
+        for (int j=0; j<width; j++)
+        {
+            s[j] = (float) signal[j];
+        }
+        float f = (float) forgetGate;
+        for (int i=0, p=0; i<m_MemoryCellCount; i++)
+        {
+            float u = (float) csder2Net[i];
+            for (int j=0; j<width; j++, p++)
+            {
+                d[p] = u * s[j] + f * d[p];
+            }
+        }
+    }
+
+    /** Same as {@link FastLSTMMemoryBlock#overwriteScaledRows} in single
+     * precision. */
+    protected void overwriteScaledRows(int k,
+                                       double[] scale,
+                                       int start,
+                                       int rowStep,
+                                       double[][] target)
+    {
+        float[] d = m_FCsDerivatives[k];
+        int width = getCsWidth(k);
+        for (int i=0, p=0; i<m_MemoryCellCount; i++)
+        {
+            double[] trow = target[i];
+            float s = (float) scale[i];
+            int tstart = start + i*rowStep;
+            for (int j=0; j<width; j++, p++)
+            {
+                trow[tstart+j] = s * d[p];
+            }
+        }
+    }
+
+    protected int copyCsDerivative(int k, double[] buffer, int start, boolean save)
+    {
+        return copyState(m_FCsDerivatives[k], buffer, start, save);
+    }
+
+    /** Copies a single precision vector to (save) or from (restore, rounded)
+     * a buffer.
+     * @return   Index following the last value copied.
+     */
+    protected static final int copyState(float[] v, double[] buffer, int start, boolean save)
+    {
+        for (int i=0; i<v.length; i++)
+        {
+            if (save) {
+                buffer[start+i] = v[i];
+            } else {
+                v[i] = (float) buffer[start+i];
+            }
+        }
+        return start + v.length;
+    }
+
+    /*********************************************************************/
+    //FunctionalUnit2 interface implementation
+
+    public void reset()
+    {
+        //Use existing structure
+        super.reset();
+
+        //Workspaces
+        m_FNetInputs = new float[m_MemoryCellCount+3];
+        m_FSignal = new float[Math.max(m_InputCount, m_MemoryCellCount)];
+    }
+
+    protected void copyParameters(double[] parameters, boolean get)
+    {
+        int rows = m_MemoryCellCount+3;
+        for (int r=0; r<rows; r++)
+        {
+            int start = getParameterIndex(r);
+            for (int j=0, p=r; j<m_InputCount; j++, p+=rows)
+            {
+                if (get) {
+                    parameters[start+j] = m_FWeights[p];
+                } else {
+                    m_FWeights[p] = (float) parameters[start+j];
+                }
+            }
+        }
+        copyState(m_FInputGatePeepholeWeights, parameters, getParameterIndex(m_MemoryCellCount+0)+m_InputCount, get);
+        copyState(m_FForgetGatePeepholeWeights, parameters, getParameterIndex(m_MemoryCellCount+1)+m_InputCount, get);
+        copyState(m_FOutputGatePeepholeWeights, parameters, getParameterIndex(m_MemoryCellCount+2)+m_InputCount, get);
+    }
+
+    public void addeParameters(double factor, double[] deltas, int start)
+    {
+        //Parameters check
+        if (deltas.length < start + m_ParameterCount) {
+            throw new IllegalArgumentException("deltas is of the wrong size!");
+        }
+
+        //Same order as FastLSTMMemoryBlock
+        int rows = m_MemoryCellCount+3;
+        for (int r=0; r<rows; r++)
+        {
+            int d = start + getParameterIndex(r);
+            for (int j=0, p=r; j<m_InputCount; j++, p+=rows)
+            {
+                m_FWeights[p] += (float) (factor * deltas[d+j]);
+            }
+        }
+        addeWeights(factor, deltas, start + getParameterIndex(m_MemoryCellCount+0) + m_InputCount, m_FInputGatePeepholeWeights);
+        addeWeights(factor, deltas, start + getParameterIndex(m_MemoryCellCount+1) + m_InputCount, m_FForgetGatePeepholeWeights);
+        addeWeights(factor, deltas, start + getParameterIndex(m_MemoryCellCount+2) + m_InputCount, m_FOutputGatePeepholeWeights);
+    }
+
+    /** Single precision version of FastLSTMMemoryBlock.addeWeights. */
+    protected static final int addeWeights(double factor, double[] deltas, int start, float[] w)
+    {
+        for (int j=0; j<w.length; j++)
+        {
+            w[j] += (float) (factor * deltas[start+j]);
+        }
+        return start + w.length;
+    }
+
+    /*********************************************************************/
+    //toString method
+
+    public String toString()
+    {
+
+        //Inherited
+        String ret = super.toString() + "\n";
+        ret += "Class: FloatLSTMMemoryBlock\n";
+
+        //Other
+        ret += "\tUseTraces = " + m_UseTraces;
+
+        //Return
+        return ret;
+    }
+
+    /*********************************************************************/
+    //Cloneable/Serializable interface implementation
+
+    protected void copyWeights()
+    {
+        m_FWeights = (float[]) m_FWeights.clone();
+        m_FInputGatePeepholeWeights = (float[]) m_FInputGatePeepholeWeights.clone();
+        m_FForgetGatePeepholeWeights = (float[]) m_FForgetGatePeepholeWeights.clone();
+        m_FOutputGatePeepholeWeights = (float[]) m_FOutputGatePeepholeWeights.clone();
+    }
+
+}
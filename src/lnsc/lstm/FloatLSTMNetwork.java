@@ -0,0 +1,107 @@
+package lnsc.lstm;
+
+import lnsc.*;
+
+/** <P> Single precision version of a Long Short-Term Memory (LSTM) network
+ * (see {@link FastLSTMNetwork}), including eligibility traces networks (see
+ * {@link ETLSTMNetwork1}). </P>
+ *
+ * <P> The memory blocks are replaced by {@link FloatLSTMMemoryBlock}s: their
+ * weights and the partial derivatives of their states (the largest arrays,
+ * read and written at every pattern) are stored as <code>float</code>, and
+ * the net inputs and derivative recurrences are computed in
+ * <code>float</code>. The output layer (a few weights) is computed in double
+ * precision, its weights being kept rounded to single precision. The
+ * interface remains in <code>double</code>. </P>
+ *
+ * <P> Everything else is inherited: the processing of a pattern, the
+ * eligibility traces, the compact parameter derivatives, the state snapshots
+ * ({@link #saveState}), the per-sequence states ({@link #createState}), the
+ * sparse inputs and logistic evaluation modes, and the parallel processing of
+ * wide networks. Parameters, parameter derivatives and recorded data
+ * ({@link LSTMDataNames}) are in the same order and format as those of the
+ * original network. </P>
+ *
+ * <P> It is built from an existing network, whose architecture, functions,
+ * eligibility traces settings and weights (rounded) are copied, so that a
+ * single precision run can be compared to the double precision one.
+ * Trajectories of single and double precision networks slowly drift apart;
+ * see stimdelrew.FloatDrift for a measure on the full model. </P>
+ *
+ *  @see FastLSTMNetwork
+ *  @see FloatLSTMMemoryBlock
+ *  @see AbstractLSTMFactory#setSinglePrecision
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+
+public class FloatLSTMNetwork extends FastLSTMNetwork {
+
+    /*********************************************************************/
+    //Serial Version UID
+
+    /** Serial version UID. */
+    static final long serialVersionUID = 4184950203328467161L;
+
+    /*********************************************************************/
+    //Constructors
+
+    /** Construct a single precision copy of a network. The weights are
+     * rounded to single precision, the states are reset.
+     * @param    net    The network to copy (unchanged).
+     */
+    public FloatLSTMNetwork(FastLSTMNetwork net)
+    {
+        //Use existing structure
+        super(net);
+
+        //Use single precision memory blocks
+        for (int i=0; i<m_MemoryBlockCount; i++)
+        {
+            m_MemoryBlocks[i] = new FloatLSTMMemoryBlock(net.m_MemoryBlocks[i]);
+        }
+        roundOutputWeights();
+
+        //Transient states initialisation
+        reset();
+    }
+
+    /*********************************************************************/
+    //Helpers
+
+    /** Rounds the output layer weights to single precision. */
+    protected void roundOutputWeights()
+    {
+        double[] w = m_OutputLayer.getWeightMatrix().getData();
+        for (int i=0; i<w.length; i++)
+        {
+            w[i] = (float) w[i];
+        }
+    }
+
+    /*********************************************************************/
+    //FunctionalUnit2 interface implementation
+
+    public void setParameters(double[] parameters)
+    {
+        super.setParameters(parameters);
+        roundOutputWeights();
+    }
+
+    public void addeParameters(double factor, double[] deltas, int start)
+    {
+        super.addeParameters(factor, deltas, start);
+        roundOutputWeights();
+    }
+
+    /*********************************************************************/
+    //toString method
+
+    public String toString()
+    {
+        return super.toString() + "\nClass: FloatLSTMNetwork";
+    }
+
+}
@@ -167,18 +167,15 @@ public class LSTMFactory extends AbstractLSTMFactory {
         //Memory blocks weights
         for (int i=0; i<newNet.m_MemoryBlocks.length; i++)
         {
-            //Gates weights
-            randomWeights(newNet.m_MemoryBlocks[i].m_InputGateWeights);
+            //Memory cells and gates weights (fused)
+            randomWeights(newNet.m_MemoryBlocks[i].m_Weights);
+            //Gates peephole weights
             randomWeights(newNet.m_MemoryBlocks[i].m_InputGatePeepholeWeights);
-            randomWeights(newNet.m_MemoryBlocks[i].m_ForgetGateWeights);
             randomWeights(newNet.m_MemoryBlocks[i].m_ForgetGatePeepholeWeights);
-            randomWeights(newNet.m_MemoryBlocks[i].m_OutputGateWeights);
             randomWeights(newNet.m_MemoryBlocks[i].m_OutputGatePeepholeWeights);
-            //Memory cells weights
-            randomWeights(newNet.m_MemoryBlocks[i].m_MemoryCellWeights);
         }
         //Output layer weights
-        randomWeights(newNet.m_OutputLayer.getWeights());
+        randomWeights(newNet.m_OutputLayer.getWeightMatrix().getData());
     }
 
 }
\ No newline at end of file
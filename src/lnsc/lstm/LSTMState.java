@@ -0,0 +1,128 @@
+package lnsc.lstm;
+
+import lnsc.*;
+import lnsc.pmvf.*;
+
+
+/** <P> Per-sequence state of a {@link FastLSTMNetwork}. </P>
+ *
+ * <P> A state holds everything that changes while a sequence is processed
+ * (memory blocks previous outputs, memory cells states, partial derivatives
+ * and workspaces), while the weights and functions stay in the network that
+ * created it (see {@link FastLSTMNetwork#createState}). A trained network can
+ * therefore evaluate many sequences at once, one state per sequence, each
+ * state being used by a single thread at a time. </P>
+ *
+ * <P> The weights are shared by reference, not copied: changes to the
+ * network parameters are seen by all its states, and the network must not be
+ * trained while its states are being processed. </P>
+ *
+ *  @see FastLSTMNetwork
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+
+
+public class LSTMState {
+
+    /*********************************************************************/
+    //Private fields
+
+    /** Network holding the weights. */
+    protected FastLSTMNetwork m_Network;
+
+    /** Network sharing the weights, holding this state. */
+    protected FastLSTMNetwork m_Shell;
+
+    /*********************************************************************/
+    //Constructors
+
+    /** Creates a state (see {@link FastLSTMNetwork#createState}).
+     * @param    network    Network holding the weights.
+     * @param    shell      Network sharing these weights, in reset state.
+     */
+    protected LSTMState(FastLSTMNetwork network, FastLSTMNetwork shell)
+    {
+        m_Network = network;
+        m_Shell = shell;
+    }
+
+    /*********************************************************************/
+    //Properties
+
+    /** Network holding the weights. */
+    public FastLSTMNetwork getNetwork() {return m_Network;}
+
+    /*********************************************************************/
+    //Processing
+
+    /** Puts the state back at the beginning of a sequence. */
+    public void reset()
+    {
+        m_Shell.reset();
+    }
+
+    /** Processes the next pattern of the sequence (see
+     * {@link FastLSTMNetwork#processPattern}).
+     */
+    public FunctionalUnit2.ProcessPatternResult2 processPattern(
+        double[] inputPattern,
+        boolean computeDerivative,
+        boolean computeSecondDerivative,
+        boolean computeParameterDerivative,
+        boolean computeParameterSecondDerivative,
+        String[] recordList)
+    {
+        return m_Shell.processPattern(inputPattern,
+                                      computeDerivative,
+                                      computeSecondDerivative,
+                                      computeParameterDerivative,
+                                      computeParameterSecondDerivative,
+                                      recordList);
+    }
+
+    /** Processes the next pattern of the sequence (see
+     * {@link FastLSTMNetwork#processPattern}).
+     */
+    public FunctionalUnit2.ProcessPatternResult2 processPattern(
+        double[] inputPattern,
+        boolean computeDerivative,
+        boolean computeSecondDerivative,
+        boolean computeParameterDerivative,
+        boolean computeParameterSecondDerivative,
+        RecordMask recordMask)
+    {
+        return m_Shell.processPattern(inputPattern,
+                                      computeDerivative,
+                                      computeSecondDerivative,
+                                      computeParameterDerivative,
+                                      computeParameterSecondDerivative,
+                                      recordMask);
+    }
+
+    /*********************************************************************/
+    //State snapshot
+
+    /** Number of values in the state (see {@link FastLSTMNetwork#getStateSize}). */
+    public int getStateSize()
+    {
+        return m_Shell.getStateSize();
+    }
+
+    /** Copies the state into a buffer (see {@link FastLSTMNetwork#saveState}). */
+    public void saveState(double[] buffer)
+    {
+        m_Shell.saveState(buffer);
+    }
+
+    /** Restores a state saved by {@link #saveState} (or by
+     * {@link FastLSTMNetwork#saveState} on the same network).
+     */
+    public void restoreState(double[] buffer)
+    {
+        m_Shell.restoreState(buffer);
+    }
+
+}
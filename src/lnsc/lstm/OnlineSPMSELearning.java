@@ -36,6 +36,21 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
     /** Serial version UID. */
     static final long serialVersionUID = -8476691339663537022L;
 
+    /*********************************************************************/
+    //Record keys
+
+    /** Bit index of the keywords checked at every pattern. */
+    protected static final int
+        REC_INPUT_PATTERNS = RecordMask.getKeyIndex(DataNames.INPUT_PATTERNS),
+        REC_OUTPUT_PATTERNS = RecordMask.getKeyIndex(DataNames.OUTPUT_PATTERNS),
+        REC_ERROR_PATTERNS = RecordMask.getKeyIndex(DataNames.ERROR_PATTERNS),
+        REC_TARGET_PATTERNS = RecordMask.getKeyIndex(DataNames.TARGET_PATTERNS),
+        REC_SUM_SQUARED_ERROR = RecordMask.getKeyIndex(DataNames.SUM_SQUARED_ERROR),
+        REC_VALUE = RecordMask.getKeyIndex(DataNames.VALUE),
+        REC_GRADIENT = RecordMask.getKeyIndex(DataNames.GRADIENT),
+        REC_VARIABLES = RecordMask.getKeyIndex(DataNames.VARIABLES),
+        REC_VARIABLE_CHANGES = RecordMask.getKeyIndex(DataNames.VARIABLE_CHANGES);
+
     /*********************************************************************/
     //Private fields
 
@@ -54,6 +69,14 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
     /** Gradient at t-1. */
     protected transient double[][] m_PreviousGradient;
 
+    /** Gradient at t-1 in block-sparse form (null if not supported by the
+     *  function, in which case m_PreviousGradient is used). */
+    protected transient BlockSparseJacobian m_PreviousSparseGradient;
+
+    /** Last record mask received and the same mask requesting sparse
+     *  parameter derivatives. */
+    protected transient RecordMask m_LastRecordMask, m_ProcessRecordMask;
+
     /** Output at t-1. */
     protected transient double[] m_PreviousOutput;
 
@@ -91,11 +114,26 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
         m_Func.reset();
         m_PreviousOutput = new double[1];
         m_PreviousGradient = new double[1][m_Func.getParameterCount()];
+        m_PreviousSparseGradient = null;
     }
 
     /*********************************************************************/
     //Methods
 
+    /** Returns the record mask passed to the function, which is the given
+     *  record mask plus a request for sparse parameter derivatives. The mask
+     *  is only rebuilt when a different record mask is received.
+     */
+    protected RecordMask getProcessRecordMask(RecordMask recordMask)
+    {
+        if ((m_ProcessRecordMask == null) || (recordMask != m_LastRecordMask)) {
+            m_LastRecordMask = recordMask;
+            m_ProcessRecordMask = recordMask.concat(
+                new String[] {DataNames.SPARSE_PARAMETER_DERIVATIVES});
+        }
+        return m_ProcessRecordMask;
+    }
+
 
     /*********************************************************************/
     //OnlineSupervisedLearning interface implementation
@@ -106,6 +144,39 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
     //at the next pattern presentation.
 
     public DataSet train(double[] inputPattern, String[] recordList)
+    {
+        return train(inputPattern, RecordMask.compile(recordList));
+    }
+
+    /** Same as {@link #train(double[], String[])} but with a compiled record
+     *  list, to be used when the same list is given at every pattern.
+     *  @param   inputPattern   The input pattern.
+     *  @param   recordMask     Data to record.
+     *  @return  The recorded data.
+     */
+    public DataSet train(double[] inputPattern, RecordMask recordMask)
+    {
+        return step(inputPattern, recordMask, true);
+    }
+
+    /** Same as {@link #train(double[], RecordMask)} but without learning: the
+     *  weights are left unchanged and the pattern is processed without
+     *  derivatives to parameters. Errors are still computed and recorded, but
+     *  gradients and variable changes are not. The next call to train after
+     *  an evaluate makes no update (see {@link #reset}).
+     *  @param   inputPattern   The input pattern.
+     *  @param   recordMask     Data to record.
+     *  @return  The recorded data.
+     */
+    public DataSet evaluate(double[] inputPattern, RecordMask recordMask)
+    {
+        return step(inputPattern, recordMask, false);
+    }
+
+    /** Processes a pattern, with or without learning (see {@link #train} and
+     *  {@link #evaluate}).
+     */
+    protected DataSet step(double[] inputPattern, RecordMask recordMask, boolean learn)
     {
 
         //Compute error vector
@@ -115,21 +186,37 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
         Double sse_val = new Double(LinearAlgebra.sumSquares(errorPattern));
 
         //Compute squared error gradient to paramater
-        double[] gradients = LinearAlgebra.multVectorMatrix(errorPattern, m_PreviousGradient);
-
-        //Compute deltas
-        double[] deltas = LinearAlgebra.multScalarVector(-m_Alpha, gradients);
+        //(directly on the sparse derivative when available, none if the
+        //previous pattern was evaluated without derivatives)
+        double[] gradients = null;
+        if (learn) {
+            if (m_PreviousSparseGradient != null) {
+                gradients = m_PreviousSparseGradient.multVectorMatrix(errorPattern);
+            } else if (m_PreviousGradient != null) {
+                gradients = LinearAlgebra.multVectorMatrix(errorPattern, m_PreviousGradient);
+            }
+        }
 
-        //Update weights
-        double[] params = m_Func.getParameters();
-        m_Func.setParameters(LinearAlgebra.addeVectors(params, deltas));
+        //Update weights in place (deltas = -alpha * gradients)
+        if (gradients != null) {
+            m_Func.addeParameters(-m_Alpha, gradients, 0);
+        }
 
         //Process the pattern through the network and get derivatives to weights
-        FunctionalUnit2.ProcessPatternResult2 result = m_Func.processPattern(inputPattern, false, false, true, false, recordList);
+        //(the sparse derivative is only valid until the next call, which is
+        //after its use at the begining of the next train)
+        RecordMask processMask = learn ? getProcessRecordMask(recordMask) : recordMask;
+        FunctionalUnit2.ProcessPatternResult2 result;
+        if (m_Func instanceof AbstractFunctionalUnit2) {
+            result = ((AbstractFunctionalUnit2) m_Func).processPattern(inputPattern, false, false, learn, false, processMask);
+        } else {
+            result = m_Func.processPattern(inputPattern, false, false, learn, false, processMask.getRecordList());
+        }
 
         //Backup current data
         m_PreviousOutput = result.outputPattern;
         m_PreviousGradient = result.parameterDerivative;
+        m_PreviousSparseGradient = result.sparseParameterDerivative;
 
         //Plots
         //System.out.println(inputPattern[0] + "\t" + inputPattern[1] + "\t" +
@@ -141,39 +228,39 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
         //Return extra data
         DataSet ret;
         //Adaptive model specific data
-        if ((result.extraData == null) && (recordList.length != 0)) {
+        if ((result.extraData == null) && !recordMask.isEmpty()) {
             ret = new DataSet();
         } else {
             ret = result.extraData;
         }
-        if (DataNames.isMember(DataNames.INPUT_PATTERNS, recordList)) {
+        if (recordMask.contains(REC_INPUT_PATTERNS)) {
             ret.setData(DataNames.INPUT_PATTERNS, inputPattern);
         }
-        if (DataNames.isMember(DataNames.OUTPUT_PATTERNS, recordList)) {
+        if (recordMask.contains(REC_OUTPUT_PATTERNS)) {
             ret.setData(DataNames.OUTPUT_PATTERNS, result.outputPattern);
         }
         //Adaptation rule specific data
-        if (DataNames.isMember(DataNames.ERROR_PATTERNS, recordList)) {
+        if (recordMask.contains(REC_ERROR_PATTERNS)) {
             ret.setData(DataNames.ERROR_PATTERNS, errorPattern);
         }
-        if (DataNames.isMember(DataNames.TARGET_PATTERNS, recordList)) {
+        if (recordMask.contains(REC_TARGET_PATTERNS)) {
             ret.setData(DataNames.TARGET_PATTERNS, inputPattern);
         }
-        if (DataNames.isMember(DataNames.SUM_SQUARED_ERROR, recordList)) {
+        if (recordMask.contains(REC_SUM_SQUARED_ERROR)) {
             ret.setData(DataNames.SUM_SQUARED_ERROR, sse_val);
         }
         //Adaptation specific data
-        if (DataNames.isMember(DataNames.VALUE, recordList)) {
+        if (recordMask.contains(REC_VALUE)) {
             ret.setData(DataNames.VALUE, sse_val);
         }
-        if (DataNames.isMember(DataNames.GRADIENT, recordList)) {
+        if (recordMask.contains(REC_GRADIENT) && (gradients != null)) {
             ret.setData(DataNames.GRADIENT, gradients);
         }
-        if (DataNames.isMember(DataNames.VARIABLES, recordList)) {
-            ret.setData(DataNames.VARIABLES, params);
+        if (recordMask.contains(REC_VARIABLES)) {
+            ret.setData(DataNames.VARIABLES, m_Func.getParameters());
         }
-        if (DataNames.isMember(DataNames.VARIABLE_CHANGES, recordList)) {
-            ret.setData(DataNames.VARIABLE_CHANGES, deltas);
+        if (recordMask.contains(REC_VARIABLE_CHANGES) && (gradients != null)) {
+            ret.setData(DataNames.VARIABLE_CHANGES, LinearAlgebra.multScalarVector(-m_Alpha, gradients));
         }
 
         //Return
@@ -183,7 +270,7 @@ public class OnlineSPMSELearning implements OnlineUnsupervisedLearning, Serializ
 
     public void train(double[] inputPattern)
     {
-        train(inputPattern, DataNames.EMPTY_RECORDLIST);
+        train(inputPattern, RecordMask.EMPTY_RECORDMASK);
     }
 
     /*********************************************************************/
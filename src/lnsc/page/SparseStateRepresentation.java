@@ -0,0 +1,23 @@
+package lnsc.page;
+
+/** State representation whose vectors are mostly zero (such as one step
+ *  stimulus pulses), that can report the non-zero elements of a
+ *  representation without scanning it. Agents may use them to process only
+ *  the active elements (see {@link lnsc.LinearAlgebra#getDefaultSparseInputs}).
+ *
+ * @author Francois Rivest
+ * @version 1.3
+ */
+
+public interface SparseStateRepresentation extends StateRepresentation {
+
+	/** Gets the indexes of the non-zero values of a state representation
+	 *  (those of {@link #getRepresentation} on the same state).
+	 *  @param      s           State to be converted.
+	 *  @param      indexes     Array receiving the indexes in increasing
+	 *                          order [OutputCount].
+	 *  @return     Number of non-zero values.
+	 */
+	public int getActiveIndexes(State s, int[] indexes);
+
+}
@@ -20,7 +20,9 @@ import lnsc.*;
  *      <li>If the function is parametric (i.e. has more than one parameters),
  *          functions <code>getParameters()</code> and <code>setParameters(double[])</code>
  *          must be written accordingly. Note that get and set parameters must
- *          work by copying values, not referencing to whole arrays.</li>
+ *          work by copying values, not referencing to whole arrays. The
+ *          default <code>addeParameters(double, double[], int)</code> relies on
+ *          them and should be overridden to work in place.</li>
  *      <li>Since <code>FunctionalUnit2</code> are <code>Serializable</code> and
  *          <code>Cloneable</code>, any required extra code to make these
  *          interfaces work properly should be added. It is necessary to at
@@ -112,6 +114,17 @@ public abstract class AbstractFunctionalUnit2 implements FunctionalUnit2
 	//Default implementation does nothing
 	public void reset() {return;}
 
+	//The default implementation works by copy through get and set parameters
+	public void addeParameters(double factor, double[] deltas, int start)
+	{
+		double[] params = getParameters();
+		for (int i=0; i<params.length; i++)
+		{
+			params[i] += factor * deltas[start+i];
+		}
+		setParameters(params);
+	}
+
 	//For functionalUnit only
 	public FunctionalUnit.ProcessPatternResult processPattern(
 		   double[] inputPattern,
@@ -154,15 +167,31 @@ public abstract class AbstractFunctionalUnit2 implements FunctionalUnit2
 			throw new IllegalArgumentException("computeParameterSecondDerivative requested on a non-twicedifferentiable function!");
 		else
 		{
-			FunctionalUnit2.ProcessPatternResult2 ret = new FunctionalUnit2.ProcessPatternResult2(m_OutputCount);
-			if (computeDerivative) {ret.derivative = new double[m_OutputCount][m_InputCount];}
-			if (computeSecondDerivative) {ret.secondDerivative = new double[m_OutputCount][m_InputCount][m_InputCount];}
-			if (computeParameterDerivative) {ret.parameterDerivative = new double[m_OutputCount][m_ParameterCount];}
-			if (computeParameterSecondDerivative) {ret.parameterSecondDerivative = new double[m_OutputCount][m_ParameterCount][m_ParameterCount];}
-			return ret;
+			return createProcessPatternResult(computeDerivative,
+											  computeSecondDerivative,
+											  computeParameterDerivative,
+											  computeParameterSecondDerivative);
 		}
 	}
 
+	/** This function creates the (zero filled) object to return, without any
+	 *  argument validation. Units keeping a result object between calls can
+	 *  use it to preallocate one.
+	 */
+	protected final FunctionalUnit2.ProcessPatternResult2 createProcessPatternResult(
+		   boolean computeDerivative,
+		   boolean computeSecondDerivative,
+		   boolean computeParameterDerivative,
+		   boolean computeParameterSecondDerivative)
+	{
+		FunctionalUnit2.ProcessPatternResult2 ret = new FunctionalUnit2.ProcessPatternResult2(m_OutputCount);
+		if (computeDerivative) {ret.derivative = new double[m_OutputCount][m_InputCount];}
+		if (computeSecondDerivative) {ret.secondDerivative = new double[m_OutputCount][m_InputCount][m_InputCount];}
+		if (computeParameterDerivative) {ret.parameterDerivative = new double[m_OutputCount][m_ParameterCount];}
+		if (computeParameterSecondDerivative) {ret.parameterSecondDerivative = new double[m_OutputCount][m_ParameterCount][m_ParameterCount];}
+		return ret;
+	}
+
 	//The default implementation calls processDataSet
 	public FunctionalUnit2.ProcessPatternResult2 processPattern(
 		   double[] inputPattern,
@@ -224,6 +253,28 @@ public abstract class AbstractFunctionalUnit2 implements FunctionalUnit2
 		return ret;
 	}
 
+	/** Same as {@link #processPattern(double[], boolean, boolean, boolean, boolean, String[])}
+	 *  but with a compiled record list. The default implementation calls the
+	 *  <code>String[]</code> version, units checking their record list at
+	 *  every pattern override both (the <code>String[]</code> version then
+	 *  simply compiles its list).
+	 */
+	public FunctionalUnit2.ProcessPatternResult2 processPattern(
+		   double[] inputPattern,
+		   boolean computeDerivative,
+		   boolean computeSecondDerivative,
+		   boolean computeParameterDerivative,
+		   boolean computeParameterSecondDerivative,
+		   RecordMask recordMask)
+	{
+		return processPattern(inputPattern,
+							  computeDerivative,
+							  computeSecondDerivative,
+							  computeParameterDerivative,
+							  computeParameterSecondDerivative,
+							  recordMask.getRecordList());
+	}
+
 	/** This function validates the <code>dataSet</code>. It should be called at
 	 *  the very beginning of the method {@link #processDataSet}.
 	 */
@@ -251,8 +302,22 @@ public abstract class AbstractFunctionalUnit2 implements FunctionalUnit2
 		return dataSet;
 	}
 
-	//The default implementation calls processPattern
-	public DataSet processDataSet(DataSet dataSet, String[] recordList)
+	/** Minimum number of patterns from which {@link #processDataSet} splits
+	 *  the patterns of thread safe units (see {@link #isThreadSafe}) across
+	 *  the threads of the default {@link WorkerPool}. */
+	public static final int PARALLEL_MIN_PATTERNS = 64;
+
+	/** Indicates whether {@link #processPattern} can be called from several
+	 *  threads at once, in which case {@link #processDataSet} processes large
+	 *  data sets in parallel. The default implementation returns
+	 *  {@link #isStateless}; stateless units keeping buffers between calls
+	 *  must override it to return <code>false</code>.
+	 */
+	protected boolean isThreadSafe() {return m_IsStateless;}
+
+	//The default implementation calls processPattern (from several threads
+	//for large data sets when the unit is thread safe)
+	public DataSet processDataSet(DataSet dataSet, final String[] recordList)
 	{
 		double[][][] derivatives = null;
 		double[][][][] secondDerivatives = null;
@@ -263,17 +328,17 @@ public abstract class AbstractFunctionalUnit2 implements FunctionalUnit2
 		preProcessDataSet(dataSet, recordList);
 
 		//Extract dataSet
-		int patternCount = ((Integer) dataSet.getData(DataNames.PATTERN_COUNT)).intValue();
-		double[][] inputs = (double[][]) dataSet.getData(DataNames.INPUT_PATTERNS);
+		final int patternCount = ((Integer) dataSet.getData(DataNames.PATTERN_COUNT)).intValue();
+		final double[][] inputs = (double[][]) dataSet.getData(DataNames.INPUT_PATTERNS);
 
 		//Extract recordList
-		boolean computeDerivative = DataNames.isMember(DataNames.DERIVATIVES, recordList);
-		boolean computeSecondDerivative = DataNames.isMember(DataNames.SECOND_DERIVATIVES, recordList);
-		boolean computeParameterDerivative = DataNames.isMember(DataNames.PARAMETER_DERIVATIVES, recordList);
-		boolean computeParameterSecondDerivative = DataNames.isMember(DataNames.PARAMETER_SECOND_DERIVATIVES, recordList);
+		final boolean computeDerivative = DataNames.isMember(DataNames.DERIVATIVES, recordList);
+		final boolean computeSecondDerivative = DataNames.isMember(DataNames.SECOND_DERIVATIVES, recordList);
+		final boolean computeParameterDerivative = DataNames.isMember(DataNames.PARAMETER_DERIVATIVES, recordList);
+		final boolean computeParameterSecondDerivative = DataNames.isMember(DataNames.PARAMETER_SECOND_DERIVATIVES, recordList);
 
 		//Create result spaces
-		double[][] outputs = new double[patternCount][];
+		final double[][] outputs = new double[patternCount][];
 		if (computeDerivative) {
 			derivatives = new double[patternCount][][];
 		}
@@ -286,24 +351,49 @@ public abstract class AbstractFunctionalUnit2 implements FunctionalUnit2
 		if (computeParameterSecondDerivative) {
 			parameterSecondDerivatives = new double[patternCount][][][];
 		}
-
-		//Process patterns
+		final DataSet[] extras = new DataSet[patternCount];
+
+		//Process patterns (each pattern writes its own result slots)
+		final double[][][] ders = derivatives;
+		final double[][][][] secondDers = secondDerivatives;
+		final double[][][] paramDers = parameterDerivatives;
+		final double[][][][] paramSecondDers = parameterSecondDerivatives;
+		WorkerPool pool = WorkerPool.getDefault();
+		final int parts =
+			(isThreadSafe() && (patternCount >= PARALLEL_MIN_PATTERNS)) ?
+			Math.min(4*pool.getThreadCount(), patternCount/(PARALLEL_MIN_PATTERNS/4)) :
+			1;
+		WorkerPool.Task task = new WorkerPool.Task() {
+			public void run(int index) {
+				int start = (int) ((long) patternCount * index / parts);
+				int stop = (int) ((long) patternCount * (index+1) / parts);
+				for (int i=start; i<stop; i++)
+				{
+					FunctionalUnit2.ProcessPatternResult2 ret =
+						processPattern(inputs[i],
+									   computeDerivative,
+									   computeSecondDerivative,
+									   computeParameterDerivative,
+									   computeParameterSecondDerivative,
+									   recordList);
+					outputs[i] = ret.outputPattern;
+					if (computeDerivative) {ders[i] = ret.derivative;}
+					if (computeSecondDerivative) {secondDers[i] = ret.secondDerivative;}
+					if (computeParameterDerivative) {paramDers[i] = ret.parameterDerivative;}
+					if (computeParameterSecondDerivative) {paramSecondDers[i] = ret.parameterSecondDerivative;}
+					extras[i] = ret.extraData;
+				}
+			}
+		};
+		pool.run(task, parts);
+
+		//Collect extra data (in pattern order)
 		DataSetCollection extraData = new DataSetCollection(patternCount);
 		for (int i=0; i<patternCount; i++)
 		{
-			FunctionalUnit2.ProcessPatternResult2 ret =
-				processPattern(inputs[i],
-							   computeDerivative,
-							   computeSecondDerivative,
-							   computeParameterDerivative,
-							   computeParameterSecondDerivative,
-							   recordList);
-			outputs[i] = ret.outputPattern;
-			if (computeDerivative) {derivatives[i] = ret.derivative;}
-			if (computeSecondDerivative) {secondDerivatives[i] = ret.secondDerivative;}
-			if (computeParameterDerivative) {derivatives[i] = ret.parameterDerivative;}
-			if (computeParameterSecondDerivative) {secondDerivatives[i] = ret.parameterSecondDerivative;}
-			extraData.setDataSet(i, ret.extraData, false);
+			if (extras[i] != null) {
+				extraData.setDataSet(i, extras[i], false);
+			}
 		}
 
 		//Save results
@@ -0,0 +1,407 @@
+package lnsc.pmvf;
+import lnsc.*;
+
+/** <P> Block-sparse representation of a derivative with respect to the
+ *  parameters (a Jacobian of size [OutputCount][ParameterCount]). The matrix
+ *  is made of independent column segments (one per group of parameters, such
+ *  as the weights of a memory block or of an output layer) and is zero
+ *  everywhere else. </P>
+ *
+ *  <P> Each segment is kept in factored form <code>factor * L * R</code>,
+ *  where <code>L</code> [RowCount][inner] is a block of columns of a larger
+ *  matrix (or the identity) and <code>R</code> [inner][width] the first rows
+ *  of a local derivative. For a memory block, <code>L</code> is the part of
+ *  the output layer derivative linking to the block cells and <code>R</code>
+ *  is the derivative of the cells with respect to the block weights. </P>
+ *
+ *  <P> A diagonal segment ({@link #addDiagonalSegment}) is made of
+ *  <code>inner</code> consecutive blocks of columns, block <code>k</code>
+ *  being <code>factor * L[.][k] * R[k]</code>, so that the zeros off the
+ *  diagonal blocks are never stored nor computed. For a memory block, each
+ *  cell weights only affect the output of their own cell. </P>
+ *
+ *  <P> Segments only hold references to the arrays given to them. These are
+ *  usually reused by their owner, so the structure is only valid until its
+ *  owner processes the next pattern. Multiplying a vector by the matrix
+ *  ({@link #multVectorMatrix}) costs <code>RowCount*inner + inner*width</code>
+ *  per segment instead of <code>RowCount*ColumnCount</code> for the dense
+ *  matrix, and no dense matrix is built unless {@link #toDense} is called.
+ *  </P>
+ *
+ *  @see DataNames#SPARSE_PARAMETER_DERIVATIVES
+ *
+ *  @author Francois Rivest
+ *  @version 1.0
+ *  @since 1.0
+ */
+public class BlockSparseJacobian
+{
+
+	/*********************************************************************/
+	//Private fields
+
+	/** Number of rows (outputs). */
+	protected int m_RowCount;
+
+	/** Number of columns (parameters). */
+	protected int m_ColumnCount;
+
+	/** Number of segments currently defined. */
+	protected int m_SegmentCount;
+
+	/** First column of each segment. */
+	protected int[] m_Starts;
+
+	/** Number of columns of each segment. */
+	protected int[] m_Widths;
+
+	/** Factor applied to each segment. */
+	protected double[] m_Factors;
+
+	/** Left factor of each segment (null for identity). */
+	protected double[][][] m_Lefts;
+
+	/** First column used in each left factor. */
+	protected int[] m_LeftStarts;
+
+	/** Number of columns used in each left factor (rows used in right factor). */
+	protected int[] m_InnerCounts;
+
+	/** Right factor of each segment. */
+	protected double[][][] m_Rights;
+
+	/** Width of the diagonal blocks of each segment (0 for full segments). */
+	protected int[] m_BlockWidths;
+
+	/** Workspace for the left products. */
+	protected double[] m_Workspace = new double[0];
+
+	/*********************************************************************/
+	//Constructors
+
+	/** Creates an empty (zero) Jacobian.
+	 *  @param      newRowCount           Number of rows (outputs).
+	 *  @param      newColumnCount        Number of columns (parameters).
+	 *  @param      newMaxSegmentCount    Maximum number of segments.
+	 */
+	public BlockSparseJacobian(int newRowCount, int newColumnCount, int newMaxSegmentCount)
+	{
+		//Parameters check
+		if ((newRowCount < 0) || (newColumnCount < 0) || (newMaxSegmentCount < 0)) {
+			throw new IllegalArgumentException("Sizes must be non-negative!");
+		}
+
+		//Set
+		m_RowCount = newRowCount;
+		m_ColumnCount = newColumnCount;
+		m_Starts = new int[newMaxSegmentCount];
+		m_Widths = new int[newMaxSegmentCount];
+		m_Factors = new double[newMaxSegmentCount];
+		m_Lefts = new double[newMaxSegmentCount][][];
+		m_LeftStarts = new int[newMaxSegmentCount];
+		m_InnerCounts = new int[newMaxSegmentCount];
+		m_Rights = new double[newMaxSegmentCount][][];
+		m_BlockWidths = new int[newMaxSegmentCount];
+	}
+
+	/*********************************************************************/
+	//Properties
+
+	/** Number of rows (outputs). */
+	public int getRowCount() {return m_RowCount;}
+
+	/** Number of columns (parameters). */
+	public int getColumnCount() {return m_ColumnCount;}
+
+	/** Number of segments currently defined. */
+	public int getSegmentCount() {return m_SegmentCount;}
+
+	/*********************************************************************/
+	//Construction
+
+	/** Removes all the segments (the matrix becomes zero). */
+	public void clear()
+	{
+		for (int s=0; s<m_SegmentCount; s++)
+		{
+			m_Lefts[s] = null;
+			m_Rights[s] = null;
+		}
+		m_SegmentCount = 0;
+	}
+
+	/** Adds a segment <code>factor * L * R</code> covering the columns
+	 *  <code>[start, start+width)</code>, where <code>L</code> is made of the
+	 *  columns <code>[leftStart, leftStart+innerCount)</code> of
+	 *  <code>left</code> and <code>R</code> of the first
+	 *  <code>innerCount</code> rows (and <code>width</code> columns) of
+	 *  <code>right</code>. Arrays are referenced, not copied.
+	 *  @param      start           First column of the segment.
+	 *  @param      width           Number of columns of the segment.
+	 *  @param      factor          Factor applied to the segment.
+	 *  @param      left            Left factor [RowCount][...].
+	 *  @param      leftStart       First column used in left.
+	 *  @param      innerCount      Number of columns used in left.
+	 *  @param      right           Right factor [innerCount...][width...].
+	 */
+	public void addSegment(int start, int width, double factor,
+						   double[][] left, int leftStart, int innerCount,
+						   double[][] right)
+	{
+		addSegment(start, width, factor, left, leftStart, innerCount, right, 0);
+	}
+
+	/** Adds a diagonal segment covering the columns
+	 *  <code>[start, start+innerCount*blockWidth)</code>, made of
+	 *  <code>innerCount</code> blocks of <code>blockWidth</code> columns,
+	 *  block <code>k</code> being <code>factor * L[.][k] * R[k]</code> where
+	 *  <code>L</code> is made of the columns
+	 *  <code>[leftStart, leftStart+innerCount)</code> of <code>left</code> and
+	 *  <code>R[k]</code> of the first <code>blockWidth</code> columns of row
+	 *  <code>k</code> of <code>right</code>. It is the segment
+	 *  <code>factor * L * R'</code> where row <code>k</code> of
+	 *  <code>R'</code> is zero except for block <code>k</code>. Arrays are
+	 *  referenced, not copied.
+	 *  @param      start           First column of the segment.
+	 *  @param      blockWidth      Number of columns of each block.
+	 *  @param      factor          Factor applied to the segment.
+	 *  @param      left            Left factor [RowCount][...].
+	 *  @param      leftStart       First column used in left.
+	 *  @param      innerCount      Number of columns used in left (and of blocks).
+	 *  @param      right           Diagonal blocks [innerCount...][blockWidth...].
+	 */
+	public void addDiagonalSegment(int start, int blockWidth, double factor,
+								   double[][] left, int leftStart, int innerCount,
+								   double[][] right)
+	{
+		if (blockWidth < 1) {
+			throw new IllegalArgumentException("blockWidth must be strictly positive!");
+		}
+		addSegment(start, innerCount*blockWidth, factor, left, leftStart, innerCount, right, blockWidth);
+	}
+
+	/** Adds a full (blockWidth 0) or diagonal segment. */
+	protected void addSegment(int start, int width, double factor,
+							  double[][] left, int leftStart, int innerCount,
+							  double[][] right, int blockWidth)
+	{
+		//Parameters check
+		if (m_SegmentCount == m_Starts.length) {
+			throw new IllegalArgumentException("Too many segments!");
+		}
+		if ((start < 0) || (start + width > m_ColumnCount)) {
+			throw new IllegalArgumentException("Segment out of the matrix!");
+		}
+		if ((left != null) && (left.length != m_RowCount)) {
+			throw new IllegalArgumentException("left is of the wrong size!");
+		}
+
+		//Set
+		int s = m_SegmentCount;
+		m_Starts[s] = start;
+		m_Widths[s] = width;
+		m_Factors[s] = factor;
+		m_Lefts[s] = left;
+		m_LeftStarts[s] = leftStart;
+		m_InnerCounts[s] = innerCount;
+		m_Rights[s] = right;
+		m_BlockWidths[s] = blockWidth;
+		m_SegmentCount++;
+
+		//Workspace
+		if (m_Workspace.length < innerCount) {
+			m_Workspace = new double[innerCount];
+		}
+	}
+
+	/** Adds a segment <code>factor * R</code> covering the columns
+	 *  <code>[start, start+width)</code> where <code>R</code> is made of the
+	 *  first <code>width</code> columns of <code>right</code> (which must have
+	 *  RowCount rows). The array is referenced, not copied.
+	 *  @param      start           First column of the segment.
+	 *  @param      width           Number of columns of the segment.
+	 *  @param      factor          Factor applied to the segment.
+	 *  @param      right           Segment values [RowCount][width...].
+	 */
+	public void addSegment(int start, int width, double factor, double[][] right)
+	{
+		addSegment(start, width, factor, null, 0, m_RowCount, right);
+	}
+
+	/*********************************************************************/
+	//Operations
+
+	/** Computes the multiplication of a (row) vector times the matrix. The
+	 *  result is written into <code>target</code>.
+	 *  @param      v           The vector [RowCount].
+	 *  @param      target      The result [ColumnCount].
+	 */
+	public void multVectorMatrix(double[] v, double[] target)
+	{
+		//Parameters check
+		if ((v.length != m_RowCount) || (target.length != m_ColumnCount)) {
+			throw new IllegalArgumentException("Vectors sizes incompatible with the matrix!");
+		}
+
+		//Zero outside the segments
+		for (int c=0; c<m_ColumnCount; c++)
+		{
+			target[c] = 0.0;
+		}
+
+		//Each segment
+		double[] w = m_Workspace;
+		for (int s=0; s<m_SegmentCount; s++)
+		{
+			int start = m_Starts[s];
+			int width = m_Widths[s];
+			int inner = m_InnerCounts[s];
+			double[][] left = m_Lefts[s];
+			double[][] right = m_Rights[s];
+
+			//w = v * L (or v itself for identity)
+			if (left == null) {
+				for (int k=0; k<inner; k++)
+				{
+					w[k] = v[k];
+				}
+			} else {
+				int leftStart = m_LeftStarts[s];
+				for (int k=0; k<inner; k++)
+				{
+					double sum = 0.0;
+					for (int o=0; o<m_RowCount; o++)
+					{
+						sum += left[o][leftStart+k] * v[o];
+					}
+					w[k] = sum;
+				}
+			}
+
+			//target = factor * w * R (row by row, or block by block)
+			int blockWidth = m_BlockWidths[s];
+			for (int k=0; k<inner; k++)
+			{
+				double wk = w[k];
+				if (wk == 0.0) {continue;}
+				double[] row = right[k];
+				if (blockWidth > 0) {
+					int t = start + k*blockWidth;
+					for (int c=0; c<blockWidth; c++)
+					{
+						target[t+c] += wk * row[c];
+					}
+					continue;
+				}
+				for (int c=0; c<width; c++)
+				{
+					target[start+c] += wk * row[c];
+				}
+			}
+			double factor = m_Factors[s];
+			if (factor != 1.0) {
+				for (int c=0; c<width; c++)
+				{
+					target[start+c] *= factor;
+				}
+			}
+		}
+	}
+
+	/** Computes the multiplication of a (row) vector times the matrix.
+	 *  @param      v           The vector [RowCount].
+	 *  @return     The resulting vector [ColumnCount].
+	 */
+	public double[] multVectorMatrix(double[] v)
+	{
+		double[] ret = new double[m_ColumnCount];
+		multVectorMatrix(v, ret);
+		return ret;
+	}
+
+	/** Writes the segments into a dense matrix. Only the segment columns are
+	 *  written, the others are assumed to be zero. Values are computed in the
+	 *  same order as {@link LinearAlgebra#multMatrixMatrix} and
+	 *  {@link LinearAlgebra#multScalarMatrix} would.
+	 *  @param      target      The dense matrix [RowCount][ColumnCount].
+	 */
+	public void toDense(double[][] target)
+	{
+		for (int s=0; s<m_SegmentCount; s++)
+		{
+			int start = m_Starts[s];
+			int width = m_Widths[s];
+			int inner = m_InnerCounts[s];
+			double factor = m_Factors[s];
+			double[][] left = m_Lefts[s];
+			double[][] right = m_Rights[s];
+			int leftStart = m_LeftStarts[s];
+			int blockWidth = m_BlockWidths[s];
+			if (blockWidth > 0) {
+				//each block is an outer product (0.0 + gives the dense
+				//product value, the other terms being zeros)
+				for (int o=0; o<m_RowCount; o++)
+				{
+					double[] trow = target[o];
+					for (int k=0; k<inner; k++)
+					{
+						double l = (left == null) ? ((o == k) ? 1.0 : 0.0) : left[o][leftStart+k];
+						double[] row = right[k];
+						int t = start + k*blockWidth;
+						for (int c=0; c<blockWidth; c++)
+						{
+							double v = 0.0 + l * row[c];
+							trow[t+c] = (factor != 1.0) ? factor * v : v;
+						}
+					}
+				}
+			} else if (left == null) {
+				for (int o=0; o<m_RowCount; o++)
+				{
+					double[] trow = target[o];
+					double[] row = right[o];
+					for (int c=0; c<width; c++)
+					{
+						trow[start+c] = factor * row[c];
+					}
+				}
+			} else {
+				//blocked (and parallel) product for large segments
+				LinearAlgebra.multMatrixMatrix(left, leftStart, right, m_RowCount, inner, width, target, 0, start);
+				if (factor != 1.0) {
+					for (int o=0; o<m_RowCount; o++)
+					{
+						double[] trow = target[o];
+						for (int c=0; c<width; c++)
+						{
+							trow[start+c] = factor * trow[start+c];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/** Creates the dense matrix.
+	 *  @return     The dense matrix [RowCount][ColumnCount].
+	 */
+	public double[][] toDense()
+	{
+		double[][] ret = new double[m_RowCount][m_ColumnCount];
+		toDense(ret);
+		return ret;
+	}
+
+	/*********************************************************************/
+	//toString method
+
+	public String toString()
+	{
+		String ret = "Class: BlockSparseJacobian\n";
+		ret += "\tRowCount: " + m_RowCount + "\n";
+		ret += "\tColumnCount: " + m_ColumnCount + "\n";
+		ret += "\tSegmentCount: " + m_SegmentCount;
+		return ret;
+	}
+
+}
@@ -34,14 +34,28 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 	/** Serial version UID. */
 	static final long serialVersionUID = -5261880720093004682L;
 
+	/*********************************************************************/
+	//Record keys
+
+	/** Bit index of the keywords checked at every pattern. */
+	protected static final int REC_NET_INPUT = RecordMask.getKeyIndex(DataNames.NET_INPUT);
+
+	/** Index of {@link DataNames#TENSOR_SECOND_DERIVATIVES} in record masks. */
+	protected static final int REC_TENSOR_SECOND_DERIVATIVES = RecordMask.getKeyIndex(DataNames.TENSOR_SECOND_DERIVATIVES);
+
 	/*********************************************************************/
 	//Private fields
 
 	/** Indicates whether there must be an internal bias. */
 	protected boolean m_HasBias;
 
-	/** Weights property data. */
-	protected double[][] m_Weights;
+	/** Weights property data, stored by rows in a single array. */
+	protected DenseMatrix m_WeightMatrix;
+
+	/** Weights property data in the version 1.0 layout. Only read from
+	 *  networks serialized before the DenseMatrix storage and converted into
+	 *  m_WeightMatrix (see readObject); null otherwise. */
+	private double[][] m_Weights;
 
 	/** Output units. */
 	protected FunctionalUnit[] m_OutputUnits;
@@ -122,9 +136,9 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 
 		//Construct parameters
 		if (m_UseLeftMultiplication) {
-			m_Weights = new double[m_OutputCount][m_InputCount+(m_HasBias ? 1 : 0)];
+			m_WeightMatrix = new DenseMatrix(m_OutputCount, m_InputCount+(m_HasBias ? 1 : 0));
 		} else {
-			m_Weights = new double[m_InputCount+(m_HasBias ? 1 : 0)][m_OutputCount];
+			m_WeightMatrix = new DenseMatrix(m_InputCount+(m_HasBias ? 1 : 0), m_OutputCount);
 		}
 		m_ParameterCount = m_OutputCount*(m_InputCount+(m_HasBias ? 1:0));
 
@@ -247,18 +261,27 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 	 */
 	public boolean useRowsConcatenation() {return m_UseRowsConcatenation;}
 
-	/** Gets a reference to the weight matrix. Matrix sizes depends on the
+	/** Gets a copy of the weight matrix. Matrix sizes depends on the
 	 * {link #useLeftMultiplication()} value.
-	 *  @return      References to the weights matrix.
+	 *  @return      Copy of the weights matrix.
 	 */
 	public double[][] getWeights()
 	{
-		return m_Weights;
+		return m_WeightMatrix.toArray();
+	}
+
+	/** Gets a reference to the weight matrix. Matrix sizes depends on the
+	 * {link #useLeftMultiplication()} value.
+	 *  @return      Reference to the weights matrix.
+	 */
+	public DenseMatrix getWeightMatrix()
+	{
+		return m_WeightMatrix;
 	}
 
-	/** Assigns a new weight matrix by reference. Matrix sizes depends on the
+	/** Assigns a new weight matrix by copy. Matrix sizes depends on the
 	 * {link #useLeftMultiplication()} value.
-	 * @param        A new weights matrix reference.
+	 * @param        A new weights matrix.
 	 */
 	public void setWeights(double[][] newWeights)
 	{
@@ -272,8 +295,8 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 				throw new IllegalArgumentException("newWeights is of the wrong size!");
 			}
 		}
-		//Assign new matrix
-		m_Weights = newWeights;
+		//Copy new matrix
+		m_WeightMatrix.overwrite(newWeights);
 	}
 
 	/*********************************************************************/
@@ -294,15 +317,39 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 		   boolean computeParameterDerivative,
 		   boolean computeParameterSecondDerivative,
 		   String[] recordList)
+	{
+		return processPattern(inputPattern,
+							  computeDerivative,
+							  computeSecondDerivative,
+							  computeParameterDerivative,
+							  computeParameterSecondDerivative,
+							  RecordMask.compile(recordList));
+	}
+
+	public FunctionalUnit2.ProcessPatternResult2 processPattern(
+		   double[] inputPattern,
+		   boolean computeDerivative,
+		   boolean computeSecondDerivative,
+		   boolean computeParameterDerivative,
+		   boolean computeParameterSecondDerivative,
+		   RecordMask recordMask)
 	{
 		//Param check
+		//The nested second derivatives are not allocated when tensors are requested
+		boolean tensors = recordMask.contains(REC_TENSOR_SECOND_DERIVATIVES);
 		FunctionalUnit2.ProcessPatternResult2 ret = preProcessPattern(
 				  inputPattern,
 				  computeDerivative,
-				  computeSecondDerivative,
+				  computeSecondDerivative && !tensors,
 				  computeParameterDerivative,
-				  computeParameterSecondDerivative,
-				  recordList);
+				  computeParameterSecondDerivative && !tensors,
+				  recordMask.getRecordList());
+		if (tensors && computeSecondDerivative) {
+			ret.secondDerivativeTensor = new DenseTensor(m_OutputCount, m_InputCount, m_InputCount);
+		}
+		if (tensors && computeParameterSecondDerivative) {
+			ret.parameterSecondDerivativeTensor = new DenseTensor(m_OutputCount, m_ParameterCount, m_ParameterCount);
+		}
 
 		//Process input layer
 		double[] inputs =
@@ -313,30 +360,51 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 		//Process weights
 		double[] weightedSums =
 			m_UseLeftMultiplication ?
-			LinearAlgebra.multMatrixVector(m_Weights, inputs) :
-			LinearAlgebra.multVectorMatrix(inputs, m_Weights);
+			m_WeightMatrix.multMatrixVector(inputs, new double[m_OutputCount], 0) :
+			m_WeightMatrix.multVectorMatrix(inputs, new double[m_OutputCount], 0);
 
 		//Collect weighted sum if requested
-		if (DataNames.isMember(DataNames.NET_INPUT, recordList)) {
+		if (recordMask.contains(REC_NET_INPUT)) {
 			ret.extraData = new DataSet();
 			ret.extraData.setData(DataNames.NET_INPUT, weightedSums);
 		}
 
 		//Process output
-		FunctionalUnit.ProcessPatternResult[] outputs =
-			new FunctionalUnit.ProcessPatternResult[m_OutputCount];
-		for (int i=0; i<m_OutputCount; i++)
-		{
-			outputs[i] = m_OutputUnits[i].processPattern(
-						 new double[] {weightedSums[i]},
-						 computeDerivative & computeParameterDerivative,
-						 computeSecondDerivative & computeParameterSecondDerivative);
-		}
-
-		//Results
-		for (int o=0; o<m_OutputCount; o++)
-		{
-			ret.outputPattern[o] = outputs[o].outputPattern[0];
+		//Layers of identical simple units are processed at once, other
+		//layers unit by unit
+		double[] outputDerivatives = null;
+		double[] outputSecondDerivatives = null;
+		boolean computeOutputDerivative = computeDerivative | computeParameterDerivative;
+		boolean computeOutputSecondDerivative = computeSecondDerivative | computeParameterSecondDerivative;
+		AbstractSimpleUnit layerUnit = computeOutputSecondDerivative ? null : getLayerUnit();
+		if (layerUnit != null) {
+			if (computeOutputDerivative) {
+				outputDerivatives = new double[m_OutputCount];
+			}
+			layerUnit.processValues(weightedSums, 0, ret.outputPattern, 0,
+									outputDerivatives, 0, m_OutputCount);
+		} else {
+			if (computeOutputDerivative) {
+				outputDerivatives = new double[m_OutputCount];
+			}
+			if (computeOutputSecondDerivative) {
+				outputSecondDerivatives = new double[m_OutputCount];
+			}
+			for (int o=0; o<m_OutputCount; o++)
+			{
+				FunctionalUnit.ProcessPatternResult output =
+					m_OutputUnits[o].processPattern(
+						new double[] {weightedSums[o]},
+						computeOutputDerivative,
+						computeOutputSecondDerivative);
+				ret.outputPattern[o] = output.outputPattern[0];
+				if (computeOutputDerivative) {
+					outputDerivatives[o] = output.derivative[0][0];
+				}
+				if (computeOutputSecondDerivative) {
+					outputSecondDerivatives[o] = output.secondDerivative[0][0][0];
+				}
+			}
 		}
 
 		//Derivatives
@@ -345,12 +413,12 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 				for (int i = 0; i < m_InputCount; i++) {
 					if (m_UseLeftMultiplication) {
 						ret.derivative[o][i] =
-							outputs[o].derivative[0][0] *
-							m_Weights[o][i+(m_HasBias ? 1 : 0)];
+							outputDerivatives[o] *
+							m_WeightMatrix.get(o, i+(m_HasBias ? 1 : 0));
 					} else {
 						ret.derivative[o][i] =
-							outputs[o].derivative[0][0] *
-							m_Weights[i+(m_HasBias ? 1 : 0)][o];
+							outputDerivatives[o] *
+							m_WeightMatrix.get(i+(m_HasBias ? 1 : 0), o);
 					}
 				}
 			}
@@ -358,16 +426,22 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 		if (computeSecondDerivative) {
 			for (int o = 0; o < m_OutputCount; o++) {
 				for (int i = 0; i < m_InputCount; i++) {
+					double d2;
 					if (m_UseLeftMultiplication) {
-						ret.secondDerivative[o][i][i] =
-							outputs[o].secondDerivative[0][0][0] *
-							m_Weights[o][i+(m_HasBias ? 1 : 0)] *
-							m_Weights[o][i+(m_HasBias ? 1 : 0)];
+						d2 =
+							outputSecondDerivatives[o] *
+							m_WeightMatrix.get(o, i+(m_HasBias ? 1 : 0)) *
+							m_WeightMatrix.get(o, i+(m_HasBias ? 1 : 0));
+					} else {
+						d2 =
+							outputSecondDerivatives[o] *
+							m_WeightMatrix.get(i+(m_HasBias ? 1 : 0), o) *
+							m_WeightMatrix.get(i+(m_HasBias ? 1 : 0), o);
+					}
+					if (tensors) {
+						ret.secondDerivativeTensor.set(o, i, i, d2);
 					} else {
-						ret.secondDerivative[o][i][i] =
-							outputs[o].secondDerivative[0][0][0] *
-							m_Weights[i+(m_HasBias ? 1 : 0)][o] *
-							m_Weights[i+(m_HasBias ? 1 : 0)][o];
+						ret.secondDerivative[o][i][i] = d2;
 					}
 				}
 			}
@@ -384,7 +458,7 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 							weightIndex = o + i*m_OutputCount;
 					}
 					ret.parameterDerivative[o][weightIndex] =
-						outputs[o].derivative[0][0] *
+						outputDerivatives[o] *
 						inputs[i];
 				}
 			}
@@ -398,9 +472,14 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 					} else {
 							weightIndex = o + i*m_OutputCount;
 					}
-					ret.parameterSecondDerivative[o][weightIndex][weightIndex] =
-						outputs[o].secondDerivative[0][0][0] *
+					double d2 =
+						outputSecondDerivatives[o] *
 						inputs[i] * inputs[i];
+					if (tensors) {
+						ret.parameterSecondDerivativeTensor.set(o, weightIndex, weightIndex, d2);
+					} else {
+						ret.parameterSecondDerivative[o][weightIndex][weightIndex] = d2;
+					}
 				}
 			}
 		}
@@ -410,13 +489,33 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 		return ret;
 	}
 
+	/** Returns the unit of the layer when all the output units are simple
+	 *  units computing the same function (see
+	 *  {@link AbstractSimpleUnit#hasSameFunction}), null otherwise.
+	 */
+	protected AbstractSimpleUnit getLayerUnit()
+	{
+		if ((m_OutputCount == 0) || !(m_OutputUnits[0] instanceof AbstractSimpleUnit)) {
+			return null;
+		}
+		AbstractSimpleUnit ret = (AbstractSimpleUnit) m_OutputUnits[0];
+		for (int o=1; o<m_OutputCount; o++)
+		{
+			if (!(m_OutputUnits[o] instanceof AbstractSimpleUnit) ||
+				!ret.hasSameFunction((AbstractSimpleUnit) m_OutputUnits[o])) {
+				return null;
+			}
+		}
+		return ret;
+	}
+
 	public double[] getParameters()
 	{
 		//Return a vectorized copy of the parameters (the weights)
 		return
 					m_UseRowsConcatenation ?
-					LinearAlgebra.concatenateRows(m_Weights) :
-					LinearAlgebra.concatenateCols(m_Weights);
+					m_WeightMatrix.concatenateRows(new double[m_ParameterCount], 0) :
+					m_WeightMatrix.concatenateCols(new double[m_ParameterCount], 0);
 	}
 
 	public void setParameters(double[] parameters)
@@ -426,22 +525,35 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 			throw new IllegalArgumentException("parameters is of the wrong size!");
 		}
 
-		//Convert to a matrix
-		int rows =
-			m_UseLeftMultiplication ?
-			m_OutputCount:
-			(m_InputCount + (m_HasBias ? 1:0));
-		int cols =
-			m_UseLeftMultiplication ?
-			(m_InputCount + (m_HasBias ? 1:0)):
-			m_OutputCount;
-		double[][] newWeights =
-			m_UseRowsConcatenation ?
-			LinearAlgebra.cutInRows(parameters, cols) :
-			LinearAlgebra.cutInCols(parameters, rows);
-
-		//Overwrite m_Weights
-		LinearAlgebra.eMatrix(m_Weights, newWeights);
+		//Overwrite the weights
+		if (m_UseRowsConcatenation) {
+			m_WeightMatrix.cutInRows(parameters, 0);
+		} else {
+			m_WeightMatrix.cutInCols(parameters, 0);
+		}
+	}
+
+	public void addeParameters(double factor, double[] deltas, int start)
+	{
+		//Parameters check
+		if (deltas.length < start + m_ParameterCount) {
+			throw new IllegalArgumentException("deltas is of the wrong size!");
+		}
+
+		//Update the weights in place following the parameters order
+		DenseMatrix w = m_UseRowsConcatenation ? m_WeightMatrix : m_WeightMatrix.transpose();
+		int rows = w.getRowCount();
+		int cols = w.getColumnCount();
+		double[] data = w.getData();
+		for (int r=0; r<rows; r++)
+		{
+			int p = w.index(r, 0);
+			int colStride = w.getColumnStride();
+			for (int c=0; c<cols; c++, p+=colStride)
+			{
+				data[p] += factor * deltas[start + r*cols + c];
+			}
+		}
 	}
 
 	/*********************************************************************/
@@ -464,7 +576,7 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 		}
 		//Weights
 		ret += "\tWeights = \n";
-		ret += Tools.tabText(LinearAlgebra.toString(m_Weights),2);
+		ret += Tools.tabText(m_WeightMatrix.toString(),2);
 		//return
 		return ret;
 	}
@@ -472,9 +584,72 @@ public final class FastSingleLayerNeuralNetwork extends AbstractFunctionalUnit2
 	/*********************************************************************/
 	//Cloneable interface implementation
 
+	//Structural deep copy (weights and output units)
 	public Object clone()
 	{
-		return Tools.copyObject(this);
+		FastSingleLayerNeuralNetwork ret;
+		try {
+			ret = (FastSingleLayerNeuralNetwork) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e.toString());
+		}
+		ret.m_WeightMatrix = m_WeightMatrix.copy();
+		ret.m_OutputUnits = Tools.copyUnits(m_OutputUnits);
+		return ret;
+	}
+
+	/** Creates a layer sharing the weights of this one by reference, but
+	 *  with other output units. This layer (and its units) is unchanged.
+	 *  @param   newOutputUnits   Simple units of the new layer [OutputCount].
+	 *  @return  The new layer.
+	 */
+	public FastSingleLayerNeuralNetwork shareWeights(FunctionalUnit[] newOutputUnits)
+	{
+		//Parameters check
+		if (newOutputUnits.length != m_OutputCount) {
+			throw new IllegalArgumentException("newOutputUnits is of the wrong size!");
+		}
+		for (int i=0; i<m_OutputCount; i++)
+		{
+			if ((newOutputUnits[i].getInputCount() != 1) |
+				(newOutputUnits[i].getOutputCount() != 1)) {
+				throw new IllegalArgumentException("newOutputUnits must be simple units!");
+			}
+		}
+
+		//Shallow copy
+		FastSingleLayerNeuralNetwork ret;
+		try {
+			ret = (FastSingleLayerNeuralNetwork) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e.toString());
+		}
+		ret.m_OutputUnits = newOutputUnits;
+
+		//Differentiability and stateless checks
+		ret.m_IsDifferentiable = true;
+		ret.m_IsTwiceDifferentiable = true;
+		ret.m_IsStateless = true;
+		for (int i=0; i<m_OutputCount; i++)
+		{
+			ret.m_IsDifferentiable &= newOutputUnits[i].isDifferentiable();
+			ret.m_IsTwiceDifferentiable &= newOutputUnits[i].isTwiceDifferentiable();
+			ret.m_IsStateless &= newOutputUnits[i].isStateless();
+		}
+		ret.m_IsParameterDifferentiable = ret.m_IsDifferentiable;
+		ret.m_IsParameterTwiceDifferentiable = ret.m_IsTwiceDifferentiable;
+		return ret;
+	}
+
+	//Converts networks serialized with the version 1.0 weights layout
+	private void readObject(java.io.ObjectInputStream in)
+		throws java.io.IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		if (m_WeightMatrix == null) {
+			m_WeightMatrix = new DenseMatrix(m_Weights);
+			m_Weights = null;
+		}
 	}
 
 }
@@ -51,6 +51,16 @@ public interface FunctionalUnit2 extends FunctionalUnit, Cloneable, Serializable
 	 */
 	void setParameters(double[] parameters);
 
+	/** Adds a scaled vector to the parameters values in place, that is
+	 *  <code>p += factor * deltas[start..start+getParameterCount()-1]</code>,
+	 *  without copying the parameters. The deltas are ordered as the vector
+	 *  returned by {@link #getParameters()}.
+	 * @param		factor		Factor applied to the deltas.
+	 * @param		deltas		Vector containing the deltas.
+	 * @param		start		Index of the first delta in <code>deltas</code>.
+	 */
+	void addeParameters(double factor, double[] deltas, int start);
+
 	/** Indicates whether or not the function is differentiable with respect
 	 *  to its parameters.
 	 * @return		<code>true</code> if it differentiable, <code>false</code>
@@ -87,6 +97,23 @@ public interface FunctionalUnit2 extends FunctionalUnit, Cloneable, Serializable
 		/** The second derivative with respect to the parameters..
 		 */
 		public double[][][] parameterSecondDerivative;
+		/** The derivative with respect to the parameters in block-sparse form
+		 *  (only filled in place of <code>parameterDerivative</code> when
+		 *  requested through {@link DataNames#SPARSE_PARAMETER_DERIVATIVES}
+		 *  and supported). Valid until the unit processes another pattern.
+		 */
+		public BlockSparseJacobian sparseParameterDerivative;
+		/** The second derivative as a flat [o][i][i] tensor (only filled in
+		 *  place of <code>secondDerivative</code> when requested through
+		 *  {@link DataNames#TENSOR_SECOND_DERIVATIVES} and supported).
+		 */
+		public DenseTensor secondDerivativeTensor;
+		/** The second derivative with respect to the parameters as a flat
+		 *  [o][k][k] tensor (only filled in place of
+		 *  <code>parameterSecondDerivative</code> when requested through
+		 *  {@link DataNames#TENSOR_SECOND_DERIVATIVES} and supported).
+		 */
+		public DenseTensor parameterSecondDerivativeTensor;
 		/** Creates a result holding nothing.
 		 */
 		protected ProcessPatternResult2() {};
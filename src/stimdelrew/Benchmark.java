@@ -0,0 +1,266 @@
+package stimdelrew;
+
+import lnsc.*;
+import lnsc.lstm.*;
+import lnsc.pmvf.FunctionalUnit2;
+import grsnc.binb.Rivest06;
+import stimulusdelayreward.OfflineStateRepresentation;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/** Main routine timing the operations the simulations spend their time in,
+ *  to measure performance changes against a baseline. It covers the main
+ *  {@link LinearAlgebra} operators at several sizes,
+ *  {@link LogisticUnit#processPattern}, one step of an LSTM network with and
+ *  without the derivatives with respect to the parameters, one step of
+ *  {@link OnlineSPMSELearning#train} on a monkey sized network, and one
+ *  step of the {@link Rivest06} actor-critic model.
+ *
+ *  <P> Each case is first run for a while to let the JVM compile it, then
+ *  run repeatedly until the time limit is reached. For each case, it prints
+ *  the time per call and, when the JVM can report the memory allocated by a
+ *  thread (<code>com.sun.management.ThreadMXBean</code>), the number of bytes
+ *  allocated per call and the allocation rate. The linear algebra operators
+ *  use the kernels and threads selected by the <code>lnsc.kernels</code> and
+ *  <code>lnsc.threads</code> system properties. </P>
+ *
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+
+public class Benchmark {
+
+    /** Optional arguments: time per case in ms (default 1000), and LSTM
+     *  blocks count (default 4, with as many cells per block). */
+    public static void main(String[] args) {
+
+        long millis = (args.length > 0) ? Long.parseLong(args[0]) : 1000;
+        int units = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        Random rand = new Random(1);
+
+        System.out.println("Kernels: " + ((LinearAlgebra.getKernels() == LinearAlgebra.KERNELS_LANES) ? "lanes" : "scalar") +
+                           ", threads: " + WorkerPool.getDefaultThreadCount() +
+                           ", allocation: " + (allocatedBytes() >= 0 ? "measured" : "n/a"));
+        System.out.println("case\tns/call\tbytes/call\tMB/s");
+
+        //LinearAlgebra
+        int[] sizes = {4, 16, 64, 256};
+        for (int s=0; s<sizes.length; s++)
+        {
+            final int n = sizes[s];
+            final double[] v1 = random(rand, n);
+            final double[] v2 = random(rand, n);
+            final double[] vt = new double[n];
+            final double[][] m1 = random(rand, n, n);
+            final double[][] m2 = random(rand, n, n);
+            final double[][] mt = new double[n][n];
+            run("weightedSum " + n, millis, new Case() {
+                double m_Sum;
+                public void run() {m_Sum += LinearAlgebra.weightedSum(v1, v2);}
+            });
+            run("multMatrixVector " + n, millis, new Case() {
+                public void run() {LinearAlgebra.multMatrixVector(m1, v1);}
+            });
+            run("multMatrixVector(target) " + n, millis, new Case() {
+                public void run() {LinearAlgebra.multMatrixVector(m1, v1, vt, 0);}
+            });
+            run("multVectorVector " + n, millis, new Case() {
+                public void run() {LinearAlgebra.multVectorVector(v1, v2);}
+            });
+            run("addMatrices " + n, millis, new Case() {
+                public void run() {LinearAlgebra.addMatrices(m1, m2);}
+            });
+            run("addeScaledVector " + n, millis, new Case() {
+                public void run() {LinearAlgebra.addeScaledVector(vt, 1e-3, v1);}
+            });
+            run("multMatrixMatrix(target) " + n, millis, new Case() {
+                public void run() {LinearAlgebra.multMatrixMatrix(m1, m2, mt, 0, 0);}
+            });
+        }
+
+        //LogisticUnit
+        final LogisticUnit logistic = new LogisticUnit();
+        final double[] x = {.3};
+        run("LogisticUnit.processPattern", millis, new Case() {
+            public void run() {logistic.processPattern(x, false, false);}
+        });
+        run("LogisticUnit.processPattern (derivative)", millis, new Case() {
+            public void run() {logistic.processPattern(x, true, false);}
+        });
+
+        //LSTM network (monkey like: 2 inputs, 1 output)
+        final double[][] inputs = new double[64][];
+        for (int t=0; t<inputs.length; t++)
+        {
+            inputs[t] = new double[] {(rand.nextDouble() < .15) ? 1.0 : 0.0,
+                                      (rand.nextDouble() < .15) ? 1.0 : 0.0};
+        }
+        final FunctionalUnit2 net = (FunctionalUnit2) new LSTMFactory(
+            2, units, units, true, false, 1, new LogisticUnit(),
+            false, true, false, false).createUnit();
+        randomParameters(rand, net);
+        run("FastLSTMNetwork.processPattern", millis, new Case() {
+            int m_T;
+            public void run() {
+                net.processPattern(inputs[m_T++ % inputs.length], false, false, false, false, DataNames.EMPTY_RECORDLIST);
+            }
+        });
+        run("FastLSTMNetwork.processPattern (parameter derivative)", millis, new Case() {
+            int m_T;
+            public void run() {
+                net.processPattern(inputs[m_T++ % inputs.length], false, false, true, false, DataNames.EMPTY_RECORDLIST);
+            }
+        });
+
+        //Online training step (as in ActorCritic_PDAETLSTM_Monkey2)
+        final FunctionalUnit2 etNet = (FunctionalUnit2) new ETLSTMFactory1(
+            2, units, units, true, false, 1, new LogisticUnit(),
+            false, true, false, false, 1, .8, true).createUnit();
+        randomParameters(rand, etNet);
+        final OnlineSPMSELearning trainer = new OnlineSPMSELearning(etNet, .01, 1);
+        final RecordMask mask = new RecordMask(new String[] {
+            LSTMDataNames.OUTPUT_PATTERNS, LSTMDataNames.ERROR_PATTERNS,
+            LSTMDataNames.LSTM_INTERNAL_ACTIVATIONS});
+        run("OnlineSPMSELearning.train", millis, new Case() {
+            int m_T;
+            public void run() {
+                if (m_T % 1200 == 0) {
+                    trainer.reset();
+                }
+                trainer.train(inputs[m_T++ % inputs.length], mask);
+            }
+        });
+
+        //Actor-critic step (monkey like: cue and LSTM outputs as stimuli)
+        final OfflineStateRepresentation rep = new OfflineStateRepresentation(2 + units*units + 1);
+        final TimedRivest06 acm = new TimedRivest06(rep);
+        final double[][] stimuli = random(rand, inputs.length, rep.getOutputCount());
+        acm.newEpisode(null);
+        run("Rivest06.processContext", millis, new Case() {
+            int m_T;
+            public void run() {
+                rep.setRep(stimuli[m_T % stimuli.length]);
+                acm.step((m_T++ % 20 == 19) ? 1.0 : 0.0);
+            }
+        });
+
+    }
+
+    /*********************************************************************/
+    //Timing
+
+    /** Operation to time. */
+    static abstract class Case {
+        public abstract void run();
+    }
+
+    /** Times a case and prints the time and memory allocated per call. */
+    protected static void run(String name, long millis, Case c) {
+
+        //Warm up (about a fifth of the time)
+        long calls = 0;
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < millis / 5) {
+            for (int k=0; k<100; k++) {c.run();}
+            calls += 100;
+        }
+
+        //Timed loop, in batches of about a hundredth of the time
+        long batch = Math.max(1, calls / 20);
+        calls = 0;
+        long bytes = allocatedBytes();
+        start = System.currentTimeMillis();
+        long elapsed;
+        do {
+            for (long k=0; k<batch; k++) {c.run();}
+            calls += batch;
+            elapsed = System.currentTimeMillis() - start;
+        } while (elapsed < millis);
+        long end = allocatedBytes();
+
+        //Report
+        double ns = elapsed * 1e6 / calls;
+        String perCall = "n/a", rate = "n/a";
+        if ((bytes >= 0) && (end >= 0)) {
+            perCall = "" + Math.round((end - bytes) / (double) calls);
+            rate = "" + Math.round((end - bytes) / (elapsed * 1e3));
+        }
+        System.out.println(name + "\t" + Math.round(ns) + "\t" + perCall + "\t" + rate);
+    }
+
+    /** Thread bean and its getThreadAllocatedBytes(long) method, or null. */
+    private static Object s_ThreadBean;
+    private static Method s_AllocatedBytes;
+    private static Object[] s_ThreadId;
+    static {
+        try {
+            s_ThreadBean = Class.forName("java.lang.management.ManagementFactory")
+                .getMethod("getThreadMXBean", new Class[0]).invoke(null, new Object[0]);
+            s_AllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                .getMethod("getThreadAllocatedBytes", new Class[] {Long.TYPE});
+            s_ThreadId = new Object[] {Thread.class.getMethod("getId", new Class[0])
+                .invoke(Thread.currentThread(), new Object[0])};
+        } catch (Throwable t) {
+            s_AllocatedBytes = null;
+        }
+    }
+
+    /** Bytes allocated so far by the main thread, or -1 if unknown. */
+    protected static long allocatedBytes() {
+        if (s_AllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return ((Long) s_AllocatedBytes.invoke(s_ThreadBean, s_ThreadId)).longValue();
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    /*********************************************************************/
+    //Helpers
+
+    /** Rivest06 model whose processing step can be called directly. */
+    static class TimedRivest06 extends Rivest06 {
+
+        /** Serial version UID. */
+        static final long serialVersionUID = 1169693409541723555L;
+
+        public TimedRivest06(OfflineStateRepresentation rep) {
+            super(1, 1, rep, .1, .1);
+        }
+
+        public int step(double r) {
+            return processContext(null, r);
+        }
+    }
+
+    protected static void randomParameters(Random rand, FunctionalUnit2 net) {
+        double[] p = new double[net.getParameterCount()];
+        for (int i=0; i<p.length; i++)
+        {
+            p[i] = rand.nextDouble()*.8 - .4;
+        }
+        net.setParameters(p);
+    }
+
+    protected static double[] random(Random rand, int n) {
+        double[] ret = new double[n];
+        for (int i=0; i<n; i++)
+        {
+            ret[i] = rand.nextGaussian();
+        }
+        return ret;
+    }
+
+    protected static double[][] random(Random rand, int rows, int cols) {
+        double[][] ret = new double[rows][];
+        for (int i=0; i<rows; i++)
+        {
+            ret[i] = random(rand, cols);
+        }
+        return ret;
+    }
+
+}
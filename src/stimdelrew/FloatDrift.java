@@ -0,0 +1,127 @@
+package stimdelrew;
+
+import stimulusdelayreward.*;
+import lnsc.page.*;
+import lnsc.DataSet;
+import lnsc.DataNames;
+import grsnc.binb.Rivest06;
+
+/** Main routine measuring how far a single precision monkey drifts from the
+ *  double precision one over a full control block (1200 steps). A random
+ *  monkey (as in PreTraining) is copied in single precision (same rounded
+ *  weights) and both are run in lockstep on the same trials (the double
+ *  precision one choosing the actions). It prints the maximum and final
+ *  absolute differences of the LSTM outputs, the critic prediction and the
+ *  dopamine signal.
+ *
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+
+public class FloatDrift {
+
+    /** Optional argument: number of blocks (default 1). */
+    public static void main(String[] args) {
+
+        int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+
+        //Create the agents
+        ActorCritic_PDAETLSTM_Monkey2 ref =
+            new ActorCritic_PDAETLSTM_Monkey2(
+                              2, 2,
+                              true, true,
+                              false, false,
+                              .5, .1,
+                              //TD: Rivest06, {no bias, cue only}->AC,
+                              4, new FlexibleSignalStateRepresentation(false, true, false),
+                              .8, true);//LSTM: e-trace, reset
+        ActorCritic_PDAETLSTM_Monkey2 test =
+            new ActorCritic_PDAETLSTM_Monkey2(ref, true);
+        Twin twin = new Twin(ref, test);
+
+        //Run 4 minutes blocks
+        for (int i=0; i<blocks; i++)
+        {
+            SingleAgentEnvironment env = new SingleAgentEnvironment(0,0,10*60*2);
+            env.showDots = false;
+            env.go(twin, new ExperimentControlState(1000));
+            System.out.println("Block " + (i+1) + " (" + twin.m_StepCount + " steps)");
+            System.out.println("\tLSTM output drift: max " + twin.m_MaxDrift[0] + ", final " + twin.m_Drift[0]);
+            System.out.println("\tPrediction drift:  max " + twin.m_MaxDrift[1] + ", final " + twin.m_Drift[1]);
+            System.out.println("\tDopamine drift:    max " + twin.m_MaxDrift[2] + ", final " + twin.m_Drift[2]);
+        }
+
+    }
+
+    /** Agent running two monkeys in lockstep, returning the actions of the
+     *  first one and measuring the drift of the second one. */
+    static class Twin extends AbstractObservableAgent {
+
+        /** Serial version UID. */
+        static final long serialVersionUID = 2314461819731247406L;
+
+        /** Reference and tested monkeys. */
+        protected AbstractObservableAgent m_Ref, m_Test;
+
+        /** Latest and maximum absolute differences of LSTM output, prediction, and dopamine. */
+        protected double[] m_Drift = new double[3], m_MaxDrift = new double[3];
+
+        /** Number of steps compared. */
+        protected int m_StepCount;
+
+        public Twin(AbstractObservableAgent ref, AbstractObservableAgent test) {
+            m_Ref = ref;
+            m_Test = test;
+        }
+
+        public void newEpisode(State newState) {
+            m_Ref.newEpisode(newState);
+            m_Test.newEpisode(newState);
+        }
+
+        public Action requestAction(State currentState) {
+            Action a = m_Ref.requestAction(currentState);
+            m_Test.requestAction(currentState);
+            compare();
+            return a;
+        }
+
+        public void returnReward(State resultState, double reward) {
+            m_Ref.returnReward(resultState, reward);
+            m_Test.returnReward(resultState, reward);
+        }
+
+        public void endEpisode(State finalState) {
+            m_Ref.endEpisode(finalState);
+            m_Test.endEpisode(finalState);
+            compare();
+        }
+
+        /** Updates the drift measures from the monkeys latest states. */
+        protected void compare() {
+            DataSet r = m_Ref.toDataSet();
+            DataSet t = m_Test.toDataSet();
+            double[] rOut = (double[]) ((DataSet) r.getData("LSTM")).getData(DataNames.OUTPUT_PATTERNS);
+            double[] tOut = (double[]) ((DataSet) t.getData("LSTM")).getData(DataNames.OUTPUT_PATTERNS);
+            m_Drift[0] = 0;
+            for (int i=0; i<rOut.length; i++)
+            {
+                m_Drift[0] = Math.max(m_Drift[0], Math.abs(rOut[i] - tOut[i]));
+            }
+            m_Drift[1] = Math.abs(get(r, Rivest06.PREDICTION) - get(t, Rivest06.PREDICTION));
+            m_Drift[2] = Math.abs(get(r, Rivest06.DOPAMINE) - get(t, Rivest06.DOPAMINE));
+            for (int i=0; i<3; i++)
+            {
+                m_MaxDrift[i] = Math.max(m_MaxDrift[i], m_Drift[i]);
+            }
+            m_StepCount++;
+        }
+
+        protected static double get(DataSet d, String name) {
+            return ((Double) d.getData(name)).doubleValue();
+        }
+
+    }
+
+}
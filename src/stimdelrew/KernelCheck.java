@@ -0,0 +1,139 @@
+package stimdelrew;
+
+import lnsc.LinearAlgebra;
+import java.util.Random;
+
+/** Main routine checking the lanes kernels of {@link LinearAlgebra} against
+ *  the scalar ones. For each vector size, random operands are processed in
+ *  both modes and the maximum absolute difference is printed for the dot
+ *  product, the matrix times vector product, the outer product, the matrix
+ *  addition and the scaled vector accumulation. For the dot products, the
+ *  difference is also reported relative to the sum of the absolute terms
+ *  (the rounding bound is a small multiple of size*1e-16). Element wise
+ *  operators must not differ at all. The time per call in each mode is also
+ *  printed.
+ *
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+
+public class KernelCheck {
+
+    /** Optional argument: number of repetitions for timing (default 20000). */
+    public static void main(String[] args) {
+
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int[] sizes = {2, 5, 8, 13, 32, 100, 256};
+        Random rand = new Random(1);
+        boolean exact = true;
+        double maxRel = 0;
+
+        for (int s=0; s<sizes.length; s++)
+        {
+            int n = sizes[s];
+            double[] v1 = random(rand, n);
+            double[] v2 = random(rand, n);
+            double[][] m1 = new double[n][];
+            double[][] m2 = new double[n][];
+            for (int i=0; i<n; i++)
+            {
+                m1[i] = random(rand, n);
+                m2[i] = random(rand, n);
+            }
+
+            //Scalar results
+            LinearAlgebra.setKernels(LinearAlgebra.KERNELS_SCALAR);
+            double dot0 = LinearAlgebra.weightedSum(v1, v2);
+            double[] mv0 = LinearAlgebra.multMatrixVector(m1, v1);
+            double[][] op0 = LinearAlgebra.multVectorVector(v1, v2);
+            double[][] add0 = LinearAlgebra.addMatrices(m1, m2);
+            double[] axpy0 = LinearAlgebra.addeScaledVector(LinearAlgebra.copyVector(v1), .3, v2);
+            long t0 = time(reps, m1, v1);
+
+            //Lanes results
+            LinearAlgebra.setKernels(LinearAlgebra.KERNELS_LANES);
+            double dot1 = LinearAlgebra.weightedSum(v1, v2);
+            double[] mv1 = LinearAlgebra.multMatrixVector(m1, v1);
+            double[][] op1 = LinearAlgebra.multVectorVector(v1, v2);
+            double[][] add1 = LinearAlgebra.addMatrices(m1, m2);
+            double[] axpy1 = LinearAlgebra.addeScaledVector(LinearAlgebra.copyVector(v1), .3, v2);
+            long t1 = time(reps, m1, v1);
+            LinearAlgebra.setKernels(LinearAlgebra.KERNELS_SCALAR);
+
+            //Differences
+            double dotDiff = Math.abs(dot0 - dot1);
+            double dotRel = dotDiff / absSum(v1, v2);
+            double mvDiff = 0, mvRel = 0;
+            for (int i=0; i<n; i++)
+            {
+                double d = Math.abs(mv0[i] - mv1[i]);
+                mvDiff = Math.max(mvDiff, d);
+                mvRel = Math.max(mvRel, d / absSum(m1[i], v1));
+            }
+            double opDiff = maxDiff(op0, op1);
+            double addDiff = maxDiff(add0, add1);
+            double axpyDiff = maxDiff(new double[][] {axpy0}, new double[][] {axpy1});
+            exact &= (opDiff == 0) && (addDiff == 0) && (axpyDiff == 0);
+            maxRel = Math.max(maxRel, Math.max(dotRel, mvRel));
+
+            System.out.println("Size " + n);
+            System.out.println("\tdot:      " + dotDiff + " (relative " + dotRel + ")");
+            System.out.println("\tmat*vec:  " + mvDiff + " (relative " + mvRel + ")");
+            System.out.println("\touter:    " + opDiff);
+            System.out.println("\tadd:      " + addDiff);
+            System.out.println("\taxpy:     " + axpyDiff);
+            System.out.println("\tmat*vec time (ns/call): scalar " + (t0*1000000/reps) + ", lanes " + (t1*1000000/reps));
+        }
+
+        System.out.println("Element wise kernels exact: " + exact);
+        System.out.println("Maximum relative dot product difference: " + maxRel);
+
+    }
+
+    /** Times reps matrix times vector products (ms). */
+    protected static long time(int reps, double[][] m, double[] v) {
+        double[] target = new double[m.length];
+        for (int k=0; k<reps; k++)
+        {
+            LinearAlgebra.multMatrixVector(m, v, target, 0); //warm up
+        }
+        long start = System.currentTimeMillis();
+        for (int k=0; k<reps; k++)
+        {
+            LinearAlgebra.multMatrixVector(m, v, target, 0);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    protected static double[] random(Random rand, int n) {
+        double[] ret = new double[n];
+        for (int i=0; i<n; i++)
+        {
+            ret[i] = rand.nextGaussian();
+        }
+        return ret;
+    }
+
+    protected static double absSum(double[] v1, double[] v2) {
+        double ret = 0;
+        for (int i=0; i<v1.length; i++)
+        {
+            ret += Math.abs(v1[i] * v2[i]);
+        }
+        return ret;
+    }
+
+    protected static double maxDiff(double[][] m1, double[][] m2) {
+        double ret = 0;
+        for (int i=0; i<m1.length; i++)
+        {
+            for (int j=0; j<m1[i].length; j++)
+            {
+                ret = Math.max(ret, Math.abs(m1[i][j] - m2[i][j]));
+            }
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,107 @@
+package stimdelrew;
+
+import stimulusdelayreward.*;
+import lnsc.page.*;
+import lnsc.LogisticUnit;
+
+/** Main routine validating the table evaluation mode of {@link LogisticUnit}.
+ *  It first prints the maximum absolute error of the output and of the
+ *  derivative of the standard logistic over [-40, 40] (to compare with the
+ *  documented bound) and the time per value of both modes. It then runs a
+ *  random monkey (as in PreTraining) and an identical copy in lockstep over
+ *  a full control block (1200 steps), the copy evaluating its logistics by
+ *  table and the original one exactly (the original choosing the actions),
+ *  and prints the maximum and final absolute differences of the LSTM
+ *  outputs, the critic prediction and the dopamine signal.
+ *
+ * @author Francois Rivest
+ * @version 1.0
+ */
+
+
+public class LogisticCheck {
+
+    /** Optional argument: number of blocks (default 1). */
+    public static void main(String[] args) {
+
+        int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+
+        //Exact and table values
+        LogisticUnit exact = new LogisticUnit();
+        exact.setEvaluation(LogisticUnit.EVALUATION_EXACT);
+        LogisticUnit table = new LogisticUnit();
+        table.setEvaluation(LogisticUnit.EVALUATION_TABLE);
+        int n = 80001;
+        double[] x = new double[n];
+        for (int i=0; i<n; i++)
+        {
+            x[i] = -40.0 + i * 0.001;
+        }
+        double[] value = new double[n], derivative = new double[n];
+        double[] v = new double[n], d = new double[n];
+        exact.processValues(x, 0, value, 0, derivative, 0, n);
+        table.processValues(x, 0, v, 0, d, 0, n);
+        double vErr = 0, dErr = 0;
+        for (int i=0; i<n; i++)
+        {
+            vErr = Math.max(vErr, Math.abs(v[i] - value[i]));
+            dErr = Math.max(dErr, Math.abs(d[i] - derivative[i]));
+        }
+
+        //Timing (random values, as the network inputs)
+        double[] r = new double[4096];
+        java.util.Random rand = new java.util.Random(0);
+        for (int i=0; i<r.length; i++)
+        {
+            r[i] = 4.0 * rand.nextGaussian();
+        }
+        time(exact, r);
+        time(table, r);//warm up
+        System.out.println("exact: " + time(exact, r) + " ns/value");
+        System.out.println("table: " + time(table, r) + " ns/value");
+        System.out.println("\tmax output error:     " + vErr);
+        System.out.println("\tmax derivative error: " + dErr);
+
+        //Trajectories
+        ActorCritic_PDAETLSTM_Monkey2 ref =
+            new ActorCritic_PDAETLSTM_Monkey2(
+                              2, 2,
+                              true, true,
+                              false, false,
+                              .5, .1,
+                              //TD: Rivest06, {no bias, cue only}->AC,
+                              4, new FlexibleSignalStateRepresentation(false, true, false),
+                              .8, true);//LSTM: e-trace, reset
+        ref.setLogisticEvaluation(LogisticUnit.EVALUATION_EXACT);
+        ActorCritic_PDAETLSTM_Monkey2 test =
+            new ActorCritic_PDAETLSTM_Monkey2(ref, false);
+        test.setLogisticEvaluation(LogisticUnit.EVALUATION_TABLE);
+        FloatDrift.Twin twin = new FloatDrift.Twin(ref, test);
+        for (int b=0; b<blocks; b++)
+        {
+            SingleAgentEnvironment env = new SingleAgentEnvironment(0,0,10*60*2);
+            env.showDots = false;
+            env.go(twin, new ExperimentControlState(1000));
+            System.out.println("Block " + (b+1) + " (" + twin.m_StepCount + " steps)");
+            System.out.println("\tLSTM output deviation: max " + twin.m_MaxDrift[0] + ", final " + twin.m_Drift[0]);
+            System.out.println("\tPrediction deviation:  max " + twin.m_MaxDrift[1] + ", final " + twin.m_Drift[1]);
+            System.out.println("\tDopamine deviation:    max " + twin.m_MaxDrift[2] + ", final " + twin.m_Drift[2]);
+        }
+
+    }
+
+    /** Times the evaluation of the outputs and derivatives (ns per value,
+     *  measured in milliseconds over enough repetitions, see KernelCheck). */
+    protected static double time(LogisticUnit unit, double[] x) {
+        double[] v = new double[x.length];
+        double[] d = new double[x.length];
+        int reps = 20000;
+        long start = System.currentTimeMillis();
+        for (int k=0; k<reps; k++)
+        {
+            unit.processValues(x, 0, v, 0, d, 0, x.length);
+        }
+        return (System.currentTimeMillis() - start) * 1000000.0 / (reps * (double) x.length);
+    }
+
+}
@@ -17,7 +17,9 @@ import lnsc.*;
 public class PostTraining {
 
     /** The first argument must be the directory where to find .ds76 files of
-     * trained networks to be tested. */
+     * trained networks to be tested. The optional second argument "eval"
+     * tests them in evaluation mode (no learning during the test, see
+     * {@link ActorCritic_PDAETLSTM_Monkey2#setEvalMode}). */
     public static void main(String[] args) {
 
       //First args must be directory where to find .ds76 files of trained nets
@@ -30,6 +32,8 @@ public class PostTraining {
                 return;
             }
 
+            boolean evalMode = (args.length > 1) && args[1].equals("eval");
+
             for (int z = 0; z < files.length; z++) {
 
                 System.out.print(files[z].getName() + "\t");
@@ -40,6 +44,7 @@ public class PostTraining {
                     AbstractObservableAgent a = loadAgent(files[z]);
                     //Train agent
                     if (a != null) {
+                        a.setEvalMode(evalMode);
                         testAgent(a, a_name, 1);//single block
                         System.out.println("\n\n");
                     }
@@ -2,6 +2,7 @@ package stimulusdelayreward;
 
 import lnsc.page.*;
 import lnsc.lstm.*;
+import lnsc.pmvf.*;
 import lnsc.*;
 import grsnc.binb.*;
 
@@ -36,8 +37,8 @@ public class ActorCritic_PDAETLSTM_Monkey2 extends AbstractObservableAgent {
     /** AC model. */
     protected Agent m_ACMModel;
 
-    /** LSTM network model. */
-    protected ETLSTMNetwork1 m_LSTMNet;
+    /** LSTM network model (ETLSTMNetwork1 or its FloatLSTMNetwork version). */
+    protected FunctionalUnit2 m_LSTMNet;
 
     /** LSTM trainer. */
     protected OnlineSPMSELearning m_Trainer;
@@ -76,6 +77,9 @@ public class ActorCritic_PDAETLSTM_Monkey2 extends AbstractObservableAgent {
         LSTMDataNames.LSTM_OUTPUT_GATES
     };
 
+    /** Compiled record list. */
+    static private RecordMask m_RecordMask = new RecordMask(m_RecordList);
+
     /*********************************************************************/
     //Constructors
     public ActorCritic_PDAETLSTM_Monkey2(int blockCount, int cellPerBlock,
@@ -84,12 +88,26 @@ public class ActorCritic_PDAETLSTM_Monkey2 extends AbstractObservableAgent {
                                          double LSTMlr, double ACMlr,
                                          int ACmodel,  StateRepresentation ACStateRep,
                                          double lambda, boolean oppSignResetTraces) {
+        this(blockCount, cellPerBlock, inSquash, outSquash, gate2gate, in2out,
+             LSTMlr, ACMlr, ACmodel, ACStateRep, lambda, oppSignResetTraces, false);
+    }
+
+    /** Same as above, but runs the LSTM and the AC model in single precision
+     * (FloatLSTMNetwork and FloatRivest06) if singlePrecision is true. */
+    public ActorCritic_PDAETLSTM_Monkey2(int blockCount, int cellPerBlock,
+                                         boolean inSquash, boolean outSquash,
+                                         boolean gate2gate, boolean in2out,
+                                         double LSTMlr, double ACMlr,
+                                         int ACmodel,  StateRepresentation ACStateRep,
+                                         double lambda, boolean oppSignResetTraces,
+                                         boolean singlePrecision) {
 
         ETLSTMFactory1 fact = new ETLSTMFactory1(
             2, blockCount, cellPerBlock, inSquash, outSquash, 1, new LogisticUnit(),
             gate2gate, true, in2out, false, 1, //gate2gate, bias2output, input2output, gate2output, outputfactor
             lambda, oppSignResetTraces); //lambda, oppsignresettraces
-        m_LSTMNet = (ETLSTMNetwork1) fact.createUnit();
+        fact.setSinglePrecision(singlePrecision);
+        m_LSTMNet = (FunctionalUnit2) fact.createUnit();
         m_Trainer = new OnlineSPMSELearning(m_LSTMNet, LSTMlr, 1);
         //m_LSTMCount = blockCount*(3+2*cellPerBlock) + m_LSTMNet.getOutputCount(); /***10Mar06***/
         m_LSTMCount = blockCount*cellPerBlock + m_LSTMNet.getOutputCount(); /***10Mar06***/
@@ -110,12 +128,81 @@ public class ActorCritic_PDAETLSTM_Monkey2 extends AbstractObservableAgent {
        } else {
            throw new RuntimeException("Unknown model!");
        }
+       if (singlePrecision) {
+           m_ACMModel = new FloatRivest06((Rivest06) m_ACMModel);
+       }
+
+    }
+
+    /** Creates a copy of a monkey (same weights) running in single or double
+     * precision. Single precision monkeys can only be copied in single
+     * precision. The copy starts a new life (no observers,
+     * states as after construction) in the same evaluation mode.
+     * @param    source            Monkey to copy.
+     * @param    singlePrecision   true to run the copy in single precision.
+     */
+    public ActorCritic_PDAETLSTM_Monkey2(ActorCritic_PDAETLSTM_Monkey2 source,
+                                         boolean singlePrecision) {
+
+        //LSTM
+        if (singlePrecision) {
+            m_LSTMNet = new FloatLSTMNetwork((FastLSTMNetwork) source.m_LSTMNet);
+        } else if (!(source.m_LSTMNet instanceof FloatLSTMNetwork)) {
+            m_LSTMNet = (FunctionalUnit2) lnsc.Tools.copyUnit(source.m_LSTMNet);
+        } else {
+            throw new IllegalArgumentException("Single precision monkeys can't be copied in double precision!");
+        }
+        m_LSTMlr = source.m_LSTMlr;
+        m_Trainer = new OnlineSPMSELearning(m_LSTMNet, m_LSTMlr, 1);
+        m_LSTMCount = source.m_LSTMCount;
+
+        //Representations (stateless, shared)
+        m_LSTMStateRep = source.m_LSTMStateRep;
+        m_ACMStateRep = source.m_ACMStateRep;
+        m_ACMExtendedStateRep = new OfflineStateRepresentation(m_ACMStateRep.getOutputCount()+m_LSTMCount);
+
+        //AC model
+        Rivest06 acm = (Rivest06) source.m_ACMModel;
+        m_ACMModel = singlePrecision ?
+            new FloatRivest06(acm, m_ACMExtendedStateRep) :
+            new Rivest06(acm, m_ACMExtendedStateRep);
+
+        //Mode
+        setEvalMode(source.m_EvalMode);
+
+    }
+
+    /*********************************************************************/
+    //Properties
+
+    /** Sets how the logistic functions of the LSTM evaluate their output and
+     * derivative (see FastLSTMNetwork.setLogisticEvaluation).
+     */
+    public void setLogisticEvaluation(int newEvaluation) {
+        ((FastLSTMNetwork) m_LSTMNet).setLogisticEvaluation(newEvaluation);
+    }
 
+    /** Sets whether the AC model and the LSTM only process their non-zero
+     * inputs (see Rivest06.setSparseInputs and
+     * FastLSTMNetwork.setSparseInputs).
+     */
+    public void setSparseInputs(boolean newSparseInputs) {
+        ((Rivest06) m_ACMModel).setSparseInputs(newSparseInputs);
+        ((FastLSTMNetwork) m_LSTMNet).setSparseInputs(newSparseInputs);
     }
 
     /*********************************************************************/
     //Interface implementation
 
+    /** In evaluation mode, the AC model weights and traces are frozen and the
+     * LSTM is processed without derivatives to its weights and without
+     * learning (errors are still recorded).
+     */
+    public void setEvalMode(boolean newEvalMode) {
+        super.setEvalMode(newEvalMode);
+        m_ACMModel.setEvalMode(newEvalMode);
+    }
+
     public void newEpisode(State newState) {
         m_Trainer.reset();
         m_ACMModel.newEpisode(newState);
@@ -151,8 +238,10 @@ public class ActorCritic_PDAETLSTM_Monkey2 extends AbstractObservableAgent {
         double[] lstm_input = m_LSTMStateRep.getRepresentation(currentState);
         m_Trainer.setLearningRate(m_LSTMlr*(1+Math.abs(da)));        /***DA2***/
 
-        //--Process LSTM model
-        DataSet lstm_data = m_Trainer.train(lstm_input, m_RecordList);
+        //--Process LSTM model (without derivatives in evaluation mode)
+        DataSet lstm_data = m_EvalMode ?
+            m_Trainer.evaluate(lstm_input, m_RecordMask) :
+            m_Trainer.train(lstm_input, m_RecordMask);
 
         //--Collect data
         m_LatestState.setData("LSTM", lstm_data);
@@ -201,8 +290,10 @@ public class ActorCritic_PDAETLSTM_Monkey2 extends AbstractObservableAgent {
         double[] lstm_input = m_LSTMStateRep.getRepresentation(finalState);
         m_Trainer.setLearningRate(m_LSTMlr*(1+Math.abs(da)));        /***DA2***/
 
-        //--Process LSTM model
-        DataSet lstm_data = m_Trainer.train(lstm_input, m_RecordList);
+        //--Process LSTM model (without derivatives in evaluation mode)
+        DataSet lstm_data = m_EvalMode ?
+            m_Trainer.evaluate(lstm_input, m_RecordMask) :
+            m_Trainer.train(lstm_input, m_RecordMask);
 
         //--Collect data
         m_LatestState.setData("LSTM", lstm_data);
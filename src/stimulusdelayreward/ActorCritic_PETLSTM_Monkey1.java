@@ -70,6 +70,9 @@ public class ActorCritic_PETLSTM_Monkey1 extends AbstractObservableAgent {
         LSTMDataNames.LSTM_OUTPUT_GATES
     };
 
+    /** Compiled record list. */
+    static private RecordMask m_RecordMask = new RecordMask(m_RecordList);
+
     /*********************************************************************/
     //Constructors
     public ActorCritic_PETLSTM_Monkey1(int blockCount, int cellPerBlock,
@@ -144,7 +147,7 @@ public class ActorCritic_PETLSTM_Monkey1 extends AbstractObservableAgent {
         double[] lstm_input = m_LSTMStateRep.getRepresentation(currentState);
 
         //--Process LSTM model
-        DataSet lstm_data = m_Trainer.train(lstm_input, m_RecordList);
+        DataSet lstm_data = m_Trainer.train(lstm_input, m_RecordMask);
 
         //--Collect data
         m_LatestState.setData("LSTM", lstm_data);
@@ -193,7 +196,7 @@ public class ActorCritic_PETLSTM_Monkey1 extends AbstractObservableAgent {
         double[] lstm_input = m_LSTMStateRep.getRepresentation(finalState);
 
         //--Process LSTM model
-        DataSet lstm_data = m_Trainer.train(lstm_input, m_RecordList);
+        DataSet lstm_data = m_Trainer.train(lstm_input, m_RecordMask);
 
         //--Collect data
         m_LatestState.setData("LSTM", lstm_data);
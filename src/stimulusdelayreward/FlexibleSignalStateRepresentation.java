@@ -10,7 +10,8 @@ import lnsc.page.*;
  * @version 1.0
  */
 
-public class FlexibleSignalStateRepresentation extends AbstractStateRepresentation {
+public class FlexibleSignalStateRepresentation extends AbstractStateRepresentation
+    implements SparseStateRepresentation {
 
     /*********************************************************************/
     //Serial Version UID
@@ -72,4 +73,36 @@ public class FlexibleSignalStateRepresentation extends AbstractStateRepresentati
         return ret;
     }
 
+    public int getActiveIndexes(State s, int[] indexes) {
+
+        //Load state
+        MonkeyObservableState state = (MonkeyObservableState) s;
+        int i = 0;
+        int count = 0;
+
+        //Non-zero signals
+        if (m_Bias) {
+            indexes[count] = i;
+            count++;
+            i++;
+        }
+        if (m_CS) {
+            if (state.getStimulusSignal() != 0) {
+                indexes[count] = i;
+                count++;
+            }
+            i++;
+        }
+        if (m_US) {
+            if (state.getRewardSignal() != 0) {
+                indexes[count] = i;
+                count++;
+            }
+            i++;
+        }
+
+        //Return
+        return count;
+    }
+
 }
\ No newline at end of file
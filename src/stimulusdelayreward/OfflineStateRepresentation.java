@@ -12,7 +12,8 @@ import lnsc.page.*;
  * @version 1.0
  */
 
-public class OfflineStateRepresentation extends AbstractStateRepresentation {
+public class OfflineStateRepresentation extends AbstractStateRepresentation
+    implements SparseStateRepresentation {
 
     /*********************************************************************/
     //Serial Version UID
@@ -44,6 +45,10 @@ public class OfflineStateRepresentation extends AbstractStateRepresentation {
         return m_Rep;
     }
 
+    public int getActiveIndexes(State s, int[] indexes) {
+        return lnsc.LinearAlgebra.findNonZeros(m_Rep, indexes);
+    }
+
     /*********************************************************************/
     //Methods
 
@@ -103,6 +103,37 @@ public class Tools {
         return (DataSetCollection) in.readObject();
     }
 
+    /** Extracts the LSTM input sequence recorded by the monkey (as collected
+     *  by {@link DataSetCollector} in MonkeyHistory), e.g. to retrain a
+     *  network offline with {@link lnsc.lstm.BPTTSPMSELearning}.
+     *  @param      monkeyHistory   Monkey history (a DataSet per step, each
+     *                              holding an "LSTM" DataSet with its
+     *                              InputPatterns).
+     *  @param      start           First step.
+     *  @param      count           Number of steps.
+     *  @return     The input patterns, in order [count][inputs].
+     */
+    public static double[][] getLSTMInputPatterns(DataSetCollection monkeyHistory, int start, int count)
+    {
+        double[][] ret = new double[count][];
+        for (int i=0; i<count; i++)
+        {
+            DataSet lstm = (DataSet) monkeyHistory.getData("LSTM", start+i);
+            ret[i] = (double[]) lstm.getData(DataNames.INPUT_PATTERNS);
+        }
+        return ret;
+    }
+
+    /** Extracts the whole LSTM input sequence recorded by the monkey.
+     *  @param      monkeyHistory   Monkey history.
+     *  @return     The input patterns, in order [steps][inputs].
+     *  @see #getLSTMInputPatterns(DataSetCollection, int, int)
+     */
+    public static double[][] getLSTMInputPatterns(DataSetCollection monkeyHistory)
+    {
+        return getLSTMInputPatterns(monkeyHistory, 0, monkeyHistory.getDataSetCount());
+    }
+
     /** Takes a DataSetCollector and dump V values for trials
      *      1, 11, 21, 31, 41, 51, 101 & 151 & 201
      */
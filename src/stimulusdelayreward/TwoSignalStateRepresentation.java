@@ -4,13 +4,15 @@ import lnsc.page.*;
 
 
 /** This class allows automatic conversion of MonkeyObservableState into two
- *  signals vectors.
+ *  signals vectors. Signals are mostly zero, so that their non-zero values
+ *  are also reported (see {@link SparseStateRepresentation}).
  *
  * @author Francois Rivest
  * @version 1.0
  */
 
-public class TwoSignalStateRepresentation extends AbstractStateRepresentation {
+public class TwoSignalStateRepresentation extends AbstractStateRepresentation
+    implements SparseStateRepresentation {
 
     /*********************************************************************/
     //Serial Version UID
@@ -30,4 +32,18 @@ public class TwoSignalStateRepresentation extends AbstractStateRepresentation {
         return new double[] {state.getStimulusSignal(), state.getRewardSignal()};
     }
 
+    public int getActiveIndexes(State s, int[] indexes) {
+        MonkeyObservableState state = (MonkeyObservableState) s;
+        int count = 0;
+        if (state.getStimulusSignal() != 0) {
+            indexes[count] = 0;
+            count++;
+        }
+        if (state.getRewardSignal() != 0) {
+            indexes[count] = 1;
+            count++;
+        }
+        return count;
+    }
+
 }
\ No newline at end of file